@@ -0,0 +1,169 @@
+package com.example.demo;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.bson.BsonDocument;
+import org.bson.BsonTimestamp;
+import org.bson.Document;
+import org.bson.json.JsonParseException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.example.demo.service.EventProcessingMediator;
+import com.example.demo.service.ListenerControl;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+
+/**
+ * AdminHandler serves the runtime control API next to the Prometheus metrics, so one collection can be throttled
+ * or recovered without restarting the others:
+ * <ul>
+ *   <li>{@code GET /admin} and {@code GET /admin/{collection}}: workers, pause state and mode as JSON</li>
+ *   <li>{@code POST /admin/{collection}/resize?workers=N}: resizes the worker pool</li>
+ *   <li>{@code POST /admin/{collection}/pause} and {@code /resume}: holds or releases the listener, cursor open</li>
+ *   <li>{@code POST /admin/{collection}/seek?token={"_data": "..."}} or {@code ?timestamp=seconds[:increment]}:
+ *   reopens the stream after a stored resume token or at a cluster time</li>
+ * </ul>
+ * When a token is configured, every request must carry it as {@code Authorization: Bearer <token>}.
+ */
+public class AdminHandler implements HttpHandler {
+    private static final Logger LOGGER = LoggerFactory.getLogger(AdminHandler.class);
+
+    private final EventProcessingMediator mediator;
+    // Expected Authorization header, null when no token is required
+    private final byte[] authorization;
+
+    public AdminHandler(EventProcessingMediator mediator) {
+        this(mediator, null);
+    }
+
+    public AdminHandler(EventProcessingMediator mediator, String token) {
+        this.mediator = mediator;
+        this.authorization = token == null ? null : ("Bearer " + token).getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public void handle(HttpExchange exchange) throws IOException {
+        try {
+            if (!authorized(exchange)) {
+                send(exchange, 401, error("Missing or wrong admin token"));
+                return;
+            }
+            // /admin, /admin/{collection} or /admin/{collection}/{operation}
+            String[] path = exchange.getRequestURI().getPath().replaceAll("^/+|/+$", "").split("/");
+            String collectionName = path.length > 1 ? path[1] : null;
+            String operation = path.length > 2 ? path[2] : null;
+            if (path.length > 3 || (collectionName != null && !mediator.getCollectionNames().contains(collectionName))) {
+                send(exchange, 404, error("Unknown collection or operation: " + exchange.getRequestURI().getPath()));
+                return;
+            }
+
+            String method = exchange.getRequestMethod();
+            if (operation == null) {
+                if (!"GET".equals(method)) {
+                    send(exchange, 405, error("Use GET for status"));
+                } else if (collectionName == null) {
+                    List<Document> statuses = new ArrayList<>();
+                    for (String name : mediator.getCollectionNames()) {
+                        statuses.add(mediator.getControlStatus(name));
+                    }
+                    send(exchange, 200, new Document("collections", statuses));
+                } else {
+                    send(exchange, 200, mediator.getControlStatus(collectionName));
+                }
+                return;
+            }
+            if (!"POST".equals(method)) {
+                send(exchange, 405, error("Use POST for " + operation));
+                return;
+            }
+
+            Map<String, String> params = queryParams(exchange.getRequestURI().getRawQuery());
+            switch (operation) {
+                case "resize" -> mediator.resize(collectionName, Integer.parseInt(required(params, "workers")));
+                case "pause" -> mediator.pause(collectionName);
+                case "resume" -> mediator.resume(collectionName);
+                case "seek" -> mediator.seek(collectionName, position(params));
+                default -> {
+                    send(exchange, 404, error("Unknown operation: " + operation));
+                    return;
+                }
+            }
+            send(exchange, 200, mediator.getControlStatus(collectionName));
+        } catch (IllegalArgumentException | JsonParseException e) {
+            // NumberFormatException is an IllegalArgumentException
+            send(exchange, 400, error(e.getMessage()));
+        } catch (IllegalStateException e) {
+            send(exchange, 409, error(e.getMessage()));
+        } catch (RuntimeException e) {
+            LOGGER.error("❌ Admin request {} failed: {}", exchange.getRequestURI(), e.getMessage(), e);
+            send(exchange, 500, error(e.getMessage()));
+        }
+    }
+
+    private boolean authorized(HttpExchange exchange) {
+        if (authorization == null) {
+            return true;
+        }
+        String header = exchange.getRequestHeaders().getFirst("Authorization");
+        // Constant-time comparison, so the token cannot be guessed byte by byte
+        return header != null && MessageDigest.isEqual(authorization, header.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static ListenerControl.Position position(Map<String, String> params) {
+        String token = params.get("token");
+        if (token != null) {
+            return new ListenerControl.Position(BsonDocument.parse(token), null);
+        }
+        String timestamp = required(params, "timestamp");
+        int separator = timestamp.indexOf(':');
+        return new ListenerControl.Position(null, separator < 0
+                ? new BsonTimestamp(Integer.parseInt(timestamp), 0)
+                : new BsonTimestamp(Integer.parseInt(timestamp.substring(0, separator)),
+                        Integer.parseInt(timestamp.substring(separator + 1))));
+    }
+
+    private static String required(Map<String, String> params, String name) {
+        String value = params.get(name);
+        if (value == null || value.isEmpty()) {
+            throw new IllegalArgumentException("Missing parameter: " + name);
+        }
+        return value;
+    }
+
+    private static Map<String, String> queryParams(String query) {
+        Map<String, String> params = new HashMap<>();
+        if (query == null) {
+            return params;
+        }
+        for (String pair : query.split("&")) {
+            int separator = pair.indexOf('=');
+            if (separator > 0) {
+                params.put(URLDecoder.decode(pair.substring(0, separator), StandardCharsets.UTF_8),
+                        URLDecoder.decode(pair.substring(separator + 1), StandardCharsets.UTF_8));
+            }
+        }
+        return params;
+    }
+
+    private static Document error(String message) {
+        return new Document("error", message);
+    }
+
+    private static void send(HttpExchange exchange, int status, Document body) throws IOException {
+        byte[] bytes = body.toJson().getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+}
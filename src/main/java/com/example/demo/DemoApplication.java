@@ -1,5 +1,10 @@
 package com.example.demo;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -9,6 +14,9 @@ import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.context.ApplicationContext;
 
 import com.example.demo.service.EventProcessingMediator;
+import com.example.demo.service.LagMonitor;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
 
 import io.prometheus.client.exporter.HTTPServer;
 import jakarta.annotation.PostConstruct;
@@ -21,27 +29,79 @@ public class DemoApplication {
     @Value("${prometheus.server.port:8081}")
     private int metricsPort;
 
+    @Value("${spring.changestream.admin.enabled:false}")
+    private boolean adminEnabled;
+
+    @Value("${spring.changestream.admin.bind-address:127.0.0.1}")
+    private String adminBindAddress;
+
+    @Value("${spring.changestream.admin.port:8082}")
+    private int adminPort;
+
+    @Value("${spring.changestream.admin.token:}")
+    private String adminToken;
+
     @Autowired
     private EventProcessingMediator mediator;
 
+    @Autowired(required = false)
+    private LagMonitor lagMonitor;
+
     private HTTPServer httpServer;
+    private HttpServer adminServer;
 
   
     @PostConstruct
     public void init() {
         startHttpServer();
+        startAdminServer();
         startChangeStreamListener();
     }
 
     protected void startHttpServer() {
         try {
-            httpServer = new HTTPServer(metricsPort);
+            HttpServer server = HttpServer.create(new InetSocketAddress(metricsPort), 3);
+            if (lagMonitor != null && lagMonitor.isEnabled()) {
+                server.createContext("/lag", this::serveLag);
+            }
+            httpServer = new HTTPServer.Builder().withHttpServer(server).build();
             LOGGER.info("Prometheus metrics server started on port {}", metricsPort);
         } catch (Exception e) {
             LOGGER.error("Error starting Prometheus HTTP server: {}", e.getMessage());
         }
     }
 
+    /**
+     * Starts the admin API on its own listener, bound to loopback unless configured otherwise, so exposing the
+     * metrics port does not expose the control operations.
+     */
+    protected void startAdminServer() {
+        if (!adminEnabled) {
+            return;
+        }
+        try {
+            adminServer = HttpServer.create(new InetSocketAddress(adminBindAddress, adminPort), 3);
+            adminServer.createContext("/admin", new AdminHandler(mediator, adminToken.isEmpty() ? null : adminToken));
+            adminServer.start();
+            LOGGER.warn("⚠️ Admin API enabled on {}:{}{}", adminBindAddress, adminPort,
+                    adminToken.isEmpty() ? " without a token" : "");
+        } catch (Exception e) {
+            LOGGER.error("❌ Error starting admin API server: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Serves the lag monitor's last poll as JSON.
+     */
+    private void serveLag(HttpExchange exchange) throws IOException {
+        byte[] body = lagMonitor.toJson().getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(200, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
     private void startChangeStreamListener() {
         Thread changeStreamThread = new Thread(() -> {
             mediator.startChangeStreamListeners();
@@ -58,6 +118,9 @@ public class DemoApplication {
                 httpServer.stop();
                 LOGGER.info("Prometheus metrics server stopped");
             }
+            if (adminServer != null) {
+                adminServer.stop(0);
+            }
             mediator.shutdown();
         } catch (Exception e) {
             LOGGER.error("Error closing MongoDB connection: {}", e);
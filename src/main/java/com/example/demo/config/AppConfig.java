@@ -1,11 +1,13 @@
 package com.example.demo.config;
 
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.retry.annotation.EnableRetry;
 
 @Configuration
 @EnableRetry
+@EnableConfigurationProperties({ChangeStreamProperties.class, ThreadPoolProperties.class})
 public class AppConfig {
 
         @Bean
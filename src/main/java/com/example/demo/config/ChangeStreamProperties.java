@@ -0,0 +1,88 @@
+package com.example.demo.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+/**
+ * The {@code spring.changestream.*} settings of the listener and dispatch pipeline, one nested record per feature.
+ * Each key and its default is described in application.properties.
+ */
+@ConfigurationProperties("spring.changestream")
+public record ChangeStreamProperties(
+        @DefaultValue("change-stream") String source,
+        @DefaultValue("1") int logSampleRate,
+        @DefaultValue RawEvents rawEvents,
+        @DefaultValue CatchUp catchup,
+        @DefaultValue ExactlyOnce exactlyOnce,
+        @DefaultValue AdaptiveConcurrency adaptiveConcurrency,
+        @DefaultValue PriorityLanes priorityLanes,
+        @DefaultValue Synthetic synthetic,
+        @DefaultValue Journal journal) {
+
+    public record RawEvents(boolean enabled) {
+    }
+
+    public record CatchUp(
+            boolean enabled,
+            @DefaultValue("60000") long enterLagMs,
+            @DefaultValue("5000") long exitLagMs,
+            @DefaultValue("2000") int cursorBatchSize,
+            @DefaultValue("200") int microBatchSize,
+            @DefaultValue("10") int checkpointIntervalBatches) {
+    }
+
+    public record ExactlyOnce(
+            boolean enabled,
+            @DefaultValue("100") int batchSize,
+            @DefaultValue("2") int commitRetries,
+            @DefaultValue("100") long commitRetryBackoffMs) {
+    }
+
+    public record AdaptiveConcurrency(
+            boolean enabled,
+            @DefaultValue("1") int min,
+            @DefaultValue("32") int max,
+            @DefaultValue("50") int window,
+            @DefaultValue("2.0") double latencyTolerance,
+            @DefaultValue("0.9") double backoff,
+            @DefaultValue("1000") long lagTargetMs) {
+    }
+
+    public record PriorityLanes(
+            boolean enabled,
+            @DefaultValue("5000") long freshLagMs,
+            @DefaultValue("0.8") double freshShare) {
+    }
+
+    /**
+     * Synthetic runs write checkpoints and business rows, so {@code database} must name the scratch database they
+     * run against.
+     */
+    public record Synthetic(
+            @DefaultValue("") String database,
+            @DefaultValue("10000") double rate,
+            @DefaultValue("100000") int keys,
+            @DefaultValue("1.0") double skew,
+            @DefaultValue("1") int burstSize,
+            @DefaultValue("0") long maxEvents,
+            @DefaultValue("42") long seed) {
+    }
+
+    /**
+     * Change event journal: off, record (tee listener events to disk) or replay (feed the journal instead).
+     */
+    public record Journal(
+            @DefaultValue("off") String mode,
+            @DefaultValue("journal") String path,
+            @DefaultValue("67108864") long segmentBytes,
+            @DefaultValue("1") double replaySpeed) {
+
+        public boolean isRecording() {
+            return "record".equals(mode);
+        }
+
+        public boolean isReplaying() {
+            return "replay".equals(mode);
+        }
+    }
+}
@@ -1,18 +1,24 @@
 package com.example.demo.config;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.TimeUnit;
 
-import javax.annotation.PostConstruct;
-
 import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.core.env.Environment;
 
-import com.example.demo.metrics.PrometheusMetricsConfig;
+import com.example.demo.metrics.ConnectionPoolMetrics;
 import com.mongodb.ConnectionString;
 import com.mongodb.MongoClientSettings;
 import com.mongodb.ReadPreference;
@@ -24,6 +30,7 @@ import com.mongodb.client.MongoDatabase;
 
 @Configuration
 public class MongoConfig {
+    private static final Logger LOGGER = LoggerFactory.getLogger(MongoConfig.class);
 
     @Value("${spring.mongodb.uri}")
     private String mongoUri;
@@ -37,17 +44,98 @@ public class MongoConfig {
     @Value("${spring.mongodb.resumetoken.collection}")
     private String resumeTokenCollectionName;
 
-    // Create a SINGLE MongoClient bean (Reuse this everywhere)
+    // Listener sources on other databases or clusters, each configured under spring.mongodb.source.<name>
+    @Value("${spring.mongodb.sources:}")
+    private String[] sourceNames;
+
+    // Separate clients per workload; when disabled every workload shares mongoClient
+    @Value("${spring.mongodb.pools.enabled:false}")
+    private boolean poolsEnabled;
+
+    @Value("${spring.mongodb.pools.lookup.min-size:8}")
+    private int lookupMinSize;
+
+    @Value("${spring.mongodb.pools.lookup.max-size:64}")
+    private int lookupMaxSize;
+
+    @Value("${spring.mongodb.pools.lookup.max-staleness-seconds:90}")
+    private long lookupMaxStalenessSeconds;
+
+    @Value("${spring.mongodb.pools.write.min-size:8}")
+    private int writeMinSize;
+
+    @Value("${spring.mongodb.pools.write.max-size:64}")
+    private int writeMaxSize;
+
+    @Value("${spring.mongodb.pools.checkpoint.min-size:2}")
+    private int checkpointMinSize;
+
+    @Value("${spring.mongodb.pools.checkpoint.max-size:8}")
+    private int checkpointMaxSize;
+
+    @Value("${spring.changestream.exactly-once.enabled:false}")
+    private boolean exactlyOnceEnabled;
+
+    // Client for change stream cursors, and for everything else unless workload pools are enabled
     @Bean
+    @Primary
     public MongoClient mongoClient() {
+        return createClient(mongoUri, poolsEnabled ? "stream" : "shared", 64, 128, ReadPreference.nearest());
+    }
+
+    /**
+     * Enrichment lookups: secondaries preferred, within the configured staleness.
+     */
+    @Bean
+    public MongoClient lookupMongoClient(MongoClient mongoClient) {
+        if (!poolsEnabled) {
+            return mongoClient;
+        }
+        return createClient(mongoUri, "lookup", lookupMinSize, lookupMaxSize,
+                ReadPreference.secondaryPreferred(lookupMaxStalenessSeconds, TimeUnit.SECONDS));
+    }
+
+    /**
+     * Business writes, and the reads that must see them, on the primary.
+     */
+    @Bean
+    public MongoClient writeMongoClient(MongoClient mongoClient) {
+        if (!poolsEnabled) {
+            return mongoClient;
+        }
+        return createClient(mongoUri, "write", writeMinSize, writeMaxSize, ReadPreference.primary());
+    }
+
+    /**
+     * Resume token writes, on a small pool of their own so they never queue behind lookups or business writes.
+     * In exactly-once mode checkpoints commit in the same transaction as the business writes, which needs one
+     * client, so they share the write pool.
+     */
+    @Bean
+    public MongoClient checkpointMongoClient(MongoClient mongoClient,
+                                             @Qualifier("writeMongoClient") MongoClient writeMongoClient) {
+        if (!poolsEnabled) {
+            return mongoClient;
+        }
+        if (exactlyOnceEnabled) {
+            LOGGER.info("Checkpoints share the write pool: exactly-once commits them with the business writes");
+            return writeMongoClient;
+        }
+        return createClient(mongoUri, "checkpoint", checkpointMinSize, checkpointMaxSize, ReadPreference.primary());
+    }
+
+    private MongoClient createClient(String uri, String pool, int minSize, int maxSize, ReadPreference readPreference) {
+        LOGGER.info("✅ Creating MongoClient for {} with a pool of {}-{} connections, read preference {}",
+                pool, minSize, maxSize, readPreference);
         return MongoClients.create(MongoClientSettings.builder()
-                .applyConnectionString(new ConnectionString(mongoUri))
-                .applyToConnectionPoolSettings(builder -> builder.maxSize(128).minSize(64))
+                .applyConnectionString(new ConnectionString(uri))
+                .applyToConnectionPoolSettings(builder -> builder.maxSize(maxSize).minSize(minSize)
+                        .addConnectionPoolListener(new ConnectionPoolMetrics(pool)))
                 .applyToSocketSettings(builder -> builder.connectTimeout(30, TimeUnit.SECONDS))
                 .retryWrites(true)
-                .readPreference(ReadPreference.nearest())
+                .readPreference(readPreference)
                 .writeConcern(WriteConcern.MAJORITY)
-                .applicationName("changeStreamDemo")
+                .applicationName(poolsEnabled ? "changeStreamDemo-" + pool : "changeStreamDemo")
                 .build());
     }
 
@@ -56,8 +144,42 @@ public class MongoConfig {
         return mongoClient.getDatabase(databaseName);
     }
 
+    /**
+     * Resolves every name in `spring.mongodb.sources` to a (uri, database, collection) tuple read from
+     * `spring.mongodb.source.<name>.uri`, `.database` and `.collection`, defaulting to the main URI, the main
+     * database and the name itself. Sources on another URI get a change stream client per URI, sized like the
+     * main stream pool; business writes and checkpoints stay on the main cluster.
+     */
     @Bean
-    public Map<String, MongoCollection<Document>> collectionMap(MongoDatabase mongoDatabase) {
+    public MongoSources mongoSources(MongoClient mongoClient, Environment environment) {
+        Map<String, MongoClient> clientsByUri = new HashMap<>();
+        clientsByUri.put(mongoUri, mongoClient);
+        List<MongoClient> ownedClients = new ArrayList<>();
+        Map<MongoSources.Source, MongoClient> sources = new LinkedHashMap<>();
+        for (String name : sourceNames == null ? new String[0] : sourceNames) {
+            if (name.isBlank()) {
+                continue;
+            }
+            String prefix = "spring.mongodb.source." + name + ".";
+            MongoSources.Source source = new MongoSources.Source(name,
+                    environment.getProperty(prefix + "uri", mongoUri),
+                    environment.getProperty(prefix + "database", databaseName),
+                    environment.getProperty(prefix + "collection", name));
+            MongoClient client = clientsByUri.computeIfAbsent(source.uri(), uri -> {
+                MongoClient created = createClient(uri, "stream-" + name, 64, 128, ReadPreference.nearest());
+                ownedClients.add(created);
+                return created;
+            });
+            sources.put(source, client);
+            LOGGER.info("✅ Source {} reads {}.{} on {}", name, source.database(), source.collection(),
+                    client == mongoClient ? "the main cluster" : "its own cluster");
+        }
+        return new MongoSources(sources, ownedClients);
+    }
+
+    @Bean
+    public Map<String, MongoCollection<Document>> collectionMap(MongoDatabase mongoDatabase,
+            @Qualifier("checkpointMongoClient") MongoClient checkpointMongoClient, MongoSources mongoSources) {
         Map<String, MongoCollection<Document>> collectionMap = new HashMap<>();
 
         if (collections == null || collections.length == 0) {
@@ -72,21 +194,19 @@ public class MongoConfig {
             System.out.println("✅ Registered collection: in map " + collectionName);
         }
 
+        for (MongoSources.Source source : mongoSources.getSources()) {
+            if (collectionMap.containsKey(source.name())) {
+                LOGGER.warn("⚠️ Source {} replaces the collection of the same name in {}", source.name(), databaseName);
+            }
+            collectionMap.put(source.name(), mongoSources.getCollection(source.name()));
+        }
+
          // Explicitly add the resume token collection to avoid overwriting
-         collectionMap.put(resumeTokenCollectionName, mongoDatabase.getCollection(resumeTokenCollectionName));
+         collectionMap.put(resumeTokenCollectionName,
+                 checkpointMongoClient.getDatabase(databaseName).getCollection(resumeTokenCollectionName));
          System.out.println("✅ Registered collection: " + resumeTokenCollectionName);
  
         return collectionMap;
     }
 
-
-    /**  Register Prometheus Metrics for Each Collection from Config */
-    @PostConstruct
-    public void registerPrometheusMetrics() {
-        for (String collection : collections) {
-            PrometheusMetricsConfig.getInstance(collection);
-        }
-        // Also register for resume tokens collection
-        PrometheusMetricsConfig.getInstance(resumeTokenCollectionName);
-    }
 }
@@ -0,0 +1,59 @@
+package com.example.demo.config;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.bson.Document;
+
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+
+/**
+ * MongoSources holds the listener sources that live outside the default {@code spring.mongodb.uri} and
+ * {@code spring.mongodb.database}. Each source is a (uri, database, collection) tuple under a listener name; the
+ * task whose collection name is that name is bound to it. Sources on the same URI share one client.
+ */
+public class MongoSources implements AutoCloseable {
+
+    public record Source(String name, String uri, String database, String collection) {
+    }
+
+    private final Map<String, Source> sources = new LinkedHashMap<>();
+    private final Map<String, MongoDatabase> databases = new LinkedHashMap<>();
+    // Clients opened for other clusters; the default client is closed by Spring
+    private final List<MongoClient> ownedClients;
+
+    MongoSources(Map<Source, MongoClient> clients, List<MongoClient> ownedClients) {
+        this.ownedClients = ownedClients;
+        for (Map.Entry<Source, MongoClient> entry : clients.entrySet()) {
+            Source source = entry.getKey();
+            sources.put(source.name(), source);
+            databases.put(source.name(), entry.getValue().getDatabase(source.database()));
+        }
+    }
+
+    public Collection<Source> getSources() {
+        return sources.values();
+    }
+
+    public MongoCollection<Document> getCollection(String name) {
+        return databases.get(name).getCollection(sources.get(name).collection());
+    }
+
+    /**
+     * Database of the named source, or {@code fallback} for a listener on the default database.
+     */
+    public MongoDatabase getDatabase(String name, MongoDatabase fallback) {
+        return databases.getOrDefault(name, fallback);
+    }
+
+    @Override
+    public void close() {
+        for (MongoClient client : ownedClients) {
+            client.close();
+        }
+    }
+}
@@ -0,0 +1,24 @@
+package com.example.demo.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+/**
+ * The {@code spring.threadpool.*} settings: workers per collection, and the pool optionally shared by all
+ * collections that are not fenced.
+ */
+@ConfigurationProperties("spring.threadpool")
+public record ThreadPoolProperties(int nums, @DefaultValue Shared shared) {
+
+    public ThreadPoolProperties {
+        if (nums < 1) {
+            throw new IllegalArgumentException("spring.threadpool.nums must be at least 1, got " + nums);
+        }
+    }
+
+    /**
+     * A size of 0 gives the shared pool {@code nums} workers.
+     */
+    public record Shared(boolean enabled, int size) {
+    }
+}
@@ -0,0 +1,47 @@
+package com.example.demo.config;
+
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import com.example.demo.service.IncrementalViewEngine;
+import com.example.demo.service.IncrementalViewEngine.View;
+import com.example.demo.service.impl.AwardCalculationService;
+import com.mongodb.client.MongoClient;
+
+/**
+ * Declares the derived collections maintained by {@link IncrementalViewEngine}. A new derived collection is a new
+ * view here rather than a new BusinessTask per source.
+ */
+@Configuration
+public class ViewConfig {
+
+    public static final String MEMBER_AWARDS = "member_awards";
+
+    @Bean
+    public IncrementalViewEngine incrementalViewEngine(@Qualifier("lookupMongoClient") MongoClient lookupMongoClient,
+                                                       @Qualifier("writeMongoClient") MongoClient writeMongoClient,
+                                                       @Value("${spring.mongodb.database}") String databaseName,
+                                                       AwardCalculationService awardCalculationService) {
+        IncrementalViewEngine engine = new IncrementalViewEngine(lookupMongoClient, writeMongoClient, databaseName);
+        engine.register(memberAwardsView(awardCalculationService));
+        return engine;
+    }
+
+    /**
+     * member_awards has one row per tAwards document, keyed by TrainId, joined to the award inputs. Only the
+     * sources below have listeners: rows read Prize, PrizeLocnMapping and member_profile when they are recomputed,
+     * but changes to that reference data do not refresh member_awards until one of these sources changes the row.
+     */
+    public static View memberAwardsView(AwardCalculationService awardCalculationService) {
+        return new View(MEMBER_AWARDS, "tAwards", "TrainId", awardCalculationService::buildMemberAwardUpserts)
+                .onDiscard(awardCalculationService::discardMemberAwardUpserts)
+                .onApplied(awardCalculationService::confirmMemberAwardUpserts)
+                .rootSource("Awards")
+                .join("Points", "TrainId")
+                .join("Stub", "TrainId")
+                .join("Promo", "TrainId")
+                .join("tPromotionRedeemtion", "PlayerID", "PrizeID");
+    }
+}
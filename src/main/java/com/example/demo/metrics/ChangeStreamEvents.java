@@ -0,0 +1,163 @@
+package com.example.demo.metrics;
+
+import java.util.function.BooleanSupplier;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * JFR events of the change stream pipeline, so a recording lines up event handling with GC pauses, lock
+ * contention and I/O on the same threads. All are disabled by default and cost little more than a flag check
+ * until a recording enables them, e.g. {@code jcmd <pid> JFR.start settings=/path/to/changestream.jfc}; the
+ * {@code changestream.jfc} on the classpath enables them next to the GC, lock and socket events.
+ */
+public final class ChangeStreamEvents {
+
+    private ChangeStreamEvents() {
+    }
+
+    @Name("changestream.Dispatched")
+    @Label("Event Dispatched")
+    @Description("Events handed from a listener to its collection's workers; the duration is time spent waiting for a permit and queueing")
+    @Category({"Change Stream", "Dispatch"})
+    @StackTrace(false)
+    @Enabled(false)
+    public static final class Dispatched extends Event {
+        @Label("Collection")
+        public String collection;
+
+        @Label("Operation Type")
+        @Description("Operation of a single event, null for a batch")
+        public String operationType;
+
+        @Label("Events")
+        public int events;
+
+        @Label("Fresh")
+        @Description("Whether the work went to the fresh priority lane")
+        public boolean fresh;
+    }
+
+    @Name("changestream.Processed")
+    @Label("Event Processed")
+    @Description("Events processed by a worker; the duration is processing time")
+    @Category({"Change Stream", "Processing"})
+    @StackTrace(false)
+    @Enabled(false)
+    public static final class Processed extends Event {
+        @Label("Collection")
+        public String collection;
+
+        @Label("Operation Type")
+        @Description("Operation of a single event, null for a batch")
+        public String operationType;
+
+        @Label("Events")
+        public int events;
+
+        @Label("Queue Wait")
+        @Description("Time between dispatch and a worker starting on the events")
+        @Timespan(Timespan.NANOSECONDS)
+        public long queueWait;
+
+        @Label("Succeeded")
+        public boolean succeeded;
+    }
+
+    @Name("changestream.EnrichmentLookup")
+    @Label("Enrichment Lookup")
+    @Description("Reads of related documents that enrich a change event")
+    @Category({"Change Stream", "Enrichment"})
+    @StackTrace(false)
+    @Enabled(false)
+    public static final class EnrichmentLookup extends Event {
+        @Label("Collection")
+        @Description("Collection read, or award for every lookup of one award")
+        public String collection;
+
+        @Label("Keys")
+        public int keys;
+
+        @Label("Documents")
+        @Description("Documents read by a set lookup; not counted for a single award")
+        public int documents;
+    }
+
+    @Name("changestream.BulkWrite")
+    @Label("Bulk Write")
+    @Description("A batch of target writes, in a transaction with the checkpoint when fenced")
+    @Category({"Change Stream", "Write"})
+    @StackTrace(false)
+    @Enabled(false)
+    public static final class BulkWrite extends Event {
+        @Label("Collection")
+        public String collection;
+
+        @Label("Writes")
+        public int writes;
+
+        @Label("Fenced")
+        public boolean fenced;
+    }
+
+    @Name("changestream.CheckpointFlush")
+    @Label("Checkpoint Flush")
+    @Description("A resume token saved to the checkpoint store")
+    @Category({"Change Stream", "Checkpoint"})
+    @StackTrace(false)
+    @Enabled(false)
+    public static final class CheckpointFlush extends Event {
+        @Label("Collection")
+        public String collection;
+
+        @Label("Store")
+        public String store;
+
+        @Label("Mirrored")
+        @Description("Whether the token was also written to the MongoDB mirror")
+        public boolean mirrored;
+    }
+
+    /**
+     * True if dispatch or processing events are being recorded, for callers that would compute their fields.
+     */
+    public static boolean dispatchTraced() {
+        return new Dispatched().isEnabled() || new Processed().isEnabled();
+    }
+
+    /**
+     * Wraps a worker's unit of work in a {@link Processed} event when one is being recorded; otherwise returns
+     * the work as is, so nothing is added to the worker path.
+     */
+    public static BooleanSupplier processed(String collection, String operationType, int events, BooleanSupplier work) {
+        if (!new Processed().isEnabled()) {
+            return work;
+        }
+        long queuedAt = System.nanoTime();
+        return () -> {
+            Processed event = new Processed();
+            event.queueWait = System.nanoTime() - queuedAt;
+            event.begin();
+            boolean succeeded = false;
+            try {
+                succeeded = work.getAsBoolean();
+                return succeeded;
+            } finally {
+                event.end();
+                if (event.shouldCommit()) {
+                    event.collection = collection;
+                    event.operationType = operationType;
+                    event.events = events;
+                    event.succeeded = succeeded;
+                    event.commit();
+                }
+            }
+        };
+    }
+}
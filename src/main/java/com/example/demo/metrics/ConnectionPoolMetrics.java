@@ -0,0 +1,79 @@
+package com.example.demo.metrics;
+
+import java.util.concurrent.TimeUnit;
+
+import com.mongodb.event.ConnectionCheckOutFailedEvent;
+import com.mongodb.event.ConnectionCheckedInEvent;
+import com.mongodb.event.ConnectionCheckedOutEvent;
+import com.mongodb.event.ConnectionClosedEvent;
+import com.mongodb.event.ConnectionCreatedEvent;
+import com.mongodb.event.ConnectionPoolListener;
+
+import io.prometheus.client.Counter;
+import io.prometheus.client.Gauge;
+import io.prometheus.client.Histogram;
+
+/**
+ * ConnectionPoolMetrics reports a MongoClient's connection pool usage under the name of the workload it serves:
+ * how long operations wait to check out a connection, how many connections are checked out and open, and
+ * check-outs that failed, e.g. on a wait queue timeout.
+ */
+public class ConnectionPoolMetrics implements ConnectionPoolListener {
+    private static final Histogram CHECKOUT_WAIT = Histogram.build()
+            .name("mongo_pool_checkout_wait_seconds")
+            .help("Time spent waiting to check out a pooled connection")
+            .labelNames("pool")
+            .buckets(0.0001, 0.0005, 0.001, 0.005, 0.01, 0.05, 0.1, 0.5, 1, 5)
+            .register();
+
+    private static final Gauge CHECKED_OUT = Gauge.build()
+            .name("mongo_pool_checked_out")
+            .help("Connections currently checked out of the pool")
+            .labelNames("pool")
+            .register();
+
+    private static final Gauge OPEN = Gauge.build()
+            .name("mongo_pool_connections")
+            .help("Connections currently open in the pool")
+            .labelNames("pool")
+            .register();
+
+    private static final Counter CHECKOUT_FAILURES = Counter.build()
+            .name("mongo_pool_checkout_failures_total")
+            .help("Connection check-outs that failed, by reason")
+            .labelNames("pool", "reason")
+            .register();
+
+    private final String pool;
+
+    public ConnectionPoolMetrics(String pool) {
+        this.pool = pool;
+    }
+
+    @Override
+    public void connectionCheckedOut(ConnectionCheckedOutEvent event) {
+        CHECKOUT_WAIT.labels(pool).observe(event.getElapsedTime(TimeUnit.NANOSECONDS) / 1e9);
+        CHECKED_OUT.labels(pool).inc();
+    }
+
+    @Override
+    public void connectionCheckOutFailed(ConnectionCheckOutFailedEvent event) {
+        CHECKOUT_WAIT.labels(pool).observe(event.getElapsedTime(TimeUnit.NANOSECONDS) / 1e9);
+        CHECKOUT_FAILURES.labels(pool, event.getReason().name()).inc();
+    }
+
+    @Override
+    public void connectionCheckedIn(ConnectionCheckedInEvent event) {
+        CHECKED_OUT.labels(pool).dec();
+    }
+
+    @Override
+    public void connectionCreated(ConnectionCreatedEvent event) {
+        OPEN.labels(pool).inc();
+    }
+
+    @Override
+    public void connectionClosed(ConnectionClosedEvent event) {
+        OPEN.labels(pool).dec();
+    }
+}
@@ -1,59 +1,281 @@
 package com.example.demo.metrics;
 
+import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 
 import io.prometheus.client.Counter;
 import io.prometheus.client.Gauge;
 import io.prometheus.client.Histogram;
+import io.prometheus.client.SimpleCollector;
 
+/**
+ * PrometheusMetricsConfig holds the metrics of one collection. Every metric is a single family shared by all
+ * collections and labelled with {@code collection} and {@code task}, so a scrape walks one collector per metric
+ * however many collections run, and each instance keeps its label children so updates skip the label lookup.
+ *
+ * <p>Per-worker gauges are labelled with a {@link WorkerSlots worker slot} rather than the thread name, which keeps
+ * their cardinality at the number of live workers when pools replace threads.
+ */
 public class PrometheusMetricsConfig {
     private static final ConcurrentMap<String, PrometheusMetricsConfig> instances = new ConcurrentHashMap<>();
-    private final Counter totalEventsHandled;
-    private final Counter totalEventsHandledSuccessfully;
-    private final Gauge eventLagPerThread;
-    private final Gauge tpsPerThread;
-    private final Histogram eventProcessDuration;
-    private final Histogram p99ProcessingTime;
+
+    public static final String STAGE_PROCESS = "process";
+    public static final String STAGE_BATCH = "batch";
+
+    private static final Counter EVENTS_HANDLED = Counter.build()
+            .name("changestream_events_handled_total")
+            .help("Change events handled")
+            .labelNames("collection", "task")
+            .register();
+
+    private static final Counter EVENTS_SUCCEEDED = Counter.build()
+            .name("changestream_events_success_total")
+            .help("Change events handled successfully")
+            .labelNames("collection", "task")
+            .register();
+
+    private static final Gauge EVENT_LAG = Gauge.build()
+            .name("changestream_event_lag_millis")
+            .help("Lag of the last event a worker handled, from its cluster time")
+            .labelNames("collection", "task", "worker")
+            .register();
+
+    private static final Gauge WORKER_TPS = Gauge.build()
+            .name("changestream_worker_tps")
+            .help("Smoothed events per second handled by a worker")
+            .labelNames("collection", "task", "worker")
+            .register();
+
+    private static final Histogram STAGE_DURATION = Histogram.build()
+            .name("changestream_stage_duration_seconds")
+            .help("Duration of a processing stage: process for one event, batch for a whole batch")
+            .labelNames("collection", "task", "stage")
+            .buckets(0.0005, 0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10)
+            .register();
+
+    private static final Gauge CATCH_UP_MODE = Gauge.build()
+            .name("changestream_catchup_mode")
+            .help("1 while replaying a backlog in catch-up mode, 0 in live mode")
+            .labelNames("collection", "task")
+            .register();
+
+    private static final Counter MODE_TRANSITIONS = Counter.build()
+            .name("changestream_mode_transitions_total")
+            .help("Listener mode transitions")
+            .labelNames("collection", "task", "to")
+            .register();
+
+    private static final Counter CATCH_UP_EVENTS = Counter.build()
+            .name("changestream_catchup_events_total")
+            .help("Events processed in catch-up mode")
+            .labelNames("collection", "task")
+            .register();
+
+    private static final Gauge CATCH_UP_RATE = Gauge.build()
+            .name("changestream_catchup_rate")
+            .help("Events per second processed since entering catch-up mode")
+            .labelNames("collection", "task")
+            .register();
+
+    private static final Counter FENCED_COMMITS = Counter.build()
+            .name("changestream_fenced_commits_total")
+            .help("Transactions committing a batch together with its checkpoint")
+            .labelNames("collection", "task")
+            .register();
+
+    private static final Counter REPLAY_SKIPPED = Counter.build()
+            .name("changestream_replay_skipped_total")
+            .help("Replayed events skipped because they are at or behind the checkpoint fence")
+            .labelNames("collection", "task")
+            .register();
+
+    private static final Counter REPLAYED_EVENTS = Counter.build()
+            .name("changestream_replayed_events_total")
+            .help("Events received again after a restart because they were at or behind the newest checkpoint")
+            .labelNames("collection", "task")
+            .register();
+
+    private static final Gauge PROJECTION_ENTRIES = Gauge.build()
+            .name("changestream_projection_entries")
+            .help("Documents held in the in-memory projection of a collection")
+            .labelNames("collection", "task")
+            .register();
+
+    private static final Gauge PROJECTION_BYTES = Gauge.build()
+            .name("changestream_projection_bytes")
+            .help("Estimated heap used by the in-memory projection of a collection")
+            .labelNames("collection", "task")
+            .register();
+
+    private static final Counter UNCHANGED_WRITES_SKIPPED = Counter.build()
+            .name("changestream_unchanged_writes_skipped_total")
+            .help("Recalculated documents not written because they match the last written image")
+            .labelNames("collection", "task")
+            .register();
+
+    private static final Counter FIELDS_SKIPPED = Counter.build()
+            .name("changestream_unchanged_fields_skipped_total")
+            .help("Unchanged top-level fields left out of delta updates")
+            .labelNames("collection", "task")
+            .register();
+
+    private static final Gauge CONCURRENCY_LIMIT = Gauge.build()
+            .name("changestream_concurrency_limit")
+            .help("Current adaptive limit on concurrently processed tasks")
+            .labelNames("collection", "task")
+            .register();
+
+    private static final Gauge WORKERS = Gauge.build()
+            .name("changestream_workers")
+            .help("Worker threads of the collection's pool, as sized at startup or by the admin API")
+            .labelNames("collection", "task")
+            .register();
+
+    private static final Gauge LISTENER_PAUSED = Gauge.build()
+            .name("changestream_listener_paused")
+            .help("1 while the collection's listener is paused by the admin API")
+            .labelNames("collection", "task")
+            .register();
+
+    private static final Counter CONTROL_OPERATIONS = Counter.build()
+            .name("changestream_control_operations_total")
+            .help("Admin API operations applied to the collection")
+            .labelNames("collection", "task", "operation")
+            .register();
+
+    private static final Gauge LANE_DEPTH = Gauge.build()
+            .name("changestream_lane_depth")
+            .help("Tasks queued per priority lane")
+            .labelNames("collection", "task", "lane")
+            .register();
+
+    private static final Counter DEAD_LETTERED = Counter.build()
+            .name("changestream_dead_lettered_total")
+            .help("Events moved to the dead-letter collection")
+            .labelNames("collection", "task", "reason")
+            .register();
+
+    private static final Gauge DEAD_LETTER_SIZE = Gauge.build()
+            .name("changestream_dead_letter_size")
+            .help("Dead-lettered events, pending and parked")
+            .labelNames("collection", "task")
+            .register();
+
+    private static final Counter DEAD_LETTER_RETRIES = Counter.build()
+            .name("changestream_dead_letter_retries_total")
+            .help("Dead-letter retry attempts")
+            .labelNames("collection", "task", "outcome")
+            .register();
+
+    private static final Gauge OPEN_BREAKERS = Gauge.build()
+            .name("changestream_open_breakers")
+            .help("Document keys whose circuit breaker is open")
+            .labelNames("collection", "task")
+            .register();
+
+    private static final Gauge BACKLOG_SECONDS = Gauge.build()
+            .name("changestream_backlog_seconds")
+            .help("Cluster time between the latest write and the processed stream position")
+            .labelNames("collection", "task")
+            .register();
+
+    private static final Gauge QUEUE_DEPTH = Gauge.build()
+            .name("changestream_queue_depth")
+            .help("Events dispatched to workers and not yet completed")
+            .labelNames("collection", "task")
+            .register();
+
+    private static final Gauge CATCH_UP_ETA_SECONDS = Gauge.build()
+            .name("changestream_catch_up_eta_seconds")
+            .help("Estimated time to clear the backlog, -1 if not catching up")
+            .labelNames("collection", "task")
+            .register();
+
+    /** Label children of one worker slot. */
+    private record WorkerCells(Gauge.Child eventLag, Gauge.Child tps) {
+    }
+
+    private final String collectionName;
+    private final String taskName;
+    private final Counter.Child totalEventsHandled;
+    private final Counter.Child totalEventsHandledSuccessfully;
+    private final Gauge.Child catchUpMode;
+    private final Counter.Child catchUpEvents;
+    private final Gauge.Child catchUpRate;
+    private final Counter.Child fencedCommits;
+    private final Counter.Child replaySkipped;
+    private final Counter.Child replayedEvents;
+    private final Gauge.Child projectionEntries;
+    private final Gauge.Child projectionBytes;
+    private final Counter.Child unchangedWritesSkipped;
+    private final Counter.Child fieldsSkipped;
+    private final Gauge.Child concurrencyLimit;
+    private final Gauge.Child workers;
+    private final Gauge.Child listenerPaused;
+    private final Gauge.Child deadLetterSize;
+    private final Gauge.Child openBreakers;
+    private final Gauge.Child backlogSeconds;
+    private final Gauge.Child queueDepth;
+    private final Gauge.Child catchUpEtaSeconds;
+    // Children of families with a further label, by the label's value
+    private final Map<SimpleCollector<?>, Map<String, Object>> labelled = new ConcurrentHashMap<>();
+    private final WorkerSlots workerSlots = new WorkerSlots();
+    private final ThreadLocal<WorkerCells> workerCells = ThreadLocal.withInitial(this::claimWorkerCells);
 
     /**  Private constructor: Prevents Spring from injecting */
-    private PrometheusMetricsConfig(String collectionName) {
-        this.totalEventsHandled = Counter.build()
-                .name(collectionName + "_events_handled_total")
-                .help("Total events handled for " + collectionName)
-                .register();
-
-        this.totalEventsHandledSuccessfully = Counter.build()
-                .name(collectionName + "_events_success_total")
-                .help("Total events successfully handled for " + collectionName)
-                .register();
-
-        this.eventLagPerThread = Gauge.build()
-                .name(collectionName + "_event_lag_per_thread")
-                .help("Event lag per thread for " + collectionName)
-                .labelNames("thread")
-                .register();
-
-        this.tpsPerThread = Gauge.build()
-                .name(collectionName + "_tps_per_thread")
-                .help("TPS per thread for " + collectionName)
-                .labelNames("thread")
-                .register();
-
-        this.eventProcessDuration = Histogram.build()
-                .name(collectionName + "_event_process_duration_seconds")
-                .help("Event processing duration in seconds for " + collectionName)
-                .register();
-
-        this.p99ProcessingTime = Histogram.build()
-                .name(collectionName + "_p99_processing_time_millis")
-                .help("P99 processing time in milliseconds for " + collectionName)
-                .register();
+    private PrometheusMetricsConfig(String collectionName, String taskName) {
+        this.collectionName = collectionName;
+        this.taskName = taskName;
+        this.totalEventsHandled = EVENTS_HANDLED.labels(collectionName, taskName);
+        this.totalEventsHandledSuccessfully = EVENTS_SUCCEEDED.labels(collectionName, taskName);
+        this.catchUpMode = CATCH_UP_MODE.labels(collectionName, taskName);
+        this.catchUpEvents = CATCH_UP_EVENTS.labels(collectionName, taskName);
+        this.catchUpRate = CATCH_UP_RATE.labels(collectionName, taskName);
+        this.fencedCommits = FENCED_COMMITS.labels(collectionName, taskName);
+        this.replaySkipped = REPLAY_SKIPPED.labels(collectionName, taskName);
+        this.replayedEvents = REPLAYED_EVENTS.labels(collectionName, taskName);
+        this.projectionEntries = PROJECTION_ENTRIES.labels(collectionName, taskName);
+        this.projectionBytes = PROJECTION_BYTES.labels(collectionName, taskName);
+        this.unchangedWritesSkipped = UNCHANGED_WRITES_SKIPPED.labels(collectionName, taskName);
+        this.fieldsSkipped = FIELDS_SKIPPED.labels(collectionName, taskName);
+        this.concurrencyLimit = CONCURRENCY_LIMIT.labels(collectionName, taskName);
+        this.workers = WORKERS.labels(collectionName, taskName);
+        this.listenerPaused = LISTENER_PAUSED.labels(collectionName, taskName);
+        this.deadLetterSize = DEAD_LETTER_SIZE.labels(collectionName, taskName);
+        this.openBreakers = OPEN_BREAKERS.labels(collectionName, taskName);
+        this.backlogSeconds = BACKLOG_SECONDS.labels(collectionName, taskName);
+        this.queueDepth = QUEUE_DEPTH.labels(collectionName, taskName);
+        this.catchUpEtaSeconds = CATCH_UP_ETA_SECONDS.labels(collectionName, taskName);
     }
 
     /**  Static Factory Method: Ensures Singleton per Collection */
     public static PrometheusMetricsConfig getInstance(String collectionName) {
-        return instances.computeIfAbsent(collectionName, PrometheusMetricsConfig::new);
+        return getInstance(collectionName, "");
+    }
+
+    /**
+     * Instance of a collection processed by {@code taskName}. The task that first asks for a collection names it;
+     * later callers share that instance, so task classes should ask before anything else does.
+     */
+    public static PrometheusMetricsConfig getInstance(String collectionName, String taskName) {
+        return instances.computeIfAbsent(collectionName, name -> new PrometheusMetricsConfig(name, taskName));
+    }
+
+    private WorkerCells claimWorkerCells() {
+        String worker = String.valueOf(workerSlots.claim());
+        return new WorkerCells(EVENT_LAG.labels(collectionName, taskName, worker),
+                WORKER_TPS.labels(collectionName, taskName, worker));
+    }
+
+    @SuppressWarnings("unchecked")
+    private <C> C labelled(SimpleCollector<C> family, String value) {
+        return (C) labelled.computeIfAbsent(family, key -> new ConcurrentHashMap<>())
+                .computeIfAbsent(value, key -> family.labels(collectionName, taskName, value));
+    }
+
+    public String getTaskName() {
+        return taskName;
     }
 
     public void incrementTotalEventsHandled() {
@@ -64,19 +286,117 @@ public class PrometheusMetricsConfig {
         totalEventsHandledSuccessfully.inc();
     }
 
-    public Gauge getEventLagPerThread() {
-        return eventLagPerThread;
+    public void incrementTotalEventsHandled(int count) {
+        totalEventsHandled.inc(count);
+    }
+
+    public void incrementTotalEventsHandledSuccessfully(int count) {
+        totalEventsHandledSuccessfully.inc(count);
+    }
+
+    /** Event lag gauge of the calling worker's slot. */
+    public Gauge.Child getWorkerEventLag() {
+        return workerCells.get().eventLag();
+    }
+
+    /** TPS gauge of the calling worker's slot. */
+    public Gauge.Child getWorkerTps() {
+        return workerCells.get().tps();
+    }
+
+    public Histogram.Child getStageDuration(String stage) {
+        return labelled(STAGE_DURATION, stage);
+    }
+
+    public Gauge.Child getCatchUpMode() {
+        return catchUpMode;
+    }
+
+    public Counter.Child getModeTransitions(String to) {
+        return labelled(MODE_TRANSITIONS, to);
+    }
+
+    public Counter.Child getCatchUpEvents() {
+        return catchUpEvents;
+    }
+
+    public Gauge.Child getCatchUpRate() {
+        return catchUpRate;
+    }
+
+    public Counter.Child getFencedCommits() {
+        return fencedCommits;
+    }
+
+    public Counter.Child getReplaySkipped() {
+        return replaySkipped;
+    }
+
+    public Counter.Child getReplayedEvents() {
+        return replayedEvents;
+    }
+
+    public Gauge.Child getProjectionEntries() {
+        return projectionEntries;
+    }
+
+    public Gauge.Child getProjectionBytes() {
+        return projectionBytes;
+    }
+
+    public Counter.Child getUnchangedWritesSkipped() {
+        return unchangedWritesSkipped;
+    }
+
+    public Counter.Child getFieldsSkipped() {
+        return fieldsSkipped;
+    }
+
+    public Gauge.Child getConcurrencyLimit() {
+        return concurrencyLimit;
+    }
+
+    public Gauge.Child getWorkers() {
+        return workers;
+    }
+
+    public Gauge.Child getListenerPaused() {
+        return listenerPaused;
+    }
+
+    public Counter.Child getControlOperations(String operation) {
+        return labelled(CONTROL_OPERATIONS, operation);
+    }
+
+    public Gauge.Child getLaneDepth(String lane) {
+        return labelled(LANE_DEPTH, lane);
+    }
+
+    public Counter.Child getDeadLettered(String reason) {
+        return labelled(DEAD_LETTERED, reason);
+    }
+
+    public Gauge.Child getDeadLetterSize() {
+        return deadLetterSize;
+    }
+
+    public Counter.Child getDeadLetterRetries(String outcome) {
+        return labelled(DEAD_LETTER_RETRIES, outcome);
+    }
+
+    public Gauge.Child getOpenBreakers() {
+        return openBreakers;
     }
 
-    public Gauge getTpsPerThread() {
-        return tpsPerThread;
+    public Gauge.Child getBacklogSeconds() {
+        return backlogSeconds;
     }
 
-    public Histogram getEventProcessDuration() {
-        return eventProcessDuration;
+    public Gauge.Child getQueueDepth() {
+        return queueDepth;
     }
 
-    public Histogram getP99ProcessingTime() {
-        return p99ProcessingTime;
+    public Gauge.Child getCatchUpEtaSeconds() {
+        return catchUpEtaSeconds;
     }
 }
@@ -0,0 +1,30 @@
+package com.example.demo.metrics;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * WorkerSlots numbers the threads that report a collection's per-worker metrics. A thread claims the lowest slot
+ * whose previous owner has died, so slot numbers stay below the number of live workers however often a pool
+ * replaces its threads.
+ */
+public class WorkerSlots {
+    private final List<WeakReference<Thread>> owners = new ArrayList<>();
+
+    /**
+     * Claims a slot for the calling thread.
+     */
+    public synchronized int claim() {
+        Thread current = Thread.currentThread();
+        for (int slot = 0; slot < owners.size(); slot++) {
+            Thread owner = owners.get(slot).get();
+            if (owner == null || !owner.isAlive()) {
+                owners.set(slot, new WeakReference<>(current));
+                return slot;
+            }
+        }
+        owners.add(new WeakReference<>(current));
+        return owners.size() - 1;
+    }
+}
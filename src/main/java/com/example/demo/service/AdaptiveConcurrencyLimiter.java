@@ -0,0 +1,169 @@
+package com.example.demo.service;
+
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.example.demo.metrics.PrometheusMetricsConfig;
+
+/**
+ * AdaptiveConcurrencyLimiter bounds how many tasks of one collection run at once and tunes that bound with AIMD.
+ *
+ * <p>The listener takes a permit before submitting work and the worker returns it with the processing latency.
+ * Every {@code window} completions the window's average latency is compared with a slow moving baseline: above
+ * {@code tolerance} times the baseline, or after a failure, the limit is multiplied by {@code backoff}; otherwise,
+ * if the listener had to wait for permits and the collection is lagging by more than {@code lagTargetMillis},
+ * the limit grows by one. The limit stays within [min, max].
+ */
+public class AdaptiveConcurrencyLimiter {
+    private static final Logger LOGGER = LoggerFactory.getLogger(AdaptiveConcurrencyLimiter.class);
+    // Weight of each window in the baseline, low so a sustained slowdown is not absorbed too quickly
+    private static final double BASELINE_ALPHA = 0.05;
+
+    private final String collectionName;
+    private final int window;
+    private final double tolerance;
+    private final double backoff;
+    private final long lagTargetMillis;
+    private final PrometheusMetricsConfig metricsConfig;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition permitReleased = lock.newCondition();
+    // Bounds may be lowered or raised at runtime by the admin API, guarded by lock
+    private int minLimit;
+    private int maxLimit;
+    private int limit;
+    private int inFlight;
+    private volatile long lagMillis;
+
+    // Current window, guarded by lock
+    private int completions;
+    private long latencySumNanos;
+    private boolean failed;
+    private boolean saturated;
+    private double baselineNanos;
+
+    public AdaptiveConcurrencyLimiter(String collectionName, int minLimit, int maxLimit, int initialLimit, int window,
+                                      double tolerance, double backoff, long lagTargetMillis,
+                                      PrometheusMetricsConfig metricsConfig) {
+        if (minLimit < 1 || maxLimit < minLimit) {
+            throw new IllegalArgumentException("Invalid concurrency bounds [" + minLimit + ", " + maxLimit
+                    + "] for " + collectionName);
+        }
+        this.collectionName = collectionName;
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.window = Math.max(1, window);
+        this.tolerance = tolerance;
+        this.backoff = backoff;
+        this.lagTargetMillis = lagTargetMillis;
+        this.metricsConfig = metricsConfig;
+        this.limit = Math.max(minLimit, Math.min(maxLimit, initialLimit));
+        metricsConfig.getConcurrencyLimit().set(limit);
+    }
+
+    /**
+     * Blocks until fewer than {@code limit} tasks are in flight, then takes a permit.
+     */
+    public void acquire() throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            while (inFlight >= limit) {
+                saturated = true;
+                permitReleased.await();
+            }
+            inFlight++;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns a permit with the task's processing time and outcome.
+     */
+    public void release(long latencyNanos, boolean success) {
+        lock.lock();
+        try {
+            inFlight--;
+            completions++;
+            latencySumNanos += latencyNanos;
+            failed |= !success;
+            if (completions >= window) {
+                adjust();
+            }
+            permitReleased.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Records the collection's current lag, observed by the listener.
+     */
+    public void observeLag(long lagMillis) {
+        this.lagMillis = lagMillis;
+    }
+
+    private void adjust() {
+        double averageNanos = (double) latencySumNanos / completions;
+        if (baselineNanos == 0) {
+            baselineNanos = averageNanos;
+        }
+        int previous = limit;
+        if (failed || averageNanos > baselineNanos * tolerance) {
+            limit = Math.max(minLimit, (int) (limit * backoff));
+        } else if (saturated && lagMillis > lagTargetMillis) {
+            limit = Math.min(maxLimit, limit + 1);
+        }
+        baselineNanos += BASELINE_ALPHA * (averageNanos - baselineNanos);
+
+        if (limit != previous) {
+            metricsConfig.getConcurrencyLimit().set(limit);
+            LOGGER.debug("Concurrency limit for {} {} -> {} (avg {} ms, baseline {} ms, lag {} ms)", collectionName,
+                    previous, limit, averageNanos / 1e6, baselineNanos / 1e6, lagMillis);
+        }
+        completions = 0;
+        latencySumNanos = 0;
+        failed = false;
+        saturated = false;
+    }
+
+    public int getLimit() {
+        lock.lock();
+        try {
+            return limit;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getMaxLimit() {
+        lock.lock();
+        try {
+            return maxLimit;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Moves the upper bound, lowering the lower bound and the current limit with it when they are above.
+     */
+    public void setMaxLimit(int maxLimit) {
+        if (maxLimit < 1) {
+            throw new IllegalArgumentException("Invalid concurrency limit " + maxLimit + " for " + collectionName);
+        }
+        lock.lock();
+        try {
+            this.maxLimit = maxLimit;
+            minLimit = Math.min(minLimit, maxLimit);
+            limit = Math.min(limit, maxLimit);
+            metricsConfig.getConcurrencyLimit().set(limit);
+            permitReleased.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -1,13 +1,17 @@
 package com.example.demo.service;
 
+import java.util.List;
+
 import org.bson.BsonDocument;
 import org.bson.Document;
 
+import com.example.demo.metrics.ChangeStreamEvents;
 import com.example.demo.metrics.PrometheusMetricsConfig;
 import com.example.demo.metrics.TpsCalculator;
 import com.mongodb.client.ChangeStreamIterable;
 import com.mongodb.client.MongoClient;
 import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.WriteModel;
 import com.mongodb.client.model.changestream.ChangeStreamDocument;
 import com.mongodb.client.model.changestream.FullDocument;
 import com.mongodb.client.model.changestream.FullDocumentBeforeChange;
@@ -42,6 +46,14 @@ public abstract class BusinessTask {
     }
 
     public void startProcessing(String threadName, ChangeStreamDocument<Document> event) {
+        startProcessing(threadName, event, true);
+    }
+
+    /**
+     * Processes one event and records its metrics; the event's resume token is saved as the thread's checkpoint
+     * only when the caller asks for it.
+     */
+    public void startProcessing(String threadName, ChangeStreamDocument<Document> event, boolean checkpoint) {
         long startTimeMillis = System.currentTimeMillis();
         long eventMillis = event.getClusterTime().getTime() * 1000;
 
@@ -58,20 +70,224 @@ public abstract class BusinessTask {
         long durationMillis = System.currentTimeMillis() - startTimeMillis;
         double durationSeconds = durationMillis / 1000.0;
 
-        metricsConfig.getEventLagPerThread().labels(threadName).set(eventLag);
+        metricsConfig.getWorkerEventLag().set(eventLag);
         metricsConfig.incrementTotalEventsHandled();
-        metricsConfig.getTpsPerThread().labels(threadName).set(tps);
-        metricsConfig.getEventProcessDuration().observe(durationSeconds);
-        metricsConfig.getP99ProcessingTime().observe(durationMillis);
+        metricsConfig.getWorkerTps().set(tps);
+        metricsConfig.getStageDuration(PrometheusMetricsConfig.STAGE_PROCESS).observe(durationSeconds);
+        if (checkpoint) {
+            saveCheckpoint(threadName, event);
+        }
+    }
+
+    /**
+     * Saves the event's resume token as the thread's checkpoint.
+     */
+    void saveCheckpoint(String threadName, ChangeStreamDocument<Document> event) {
         if (event.getResumeToken() != null) {
             resumeTokenService.saveResumeToken(event.getClusterTime(), event.getResumeToken(), threadName, collectionName);
         }
     }
 
+    /**
+     * Processes a micro-batch of events read while the collection is catching up on a backlog.
+     * Metrics are recorded per event, but the resume token is only saved for the last event of the batch
+     * and only when the caller asks for a checkpoint.
+     *
+     * @return the number of events handled successfully
+     */
+    public int startBatchProcessing(String threadName, List<ChangeStreamDocument<Document>> events, boolean checkpoint) {
+        if (events.isEmpty()) {
+            return 0;
+        }
+        long startTimeMillis = System.currentTimeMillis();
+        ChangeStreamDocument<Document> lastEvent = events.get(events.size() - 1);
+
+        int succeeded = processBatch(events);
+        recordBatchMetrics(threadName, events.size(), succeeded, lastEvent, startTimeMillis);
+
+        if (checkpoint && lastEvent.getResumeToken() != null) {
+            resumeTokenService.saveResumeToken(lastEvent.getClusterTime(), lastEvent.getResumeToken(), threadName, collectionName);
+        }
+        return succeeded;
+    }
+
+    /**
+     * Exactly-once variant of {@link #startBatchProcessing}: events already committed under the fence are skipped,
+     * and the batch writes commit in the same transaction as the fence checkpoint. Only valid for tasks with a
+     * bulk path (see {@link #supportsBatchWrites()}), and batches must arrive in stream order.
+     *
+     * @return the number of events handled successfully, not counting those skipped behind the fence
+     */
+    public int startFencedBatchProcessing(String threadName, List<ChangeStreamDocument<Document>> events, TokenFence fence) {
+        return startFencedBatchProcessing(threadName, events, fence, fence.generation());
+    }
+
+    /**
+     * Fenced batch dispatched for the fence's {@code generation}; refused once the stream was reopened since.
+     */
+    public int startFencedBatchProcessing(String threadName, List<ChangeStreamDocument<Document>> events,
+                                          TokenFence fence, long generation) {
+        List<ChangeStreamDocument<Document>> fresh = fence.unapplied(events);
+        if (fresh.isEmpty()) {
+            return 0;
+        }
+        long startTimeMillis = System.currentTimeMillis();
+        ChangeStreamDocument<Document> lastEvent = fresh.get(fresh.size() - 1);
+
+        List<WriteModel<Document>> writes = buildBatchWrites(fresh);
+        ChangeStreamEvents.BulkWrite bulkWrite = new ChangeStreamEvents.BulkWrite();
+        bulkWrite.begin();
+        try {
+            fence.commit(getTargetCollection(), writes, lastEvent, generation);
+        } catch (RuntimeException e) {
+            discardBatchWrites(writes);
+            throw e;
+        }
+        confirmBatchWrites(writes);
+        commit(bulkWrite, writes.size(), true);
+        int succeeded = countBatchWritable(fresh);
+        recordBatchMetrics(threadName, fresh.size(), succeeded, lastEvent, startTimeMillis);
+        return succeeded;
+    }
+
+    private void commit(ChangeStreamEvents.BulkWrite bulkWrite, int writes, boolean fenced) {
+        bulkWrite.end();
+        if (bulkWrite.shouldCommit()) {
+            bulkWrite.collection = getTargetCollection().getNamespace().getCollectionName();
+            bulkWrite.writes = writes;
+            bulkWrite.fenced = fenced;
+            bulkWrite.commit();
+        }
+    }
+
+    private void recordBatchMetrics(String threadName, int eventCount, int succeeded,
+                                    ChangeStreamDocument<Document> lastEvent, long startTimeMillis) {
+        long eventMillis = lastEvent.getClusterTime().getTime() * 1000;
+        for (int i = 0; i < eventCount; i++) {
+            tpsCalculator.recordEvent(collectionName, threadName);
+        }
+        metricsConfig.incrementTotalEventsHandledSuccessfully(succeeded);
+
+        double eventLag = startTimeMillis - eventMillis;
+        double tps = tpsCalculator.calculateTps(collectionName, threadName);
+        long durationMillis = System.currentTimeMillis() - startTimeMillis;
+
+        metricsConfig.getWorkerEventLag().set(eventLag);
+        metricsConfig.incrementTotalEventsHandled(eventCount);
+        metricsConfig.getWorkerTps().set(tps);
+        metricsConfig.getStageDuration(PrometheusMetricsConfig.STAGE_BATCH).observe(durationMillis / 1000.0);
+    }
+
     protected abstract int processChange(ChangeStreamDocument<Document> event);
 
+    /**
+     * Processes a batch of events and returns the number handled successfully. Tasks that can express their
+     * work as write models get a single bulk write against {@link #getTargetCollection()}; all others fall back
+     * to calling {@link #processChange} per event.
+     */
+    protected int processBatch(List<ChangeStreamDocument<Document>> events) {
+        List<WriteModel<Document>> writes = buildBatchWrites(events);
+        if (writes == null) {
+            int succeeded = 0;
+            for (ChangeStreamDocument<Document> event : events) {
+                if (processChange(event) == 0) {
+                    succeeded++;
+                }
+            }
+            return succeeded;
+        }
+        if (!writes.isEmpty()) {
+            // Ordered, so writes for the same target document are applied in event order
+            ChangeStreamEvents.BulkWrite bulkWrite = new ChangeStreamEvents.BulkWrite();
+            bulkWrite.begin();
+            try {
+                getTargetCollection().bulkWrite(writes);
+            } catch (RuntimeException e) {
+                discardBatchWrites(writes);
+                throw e;
+            }
+            confirmBatchWrites(writes);
+            commit(bulkWrite, writes.size(), false);
+        }
+        return countBatchWritable(events);
+    }
+
+    private int countBatchWritable(List<ChangeStreamDocument<Document>> events) {
+        int writable = 0;
+        for (ChangeStreamDocument<Document> event : events) {
+            if (isBatchWritable(event)) {
+                writable++;
+            }
+        }
+        return writable;
+    }
+
+    /**
+     * Builds the writes for a batch of events, in event order. Returns null when the task has no bulk path.
+     */
+    protected List<WriteModel<Document>> buildBatchWrites(List<ChangeStreamDocument<Document>> events) {
+        return null;
+    }
+
+    /**
+     * True if {@link #buildBatchWrites} takes the event into account; events it skips are not counted as handled.
+     * Defaults to events carrying a full document, which every bulk path reads.
+     */
+    protected boolean isBatchWritable(ChangeStreamDocument<Document> event) {
+        return event.getFullDocument() != null;
+    }
+
+    /**
+     * Called with writes from {@link #buildBatchWrites} that failed to apply, for tasks that cache what they wrote.
+     */
+    protected void discardBatchWrites(List<WriteModel<Document>> writes) {
+    }
+
+    /**
+     * Called with writes from {@link #buildBatchWrites} once they are applied.
+     */
+    protected void confirmBatchWrites(List<WriteModel<Document>> writes) {
+    }
+
+    /**
+     * True if the task builds its batch writes as write models, which the exactly-once mode requires.
+     */
+    public boolean supportsBatchWrites() {
+        return buildBatchWrites(List.of()) != null;
+    }
+
+    /**
+     * Collection that batch writes are applied to. Defaults to the watched collection.
+     */
+    protected MongoCollection<Document> getTargetCollection() {
+        return collection;
+    }
+
+    /**
+     * Client {@link #getTargetCollection()} is resolved on; a fenced commit opens its session there, since the
+     * driver only accepts a session on the client that started it. Null for the default target, the watched
+     * collection, which is resolved on the change stream client rather than the task's own.
+     */
+    protected MongoClient getTargetClient() {
+        return null;
+    }
+
+    /**
+     * Whether events should carry the document's pre-image. Off by default so the server does not look up and
+     * ship pre-images no task reads.
+     */
+    protected boolean usesPreImages() {
+        return false;
+    }
 
     public ChangeStreamIterable<Document> changeStreamIterator(BsonDocument resumeToken) {
+        return changeStreamIterator(resumeToken, 0);
+    }
+
+    /**
+     * Opens the change stream with an explicit cursor batch size; 0 keeps the driver default.
+     */
+    public ChangeStreamIterable<Document> changeStreamIterator(BsonDocument resumeToken, int batchSize) {
         if (collection == null) {
             throw new IllegalStateException("Collection has not been set for " + collectionName);
         }
@@ -79,8 +295,13 @@ public abstract class BusinessTask {
         ChangeStreamIterable<Document> changeStream = resumeToken != null
                 ? collection.watch().resumeAfter(resumeToken)
                 : collection.watch();
+        if (batchSize > 0) {
+            changeStream.batchSize(batchSize);
+        }
         changeStream.fullDocument(FullDocument.UPDATE_LOOKUP);
-        changeStream.fullDocumentBeforeChange(FullDocumentBeforeChange.WHEN_AVAILABLE);
+        if (usesPreImages()) {
+            changeStream.fullDocumentBeforeChange(FullDocumentBeforeChange.WHEN_AVAILABLE);
+        }
 
         System.out.printf("✅ Change stream open for collection : %s  \n", collectionName);
         return changeStream;
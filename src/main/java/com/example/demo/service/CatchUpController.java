@@ -0,0 +1,112 @@
+package com.example.demo.service;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.example.demo.metrics.PrometheusMetricsConfig;
+
+/**
+ * CatchUpController tracks whether a collection's listener is replaying a backlog or following live traffic.
+ * Lag is observed on the listener thread for every event; a lag above the enter threshold switches the
+ * collection to catch-up mode (large cursor batches, micro-batched processing, sparse checkpoints) and a lag
+ * below the exit threshold switches it back to low-latency live mode.
+ */
+public class CatchUpController {
+    private static final Logger LOGGER = LoggerFactory.getLogger(CatchUpController.class);
+
+    public enum Mode { LIVE, CATCH_UP }
+
+    private final String collectionName;
+    private final boolean enabled;
+    private final long enterLagMillis;
+    private final long exitLagMillis;
+    private final int cursorBatchSize;
+    private final int microBatchSize;
+    private final int checkpointIntervalBatches;
+    private final PrometheusMetricsConfig metricsConfig;
+
+    private volatile Mode mode = Mode.LIVE;
+    private volatile long catchUpStartedMillis;
+    private final AtomicLong catchUpEvents = new AtomicLong();
+    private final AtomicLong batchCounter = new AtomicLong();
+
+    public CatchUpController(String collectionName, boolean enabled, long enterLagMillis, long exitLagMillis,
+                             int cursorBatchSize, int microBatchSize, int checkpointIntervalBatches,
+                             PrometheusMetricsConfig metricsConfig) {
+        if (exitLagMillis > enterLagMillis) {
+            throw new IllegalArgumentException("Catch-up exit lag must not exceed enter lag for " + collectionName);
+        }
+        this.collectionName = collectionName;
+        this.enabled = enabled;
+        this.enterLagMillis = enterLagMillis;
+        this.exitLagMillis = exitLagMillis;
+        this.cursorBatchSize = cursorBatchSize;
+        this.microBatchSize = Math.max(1, microBatchSize);
+        this.checkpointIntervalBatches = Math.max(1, checkpointIntervalBatches);
+        this.metricsConfig = metricsConfig;
+    }
+
+    /**
+     * Records the lag of the event just read from the cursor and switches mode when a threshold is crossed.
+     * Must only be called from the collection's listener thread.
+     *
+     * @return true if the mode changed and the cursor should be reopened with the new batch size
+     */
+    public boolean observeLag(long lagMillis) {
+        if (!enabled) {
+            return false;
+        }
+        if (mode == Mode.LIVE && lagMillis >= enterLagMillis) {
+            switchTo(Mode.CATCH_UP, lagMillis);
+            return true;
+        }
+        if (mode == Mode.CATCH_UP && lagMillis <= exitLagMillis) {
+            switchTo(Mode.LIVE, lagMillis);
+            return true;
+        }
+        return false;
+    }
+
+    private void switchTo(Mode newMode, long lagMillis) {
+        mode = newMode;
+        if (newMode == Mode.CATCH_UP) {
+            catchUpStartedMillis = System.currentTimeMillis();
+            catchUpEvents.set(0);
+        }
+        metricsConfig.getCatchUpMode().set(newMode == Mode.CATCH_UP ? 1 : 0);
+        metricsConfig.getModeTransitions(newMode.name().toLowerCase()).inc();
+        LOGGER.info("Collection {} switched to {} mode at lag {} ms", collectionName, newMode, lagMillis);
+    }
+
+    /** Records events completed while catching up and refreshes the catch-up rate gauge. */
+    public void recordCatchUpEvents(int count) {
+        long total = catchUpEvents.addAndGet(count);
+        metricsConfig.getCatchUpEvents().inc(count);
+        long elapsedMillis = Math.max(1, System.currentTimeMillis() - catchUpStartedMillis);
+        metricsConfig.getCatchUpRate().set(total * 1000.0 / elapsedMillis);
+    }
+
+    /** Sparse checkpointing: only every N-th micro-batch persists its resume token. */
+    public boolean shouldCheckpointBatch() {
+        return batchCounter.incrementAndGet() % checkpointIntervalBatches == 0;
+    }
+
+    public boolean isCatchingUp() {
+        return mode == Mode.CATCH_UP;
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    /** Cursor batch size for the current mode; 0 leaves the driver default in place. */
+    public int cursorBatchSize() {
+        return mode == Mode.CATCH_UP ? cursorBatchSize : 0;
+    }
+
+    public int getMicroBatchSize() {
+        return microBatchSize;
+    }
+}
@@ -0,0 +1,128 @@
+package com.example.demo.service;
+
+import java.util.NoSuchElementException;
+import java.util.function.BooleanSupplier;
+import java.util.function.Predicate;
+
+import org.bson.BsonDocument;
+import org.bson.BsonTimestamp;
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+
+import com.mongodb.ServerAddress;
+import com.mongodb.ServerCursor;
+import com.mongodb.client.ChangeStreamIterable;
+import com.mongodb.client.MongoCursor;
+import com.mongodb.client.MongoIterable;
+
+/**
+ * ChangeStreamEventSource reads events from the collection's MongoDB change stream, opened by
+ * {@link BusinessTask#changeStreamIterator(BsonDocument, int)}.
+ */
+public class ChangeStreamEventSource implements EventSource {
+    private final boolean rawEvents;
+    private final Predicate<String> stopped;
+
+    /**
+     * @param rawEvents keep events as raw BSON on the listener, to be decoded by the worker that processes them
+     */
+    public ChangeStreamEventSource(boolean rawEvents) {
+        this(rawEvents, collectionName -> false);
+    }
+
+    /**
+     * @param stopped once true for a collection, its open cursor reports no further events after the current
+     *                getMore, so a listener blocked on an idle stream can stop without closing the cursor under it
+     */
+    public ChangeStreamEventSource(boolean rawEvents, Predicate<String> stopped) {
+        this.rawEvents = rawEvents;
+        this.stopped = stopped;
+    }
+
+    @Override
+    public MongoCursor<StreamEvent> open(BusinessTask task, BsonDocument resumeToken, int batchSize) {
+        return cursor(task, task.changeStreamIterator(resumeToken, batchSize));
+    }
+
+    @Override
+    public boolean canOpenAtOperationTime() {
+        return true;
+    }
+
+    @Override
+    public MongoCursor<StreamEvent> openAt(BusinessTask task, BsonTimestamp operationTime, int batchSize) {
+        return cursor(task, task.changeStreamIterator(null, batchSize).startAtOperationTime(operationTime));
+    }
+
+    private MongoCursor<StreamEvent> cursor(BusinessTask task, ChangeStreamIterable<Document> changeStream) {
+        MongoIterable<StreamEvent> events = rawEvents
+                ? changeStream.withDocumentClass(RawBsonDocument.class).map(StreamEvent::raw)
+                : changeStream.map(StreamEvent::of);
+        String collectionName = task.getCollectionName();
+        return new StoppableCursor(events.cursor(), () -> stopped.test(collectionName));
+    }
+
+    /**
+     * Waits for events with {@code tryNext}, one getMore at a time, instead of the blocking {@code hasNext} that
+     * only returns once an event arrives.
+     */
+    private static final class StoppableCursor implements MongoCursor<StreamEvent> {
+        private final MongoCursor<StreamEvent> delegate;
+        private final BooleanSupplier stopped;
+        private StreamEvent next;
+
+        StoppableCursor(MongoCursor<StreamEvent> delegate, BooleanSupplier stopped) {
+            this.delegate = delegate;
+            this.stopped = stopped;
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (next == null) {
+                if (stopped.getAsBoolean()) {
+                    return false;
+                }
+                next = delegate.tryNext();
+            }
+            return true;
+        }
+
+        @Override
+        public StreamEvent next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            StreamEvent event = next;
+            next = null;
+            return event;
+        }
+
+        @Override
+        public StreamEvent tryNext() {
+            if (next != null) {
+                return next();
+            }
+            return delegate.tryNext();
+        }
+
+        @Override
+        public int available() {
+            return delegate.available() + (next != null ? 1 : 0);
+        }
+
+        @Override
+        public ServerCursor getServerCursor() {
+            return delegate.getServerCursor();
+        }
+
+        @Override
+        public ServerAddress getServerAddress() {
+            return delegate.getServerAddress();
+        }
+
+        @Override
+        public void close() {
+            delegate.close();
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package com.example.demo.service;
+
+import org.bson.BsonDocument;
+import org.bson.BsonTimestamp;
+
+/**
+ * CheckpointStore persists the resume position of each change stream worker.
+ * Every (collection, thread) pair owns one checkpoint; on restart a collection resumes from the earliest one.
+ */
+public interface CheckpointStore {
+
+    /**
+     * Records the resume token of the last event processed by a worker thread.
+     */
+    void save(String collectionName, String threadName, BsonTimestamp clusterTime, BsonDocument resumeToken);
+
+    /**
+     * Returns the earliest resume token recorded for the collection, or null if none exists.
+     */
+    BsonDocument load(String collectionName);
+
+    /**
+     * Moves every checkpoint of the collection to one position, after all events up to it were processed. With no
+     * checkpoint yet the position is saved for {@code threadName}. Used on drain, so a restart resumes exactly
+     * after the last processed event rather than from the slowest worker's checkpoint.
+     */
+    void saveAll(String collectionName, String threadName, BsonTimestamp clusterTime, BsonDocument resumeToken);
+
+    /**
+     * Drops the checkpoint of a retired worker thread, unless it is the collection's only one, so the collection
+     * keeps a position to resume from. Does nothing if the thread has no checkpoint.
+     */
+    void remove(String collectionName, String threadName);
+
+    /**
+     * Returns the cluster time of the newest checkpoint of the collection, or null if none exists. Events up to
+     * it were processed by some worker before the last stop.
+     */
+    BsonTimestamp latestClusterTime(String collectionName);
+
+    /**
+     * Makes all saved checkpoints durable. Stores that write through on every save need not override this.
+     */
+    default void flush() {
+    }
+
+    /**
+     * Flushes and releases any resources held by the store.
+     */
+    default void close() {
+        flush();
+    }
+}
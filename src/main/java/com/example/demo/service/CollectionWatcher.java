@@ -0,0 +1,125 @@
+package com.example.demo.service;
+
+import java.util.function.Consumer;
+
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.mongodb.client.ChangeStreamIterable;
+import com.mongodb.client.MongoChangeStreamCursor;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.changestream.ChangeStreamDocument;
+import com.mongodb.client.model.changestream.FullDocument;
+import com.mongodb.client.model.changestream.FullDocumentBeforeChange;
+
+/**
+ * CollectionWatcher follows a reference collection with its own change stream on a daemon thread, so in-process
+ * caches of that collection can be kept fresh. It is independent of the business listeners and has no checkpoint:
+ * whenever the stream has to be reopened, events may have been missed and the owner's reset callback runs first.
+ * The stream is opened on the watcher thread, so starting never blocks on MongoDB; the owner's open callback runs
+ * each time the stream is open, and every change made after that is delivered.
+ */
+public class CollectionWatcher implements AutoCloseable {
+    private static final Logger LOGGER = LoggerFactory.getLogger(CollectionWatcher.class);
+    private static final long RETRY_DELAY_MS = 1000;
+
+    private final String name;
+    private final MongoCollection<Document> collection;
+    private final Consumer<ChangeStreamDocument<Document>> onChange;
+    private final Runnable onReset;
+    private final boolean withPreImages;
+    private final Runnable onOpen;
+    private volatile boolean running;
+    private Thread thread;
+
+    public CollectionWatcher(String name, MongoCollection<Document> collection,
+                             Consumer<ChangeStreamDocument<Document>> onChange, Runnable onReset) {
+        this(name, collection, onChange, onReset, false, () -> { });
+    }
+
+    /**
+     * With {@code withPreImages}, events carry the document before the change when the collection has
+     * pre-images enabled, so owners can find the cache entry of a deleted or re-keyed document.
+     */
+    public CollectionWatcher(String name, MongoCollection<Document> collection,
+                             Consumer<ChangeStreamDocument<Document>> onChange, Runnable onReset, boolean withPreImages,
+                             Runnable onOpen) {
+        this.name = name;
+        this.collection = collection;
+        this.onChange = onChange;
+        this.onReset = onReset;
+        this.withPreImages = withPreImages;
+        this.onOpen = onOpen;
+    }
+
+    /**
+     * Starts the watcher thread, which opens the change stream and then runs the open callback.
+     */
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+        running = true;
+        thread = new Thread(this::run, "Watcher-" + name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private MongoChangeStreamCursor<ChangeStreamDocument<Document>> open() {
+        ChangeStreamIterable<Document> changeStream = collection.watch().fullDocument(FullDocument.UPDATE_LOOKUP);
+        if (withPreImages) {
+            changeStream.fullDocumentBeforeChange(FullDocumentBeforeChange.WHEN_AVAILABLE);
+        }
+        return changeStream.cursor();
+    }
+
+    private void run() {
+        MongoChangeStreamCursor<ChangeStreamDocument<Document>> cursor = null;
+        while (running) {
+            try {
+                if (cursor == null) {
+                    cursor = open();
+                    LOGGER.info("✅ Watching {} for cache updates", name);
+                    onOpen.run();
+                }
+                // tryNext returns after the server's await time, so close() is noticed without interrupting
+                ChangeStreamDocument<Document> event = cursor.tryNext();
+                if (event != null) {
+                    onChange.accept(event);
+                }
+            } catch (Exception e) {
+                if (!running) {
+                    break;
+                }
+                LOGGER.error("❌ Watcher for {} failed, resetting cache: {}", name, e.getMessage());
+                closeQuietly(cursor);
+                cursor = null;
+                onReset.run();
+                try {
+                    Thread.sleep(RETRY_DELAY_MS);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+        }
+        closeQuietly(cursor);
+    }
+
+    private void closeQuietly(MongoChangeStreamCursor<ChangeStreamDocument<Document>> cursor) {
+        if (cursor == null) {
+            return;
+        }
+        try {
+            cursor.close();
+        } catch (Exception e) {
+            LOGGER.warn("Failed to close watcher cursor for {}: {}", name, e.getMessage());
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        running = false;
+    }
+}
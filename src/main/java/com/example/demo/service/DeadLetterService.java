@@ -0,0 +1,594 @@
+package com.example.demo.service;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.IntSupplier;
+
+import org.bson.BsonDocument;
+import org.bson.BsonDocumentReader;
+import org.bson.BsonDocumentWriter;
+import org.bson.BsonTimestamp;
+import org.bson.Document;
+import org.bson.codecs.Codec;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.EncoderContext;
+import org.bson.types.ObjectId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import com.example.demo.metrics.PrometheusMetricsConfig;
+import com.mongodb.MongoClientSettings;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.MongoException;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.IndexOptions;
+import com.mongodb.client.model.Indexes;
+import com.mongodb.client.model.Sorts;
+import com.mongodb.client.model.Updates;
+import com.mongodb.client.model.changestream.ChangeStreamDocument;
+import com.mongodb.client.result.UpdateResult;
+
+import jakarta.annotation.PreDestroy;
+
+/**
+ * DeadLetterService isolates events that fail, so a poison event costs only itself instead of stopping its
+ * collection.
+ *
+ * <p>Each guarded event runs on its worker under a time budget; a watchdog interrupts the worker when it is
+ * exceeded. The budget only cuts short work that responds to interrupts, such as sleeps, lock waits and
+ * interruptible I/O: work that ignores the interrupt, e.g. CPU-bound enrichment, a {@code join} or most driver
+ * calls, keeps the worker until it ends and then counts by its outcome, so finished work is never dead-lettered
+ * and retried a second time. Events that throw, or fail once interrupted, are stored in the dead-letter
+ * collection with their full change event and retried later
+ * with exponential backoff, until they are parked after {@code max-retries}. A per-document circuit breaker opens
+ * after {@code breaker-threshold} consecutive failures of the same document key; while it is open, further events
+ * for that key go straight to the dead-letter collection without being processed. Dead-lettered events count as
+ * handled, so the caller's checkpoint moves past them.
+ *
+ * <p>Watchdogs fire on their own scheduler thread, so a slow retry pass cannot delay them; retries run on a small
+ * worker pool. Breakers of keys that stopped failing expire after {@code breaker-open-ms}, and at most
+ * {@code max-breakers} keys are tracked at a time.
+ *
+ * <p>A retry must not undo newer work on its document key. Keys with pending dead letters take a lock around
+ * every retry and every processing of their events, so the two never interleave; retries of one key run in
+ * stream order on one retry worker. Once an event of the key is processed, its older pending dead letters are
+ * superseded and never retried.
+ */
+@Service
+public class DeadLetterService {
+    private static final Logger LOGGER = LoggerFactory.getLogger(DeadLetterService.class);
+    private static final Codec<ChangeStreamDocument<Document>> EVENT_CODEC =
+            ChangeStreamDocument.createCodec(Document.class, MongoClientSettings.getDefaultCodecRegistry());
+
+    public static final String STATUS_PENDING = "pending";
+    public static final String STATUS_PARKED = "parked";
+    public static final String STATUS_SUPERSEDED = "superseded";
+
+    /** Failure state of one document key. */
+    private static final class Breaker {
+        volatile int failures;
+        volatile long openUntilMillis;
+        volatile long lastFailureMillis;
+
+        boolean expired(long now, long openMillis) {
+            return openUntilMillis <= now && lastFailureMillis + openMillis <= now;
+        }
+    }
+
+    // States of a budgeted run; the worker and its watchdog race to move it out of RUNNING
+    private static final int RUNNING = 0;
+    private static final int DONE = 1;
+    private static final int FIRING = 2;
+    private static final int FIRED = 3;
+
+    private final MongoDatabase mongoDatabase;
+    private final Map<String, Breaker> breakers = new ConcurrentHashMap<>();
+    // Keys with pending dead letters, each with the lock that orders its retries against processing of its events
+    private final Map<String, ReentrantLock> pendingKeys = new ConcurrentHashMap<>();
+    private final Map<String, BusinessTask> tasks = new ConcurrentHashMap<>();
+    private ScheduledExecutorService watchdogs;
+    private ScheduledExecutorService scheduler;
+    private ExecutorService retryPool;
+
+    @Value("${spring.changestream.dead-letter.enabled:false}")
+    private boolean enabled;
+
+    @Value("${spring.changestream.dead-letter.collection:dead_letters}")
+    private String collectionName;
+
+    @Value("${spring.changestream.dead-letter.time-budget-ms:5000}")
+    private long timeBudgetMillis;
+
+    @Value("${spring.changestream.dead-letter.breaker-threshold:3}")
+    private int breakerThreshold;
+
+    @Value("${spring.changestream.dead-letter.breaker-open-ms:60000}")
+    private long breakerOpenMillis;
+
+    @Value("${spring.changestream.dead-letter.max-retries:5}")
+    private int maxRetries;
+
+    @Value("${spring.changestream.dead-letter.retry-base-delay-ms:30000}")
+    private long retryBaseDelayMillis;
+
+    @Value("${spring.changestream.dead-letter.retry-poll-ms:5000}")
+    private long retryPollMillis;
+
+    @Value("${spring.changestream.dead-letter.retry-threads:2}")
+    private int retryThreads;
+
+    @Value("${spring.changestream.dead-letter.max-breakers:10000}")
+    private int maxBreakers;
+
+    @Autowired
+    public DeadLetterService(MongoDatabase mongoDatabase) {
+        this.mongoDatabase = mongoDatabase;
+    }
+
+    public DeadLetterService(MongoDatabase mongoDatabase, String collectionName, long timeBudgetMillis,
+                             int breakerThreshold, long breakerOpenMillis, int maxRetries, long retryBaseDelayMillis) {
+        this.mongoDatabase = mongoDatabase;
+        this.enabled = true;
+        this.collectionName = collectionName;
+        this.timeBudgetMillis = timeBudgetMillis;
+        this.breakerThreshold = breakerThreshold;
+        this.breakerOpenMillis = breakerOpenMillis;
+        this.maxRetries = maxRetries;
+        this.retryBaseDelayMillis = retryBaseDelayMillis;
+        this.retryPollMillis = 0;
+        this.retryThreads = 1;
+        this.maxBreakers = 10_000;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Creates the dead-letter indexes, loads the keys with pending dead letters, and starts the watchdogs, the
+     * breaker expiry and, when polling is configured, the retry loop for the given tasks.
+     */
+    public synchronized void start(Map<String, BusinessTask> businessTasks) {
+        tasks.putAll(businessTasks);
+        if (scheduler != null) {
+            return;
+        }
+        try {
+            // The retry poll, and the per-collection counts and per-key supersedes
+            deadLetters().createIndex(Indexes.ascending("status", "nextRetryAt"),
+                    new IndexOptions().name("status_nextRetryAt"));
+            deadLetters().createIndex(Indexes.ascending("collection", "documentKey", "status"),
+                    new IndexOptions().name("collection_documentKey_status"));
+            for (String source : businessTasks.keySet()) {
+                for (BsonDocument documentKey : deadLetters().distinct("documentKey", Filters.and(
+                        Filters.eq("collection", source), Filters.eq("status", STATUS_PENDING)), BsonDocument.class)
+                        .into(new ArrayList<>())) {
+                    pendingKeys.putIfAbsent(keyOf(source, documentKey), new ReentrantLock());
+                }
+            }
+        } catch (MongoException e) {
+            LOGGER.error("❌ Failed to prepare dead-letter collection {}: {}", collectionName, e.getMessage());
+        }
+        watchdogs = Executors.newSingleThreadScheduledExecutor(daemon("DeadLetter-Watchdog"));
+        scheduler = Executors.newSingleThreadScheduledExecutor(daemon("DeadLetter-Scheduler"));
+        AtomicInteger retryCounter = new AtomicInteger();
+        retryPool = Executors.newFixedThreadPool(Math.max(1, retryThreads),
+                r -> daemon("DeadLetter-Retry-" + retryCounter.getAndIncrement()).newThread(r));
+        if (retryPollMillis > 0) {
+            scheduler.scheduleWithFixedDelay(this::retryDue, retryPollMillis, retryPollMillis, TimeUnit.MILLISECONDS);
+        }
+        if (breakerOpenMillis > 0) {
+            scheduler.scheduleWithFixedDelay(this::expireBreakers, breakerOpenMillis, breakerOpenMillis,
+                    TimeUnit.MILLISECONDS);
+        }
+        LOGGER.info("✅ Dead-lettering to {} with a {} ms budget per event", collectionName, timeBudgetMillis);
+    }
+
+    /**
+     * Runs {@code work} for one event under the time budget and circuit breaker of its document key.
+     * A failed or timed-out event is dead-lettered and counts as handled; if storing it fails, that error
+     * propagates and the caller keeps its checkpoint behind the event.
+     *
+     * @return true if the event was processed, false if it was dead-lettered
+     */
+    public boolean process(BusinessTask task, String threadName, ChangeStreamDocument<Document> event, Runnable work) {
+        String key = keyOf(task.getCollectionName(), event);
+        PrometheusMetricsConfig metricsConfig = PrometheusMetricsConfig.getInstance(task.getCollectionName());
+        long now = System.currentTimeMillis();
+        Breaker breaker = breakers.get(key);
+        if (breaker != null && breaker.openUntilMillis > now) {
+            deadLetter(task.getCollectionName(), event, "circuit-open", null, breaker.openUntilMillis);
+            return false;
+        }
+
+        ReentrantLock pending = lockPending(key, false);
+        try {
+            runWithBudget(work, timeBudgetMillis);
+            if (pending != null) {
+                supersede(task.getCollectionName(), event);
+            }
+            if (breaker != null) {
+                breakers.remove(key);
+                updateBreakerGauge(metricsConfig, task.getCollectionName());
+            }
+            return true;
+        } catch (RuntimeException e) {
+            boolean timedOut = e instanceof BudgetExceededException;
+            LOGGER.warn("⚠️ Dead-lettering {} event {}: {}", task.getCollectionName(), event.getDocumentKey(),
+                    timedOut ? "over time budget" : e.getMessage());
+            long retryAt = recordFailure(key, now);
+            updateBreakerGauge(metricsConfig, task.getCollectionName());
+            deadLetter(task.getCollectionName(), event, timedOut ? "timeout" : "error", e, retryAt);
+            return false;
+        } finally {
+            if (pending != null) {
+                pending.unlock();
+            }
+        }
+    }
+
+    /**
+     * Runs a batch of events processed outside {@link #process}, e.g. a catch-up micro-batch, under the locks of
+     * its keys with pending dead letters, and supersedes those dead letters once every event of the batch succeeded.
+     *
+     * @return what {@code work} returns, the number of events handled successfully
+     */
+    public int processBatch(BusinessTask task, List<ChangeStreamDocument<Document>> events, IntSupplier work) {
+        String source = task.getCollectionName();
+        // Newest event of each key with pending dead letters; keys are locked in sorted order
+        Map<String, ChangeStreamDocument<Document>> newest = new TreeMap<>();
+        for (ChangeStreamDocument<Document> event : events) {
+            String key = keyOf(source, event);
+            if (pendingKeys.containsKey(key)) {
+                newest.merge(key, event, (a, b) -> newer(b, a) ? b : a);
+            }
+        }
+        List<ReentrantLock> locked = new ArrayList<>(newest.size());
+        try {
+            for (String key : newest.keySet()) {
+                ReentrantLock pending = lockPending(key, false);
+                if (pending != null) {
+                    locked.add(pending);
+                }
+            }
+            int succeeded = work.getAsInt();
+            if (succeeded == events.size()) {
+                newest.values().forEach(event -> supersede(source, event));
+            }
+            return succeeded;
+        } finally {
+            locked.forEach(ReentrantLock::unlock);
+        }
+    }
+
+    private static boolean newer(ChangeStreamDocument<Document> event, ChangeStreamDocument<Document> than) {
+        return event.getClusterTime() != null
+                && (than.getClusterTime() == null || event.getClusterTime().compareTo(than.getClusterTime()) > 0);
+    }
+
+    /**
+     * Locks the key's pending dead letters, registering the key first when {@code create} is set. Returns null,
+     * without locking, if the key has no pending dead letters and {@code create} is not set.
+     */
+    private ReentrantLock lockPending(String key, boolean create) {
+        while (true) {
+            ReentrantLock pending = create ? pendingKeys.computeIfAbsent(key, k -> new ReentrantLock())
+                    : pendingKeys.get(key);
+            if (pending == null) {
+                return null;
+            }
+            pending.lock();
+            // A retry may have released the key while we waited
+            if (pendingKeys.get(key) == pending) {
+                return pending;
+            }
+            pending.unlock();
+        }
+    }
+
+    /**
+     * An event of the key was processed: its older pending dead letters would undo it, so they are never retried.
+     */
+    private void supersede(String source, ChangeStreamDocument<Document> event) {
+        BsonTimestamp clusterTime = event.getClusterTime();
+        if (clusterTime == null) {
+            return;
+        }
+        UpdateResult result = deadLetters().updateMany(Filters.and(Filters.eq("collection", source),
+                Filters.eq("documentKey", event.getDocumentKey()), Filters.eq("status", STATUS_PENDING),
+                Filters.lt("event.clusterTime", clusterTime)), Updates.set("status", STATUS_SUPERSEDED));
+        if (result.getModifiedCount() > 0) {
+            PrometheusMetricsConfig.getInstance(source).getDeadLetterRetries("superseded")
+                    .inc(result.getModifiedCount());
+        }
+    }
+
+    /**
+     * Processes the events of a failed batch one by one, so a poison event only costs itself.
+     */
+    public int isolate(BusinessTask task, String threadName, List<ChangeStreamDocument<Document>> events) {
+        int succeeded = 0;
+        for (ChangeStreamDocument<Document> event : events) {
+            if (process(task, threadName, event, () -> task.processChange(event))) {
+                succeeded++;
+            }
+        }
+        return succeeded;
+    }
+
+    private long recordFailure(String key, long now) {
+        if (breakers.size() >= maxBreakers && !breakers.containsKey(key)) {
+            expireBreakers();
+            if (breakers.size() >= maxBreakers) {
+                LOGGER.warn("⚠️ {} breakers are tracked already, not counting the failure of {}", maxBreakers, key);
+                return now + retryBaseDelayMillis;
+            }
+        }
+        Breaker breaker = breakers.computeIfAbsent(key, k -> new Breaker());
+        synchronized (breaker) {
+            breaker.failures++;
+            breaker.lastFailureMillis = now;
+            if (breaker.failures >= breakerThreshold) {
+                breaker.openUntilMillis = now + breakerOpenMillis;
+                LOGGER.warn("⚠️ Circuit open for {} after {} failures", key, breaker.failures);
+                return breaker.openUntilMillis;
+            }
+        }
+        return now + retryBaseDelayMillis;
+    }
+
+    /** Thrown in the worker when its work failed after the watchdog interrupted it. */
+    static final class BudgetExceededException extends RuntimeException {
+        BudgetExceededException(Throwable cause) {
+            super("Time budget exceeded", cause);
+        }
+    }
+
+    /**
+     * Runs the work in the calling thread, interrupted by a watchdog once the budget is spent. Whichever of the
+     * two leaves RUNNING first wins: if the work finishes first the watchdog does nothing, otherwise the worker
+     * waits for the interrupt to be delivered and clears it, so it cannot leak into the worker's next task. Work
+     * that completes despite the interrupt succeeded and is not reported as over budget.
+     *
+     * @throws BudgetExceededException if the work failed after it was interrupted
+     */
+    private void runWithBudget(Runnable work, long budgetMillis) {
+        ScheduledExecutorService watchdogScheduler = watchdogs;
+        if (watchdogScheduler == null || budgetMillis <= 0) {
+            work.run();
+            return;
+        }
+        Thread worker = Thread.currentThread();
+        AtomicInteger state = new AtomicInteger(RUNNING);
+        ScheduledFuture<?> watchdog = watchdogScheduler.schedule(() -> {
+            if (state.compareAndSet(RUNNING, FIRING)) {
+                worker.interrupt();
+                state.set(FIRED);
+            }
+        }, budgetMillis, TimeUnit.MILLISECONDS);
+        RuntimeException failure = null;
+        try {
+            work.run();
+        } catch (RuntimeException e) {
+            failure = e;
+        }
+        if (state.compareAndSet(RUNNING, DONE)) {
+            watchdog.cancel(false);
+            if (failure != null) throw failure;
+            return;
+        }
+        while (state.get() != FIRED) {
+            Thread.onSpinWait();
+        }
+        Thread.interrupted();
+        if (failure != null) {
+            throw new BudgetExceededException(failure);
+        }
+        LOGGER.warn("⚠️ Work ignored its {} ms budget and finished anyway", budgetMillis);
+    }
+
+    private void deadLetter(String source, ChangeStreamDocument<Document> event, String reason, Throwable error,
+                            long retryAtMillis) {
+        BsonDocument raw = new BsonDocument();
+        EVENT_CODEC.encode(new BsonDocumentWriter(raw), event, EncoderContext.builder().build());
+        Date now = new Date();
+        Document entry = new Document("_id", new ObjectId())
+                .append("collection", source)
+                .append("documentKey", event.getDocumentKey())
+                .append("reason", reason)
+                .append("error", error == null ? null : String.valueOf(error.getMessage()))
+                .append("attempts", 0)
+                .append("status", STATUS_PENDING)
+                .append("failedAt", now)
+                .append("nextRetryAt", new Date(retryAtMillis))
+                .append("event", raw);
+        ReentrantLock pending = lockPending(keyOf(source, event), true);
+        try {
+            deadLetters().insertOne(entry);
+        } finally {
+            pending.unlock();
+        }
+
+        PrometheusMetricsConfig metricsConfig = PrometheusMetricsConfig.getInstance(source);
+        metricsConfig.getDeadLettered(reason).inc();
+        metricsConfig.getDeadLetterSize().inc();
+    }
+
+    /** A dead-letter entry with its decoded event. */
+    private record DeadLetter(Document entry, ChangeStreamDocument<Document> event) {
+    }
+
+    /**
+     * Retries dead-lettered events whose retry time has come on the retry pool, and returns once the pass is done.
+     * The events of one key are retried in stream order by one retry worker. Successes are removed; failures back
+     * off exponentially and are parked after {@code max-retries} attempts.
+     */
+    public void retryDue() {
+        try {
+            List<Document> due = deadLetters().find(Filters.and(Filters.eq("status", STATUS_PENDING),
+                    Filters.lte("nextRetryAt", new Date()))).sort(Sorts.ascending("nextRetryAt"))
+                    .limit(100).into(new ArrayList<>());
+            Map<String, List<DeadLetter>> byKey = new LinkedHashMap<>();
+            for (Document entry : due) {
+                ChangeStreamDocument<Document> event = EVENT_CODEC.decode(
+                        new BsonDocumentReader(entry.get("event", Document.class).toBsonDocument()),
+                        DecoderContext.builder().build());
+                byKey.computeIfAbsent(keyOf(entry.getString("collection"), event), k -> new ArrayList<>())
+                        .add(new DeadLetter(entry, event));
+            }
+            ExecutorService pool = retryPool;
+            if (pool == null) {
+                byKey.forEach(this::retryKey);
+            } else {
+                List<Future<?>> retries = new ArrayList<>(byKey.size());
+                for (Map.Entry<String, List<DeadLetter>> key : byKey.entrySet()) {
+                    retries.add(pool.submit(() -> retryKey(key.getKey(), key.getValue())));
+                }
+                for (Future<?> retry : retries) {
+                    try {
+                        retry.get();
+                    } catch (ExecutionException e) {
+                        LOGGER.error("❌ Dead-letter retry failed: {}", e.getCause().getMessage(), e.getCause());
+                    }
+                }
+            }
+            refreshSizes();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            LOGGER.error("❌ Dead-letter retry pass failed: {}", e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Retries the due dead letters of one key, oldest event first, each under the key's lock and only while it
+     * is still pending, i.e. not superseded by a newer event of the key. Releases the key once it has no pending
+     * dead letters left.
+     */
+    private void retryKey(String key, List<DeadLetter> deadLetters) {
+        deadLetters.sort(Comparator.comparing(deadLetter -> deadLetter.event().getClusterTime(),
+                Comparator.nullsFirst(Comparator.naturalOrder())));
+        String source = deadLetters.get(0).entry().getString("collection");
+        BsonDocument documentKey = deadLetters.get(0).event().getDocumentKey();
+        ReentrantLock pending = lockPending(key, true);
+        try {
+            for (DeadLetter deadLetter : deadLetters) {
+                if (deadLetters().find(Filters.and(Filters.eq("_id", deadLetter.entry().get("_id")),
+                        Filters.eq("status", STATUS_PENDING))).first() != null) {
+                    retry(deadLetter.entry(), deadLetter.event());
+                }
+            }
+            if (deadLetters().countDocuments(Filters.and(Filters.eq("collection", source),
+                    Filters.eq("documentKey", documentKey), Filters.eq("status", STATUS_PENDING))) == 0) {
+                pendingKeys.remove(key, pending);
+            }
+        } finally {
+            pending.unlock();
+        }
+    }
+
+    private void retry(Document entry, ChangeStreamDocument<Document> event) {
+        String source = entry.getString("collection");
+        BusinessTask task = tasks.get(source);
+        if (task == null) {
+            return;
+        }
+        PrometheusMetricsConfig metricsConfig = PrometheusMetricsConfig.getInstance(source);
+        String key = keyOf(source, event);
+        try {
+            runWithBudget(() -> task.processChange(event), timeBudgetMillis);
+            deadLetters().deleteOne(Filters.eq("_id", entry.get("_id")));
+            supersede(source, event);
+            breakers.remove(key);
+            metricsConfig.getDeadLetterRetries("succeeded").inc();
+        } catch (RuntimeException e) {
+            int attempts = entry.getInteger("attempts", 0) + 1;
+            boolean park = attempts >= maxRetries;
+            long delay = retryBaseDelayMillis << Math.min(attempts, 20);
+            deadLetters().updateOne(Filters.eq("_id", entry.get("_id")), Updates.combine(
+                    Updates.set("attempts", attempts),
+                    Updates.set("error", String.valueOf(e.getMessage())),
+                    Updates.set("status", park ? STATUS_PARKED : STATUS_PENDING),
+                    Updates.set("nextRetryAt", new Date(System.currentTimeMillis() + delay))));
+            metricsConfig.getDeadLetterRetries(park ? "parked" : "failed").inc();
+            if (park) {
+                LOGGER.error("❌ Parked dead-lettered {} event {} after {} attempts: {}",
+                        source, event.getDocumentKey(), attempts, e.getMessage());
+            }
+        }
+    }
+
+    private void refreshSizes() {
+        for (String source : tasks.keySet()) {
+            PrometheusMetricsConfig.getInstance(source).getDeadLetterSize()
+                    .set(deadLetters().countDocuments(Filters.eq("collection", source)));
+        }
+    }
+
+    /**
+     * Drops breakers that are closed and saw no failure within {@code breaker-open-ms}.
+     */
+    private void expireBreakers() {
+        long now = System.currentTimeMillis();
+        breakers.entrySet().removeIf(e -> e.getValue().expired(now, breakerOpenMillis));
+    }
+
+    private void updateBreakerGauge(PrometheusMetricsConfig metricsConfig, String source) {
+        long now = System.currentTimeMillis();
+        String prefix = source + ":";
+        metricsConfig.getOpenBreakers().set(breakers.entrySet().stream()
+                .filter(e -> e.getKey().startsWith(prefix) && e.getValue().openUntilMillis > now).count());
+    }
+
+    private MongoCollection<Document> deadLetters() {
+        return mongoDatabase.getCollection(collectionName);
+    }
+
+    private static String keyOf(String source, ChangeStreamDocument<Document> event) {
+        return keyOf(source, event.getDocumentKey());
+    }
+
+    private static String keyOf(String source, BsonDocument documentKey) {
+        return source + ":" + (documentKey == null ? "" : documentKey.toJson());
+    }
+
+    private static ThreadFactory daemon(String name) {
+        return r -> {
+            Thread t = new Thread(r, name);
+            t.setDaemon(true);
+            return t;
+        };
+    }
+
+    @PreDestroy
+    public synchronized void close() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            retryPool.shutdownNow();
+            watchdogs.shutdownNow();
+            scheduler = null;
+            retryPool = null;
+            watchdogs = null;
+        }
+    }
+}
@@ -0,0 +1,323 @@
+package com.example.demo.service;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+import org.bson.BsonDocument;
+import org.bson.BsonValue;
+import org.bson.RawBsonDocument;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * EventJournal records the raw change events of one collection to an append-only, segmented journal directory.
+ *
+ * <p>Each segment is a memory-mapped file named after the cluster time of its first event (16 hex digits), which
+ * makes the directory listing the journal's index by cluster time; segments starting at the same cluster time get a
+ * {@code -N} sequence suffix. A segment holds a 16-byte header (magic,
+ * version, first cluster time) followed by records of {@code length, CRC32C, cluster time, event BSON}; a zero
+ * length ends the segment. Closed segments are truncated to their records, and a record torn by a crash fails its
+ * checksum and ends the segment when read.
+ *
+ * <p>On open the journal finds the last recorded event, and events at or before it in stream order are not recorded
+ * again, so a listener resuming from an older checkpoint does not duplicate the journal's tail. Events of one
+ * transaction share a cluster time, so stream order within a cluster time is the resume token's {@code _data}, a hex
+ * string whose lexical order matches stream order.
+ */
+public class EventJournal {
+    private static final Logger LOGGER = LoggerFactory.getLogger(EventJournal.class);
+
+    private static final int MAGIC = 0x43534A52; // "CSJR"
+    private static final int VERSION = 1;
+    static final int HEADER_SIZE = 16;
+    static final int RECORD_HEADER_SIZE = 16;
+    private static final String SUFFIX = ".seg";
+
+    /** A journaled event with the cluster time it was recorded under. */
+    public record Entry(long clusterTime, RawBsonDocument event) {
+    }
+
+    private final Path directory;
+    private final long segmentBytes;
+    private FileChannel channel;
+    private MappedByteBuffer segment;
+    private int position;
+    private long lastClusterTime;
+    private String lastTokenData;
+
+    public EventJournal(Path directory, long segmentBytes) throws IOException {
+        this.directory = directory;
+        this.segmentBytes = segmentBytes;
+        Files.createDirectories(directory);
+        List<Path> segments = segments(directory);
+        // The newest segment with a complete record holds the last recorded cluster time
+        for (int i = segments.size() - 1; i >= 0 && lastClusterTime == 0; i--) {
+            try (Reader reader = new Reader(segments.subList(i, i + 1), 0)) {
+                while (reader.hasNext()) {
+                    Entry entry = reader.next();
+                    lastClusterTime = entry.clusterTime();
+                    lastTokenData = tokenData(entry.event());
+                }
+            }
+        }
+        LOGGER.info("✅ Opened event journal {} with {} segments", directory, segments.size());
+    }
+
+    /**
+     * Appends an event, rolling to a new segment when the current one is full. Events at or before the last
+     * recorded event in stream order are ignored.
+     *
+     * @return true if the event was recorded
+     */
+    public synchronized boolean append(RawBsonDocument event) {
+        long clusterTime = event.getTimestamp("clusterTime").getValue();
+        String tokenData = tokenData(event);
+        if (!isAfterLast(clusterTime, tokenData)) {
+            return false;
+        }
+        ByteBuffer bytes = event.getByteBuffer().asNIO();
+        int length = bytes.remaining();
+        try {
+            if (segment == null || position + RECORD_HEADER_SIZE + length > segment.capacity()) {
+                roll(clusterTime, RECORD_HEADER_SIZE + length);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to open a journal segment in " + directory, e);
+        }
+        segment.put(position + RECORD_HEADER_SIZE, bytes, 0, length);
+        segment.putLong(position + 8, clusterTime);
+        segment.putInt(position + 4, checksum(segment, position + 8, 8 + length));
+        // Length last: a reader only sees the record once it is complete
+        segment.putInt(position, length);
+        position += RECORD_HEADER_SIZE + length;
+        lastClusterTime = clusterTime;
+        lastTokenData = tokenData;
+        return true;
+    }
+
+    private boolean isAfterLast(long clusterTime, String tokenData) {
+        int cmp = Long.compareUnsigned(clusterTime, lastClusterTime);
+        if (cmp != 0 || lastClusterTime == 0) {
+            return cmp > 0;
+        }
+        // Same cluster time: without tokens to order them, the event is taken as already recorded
+        return tokenData != null && lastTokenData != null && tokenData.compareTo(lastTokenData) > 0;
+    }
+
+    private static String tokenData(RawBsonDocument event) {
+        BsonValue id = event.get("_id");
+        BsonValue data = id instanceof BsonDocument token ? token.get("_data") : null;
+        return data != null && data.isString() ? data.asString().getValue() : null;
+    }
+
+    private void roll(long firstClusterTime, int recordSize) throws IOException {
+        closeSegment();
+        String name = String.format("%016x", firstClusterTime);
+        Path path = directory.resolve(name + SUFFIX);
+        // One transaction's events can span segments, so an earlier segment may start at the same cluster time
+        for (int sequence = 1; Files.exists(path); sequence++) {
+            path = directory.resolve(name + "-" + sequence + SUFFIX);
+        }
+        channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        segment = channel.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(segmentBytes, HEADER_SIZE + recordSize));
+        segment.putInt(0, MAGIC);
+        segment.putInt(4, VERSION);
+        segment.putLong(8, firstClusterTime);
+        position = HEADER_SIZE;
+    }
+
+    /**
+     * Forces recorded events of the open segment to disk.
+     */
+    public synchronized void flush() {
+        if (segment != null) {
+            segment.force();
+        }
+    }
+
+    public synchronized void close() {
+        try {
+            closeSegment();
+        } catch (IOException e) {
+            LOGGER.error("❌ Failed to close journal segment in {}: {}", directory, e.getMessage());
+        }
+    }
+
+    private void closeSegment() throws IOException {
+        if (segment == null) {
+            return;
+        }
+        segment.force();
+        channel.truncate(position);
+        channel.close();
+        segment = null;
+        channel = null;
+    }
+
+    public long getLastClusterTime() {
+        return lastClusterTime;
+    }
+
+    /**
+     * Segment files of a journal directory in cluster time order.
+     */
+    public static List<Path> segments(Path directory) throws IOException {
+        if (!Files.isDirectory(directory)) {
+            return List.of();
+        }
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(path -> path.getFileName().toString().endsWith(SUFFIX))
+                    .sorted(Comparator.comparing(EventJournal::firstClusterTime, Long::compareUnsigned)
+                            .thenComparingInt(EventJournal::sequence))
+                    .toList();
+        }
+    }
+
+    /**
+     * Cluster time of the first event of a segment, from its file name.
+     */
+    public static long firstClusterTime(Path segment) {
+        return Long.parseUnsignedLong(segment.getFileName().toString().substring(0, 16), 16);
+    }
+
+    private static int sequence(Path segment) {
+        String name = segment.getFileName().toString();
+        return name.length() == 16 + SUFFIX.length() ? 0
+                : Integer.parseInt(name.substring(17, name.length() - SUFFIX.length()));
+    }
+
+    /**
+     * Reads the journal from the first event at or after {@code fromClusterTime}; 0 reads it all.
+     */
+    public static Reader read(Path directory, long fromClusterTime) throws IOException {
+        List<Path> segments = segments(directory);
+        int first = 0;
+        // The segment before the first one starting at or after the cluster time may end with its events
+        for (int i = 0; i < segments.size(); i++) {
+            if (Long.compareUnsigned(firstClusterTime(segments.get(i)), fromClusterTime) < 0) {
+                first = i;
+            }
+        }
+        return new Reader(segments.subList(first, segments.size()), fromClusterTime);
+    }
+
+    private static int checksum(ByteBuffer buffer, int offset, int length) {
+        CRC32C crc = new CRC32C();
+        crc.update(buffer.slice(offset, length));
+        return (int) crc.getValue();
+    }
+
+    /**
+     * Sequential reader over journal segments, mapping one segment at a time.
+     */
+    public static final class Reader implements Iterator<Entry>, AutoCloseable {
+        private final List<Path> segments;
+        private final long fromClusterTime;
+        private int nextSegment;
+        private FileChannel channel;
+        private MappedByteBuffer segment;
+        private int position;
+        private Entry next;
+
+        private Reader(List<Path> segments, long fromClusterTime) {
+            this.segments = new ArrayList<>(segments);
+            this.fromClusterTime = fromClusterTime;
+        }
+
+        @Override
+        public boolean hasNext() {
+            try {
+                while (next == null) {
+                    if (segment == null && !openNextSegment()) {
+                        return false;
+                    }
+                    Entry entry = readRecord();
+                    if (entry == null) {
+                        closeSegment();
+                    } else if (Long.compareUnsigned(entry.clusterTime(), fromClusterTime) >= 0) {
+                        next = entry;
+                    }
+                }
+                return true;
+            } catch (IOException e) {
+                throw new UncheckedIOException("Failed to read journal segment " + segments.get(nextSegment - 1), e);
+            }
+        }
+
+        @Override
+        public Entry next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            Entry entry = next;
+            next = null;
+            return entry;
+        }
+
+        private boolean openNextSegment() throws IOException {
+            if (nextSegment >= segments.size()) {
+                return false;
+            }
+            Path path = segments.get(nextSegment++);
+            channel = FileChannel.open(path, StandardOpenOption.READ);
+            segment = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (segment.capacity() < HEADER_SIZE || segment.getInt(0) != MAGIC || segment.getInt(4) != VERSION) {
+                throw new IOException("Not a journal segment or unsupported version: " + path);
+            }
+            position = HEADER_SIZE;
+            return true;
+        }
+
+        /** The record at the current position, or null at the end of the segment or a torn record. */
+        private Entry readRecord() {
+            if (position + RECORD_HEADER_SIZE > segment.capacity()) {
+                return null;
+            }
+            int length = segment.getInt(position);
+            if (length <= 0 || position + RECORD_HEADER_SIZE + length > segment.capacity()) {
+                return null;
+            }
+            if (segment.getInt(position + 4) != checksum(segment, position + 8, 8 + length)) {
+                LOGGER.warn("⚠️ Torn record at offset {} of journal segment {}, skipping the rest of the segment",
+                        position, segments.get(nextSegment - 1));
+                return null;
+            }
+            long clusterTime = segment.getLong(position + 8);
+            byte[] event = new byte[length];
+            segment.get(position + RECORD_HEADER_SIZE, event);
+            position += RECORD_HEADER_SIZE + length;
+            return new Entry(clusterTime, new RawBsonDocument(event));
+        }
+
+        private void closeSegment() throws IOException {
+            if (channel != null) {
+                channel.close();
+            }
+            channel = null;
+            segment = null;
+        }
+
+        @Override
+        public void close() {
+            try {
+                closeSegment();
+            } catch (IOException e) {
+                LOGGER.error("❌ Failed to close journal segment: {}", e.getMessage());
+            }
+        }
+    }
+}
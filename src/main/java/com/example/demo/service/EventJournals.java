@@ -0,0 +1,106 @@
+package com.example.demo.service;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.BiConsumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.example.demo.config.ChangeStreamProperties;
+
+/**
+ * EventJournals tees each collection's listener events to its {@link EventJournal} in record mode, and feeds the
+ * recorded journals back through the mediator with a {@link JournalReplayer} in replay mode.
+ */
+class EventJournals {
+    private static final Logger LOGGER = LoggerFactory.getLogger(EventJournals.class);
+
+    private final ChangeStreamProperties.Journal settings;
+
+    // Journals being recorded, per collection
+    private final Map<String, EventJournal> journals = new HashMap<>();
+
+    EventJournals(ChangeStreamProperties.Journal settings) {
+        this.settings = settings;
+    }
+
+    boolean isRecording() {
+        return settings.isRecording();
+    }
+
+    boolean isReplaying() {
+        return settings.isReplaying();
+    }
+
+    /**
+     * Opens the collection's journal in record mode; does nothing otherwise.
+     */
+    void open(String collectionName) {
+        if (!isRecording()) {
+            return;
+        }
+        try {
+            journals.put(collectionName,
+                    new EventJournal(Path.of(settings.path(), collectionName), settings.segmentBytes()));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to open event journal for " + collectionName, e);
+        }
+    }
+
+    /**
+     * The journal the collection's events are recorded to, null when not recording.
+     */
+    EventJournal get(String collectionName) {
+        return journals.get(collectionName);
+    }
+
+    /**
+     * Tees an event to the collection's journal; a journal failure is logged and never stops the listener.
+     */
+    void record(EventJournal journal, String collectionName, StreamEvent event) {
+        try {
+            journal.append(event.rawDocument());
+        } catch (RuntimeException e) {
+            LOGGER.error("❌ Failed to journal event for {}: {}", collectionName, e.getMessage());
+        }
+    }
+
+    /**
+     * Replays the recorded journal of every collection through the mediator, all collections starting together so
+     * that their recorded offsets to each other are kept, and logs a report per collection. Each replay runs on a
+     * thread handed to {@code start}.
+     */
+    void startReplay(EventProcessingMediator mediator, Set<String> collectionNames,
+                     BiConsumer<String, Thread> start) {
+        JournalReplayer replayer = new JournalReplayer(mediator, Path.of(settings.path()), settings.replaySpeed());
+        long origin;
+        try {
+            origin = replayer.origin(collectionNames);
+        } catch (IOException e) {
+            LOGGER.error("❌ Failed to read event journals in {}: {}", settings.path(), e.getMessage());
+            return;
+        }
+        long startNanos = System.nanoTime();
+        for (String collectionName : collectionNames) {
+            LOGGER.info("Replaying journal of {} at speed {}", collectionName, settings.replaySpeed());
+            start.accept(collectionName, new Thread(() -> {
+                try {
+                    replayer.replay(collectionName, origin, startNanos);
+                } catch (IOException | RuntimeException e) {
+                    LOGGER.error("❌ Replay of {} failed: {}", collectionName, e.getMessage(), e);
+                }
+            }, "Replay-" + collectionName));
+        }
+    }
+
+    void close() {
+        for (EventJournal journal : journals.values()) {
+            journal.close();
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package com.example.demo.service;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * EventLogSampler decides which per-event log lines are written: one in every {@code rate} calls, so the hot path
+ * logs a steady sample instead of every event. Errors are not sampled; callers log them unconditionally.
+ * The rate is set once at startup from {@code spring.changestream.log-sample-rate}; 1 logs every event.
+ */
+public final class EventLogSampler {
+    private static final AtomicLong COUNTER = new AtomicLong();
+    private static volatile int rate = 1;
+
+    private EventLogSampler() {
+    }
+
+    public static void setRate(int sampleRate) {
+        rate = Math.max(1, sampleRate);
+    }
+
+    /**
+     * True for one call in every {@code rate}.
+     */
+    public static boolean sample() {
+        int every = rate;
+        return every == 1 || COUNTER.incrementAndGet() % every == 0;
+    }
+}
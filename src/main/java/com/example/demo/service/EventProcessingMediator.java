@@ -1,16 +1,17 @@
 package com.example.demo.service;
 
 import java.time.Duration;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ThreadFactory;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicInteger;
 
 import org.bson.BsonDocument;
+import org.bson.BsonTimestamp;
+import org.bson.BsonValue;
 import org.bson.Document;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -19,7 +20,14 @@ import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.DependsOn;
 import org.springframework.stereotype.Service;
 
+import com.example.demo.config.ChangeStreamProperties;
+import com.example.demo.config.ThreadPoolProperties;
+import com.example.demo.metrics.ChangeStreamEvents;
+import com.example.demo.metrics.PrometheusMetricsConfig;
 import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoCursor;
+import com.mongodb.client.model.changestream.ChangeStreamDocument;
+import com.mongodb.client.model.changestream.OperationType;
 
 import jakarta.annotation.PostConstruct;
 
@@ -36,19 +44,55 @@ public class EventProcessingMediator {
     // Stores the MongoDB collections mapped by their names
     private final Map<String, MongoCollection<Document>> collectionMap;
     
-    // Stores the executor service for each collection to manage parallel processing
-    private final Map<String, ExecutorService> executorServicesMap = new HashMap<>();
+    // Tracks live vs catch-up mode for each collection
+    private final Map<String, CatchUpController> catchUpControllers = new HashMap<>();
 
-    @Value("${spring.threadpool.nums}")
-    private int nums; // Number of threads in the thread pool
+    // Transaction fences for collections running in exactly-once mode
+    private final Map<String, TokenFence> fences = new HashMap<>();
+
+    // Dispatched and completed stream positions, read by the lag monitor
+    private final Map<String, LagTracker> lagTrackers = new HashMap<>();
+
+    // Pause, resume and seek commands from the admin API for each collection's listener
+    private final Map<String, ListenerControl> controls = new HashMap<>();
+    // Collections seeked to an operation time whose next checkpoint must move all of their checkpoints
+    private final Set<String> seekCheckpointsDue = ConcurrentHashMap.newKeySet();
+
+    // Listener or replay thread of each collection, joined when draining on shutdown
+    private final Map<String, Thread> listenerThreads = new ConcurrentHashMap<>();
+
+    // Set on shutdown: listeners stop pulling from their cursors
+    private volatile boolean draining;
+
+    private final ChangeStreamProperties properties;
+
+    // Executors, concurrency limits and lanes that events are dispatched to
+    private final WorkerPools workerPools;
+
+    // Recording of listener events, or their replay
+    private final EventJournals journals;
+
+    private EventSource eventSource;
+
+    @Value("${spring.mongodb.database:}")
+    private String databaseName;
+
+    // Time budgets, circuit breakers and dead-lettering for failed events; unused unless enabled
+    @Autowired(required = false)
+    private DeadLetterService deadLetterService;
 
     @Value("${spring.lifecycle.timeout-per-shutdown-phase:30s}")
     private String shutdownTimeoutString;
     private long shutdownTimeout;
 
     @Autowired
-    public EventProcessingMediator(Map<String, MongoCollection<Document>> collectionMap, List<BusinessTask> businessTasks) {
+    public EventProcessingMediator(Map<String, MongoCollection<Document>> collectionMap, List<BusinessTask> businessTasks,
+                                   ChangeStreamProperties properties, ThreadPoolProperties threadPool) {
         this.collectionMap = collectionMap;
+        this.properties = properties;
+        this.workerPools = new WorkerPools(threadPool, properties.adaptiveConcurrency(), properties.priorityLanes(),
+                () -> draining, this::retireCheckpoints);
+        this.journals = new EventJournals(properties.journal());
         LOGGER.info("Initializing with collectionMap: {}", collectionMap);
         
         // Associate each business task with its respective collection
@@ -69,88 +113,196 @@ public class EventProcessingMediator {
     public void init() {
         // Parse shutdown timeout duration from configuration
         this.shutdownTimeout = Duration.parse("PT" + shutdownTimeoutString.replaceAll("[^0-9]", "") + "S").getSeconds();
-        
-        // Initialize a fixed thread pool for each collection
+        EventLogSampler.setRate(properties.logSampleRate());
+        eventSource = newEventSource();
+        workerPools.startSharedPool();
+        ChangeStreamProperties.ExactlyOnce exactlyOnce = properties.exactlyOnce();
+        ChangeStreamProperties.CatchUp catchUp = properties.catchup();
+
         for (String collectionName : tasks.keySet()) {
-            AtomicInteger threadCounter = new AtomicInteger(0); 
-            ThreadFactory threadFactory = r -> {
+            BusinessTask task = tasks.get(collectionName);
+            PrometheusMetricsConfig metricsConfig = PrometheusMetricsConfig.getInstance(collectionName);
+            boolean fenced = exactlyOnce.enabled() && task.supportsBatchWrites() && task.resumeTokenService != null;
+            if (exactlyOnce.enabled() && !fenced) {
+                LOGGER.warn("Task for {} has no bulk write path, staying at-least-once", collectionName);
+            }
+            workerPools.add(collectionName, fenced, metricsConfig);
+            if (fenced) {
+                fences.put(collectionName, TokenFence.forTask(task, metricsConfig, exactlyOnce.commitRetries(),
+                        exactlyOnce.commitRetryBackoffMs()));
+                LOGGER.info("Collection {} runs exactly-once with transactional batches of up to {} events",
+                        collectionName, exactlyOnce.batchSize());
+            } else {
+                TokenFence.retire(task, "ChangeStream-" + collectionName + "-T0");
+            }
+
+            controls.put(collectionName, new ListenerControl());
+            catchUpControllers.put(collectionName, new CatchUpController(collectionName, catchUp.enabled(),
+                    catchUp.enterLagMs(), catchUp.exitLagMs(), catchUp.cursorBatchSize(), catchUp.microBatchSize(),
+                    catchUp.checkpointIntervalBatches(), metricsConfig));
+            lagTrackers.put(collectionName, new LagTracker(collectionName));
+            journals.open(collectionName);
+        }
+    }
 
-                Thread t = new Thread(r);
-                t.setDaemon(true);
-                t.setName("ChangeStream-" + collectionName+"-T"+ threadCounter.getAndIncrement());
-                return t;
-            };
-            ExecutorService executorService = Executors.newFixedThreadPool(nums, threadFactory);
-            executorServicesMap.put(collectionName, executorService);
-            LOGGER.info("Created a fixed-thread pool of size {} for collection {}", nums, collectionName);
+    private EventSource newEventSource() {
+        ChangeStreamProperties.Synthetic synthetic = properties.synthetic();
+        if ("synthetic".equals(properties.source())) {
+            if (synthetic.database().isBlank() || !synthetic.database().equals(databaseName)) {
+                throw new IllegalStateException("Synthetic events would write fake checkpoints and rows to database "
+                        + databaseName + "; point spring.mongodb.database at a scratch database and set "
+                        + "spring.changestream.synthetic.database to the same name");
+            }
+            LOGGER.warn("⚠️ Listeners read synthetic events at {} events/s per collection, not change streams",
+                    synthetic.rate());
+            return new SyntheticEventSource(synthetic.rate(), synthetic.keys(), synthetic.skew(),
+                    synthetic.burstSize(), synthetic.maxEvents(), synthetic.seed());
+        } else if (!"change-stream".equals(properties.source())) {
+            throw new IllegalArgumentException("Unknown event source: " + properties.source());
         }
+        // Recording needs the raw bytes of every event
+        return new ChangeStreamEventSource(properties.rawEvents().enabled() || journals.isRecording(),
+                this::stopsListening);
+    }
+
+    /**
+     * True when the collection's listener must stop pulling from its cursor: on drain, or to reopen it for a seek.
+     */
+    private boolean stopsListening(String collectionName) {
+        ListenerControl control = controls.get(collectionName);
+        return draining || (control != null && control.isSeekPending());
+    }
+
+    /**
+     * Drops the checkpoints a worker that exited while the pipeline runs held for the collections it served.
+     */
+    private void retireCheckpoints(List<String> collectionNames, String threadName) {
+        for (String collectionName : collectionNames) {
+            BusinessTask task = tasks.get(collectionName);
+            if (task == null || task.resumeTokenService == null) {
+                continue;
+            }
+            try {
+                task.resumeTokenService.retireCheckpoint(collectionName, threadName);
+                LOGGER.info("🔄 Retired checkpoint of {} for {}", threadName, collectionName);
+            } catch (RuntimeException e) {
+                LOGGER.error("❌ Failed to retire checkpoint of {} for {}: {}", threadName, collectionName,
+                        e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Stream positions of each collection's pipeline, for lag monitoring.
+     */
+    public Map<String, LagTracker> getLagTrackers() {
+        return lagTrackers;
     }
 
     // Starts change stream listeners for all collections
     public void startChangeStreamListeners() {
+        if (deadLetters() != null) {
+            deadLetterService.start(tasks);
+        }
+        if (journals.isReplaying()) {
+            journals.startReplay(this, tasks.keySet(), this::startListenerThread);
+            return;
+        }
         for (String collectionName : tasks.keySet()) {
             LOGGER.info("Starting listener for collection: {}", collectionName);
-            new Thread(() -> listenForChanges(collectionName), "Listener-" + collectionName).start();
+            startListenerThread(collectionName,
+                    new Thread(() -> listenForChanges(collectionName), "Listener-" + collectionName));
         }
         LOGGER.info("Started all change stream listeners.");
     }
 
+    private void startListenerThread(String collectionName, Thread thread) {
+        listenerThreads.put(collectionName, thread);
+        thread.start();
+    }
+
     /**
      * Listens for changes on a specific collection and submits tasks for processing
      * with max retry attempts. 
      * */ 
     private void listenForChanges(String collectionName) {
         int retryCount = 0;
+        // Set when the cursor is reopened after a live/catch-up switch, so we continue from the last dispatched event
+        BsonDocument reopenToken = null;
+        ListenerControl control = controls.get(collectionName);
     
         // Continue attempting to listen until max retries are reached
-        while (retryCount < MAX_RETRIES) {
+        while (retryCount < MAX_RETRIES && !draining) {
             BusinessTask task = tasks.get(collectionName);
             if (task == null) {
                 LOGGER.warn("No task for collection: {}", collectionName);
                 return;
             }
+            CatchUpController catchUp = catchUpControllers.get(collectionName);
+            TokenFence fence = fences.get(collectionName);
     
-            // Retrieve the resume token for restarting the change stream
-            BsonDocument resumeToken = task.resumeTokenService != null ?
-                task.resumeTokenService.getResumeToken(collectionName) : null;
-            LOGGER.info("Starting change stream for {} with resume token: {}", collectionName, resumeToken);
-    
-            try {
-                // Start the change stream and process events
-                task.changeStreamIterator(resumeToken).forEach(event -> {
-                    // Handle invalidation event
-                    if ("invalidate".equals(event.getOperationType())) {
-                        LOGGER.info("Change stream invalidated for {}. Will attempt to restart.", collectionName);
-                        throw new RuntimeException("Invalidated"); // Break the iterator to trigger a retry
-                    }
+            // A seek from the admin API wins over any stored position, and over a reopen after a failed event
+            ListenerControl.Position reopenAt = control.takeReopen();
+            ListenerControl.Position seek = control.takeSeek();
+            ListenerControl.Position target = seek != null ? seek : reopenAt;
+            BsonTimestamp startAt = target != null ? target.operationTime() : null;
+            if (seek != null) {
+                persistSeek(collectionName, task, fence, seek);
+            }
+
+            // Retrieve the resume token for restarting the change stream; in exactly-once mode the fence wins.
+            // Loading the fence also refuses batches dispatched from the previous cursor, their events come again
+            BsonDocument fenceToken = fence != null && reopenToken == null ? fence.load() : null;
+            BsonDocument resumeToken = target != null ? target.resumeToken() : reopenToken;
+            if (resumeToken == null && startAt == null) {
+                resumeToken = fenceToken;
+            }
+            if (resumeToken == null && startAt == null) {
+                resumeToken = task.resumeTokenService != null ?
+                    task.resumeTokenService.getResumeToken(collectionName) : null;
+            }
+            if (reopenToken == null) {
+                // Events up to the newest checkpoint, or the newest dispatch on a retry, were processed before
+                lagTrackers.get(collectionName).resumedFrom(replayHorizon(collectionName, task),
+                        resumeToken != null || startAt != null ? new ListenerControl.Position(resumeToken, startAt)
+                                : null);
+            }
+            reopenToken = null;
+            LOGGER.info("Starting change stream for {} in {} mode with resume token: {}", 
+                collectionName, catchUp.getMode(), startAt != null ? "operation time " + startAt : resumeToken);
     
-                    // Validate the event's fullDocument
-                    Document fullDocument = event.getFullDocument();
-                    if (fullDocument == null || !fullDocument.containsKey("_id")) {
-                        LOGGER.error("Event missing _id in fullDocument: {}", event);
-                        return; // Skip this event
+            try (MongoCursor<StreamEvent> cursor = startAt != null
+                    ? eventSource.openAt(task, startAt, catchUp.cursorBatchSize())
+                    : eventSource.open(task, resumeToken, catchUp.cursorBatchSize())) {
+                reopenToken = consumeChanges(collectionName, task, catchUp, fence, cursor);
+                if (reopenToken != null) {
+                    // Mode switched: reopen with the batch size of the new mode, not counted as a retry
+                    continue;
+                }
+                if (draining) {
+                    LOGGER.info("Listener for {} stopped for drain", collectionName);
+                    return;
+                }
+                if (control.isSeekPending()) {
+                    // Seek: reopen at the requested position, not counted as a retry. After a failed event the
+                    // reopen waits a little, so an event that keeps failing does not spin the listener
+                    if (lagTrackers.get(collectionName).isHeld() && !sleepBeforeRetry()) {
+                        return;
                     }
+                    continue;
+                }
     
-                    // Submit event processing to the executor service
-                    ExecutorService executorService = executorServicesMap.get(collectionName);
-                    executorService.submit(() -> {
-                        try {
-                            LOGGER.info("🔄 Processing event on thread: {} for collection: {}", 
-                                Thread.currentThread().getName(), collectionName);
-                            task.startProcessing(Thread.currentThread().getName(), event);
-                        } catch (Exception e) {
-                            LOGGER.error("Failed to process event {} {}", event, e);
-                        }
-                    });
-                });
-    
-                // If the forEach loop exits normally, it’s unexpected for a change stream
+                // If the loop exits normally, it’s unexpected for a change stream
                 LOGGER.warn("Change stream closed normally for {}. Retrying...", collectionName);
                 retryCount++;
     
             } catch (Exception e) {
+                if (draining) {
+                    LOGGER.warn("⚠️ Listener for {} stopped for drain on error: {}", collectionName, e.getMessage());
+                    return;
+                }
                 // Handle specific invalidation case
-                if (e.getMessage().equals("Invalidated")) {
+                if ("Invalidated".equals(e.getMessage())) {
                     LOGGER.info("Change stream invalidated. Retrying...");
                 } else {
                     // Log other unexpected errors
@@ -159,43 +311,510 @@ public class EventProcessingMediator {
     
                 // Increment retry count and add delay before next attempt
                 retryCount++;
-                if (retryCount < MAX_RETRIES) {
-                    try {
-                        Thread.sleep(RETRY_DELAY_MS); // Delay to avoid rapid retries
-                    } catch (InterruptedException ie) {
-                        Thread.currentThread().interrupt();
-                        LOGGER.error("Interrupted during retry delay", ie);
-                        return;
-                    }
+                if (retryCount < MAX_RETRIES && !sleepBeforeRetry()) {
+                    return;
                 }
             }
         }
     
+        if (draining) {
+            return;
+        }
         // Log failure and stop if max retries are exhausted
         LOGGER.error("Max retries reached for collection {}. Stopping listener.", collectionName);
         // Optional: Add further action here, e.g., notify an admin or trigger a shutdown
     }
 
-    // Gracefully shuts down the executor services for all collections
-    public void shutdown() {
-        LOGGER.info("Shutting down...");
-        for (ExecutorService executor : executorServicesMap.values()) {
-            executor.shutdown();
+    /**
+     * Delay to avoid rapid retries; false if the listener was interrupted meanwhile.
+     */
+    private static boolean sleepBeforeRetry() {
+        try {
+            Thread.sleep(RETRY_DELAY_MS);
+            return true;
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            LOGGER.error("Interrupted during retry delay", ie);
+            return false;
         }
+    }
+
+    /**
+     * Cluster time up to which a reopened stream receives events processed before: the newest checkpoint after a
+     * restart, or the newest dispatched event when the listener retries.
+     */
+    private BsonTimestamp replayHorizon(String collectionName, BusinessTask task) {
+        BsonTimestamp horizon = null;
         try {
-            for (ExecutorService executor : executorServicesMap.values()) {
-                if (!executor.awaitTermination(shutdownTimeout, TimeUnit.SECONDS)) {
-                    executor.shutdownNow();
-                    LOGGER.warn("Forced shutdown of executor after timeout");
+            horizon = task.resumeTokenService != null
+                    ? task.resumeTokenService.getLatestClusterTime(collectionName) : null;
+        } catch (RuntimeException e) {
+            LOGGER.warn("⚠️ Failed to read newest checkpoint of {}, replays are not counted: {}", collectionName,
+                    e.getMessage());
+        }
+        StreamEvent lastDispatched = lagTrackers.get(collectionName).getLastDispatchedEvent();
+        BsonTimestamp dispatched = lastDispatched != null ? lastDispatched.clusterTime() : null;
+        if (horizon == null || (dispatched != null && dispatched.compareTo(horizon) > 0)) {
+            return dispatched;
+        }
+        return horizon;
+    }
+
+    /**
+     * Reads events from the cursor and dispatches them to the collection's executor. In live mode every event is
+     * submitted on its own; in catch-up mode events are grouped into micro-batches, flushed when the batch is full
+     * or the locally buffered cursor batch is exhausted. With a fence (exactly-once mode) events are always batched
+     * and every batch commits as one transaction. On drain the listener stops pulling after the event in hand and
+     * dispatches the open batch.
+     *
+     * @return the resume token of the last dispatched event when the mode switched, null if the cursor ended
+     */
+    private BsonDocument consumeChanges(String collectionName, BusinessTask task, CatchUpController catchUp,
+                                        TokenFence fence, MongoCursor<StreamEvent> cursor) {
+        AdaptiveConcurrencyLimiter limiter = workerPools.limiter(collectionName);
+        EventJournal journal = journals.get(collectionName);
+        LagTracker lagTracker = lagTrackers.get(collectionName);
+        PrometheusMetricsConfig metricsConfig = PrometheusMetricsConfig.getInstance(collectionName);
+        List<StreamEvent> batch = new ArrayList<>();
+
+        while (!draining && awaitNext(lagTracker, controls.get(collectionName), cursor)) {
+            StreamEvent event = cursor.next();
+            lagTracker.arrived(event);
+            if (lagTracker.isReplay(event.clusterTime())) {
+                metricsConfig.getReplayedEvents().inc();
+            }
+            if (journal != null) {
+                journals.record(journal, collectionName, event);
+            }
+
+            // Handle invalidation event
+            if (event.operationType() == OperationType.INVALIDATE) {
+                LOGGER.info("Change stream invalidated for {}. Will attempt to restart.", collectionName);
+                submitBatch(task, catchUp, fence, batch, catchUp.isCatchingUp(), true);
+                throw new RuntimeException("Invalidated"); // Break the iterator to trigger a retry
+            }
+
+            // Validate the event's fullDocument
+            if (!event.hasDocumentId()) {
+                LOGGER.error("Event missing _id in fullDocument: {}", event);
+                // Passed over, so the watermark does not wait for it
+                lagTracker.settled(lagTracker.dispatched(event, 1, false), 1);
+                event.done(false);
+                continue; // Skip this event
+            }
+
+            long lagMillis = event.lagMillis();
+            boolean wasCatchingUp = catchUp.isCatchingUp();
+            boolean switched = catchUp.observeLag(lagMillis);
+            if (limiter != null) {
+                limiter.observeLag(lagMillis);
+            }
+
+            if (wasCatchingUp || fence != null) {
+                // The event that ends catch-up still belongs to the open batch and forces its checkpoint
+                batch.add(event);
+                int batchLimit = fence != null ? properties.exactlyOnce().batchSize() : catchUp.getMicroBatchSize();
+                if (switched || batch.size() >= batchLimit || cursor.available() == 0) {
+                    submitBatch(task, catchUp, fence, batch, wasCatchingUp, switched);
                 }
+            } else {
+                submitEvent(task, collectionName, event);
+            }
+
+            if (switched) {
+                return event.resumeToken();
             }
+        }
+        submitBatch(task, catchUp, fence, batch, catchUp.isCatchingUp(), true);
+        return null;
+    }
+
+    /**
+     * Waits for the cursor's next event, marking the listener idle on its tracker while it blocks, then holds the
+     * event while the listener is paused. False if the cursor ended or the listener must stop for a drain or seek.
+     */
+    private boolean awaitNext(LagTracker lagTracker, ListenerControl control, MongoCursor<StreamEvent> cursor) {
+        lagTracker.awaiting();
+        boolean hasNext;
+        try {
+            hasNext = cursor.hasNext();
+        } finally {
+            lagTracker.received();
+        }
+        try {
+            return hasNext && control.awaitRunnable(() -> draining);
         } catch (InterruptedException e) {
-            for (ExecutorService executor : executorServicesMap.values()) {
-                executor.shutdownNow();
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private void submitEvent(BusinessTask task, String collectionName, StreamEvent streamEvent) {
+        LagTracker lagTracker = lagTrackers.get(collectionName);
+        LagTracker.Dispatch dispatch = lagTracker.dispatched(streamEvent, 1, true);
+        String operationType = ChangeStreamEvents.dispatchTraced() ? streamEvent.operationType().getValue() : null;
+        workerPools.dispatch(collectionName, operationType, List.of(streamEvent), () -> {
+            String threadName = Thread.currentThread().getName();
+            // Processed, or dead-lettered
+            boolean handled = false;
+            try {
+                ChangeStreamDocument<Document> event = streamEvent.decode();
+                if (LOGGER.isInfoEnabled() && EventLogSampler.sample()) {
+                    LOGGER.info("🔄 Processing event on thread: {} for collection: {}", threadName, collectionName);
+                }
+                if (deadLetters() != null) {
+                    boolean processed = deadLetterService.process(task, threadName, event,
+                            () -> task.startProcessing(threadName, event, false));
+                    handled = true;
+                    return streamEvent.done(processed);
+                }
+                task.startProcessing(threadName, event, false);
+                handled = true;
+                return streamEvent.done(true);
+            } catch (Exception e) {
+                LOGGER.error("Failed to process event {} {}", streamEvent, e);
+                return streamEvent.done(false);
+            } finally {
+                settle(task, threadName, lagTracker, dispatch, 1, handled);
+            }
+        });
+    }
+
+    /**
+     * Settles a dispatch the worker handled and checkpoints the watermark; a dispatch that failed without being
+     * dead-lettered holds the watermark instead, and the listener reopens behind it.
+     */
+    private void settle(BusinessTask task, String threadName, LagTracker lagTracker, LagTracker.Dispatch dispatch,
+                        int count, boolean handled) {
+        if (!handled) {
+            // Fenced batches reopen from their fence
+            if (lagTracker.failed(dispatch, count) && !fences.containsKey(task.getCollectionName())) {
+                reopenAfterFailure(task.getCollectionName(), lagTracker);
+            }
+            return;
+        }
+        checkpoint(task, threadName, lagTracker.settled(dispatch, count));
+    }
+
+    /**
+     * An event failed without being dead-lettered. The listener reopens at the watermark, so the failed event and
+     * everything dispatched after it come again and checkpoints move on once they are processed. A stream that
+     * started at the present reopens at its first event's cluster time, or at the stored checkpoints when the
+     * source cannot open at a time.
+     */
+    private void reopenAfterFailure(String collectionName, LagTracker lagTracker) {
+        if (journals.isReplaying()) {
+            LOGGER.error("❌ {} has failed events; journal replay cannot reopen, its checkpoints stay behind them",
+                    collectionName);
+            return;
+        }
+        ListenerControl.Position position = lagTracker.reopenPosition();
+        ListenerControl control = controls.get(collectionName);
+        if (position != null && (position.resumeToken() != null || eventSource.canOpenAtOperationTime())) {
+            control.reopen(position);
+        } else {
+            control.reopen();
+        }
+        LOGGER.warn("⚠️ {} has failed events, reopening its listener at {}", collectionName,
+                position != null ? position : "its checkpoints");
+    }
+
+    /**
+     * Saves the collection's watermark as the worker's checkpoint; a failed save is logged and the next one
+     * catches up.
+     */
+    private void checkpoint(BusinessTask task, String threadName, StreamEvent watermark) {
+        if (watermark == null || watermark.resumeToken() == null || task.resumeTokenService == null) {
+            return;
+        }
+        try {
+            if (seekCheckpointsDue.remove(task.getCollectionName())) {
+                task.resumeTokenService.saveSeekCheckpoint(watermark.clusterTime(), watermark.resumeToken(),
+                        threadName, task.getCollectionName());
+                return;
             }
+            task.resumeTokenService.saveResumeToken(watermark.clusterTime(), watermark.resumeToken(), threadName,
+                    task.getCollectionName());
+        } catch (RuntimeException e) {
+            LOGGER.error("❌ Failed to save checkpoint for {}: {}", task.getCollectionName(), e.getMessage());
+        }
+    }
+
+    /**
+     * Makes a seek survive a restart. A token seek moves every checkpoint of the collection to the token at once;
+     * a time seek has no token, so the first checkpoint after it moves them all instead, and a restart before that
+     * resumes from the checkpoints saved before the seek. Fenced collections always resume from their fence.
+     */
+    private void persistSeek(String collectionName, BusinessTask task, TokenFence fence,
+                             ListenerControl.Position seek) {
+        if (fence != null || task.resumeTokenService == null) {
+            return;
+        }
+        if (seek.resumeToken() == null) {
+            seekCheckpointsDue.add(collectionName);
+            return;
+        }
+        seekCheckpointsDue.remove(collectionName);
+        try {
+            task.resumeTokenService.saveSeekCheckpoint(clusterTimeOf(seek.resumeToken()), seek.resumeToken(),
+                    "ChangeStream-" + collectionName + "-T0", collectionName);
+        } catch (RuntimeException e) {
+            LOGGER.error("❌ Failed to save seek position for {}: {}", collectionName, e.getMessage());
+        }
+    }
+
+    /**
+     * Cluster time encoded at the start of a server resume token ({@code _data} of 0x82 and the 8-byte
+     * timestamp, in hex); zero for tokens in any other format.
+     */
+    static BsonTimestamp clusterTimeOf(BsonDocument resumeToken) {
+        BsonValue data = resumeToken.get("_data");
+        if (data != null && data.isString()) {
+            String hex = data.asString().getValue();
+            if (hex.length() >= 18 && hex.regionMatches(true, 0, "82", 0, 2)) {
+                try {
+                    return new BsonTimestamp(Long.parseUnsignedLong(hex.substring(2, 18), 16));
+                } catch (NumberFormatException e) {
+                    // Not a timestamp after all
+                }
+            }
+        }
+        return new BsonTimestamp(0L);
+    }
+
+    private void submitBatch(BusinessTask task, CatchUpController catchUp, TokenFence fence, List<StreamEvent> batch,
+                             boolean catchingUp, boolean forceCheckpoint) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        List<StreamEvent> streamEvents = new ArrayList<>(batch);
+        batch.clear();
+        // Fenced batches checkpoint through the fence
+        boolean checkpoint = fence == null && (catchUp.shouldCheckpointBatch() || forceCheckpoint);
+        StreamEvent last = streamEvents.get(streamEvents.size() - 1);
+        LagTracker lagTracker = lagTrackers.get(task.getCollectionName());
+        LagTracker.Dispatch dispatch = lagTracker.dispatched(last, streamEvents.size(), checkpoint);
+        long generation = fence != null ? fence.generation() : 0;
+        workerPools.dispatch(task.getCollectionName(), null, streamEvents, () -> {
+            List<ChangeStreamDocument<Document>> events = StreamEvent.decodeAll(streamEvents);
+            String threadName = Thread.currentThread().getName();
+            boolean handled = false;
+            try {
+                // Unfenced batches are ordered against dead-letter retries of their keys
+                int succeeded = fence != null
+                        ? task.startFencedBatchProcessing(threadName, events, fence, generation)
+                        : deadLetters() != null
+                        ? deadLetterService.processBatch(task, events,
+                                () -> task.startBatchProcessing(threadName, events, false))
+                        : task.startBatchProcessing(threadName, events, false);
+                if (catchingUp) {
+                    catchUp.recordCatchUpEvents(succeeded);
+                }
+                handled = true;
+                StreamEvent.doneAll(streamEvents, true);
+                return true;
+            } catch (TokenFence.StaleBatchException e) {
+                LOGGER.debug("Dropped batch of {} events for {}: {}", events.size(), task.getCollectionName(),
+                        e.getMessage());
+                StreamEvent.doneAll(streamEvents, false);
+                return false;
+            } catch (Exception e) {
+                LOGGER.error("Failed to process batch of {} events for collection {}: {}", 
+                    events.size(), task.getCollectionName(), e.getMessage(), e);
+                if (fence != null) {
+                    reopenFromFence(task.getCollectionName(), fence, events);
+                }
+                if (fence == null && deadLetters() != null) {
+                    // Fenced batches are retried as a whole on resume; others are isolated event by event
+                    deadLetterService.isolate(task, threadName, events);
+                    handled = true;
+                }
+                StreamEvent.doneAll(streamEvents, false);
+                return false;
+            } finally {
+                settle(task, threadName, lagTracker, dispatch, streamEvents.size(), handled);
+            }
+        });
+    }
+
+    /**
+     * A fenced batch failed to commit. The fence refuses every later batch and the listener reopens from it, so
+     * the failed events come again and nothing commits past them. Before the first commit there is no fence to
+     * reopen from, so the stream reopens at the failed batch's first event instead.
+     */
+    private void reopenFromFence(String collectionName, TokenFence fence, List<ChangeStreamDocument<Document>> events) {
+        fence.halt();
+        if (journals.isReplaying()) {
+            LOGGER.error("❌ Fence of {} halted; journal replay cannot reopen, later batches are refused",
+                    collectionName);
+            return;
+        }
+        ListenerControl control = controls.get(collectionName);
+        if (!fence.hasCommitted() && eventSource.canOpenAtOperationTime()) {
+            control.seek(new ListenerControl.Position(null, events.get(0).getClusterTime()));
+        } else {
+            control.reopen();
+        }
+        LOGGER.warn("⚠️ Reopening {} from its fence after a failed batch", collectionName);
+    }
+
+    /**
+     * Runs events from a replayed journal through the same dispatch path as the change stream listener.
+     */
+    void replay(String collectionName, MongoCursor<StreamEvent> events) {
+        BusinessTask task = tasks.get(collectionName);
+        if (task == null) {
+            LOGGER.warn("No task for collection: {}", collectionName);
+            return;
+        }
+        CatchUpController catchUp = catchUpControllers.get(collectionName);
+        TokenFence fence = fences.get(collectionName);
+        while (consumeChanges(collectionName, task, catchUp, fence, events) != null) {
+            // A mode switch needs no cursor reopen here, replay carries on with the same events
+        }
+    }
+
+    public Set<String> getCollectionNames() {
+        return tasks.keySet();
+    }
+
+    /**
+     * Resizes the collection's worker pool, see {@link WorkerPools#resize}. Fenced collections keep their single
+     * worker.
+     */
+    public void resize(String collectionName, int workers) {
+        if (fences.containsKey(collectionName)) {
+            throw new IllegalStateException("Collection " + collectionName + " is fenced and runs on a single worker");
+        }
+        workerPools.resize(collectionName, workers);
+        PrometheusMetricsConfig.getInstance(collectionName).getControlOperations("resize").inc();
+        LOGGER.info("🔄 Resized worker pool of {} to {}", collectionName, workers);
+    }
+
+    /**
+     * Holds the collection's listener at its next event; the cursor stays open and dispatched work carries on.
+     */
+    public void pause(String collectionName) {
+        controls.get(collectionName).pause();
+        PrometheusMetricsConfig metricsConfig = PrometheusMetricsConfig.getInstance(collectionName);
+        metricsConfig.getListenerPaused().set(1);
+        metricsConfig.getControlOperations("pause").inc();
+        LOGGER.warn("⚠️ Paused listener of {}", collectionName);
+    }
+
+    public void resume(String collectionName) {
+        controls.get(collectionName).resume();
+        PrometheusMetricsConfig metricsConfig = PrometheusMetricsConfig.getInstance(collectionName);
+        metricsConfig.getListenerPaused().set(0);
+        metricsConfig.getControlOperations("resume").inc();
+        LOGGER.info("✅ Resumed listener of {}", collectionName);
+    }
+
+    /**
+     * Makes the collection's listener reopen its stream at {@code position}, dispatching nothing after the event
+     * in hand. The position is saved as the collection's checkpoint (see {@link #persistSeek}), so a restart does
+     * not undo the seek. In exactly-once mode the fence still skips events at or behind its committed token, and
+     * batches dispatched before the seek that have not committed yet are dropped.
+     */
+    public void seek(String collectionName, ListenerControl.Position position) {
+        if (journals.isReplaying()) {
+            throw new IllegalStateException("Journal replay cannot seek");
+        }
+        if (position.operationTime() != null && !eventSource.canOpenAtOperationTime()) {
+            throw new IllegalStateException("Event source " + properties.source() + " cannot seek to an operation time");
+        }
+        controls.get(collectionName).seek(position);
+        PrometheusMetricsConfig.getInstance(collectionName).getControlOperations("seek").inc();
+        LOGGER.warn("⚠️ Seeking listener of {} to {}", collectionName,
+                position.resumeToken() != null ? position.resumeToken() : "operation time " + position.operationTime());
+    }
+
+    /**
+     * Runtime state of the collection's pipeline, as reported by the admin API.
+     */
+    public Document getControlStatus(String collectionName) {
+        AdaptiveConcurrencyLimiter limiter = workerPools.limiter(collectionName);
+        Document status = new Document("collection", collectionName)
+                .append("workers", workerPools.workers(collectionName))
+                .append("sharedPool", workerPools.isShared(collectionName))
+                .append("paused", controls.get(collectionName).isPaused())
+                .append("mode", catchUpControllers.get(collectionName).getMode().name())
+                .append("fenced", fences.containsKey(collectionName));
+        if (limiter != null) {
+            status.append("concurrencyLimit", limiter.getLimit());
+        }
+        return status;
+    }
+
+    private DeadLetterService deadLetters() {
+        return deadLetterService != null && deadLetterService.isEnabled() ? deadLetterService : null;
+    }
+
+    /**
+     * Drains and shuts down. Listeners stop pulling from their cursors and dispatch what they hold, workers finish
+     * the dispatched events within {@code timeout-per-shutdown-phase}, and every collection whose events all
+     * completed has its checkpoints moved to its last event, so a restart replays nothing. Work still queued at
+     * the timeout is handed back and replayed after restart. Fenced collections already checkpoint exactly.
+     */
+    public void shutdown() {
+        LOGGER.info("Draining...");
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(shutdownTimeout);
+        draining = true;
+        Map<String, Boolean> drained = Map.of();
+        try {
+            for (Thread listener : listenerThreads.values()) {
+                listener.join(remainingMillis(deadline));
+                if (listener.isAlive()) {
+                    LOGGER.warn("⚠️ {} did not stop within the shutdown timeout", listener.getName());
+                }
+            }
+            drained = workerPools.shutdown(deadline);
+        } catch (InterruptedException e) {
+            workerPools.shutdownNow();
             Thread.currentThread().interrupt();
             LOGGER.error("Shutdown interrupted", e);
         }
+        for (Map.Entry<String, Boolean> entry : drained.entrySet()) {
+            if (entry.getValue()) {
+                saveDrainCheckpoint(entry.getKey());
+            }
+        }
+        journals.close();
         LOGGER.info("Shutdown complete.");
     }
+
+    private static long remainingMillis(long deadlineNanos) {
+        // Thread.join(0) waits forever, so an expired deadline still waits a millisecond
+        return Math.max(1, TimeUnit.NANOSECONDS.toMillis(deadlineNanos - System.nanoTime()));
+    }
+
+    /**
+     * Moves the collection's checkpoints to its last dispatched event once its listener stopped and every
+     * dispatched event was processed or dead-lettered. With events that failed and were not retried before the
+     * drain, they move to the watermark in front of the first failure instead.
+     */
+    private void saveDrainCheckpoint(String collectionName) {
+        BusinessTask task = tasks.get(collectionName);
+        LagTracker lagTracker = lagTrackers.get(collectionName);
+        boolean held = lagTracker.isHeld();
+        StreamEvent last = held ? lagTracker.getWatermark() : lagTracker.getLastDispatchedEvent();
+        if (task == null || task.resumeTokenService == null || fences.containsKey(collectionName) || last == null
+                || last.resumeToken() == null) {
+            return;
+        }
+        Thread listener = listenerThreads.get(collectionName);
+        if ((listener != null && listener.isAlive()) || lagTracker.getInFlight() != 0) {
+            LOGGER.warn("⚠️ {} did not drain, keeping its worker checkpoints", collectionName);
+            return;
+        }
+        if (held) {
+            LOGGER.warn("⚠️ {} has failed events, draining to the watermark in front of them", collectionName);
+        }
+        try {
+            task.resumeTokenService.saveDrainCheckpoint(last.clusterTime(), last.resumeToken(),
+                    "ChangeStream-" + collectionName + "-T0", collectionName);
+        } catch (RuntimeException e) {
+            LOGGER.error("❌ Failed to save drain checkpoint for {}: {}", collectionName, e.getMessage(), e);
+        }
+    }
 }
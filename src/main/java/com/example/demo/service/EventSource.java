@@ -0,0 +1,34 @@
+package com.example.demo.service;
+
+import org.bson.BsonDocument;
+import org.bson.BsonTimestamp;
+
+import com.mongodb.client.MongoCursor;
+
+/**
+ * EventSource opens the stream of change events that a collection's listener consumes. The MongoDB change stream
+ * is the default; other sources feed the same dispatch, metrics and checkpoint path without a change stream behind it.
+ */
+public interface EventSource {
+
+    /**
+     * Opens the events of the task's collection, after {@code resumeToken} when it is not null.
+     *
+     * @param batchSize cursor batch size hint, 0 for the source's default
+     */
+    MongoCursor<StreamEvent> open(BusinessTask task, BsonDocument resumeToken, int batchSize);
+
+    /**
+     * Whether {@link #openAt} is supported, i.e. the source's events follow the cluster clock.
+     */
+    default boolean canOpenAtOperationTime() {
+        return false;
+    }
+
+    /**
+     * Opens the events of the task's collection from {@code operationTime} on.
+     */
+    default MongoCursor<StreamEvent> openAt(BusinessTask task, BsonTimestamp operationTime, int batchSize) {
+        throw new UnsupportedOperationException(getClass().getSimpleName() + " cannot open at an operation time");
+    }
+}
@@ -0,0 +1,261 @@
+package com.example.demo.service;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.WriteModel;
+import com.mongodb.client.model.changestream.ChangeStreamDocument;
+
+/**
+ * IncrementalViewEngine keeps derived collections up to date from change events of their source collections.
+ *
+ * <p>A {@link View} is declared as a root collection joined to its sources on named keys. For a batch of changes
+ * to one source, the engine collects the join keys of the changed documents, loads every affected root row with a
+ * single query, and hands the distinct rows to the view's recompute function, which returns the writes for the
+ * view's target collection.
+ */
+public class IncrementalViewEngine {
+    private static final Logger LOGGER = LoggerFactory.getLogger(IncrementalViewEngine.class);
+
+    /**
+     * How changes of one source collection map to root rows: {@code joinKeys} maps root fields to the source
+     * fields holding the same value. A source without join keys carries root rows itself.
+     */
+    public record SourceBinding(String source, Map<String, String> joinKeys) {
+        boolean isRoot() {
+            return joinKeys.isEmpty();
+        }
+    }
+
+    /**
+     * Declarative definition of a derived collection.
+     */
+    public static final class View {
+        private final String name;
+        private final String rootCollection;
+        private final String rowKey;
+        private final Function<Collection<Document>, List<WriteModel<Document>>> recompute;
+        private final Map<String, SourceBinding> sources = new LinkedHashMap<>();
+        private Consumer<List<WriteModel<Document>>> onDiscard = writes -> { };
+        private Consumer<List<WriteModel<Document>>> onApplied = writes -> { };
+
+        /**
+         * @param name       target collection of the view
+         * @param rootCollection collection with one document per view row
+         * @param rowKey     field identifying a root row
+         * @param recompute  builds the target writes for a set of root rows
+         */
+        public View(String name, String rootCollection, String rowKey,
+                    Function<Collection<Document>, List<WriteModel<Document>>> recompute) {
+            this.name = name;
+            this.rootCollection = rootCollection;
+            this.rowKey = rowKey;
+            this.recompute = recompute;
+        }
+
+        /** The source's change events carry root rows directly. */
+        public View rootSource(String source) {
+            sources.put(source, new SourceBinding(source, Map.of()));
+            return this;
+        }
+
+        /** The source joins the root on fields with the same name on both sides. */
+        public View join(String source, String... keys) {
+            Map<String, String> joinKeys = new LinkedHashMap<>();
+            for (String key : keys) {
+                joinKeys.put(key, key);
+            }
+            return join(source, joinKeys);
+        }
+
+        /** The source joins the root on {@code rootField -> sourceField} pairs. */
+        public View join(String source, Map<String, String> joinKeys) {
+            sources.put(source, new SourceBinding(source, new LinkedHashMap<>(joinKeys)));
+            return this;
+        }
+
+        /** Called with recomputed writes that were not applied, e.g. to drop caches of the written images. */
+        public View onDiscard(Consumer<List<WriteModel<Document>>> onDiscard) {
+            this.onDiscard = onDiscard;
+            return this;
+        }
+
+        /** Called with recomputed writes once they are applied, e.g. to cache the written images. */
+        public View onApplied(Consumer<List<WriteModel<Document>>> onApplied) {
+            this.onApplied = onApplied;
+            return this;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public Set<String> getSources() {
+            return sources.keySet();
+        }
+    }
+
+    // Root rows are looked up on readClient; view writes go through writeClient
+    private final MongoClient readClient;
+    private final MongoClient writeClient;
+    private final String databaseName;
+    private final Map<String, View> views = new ConcurrentHashMap<>();
+
+    public IncrementalViewEngine(MongoClient mongoClient, String databaseName) {
+        this(mongoClient, mongoClient, databaseName);
+    }
+
+    public IncrementalViewEngine(MongoClient readClient, MongoClient writeClient, String databaseName) {
+        this.readClient = readClient;
+        this.writeClient = writeClient;
+        this.databaseName = databaseName;
+    }
+
+    public void register(View view) {
+        views.put(view.name, view);
+        LOGGER.info("✅ Registered view {} over {} joined to {}", view.name, view.rootCollection, view.getSources());
+    }
+
+    public MongoCollection<Document> getTargetCollection(String viewName) {
+        return writeClient.getDatabase(databaseName).getCollection(view(viewName).name);
+    }
+
+    public MongoClient getWriteClient() {
+        return writeClient;
+    }
+
+    /**
+     * Root rows of the view affected by the given source documents, one per row key, in first-seen order.
+     * For a root source the latest image of each row wins.
+     */
+    public Collection<Document> affectedRows(String viewName, String source, List<Document> changed) {
+        View view = view(viewName);
+        SourceBinding binding = view.sources.get(source);
+        if (binding == null) {
+            throw new IllegalArgumentException("View " + viewName + " has no source " + source);
+        }
+        Map<Object, Document> rows = new LinkedHashMap<>();
+        if (binding.isRoot()) {
+            for (Document row : changed) {
+                rows.remove(row.get(view.rowKey));
+                rows.put(row.get(view.rowKey), row);
+            }
+            return rows.values();
+        }
+
+        Bson filter = rootFilter(binding, changed);
+        if (filter == null) {
+            return List.of();
+        }
+        MongoDatabase database = readClient.getDatabase(databaseName);
+        for (Document row : database.getCollection(view.rootCollection).find(filter)) {
+            rows.putIfAbsent(row.get(view.rowKey), row);
+        }
+        return rows.values();
+    }
+
+    /**
+     * Writes that bring the view up to date with a batch of change events from one source.
+     */
+    public List<WriteModel<Document>> buildWrites(String viewName, String source,
+                                                  List<ChangeStreamDocument<Document>> events) {
+        List<Document> changed = new ArrayList<>(events.size());
+        for (ChangeStreamDocument<Document> event : events) {
+            if (event.getFullDocument() != null) {
+                changed.add(event.getFullDocument());
+            }
+        }
+        if (changed.isEmpty()) {
+            return List.of();
+        }
+        Collection<Document> rows = affectedRows(viewName, source, changed);
+        return rows.isEmpty() ? List.of() : view(viewName).recompute.apply(rows);
+    }
+
+    /**
+     * Builds and applies the writes for a batch of events in one bulk write; returns the number of writes.
+     */
+    public int apply(String viewName, String source, List<ChangeStreamDocument<Document>> events) {
+        List<WriteModel<Document>> writes = buildWrites(viewName, source, events);
+        if (!writes.isEmpty()) {
+            try {
+                getTargetCollection(viewName).bulkWrite(writes);
+            } catch (RuntimeException e) {
+                discard(viewName, writes);
+                throw e;
+            }
+            applied(viewName, writes);
+        }
+        return writes.size();
+    }
+
+    /**
+     * Reports writes from {@link #buildWrites} that were not applied.
+     */
+    public void discard(String viewName, List<WriteModel<Document>> writes) {
+        view(viewName).onDiscard.accept(writes);
+    }
+
+    /**
+     * Reports writes from {@link #buildWrites} that were applied.
+     */
+    public void applied(String viewName, List<WriteModel<Document>> writes) {
+        view(viewName).onApplied.accept(writes);
+    }
+
+    /**
+     * {@code $in} on the root field for single-key joins, an {@code $or} of the distinct key tuples otherwise.
+     * Documents missing a join key cannot affect any row and are skipped.
+     */
+    private static Bson rootFilter(SourceBinding binding, List<Document> changed) {
+        if (binding.joinKeys.size() == 1) {
+            Map.Entry<String, String> key = binding.joinKeys.entrySet().iterator().next();
+            Set<Object> values = new LinkedHashSet<>();
+            for (Document document : changed) {
+                Object value = document.get(key.getValue());
+                if (value != null) values.add(value);
+            }
+            return values.isEmpty() ? null : Filters.in(key.getKey(), values);
+        }
+
+        Set<Bson> tuples = new LinkedHashSet<>();
+        for (Document document : changed) {
+            Document tuple = new Document();
+            for (Map.Entry<String, String> key : binding.joinKeys.entrySet()) {
+                Object value = document.get(key.getValue());
+                if (value == null) {
+                    tuple = null;
+                    break;
+                }
+                tuple.append(key.getKey(), value);
+            }
+            if (tuple != null) tuples.add(tuple);
+        }
+        return tuples.isEmpty() ? null : Filters.or(new ArrayList<>(tuples));
+    }
+
+    private View view(String viewName) {
+        View view = views.get(viewName);
+        if (view == null) {
+            throw new IllegalArgumentException("Unknown view " + viewName);
+        }
+        return view;
+    }
+}
@@ -0,0 +1,177 @@
+package com.example.demo.service;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.mongodb.MongoException;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.IndexOptions;
+import com.mongodb.client.model.Projections;
+
+import jakarta.annotation.PostConstruct;
+
+/**
+ * IndexAdvisor checks at startup that every lookup issued per event is backed by an index.
+ *
+ * <p>For each known lookup pattern it reads {@code listIndexes}, reports missing or non-covering indexes and,
+ * when {@code create-missing} is set, creates them including the covered fields. It then runs {@code explain}
+ * on one lookup built from a sampled document and warns about collection scans and slow or wide plans.
+ */
+@Component
+public class IndexAdvisor {
+    private static final Logger LOGGER = LoggerFactory.getLogger(IndexAdvisor.class);
+
+    /**
+     * An equality lookup on {@code keys}; {@code coveredFields} are the only other fields the caller reads,
+     * so an index on keys + coveredFields can answer it without fetching documents.
+     */
+    public record LookupPattern(String collection, List<String> keys, List<String> coveredFields, String usedBy) {
+        List<String> indexFields() {
+            List<String> fields = new ArrayList<>(keys);
+            fields.addAll(coveredFields);
+            return fields;
+        }
+    }
+
+    /** Outcome for one lookup pattern. */
+    public enum Status { OK, NOT_COVERING, MISSING, CREATED }
+
+    public static final List<LookupPattern> LOOKUP_PATTERNS = List.of(
+            new LookupPattern("Stub", List.of("TrainId"), List.of(), "AwardCalculationService"),
+            new LookupPattern("Promo", List.of("TrainId"), List.of(), "AwardCalculationService"),
+            new LookupPattern("Points", List.of("TranId"), List.of(), "AwardCalculationService"),
+            new LookupPattern("Prize", List.of("PrizeId"), List.of(), "AwardCalculationService"),
+            new LookupPattern("PrizeLocnMapping", List.of("PrizeId"), List.of(), "AwardCalculationService"),
+            new LookupPattern("member_profile", List.of("player_id"), List.of(), "AwardCalculationService"),
+            new LookupPattern("PromotionRuleOutCome", List.of("PlayerID"), List.of(), "AwardCalculationService"),
+            new LookupPattern("PromotionRuleOutCome", List.of("RID"), List.of("PID", "_id"), "PrizeTypeIndex"),
+            new LookupPattern("tAwards", List.of("TrainId"), List.of(), "Points, Stub, Promo"),
+            new LookupPattern("tAwards", List.of("PlayerID", "PrizeID"), List.of(), "PromotionRedemption"),
+            new LookupPattern("member_awards", List.of("TrainId"), List.of(), "member_awards upserts"),
+            new LookupPattern("changestream", List.of("playerID", "gamingDate"), List.of(), "Task1"));
+
+    private final MongoDatabase mongoDatabase;
+
+    @Value("${spring.mongodb.index-advisor.enabled:false}")
+    private boolean enabled;
+
+    @Value("${spring.mongodb.index-advisor.create-missing:false}")
+    private boolean createMissing;
+
+    @Value("${spring.mongodb.index-advisor.explain:true}")
+    private boolean explain;
+
+    @Value("${spring.mongodb.index-advisor.slow-ms:50}")
+    private long slowMillis;
+
+    @Autowired
+    public IndexAdvisor(MongoDatabase mongoDatabase) {
+        this.mongoDatabase = mongoDatabase;
+    }
+
+    public IndexAdvisor(MongoDatabase mongoDatabase, boolean createMissing, boolean explain, long slowMillis) {
+        this.mongoDatabase = mongoDatabase;
+        this.enabled = true;
+        this.createMissing = createMissing;
+        this.explain = explain;
+        this.slowMillis = slowMillis;
+    }
+
+    @PostConstruct
+    public void init() {
+        if (!enabled) {
+            return;
+        }
+        for (LookupPattern pattern : LOOKUP_PATTERNS) {
+            try {
+                advise(pattern);
+            } catch (MongoException e) {
+                LOGGER.error("❌ Index check failed for {}.{}: {}", pattern.collection(), pattern.keys(), e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Checks, and optionally creates, the index for one lookup pattern, then explains a sampled lookup.
+     */
+    public Status advise(LookupPattern pattern) {
+        MongoCollection<Document> collection = mongoDatabase.getCollection(pattern.collection());
+        List<Document> indexes = collection.listIndexes().into(new ArrayList<>());
+
+        Status status = Status.MISSING;
+        for (Document index : indexes) {
+            List<String> indexFields = new ArrayList<>(index.get("key", Document.class).keySet());
+            if (servesLookup(indexFields, pattern.keys())) {
+                status = indexFields.containsAll(pattern.indexFields()) ? Status.OK : Status.NOT_COVERING;
+                if (status == Status.OK) break;
+            }
+        }
+
+        if (status == Status.MISSING && createMissing) {
+            Document keys = new Document();
+            pattern.indexFields().forEach(field -> keys.append(field, 1));
+            String name = "advisor_" + String.join("_", pattern.indexFields());
+            collection.createIndex(keys, new IndexOptions().name(name));
+            LOGGER.info("✅ Created index {} on {} for {}", name, pattern.collection(), pattern.usedBy());
+            status = Status.CREATED;
+        } else if (status == Status.MISSING) {
+            LOGGER.warn("⚠️ No index on {}.{} used by {}: every lookup is a collection scan",
+                    pattern.collection(), pattern.keys(), pattern.usedBy());
+        } else if (status == Status.NOT_COVERING) {
+            LOGGER.info("Index on {}.{} does not cover {}, lookups fetch documents",
+                    pattern.collection(), pattern.keys(), pattern.coveredFields());
+        }
+
+        if (explain) {
+            explainSample(collection, pattern);
+        }
+        return status;
+    }
+
+    /**
+     * An index serves an equality lookup if the lookup keys form a prefix of it, in any order.
+     */
+    static boolean servesLookup(List<String> indexFields, List<String> keys) {
+        return indexFields.size() >= keys.size()
+                && indexFields.subList(0, keys.size()).containsAll(keys);
+    }
+
+    private void explainSample(MongoCollection<Document> collection, LookupPattern pattern) {
+        Document sample = collection.find().projection(Projections.include(pattern.keys())).first();
+        if (sample == null) {
+            return;
+        }
+        Document filter = new Document();
+        pattern.keys().forEach(key -> filter.append(key, sample.get(key)));
+
+        Document result = mongoDatabase.runCommand(new Document("explain",
+                new Document("find", pattern.collection()).append("filter", filter))
+                .append("verbosity", "executionStats"));
+        Document stats = result.get("executionStats", Document.class);
+        Document planner = result.get("queryPlanner", Document.class);
+        if (stats == null || planner == null) {
+            return;
+        }
+        long millis = ((Number) stats.get("executionTimeMillis", 0)).longValue();
+        long examined = ((Number) stats.get("totalDocsExamined", 0)).longValue();
+        long returned = ((Number) stats.get("nReturned", 0)).longValue();
+        boolean collectionScan = planner.get("winningPlan", new Document()).toJson().contains("COLLSCAN");
+
+        if (collectionScan || millis >= slowMillis || examined > Math.max(100, returned * 10)) {
+            LOGGER.warn("⚠️ Slow lookup on {}.{} ({}): {} ms, {} docs examined for {} returned{}",
+                    pattern.collection(), pattern.keys(), pattern.usedBy(), millis, examined, returned,
+                    collectionScan ? ", COLLSCAN" : "");
+        } else {
+            LOGGER.info("Lookup on {}.{}: {} ms, {} docs examined for {} returned",
+                    pattern.collection(), pattern.keys(), millis, examined, returned);
+        }
+    }
+}
@@ -0,0 +1,245 @@
+package com.example.demo.service;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.mongodb.ServerAddress;
+import com.mongodb.ServerCursor;
+import com.mongodb.client.MongoCursor;
+import com.mongodb.client.model.changestream.OperationType;
+
+/**
+ * JournalReplayer feeds a recorded {@link EventJournal} back through the mediator, as if its events came from the
+ * collection's change stream, and reports throughput and end-to-end latency.
+ *
+ * <p>At speed 1 events are emitted with the spacing they were recorded with, at speed N that spacing is divided by
+ * N, and at speed 0 they are emitted as fast as the mediator takes them. Cluster times have second resolution, so
+ * pacing is per recorded second. Lag of a replayed event is measured from its emission, and latency runs from
+ * emission to the end of its processing. Invalidate events are not replayed.
+ *
+ * <p>Tasks write and checkpoint as they do live, so replay against a local mongod, not the recorded cluster.
+ */
+public class JournalReplayer {
+    private static final Logger LOGGER = LoggerFactory.getLogger(JournalReplayer.class);
+    private static final long DRAIN_TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(30);
+    private static final int LATENCY_SAMPLES = 1 << 16;
+
+    /** Outcome of replaying one collection's journal. */
+    public record Report(String collectionName, long events, long failed, long elapsedMillis, double eventsPerSecond,
+                         double p50Millis, double p99Millis, double maxMillis) {
+    }
+
+    private final EventProcessingMediator mediator;
+    private final Path journalDirectory;
+    private final double speed;
+
+    /**
+     * @param journalDirectory directory holding one journal directory per collection
+     * @param speed            replay speed as a multiple of recorded time, 0 for unthrottled
+     */
+    public JournalReplayer(EventProcessingMediator mediator, Path journalDirectory, double speed) {
+        this.mediator = mediator;
+        this.journalDirectory = journalDirectory;
+        this.speed = speed;
+    }
+
+    /**
+     * Earliest first cluster time over the journals of the given collections, so that collections replayed
+     * together keep their recorded offsets to each other.
+     */
+    public long origin(Iterable<String> collectionNames) throws IOException {
+        long origin = 0;
+        for (String collectionName : collectionNames) {
+            List<Path> segments = EventJournal.segments(journalDirectory.resolve(collectionName));
+            if (segments.isEmpty()) continue;
+            long first = EventJournal.firstClusterTime(segments.get(0));
+            if (origin == 0 || Long.compareUnsigned(first, origin) < 0) {
+                origin = first;
+            }
+        }
+        return origin;
+    }
+
+    /**
+     * Replays a collection's journal and waits for its events to be processed.
+     *
+     * @param originClusterTime recorded cluster time that maps to {@code startNanos}
+     * @param startNanos        {@link System#nanoTime()} at which the origin is replayed
+     */
+    public Report replay(String collectionName, long originClusterTime, long startNanos) throws IOException {
+        Progress progress = new Progress();
+        try (EventJournal.Reader reader = EventJournal.read(journalDirectory.resolve(collectionName), 0)) {
+            mediator.replay(collectionName, new JournalCursor(reader, originClusterTime, startNanos, progress));
+        }
+        progress.awaitCompletion(collectionName);
+
+        long elapsedNanos = Math.max(1, progress.lastCompletedNanos.get() - progress.firstEmittedNanos);
+        long completed = progress.completed.get();
+        long[] latencies = progress.latencies();
+        Report report = new Report(collectionName, completed, progress.failed.get(), elapsedNanos / 1_000_000,
+                completed * 1e9 / elapsedNanos, percentile(latencies, 0.50), percentile(latencies, 0.99),
+                percentile(latencies, 1.0));
+        LOGGER.info("📊 Replayed {} events of {} in {} ms ({} failed or skipped): {} events/s, latency p50 {} ms, "
+                + "p99 {} ms, max {} ms", report.events(), collectionName, report.elapsedMillis(), report.failed(),
+                Math.round(report.eventsPerSecond()), report.p50Millis(), report.p99Millis(), report.maxMillis());
+        return report;
+    }
+
+    private static double percentile(long[] sortedNanos, double quantile) {
+        if (sortedNanos.length == 0) {
+            return 0;
+        }
+        int index = (int) Math.min(sortedNanos.length - 1, Math.ceil(quantile * sortedNanos.length) - 1);
+        return sortedNanos[Math.max(0, index)] / 1e6;
+    }
+
+    /**
+     * Counts emitted and completed events and keeps a uniform sample of their latencies.
+     */
+    private static final class Progress implements StreamEvent.Completion {
+        final AtomicLong emitted = new AtomicLong();
+        final AtomicLong completed = new AtomicLong();
+        final AtomicLong failed = new AtomicLong();
+        final AtomicLong lastCompletedNanos = new AtomicLong();
+        long firstEmittedNanos;
+        private final long[] samples = new long[LATENCY_SAMPLES];
+        private long sampled;
+
+        @Override
+        public void complete(StreamEvent event, boolean success) {
+            long now = System.nanoTime();
+            long latency = now - event.replayedAtNanos();
+            if (!success) {
+                failed.incrementAndGet();
+            }
+            synchronized (this) {
+                // Reservoir sampling keeps memory bounded however long the journal is
+                if (sampled < LATENCY_SAMPLES) {
+                    samples[(int) sampled] = latency;
+                } else {
+                    long slot = ThreadLocalRandom.current().nextLong(sampled + 1);
+                    if (slot < LATENCY_SAMPLES) {
+                        samples[(int) slot] = latency;
+                    }
+                }
+                sampled++;
+            }
+            lastCompletedNanos.accumulateAndGet(now, Math::max);
+            completed.incrementAndGet();
+        }
+
+        synchronized long[] latencies() {
+            long[] latencies = Arrays.copyOf(samples, (int) Math.min(sampled, LATENCY_SAMPLES));
+            Arrays.sort(latencies);
+            return latencies;
+        }
+
+        /** Waits until every emitted event completed, giving up after a stretch without progress. */
+        void awaitCompletion(String collectionName) {
+            long lastCompleted = -1;
+            long lastProgressNanos = System.nanoTime();
+            while (completed.get() < emitted.get()) {
+                if (completed.get() != lastCompleted) {
+                    lastCompleted = completed.get();
+                    lastProgressNanos = System.nanoTime();
+                } else if (System.nanoTime() - lastProgressNanos > DRAIN_TIMEOUT_NANOS) {
+                    LOGGER.warn("⚠️ Replay of {} stalled with {} of {} events completed", collectionName,
+                            completed.get(), emitted.get());
+                    return;
+                }
+                LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(10));
+            }
+        }
+    }
+
+    /**
+     * Presents a journal as a change stream cursor, holding each event back until it is due.
+     */
+    private final class JournalCursor implements MongoCursor<StreamEvent> {
+        private final EventJournal.Reader reader;
+        private final long originSeconds;
+        private final long startNanos;
+        private final Progress progress;
+        private EventJournal.Entry next;
+
+        JournalCursor(EventJournal.Reader reader, long originClusterTime, long startNanos, Progress progress) {
+            this.reader = reader;
+            this.originSeconds = originClusterTime >>> 32;
+            this.startNanos = startNanos;
+            this.progress = progress;
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (next == null && reader.hasNext()) {
+                EventJournal.Entry entry = reader.next();
+                if (!OperationType.INVALIDATE.getValue().equals(entry.event().getString("operationType").getValue())) {
+                    next = entry;
+                }
+            }
+            return next != null;
+        }
+
+        @Override
+        public StreamEvent next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            EventJournal.Entry entry = next;
+            next = null;
+            if (speed > 0) {
+                long dueNanos = dueNanos(entry);
+                for (long wait = dueNanos - System.nanoTime(); wait > 0; wait = dueNanos - System.nanoTime()) {
+                    LockSupport.parkNanos(wait);
+                }
+            }
+            if (progress.emitted.getAndIncrement() == 0) {
+                progress.firstEmittedNanos = System.nanoTime();
+            }
+            return StreamEvent.replayed(entry.event(), progress);
+        }
+
+        private long dueNanos(EventJournal.Entry entry) {
+            return startNanos + (long) (((entry.clusterTime() >>> 32) - originSeconds) * 1e9 / speed);
+        }
+
+        @Override
+        public StreamEvent tryNext() {
+            return hasNext() ? next() : null;
+        }
+
+        @Override
+        public int available() {
+            // Like a driver cursor's local buffer: events already due are available, so batches close at a pause
+            if (!hasNext()) {
+                return 0;
+            }
+            return speed <= 0 || dueNanos(next) <= System.nanoTime() ? 1 : 0;
+        }
+
+        @Override
+        public ServerCursor getServerCursor() {
+            return null;
+        }
+
+        @Override
+        public ServerAddress getServerAddress() {
+            return null;
+        }
+
+        @Override
+        public void close() {
+            reader.close();
+        }
+    }
+}
@@ -0,0 +1,295 @@
+package com.example.demo.service;
+
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.bson.BsonTimestamp;
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import com.example.demo.config.MongoSources;
+import com.example.demo.metrics.PrometheusMetricsConfig;
+import com.mongodb.ReadPreference;
+import com.mongodb.client.MongoDatabase;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+
+/**
+ * LagMonitor estimates how far each collection's pipeline is behind the cluster, for dashboards and autoscaling.
+ *
+ * <p>Every poll reads the primary's latest write time, on the cluster of each collection's source, and compares it
+ * with the collection's {@link LagTracker}.
+ * The stream position is the last completed cluster time while workers hold events, and the last dispatched one
+ * otherwise; a listener that has waited on an empty cursor for longer than {@code idle-ms} with nothing in flight
+ * is caught up. The backlog is the cluster time between the latest write and that position, and the catch-up
+ * estimate divides it by the rate at which it has been shrinking, smoothed across polls. Results go to the
+ * {@code _backlog_seconds}, {@code _queue_depth} and {@code _catch_up_eta_seconds} gauges and to {@link #toJson()}.
+ *
+ * <p>The source databases are asked in parallel and waited for at most {@code hello-timeout-ms}. A source that
+ * fails or has not answered by then only marks its own collections' backlog and estimate unknown (-1); a hello
+ * still running is not asked again until it returns.
+ */
+@Service
+public class LagMonitor {
+    private static final Logger LOGGER = LoggerFactory.getLogger(LagMonitor.class);
+    // Weight of the newest poll in the smoothed drain rate
+    private static final double RATE_SMOOTHING = 0.3;
+
+    /**
+     * Lag of one collection at the last poll. Backlog is -1 until the collection has seen an event or waited on its
+     * cursor, or while its source does not report its latest write, and the catch-up estimate is -1 while the
+     * backlog is not shrinking or unknown.
+     */
+    public record Lag(long backlogSeconds, long queueDepth, long lastDispatchedSeconds, long lastCompletedSeconds,
+                      double drainRate, double catchUpEtaSeconds) {
+    }
+
+    /** Poll-to-poll state of one collection, touched only by the poll thread. */
+    private static final class Progress {
+        long backlogSeconds = -1;
+        long polledAtMillis;
+        double drainRate;
+    }
+
+    private final EventProcessingMediator mediator;
+    private final MongoDatabase mongoDatabase;
+    private final MongoSources mongoSources;
+    private final Map<String, Progress> progress = new HashMap<>();
+    // Latest write time per source database, asked off the poll thread; touched only by the poll thread
+    private final Map<MongoDatabase, CompletableFuture<Long>> hellos = new IdentityHashMap<>();
+    private final ExecutorService helloExecutor = Executors.newCachedThreadPool(r -> {
+        Thread t = new Thread(r, "Lag-Monitor-Hello");
+        t.setDaemon(true);
+        return t;
+    });
+    private volatile long clusterTimeSeconds;
+    private volatile Map<String, Lag> lags = Map.of();
+    private ScheduledExecutorService scheduler;
+
+    @Value("${spring.changestream.lag-monitor.enabled:false}")
+    private boolean enabled;
+
+    @Value("${spring.changestream.lag-monitor.poll-interval-ms:5000}")
+    private long pollIntervalMillis;
+
+    @Value("${spring.changestream.lag-monitor.idle-ms:2000}")
+    private long idleMillis;
+
+    @Value("${spring.changestream.lag-monitor.hello-timeout-ms:1000}")
+    private long helloTimeoutMillis;
+
+    @Autowired
+    public LagMonitor(EventProcessingMediator mediator, MongoDatabase mongoDatabase, MongoSources mongoSources) {
+        this.mediator = mediator;
+        this.mongoDatabase = mongoDatabase;
+        this.mongoSources = mongoSources;
+    }
+
+    public LagMonitor(EventProcessingMediator mediator, MongoDatabase mongoDatabase, long idleMillis) {
+        this(mediator, mongoDatabase, null);
+        this.enabled = true;
+        this.idleMillis = idleMillis;
+        this.helloTimeoutMillis = 1000;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    @PostConstruct
+    public synchronized void start() {
+        if (!enabled || scheduler != null) {
+            return;
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "Lag-Monitor");
+            t.setDaemon(true);
+            return t;
+        });
+        scheduler.scheduleWithFixedDelay(this::pollSafely, pollIntervalMillis, pollIntervalMillis,
+                TimeUnit.MILLISECONDS);
+        LOGGER.info("✅ Lag monitor polling every {} ms", pollIntervalMillis);
+    }
+
+    private void pollSafely() {
+        try {
+            poll();
+        } catch (RuntimeException e) {
+            LOGGER.error("❌ Lag monitor poll failed: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Reads the cluster times and updates every collection's lag and gauges.
+     */
+    public void poll() {
+        Map<LagTracker, MongoDatabase> sources = new LinkedHashMap<>();
+        for (LagTracker tracker : mediator.getLagTrackers().values()) {
+            sources.put(tracker, mongoSources != null
+                    ? mongoSources.getDatabase(tracker.getCollectionName(), mongoDatabase) : mongoDatabase);
+        }
+        // One hello per source database and poll
+        Map<MongoDatabase, Long> clusterTimes = new IdentityHashMap<>();
+        clusterTimes.put(mongoDatabase, null);
+        for (MongoDatabase database : sources.values()) {
+            clusterTimes.put(database, null);
+        }
+        for (MongoDatabase database : clusterTimes.keySet()) {
+            CompletableFuture<Long> hello = hellos.get(database);
+            if (hello == null || hello.isDone()) {
+                hellos.put(database, CompletableFuture.supplyAsync(() -> latestClusterTimeSeconds(database),
+                        helloExecutor));
+            }
+        }
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(helloTimeoutMillis);
+        for (MongoDatabase database : clusterTimes.keySet()) {
+            clusterTimes.put(database, await(hellos.get(database), deadline));
+        }
+
+        long nowMillis = System.currentTimeMillis();
+        Map<String, Lag> polled = new LinkedHashMap<>();
+        for (Map.Entry<LagTracker, MongoDatabase> source : sources.entrySet()) {
+            LagTracker tracker = source.getKey();
+            Long clusterTime = clusterTimes.get(source.getValue());
+            Lag lag = clusterTime != null ? estimate(tracker, clusterTime, nowMillis) : unknown(tracker);
+            polled.put(tracker.getCollectionName(), lag);
+            PrometheusMetricsConfig metricsConfig = PrometheusMetricsConfig.getInstance(tracker.getCollectionName());
+            metricsConfig.getBacklogSeconds().set(lag.backlogSeconds());
+            metricsConfig.getQueueDepth().set(lag.queueDepth());
+            metricsConfig.getCatchUpEtaSeconds().set(lag.catchUpEtaSeconds());
+        }
+        Long now = clusterTimes.get(mongoDatabase);
+        if (now != null) {
+            clusterTimeSeconds = now;
+        }
+        lags = polled;
+    }
+
+    /**
+     * Latest write time from a source's hello, or null if it failed or did not answer by the deadline.
+     */
+    private Long await(CompletableFuture<Long> hello, long deadlineNanos) {
+        try {
+            return hello.get(Math.max(0, deadlineNanos - System.nanoTime()), TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+            LOGGER.warn("⚠️ Lag monitor: source did not answer hello within {} ms", helloTimeoutMillis);
+        } catch (ExecutionException e) {
+            LOGGER.warn("⚠️ Lag monitor: hello failed on a source: {}", e.getCause().getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return null;
+    }
+
+    /** Lag of a collection whose source did not report its latest write: the backlog is unknown. */
+    private Lag unknown(LagTracker tracker) {
+        Progress last = progress.computeIfAbsent(tracker.getCollectionName(), name -> new Progress());
+        return new Lag(-1, Math.max(0, tracker.getInFlight()), tracker.getLastDispatchedSeconds(),
+                tracker.getLastCompletedSeconds(), last.drainRate, -1);
+    }
+
+    private Lag estimate(LagTracker tracker, long now, long nowMillis) {
+        long inFlight = Math.max(0, tracker.getInFlight());
+        long dispatched = tracker.getLastDispatchedSeconds();
+        long completed = tracker.getLastCompletedSeconds();
+        boolean idle = inFlight == 0 && tracker.awaitingMillis(nowMillis) > idleMillis;
+
+        long backlog;
+        if (idle) {
+            backlog = 0;
+        } else if (dispatched == 0) {
+            backlog = -1;
+        } else {
+            long position = inFlight > 0 && completed > 0 ? completed : dispatched;
+            backlog = Math.max(0, now - position);
+        }
+
+        Progress last = progress.computeIfAbsent(tracker.getCollectionName(), name -> new Progress());
+        if (backlog >= 0 && last.backlogSeconds >= 0 && nowMillis > last.polledAtMillis) {
+            double rate = (last.backlogSeconds - backlog) * 1000.0 / (nowMillis - last.polledAtMillis);
+            last.drainRate = RATE_SMOOTHING * rate + (1 - RATE_SMOOTHING) * last.drainRate;
+        }
+        last.backlogSeconds = backlog;
+        last.polledAtMillis = nowMillis;
+        if (backlog <= 0) {
+            last.drainRate = 0;
+        }
+
+        double eta = backlog == 0 ? 0 : backlog > 0 && last.drainRate > 0 ? backlog / last.drainRate : -1;
+        return new Lag(backlog, inFlight, dispatched, completed, last.drainRate, eta);
+    }
+
+    /**
+     * Time of the primary's latest write, from {@code hello}; falls back to the cluster time it reports.
+     */
+    private long latestClusterTimeSeconds(MongoDatabase database) {
+        Document hello = database.runCommand(new Document("hello", 1), ReadPreference.primary());
+        Document lastWrite = hello.get("lastWrite", Document.class);
+        if (lastWrite != null && lastWrite.get("opTime") instanceof Document opTime
+                && opTime.get("ts") instanceof BsonTimestamp ts) {
+            return ts.getTime();
+        }
+        if (hello.get("$clusterTime") instanceof Document clusterTime
+                && clusterTime.get("clusterTime") instanceof BsonTimestamp ts) {
+            return ts.getTime();
+        }
+        if (hello.get("operationTime") instanceof BsonTimestamp ts) {
+            return ts.getTime();
+        }
+        throw new IllegalStateException("Server reports no cluster time; change streams need a replica set");
+    }
+
+    /** Lag per collection at the last poll. */
+    public Map<String, Lag> getLags() {
+        return lags;
+    }
+
+    /**
+     * The last poll as JSON: the cluster time, the largest backlog and catch-up estimate, and each collection's lag.
+     */
+    public String toJson() {
+        Map<String, Lag> polled = lags;
+        Document collections = new Document();
+        long maxBacklog = 0;
+        double maxEta = 0;
+        for (Map.Entry<String, Lag> entry : polled.entrySet()) {
+            Lag lag = entry.getValue();
+            collections.append(entry.getKey(), new Document("backlogSeconds", lag.backlogSeconds())
+                    .append("queueDepth", lag.queueDepth())
+                    .append("lastDispatchedClusterTime", lag.lastDispatchedSeconds())
+                    .append("lastCompletedClusterTime", lag.lastCompletedSeconds())
+                    .append("drainRate", lag.drainRate())
+                    .append("catchUpEtaSeconds", lag.catchUpEtaSeconds()));
+            maxBacklog = Math.max(maxBacklog, lag.backlogSeconds());
+            maxEta = maxEta < 0 || lag.catchUpEtaSeconds() < 0 ? -1 : Math.max(maxEta, lag.catchUpEtaSeconds());
+        }
+        return new Document("clusterTime", clusterTimeSeconds)
+                .append("maxBacklogSeconds", maxBacklog)
+                .append("maxCatchUpEtaSeconds", maxEta)
+                .append("collections", collections)
+                .toJson();
+    }
+
+    @PreDestroy
+    public synchronized void close() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+        helloExecutor.shutdownNow();
+    }
+}
@@ -0,0 +1,251 @@
+package com.example.demo.service;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.bson.BsonTimestamp;
+
+/**
+ * LagTracker records where a collection's pipeline stands: the newest cluster time handed to workers, the newest
+ * cluster time workers finished with, how many events are between the two, and whether the listener is waiting
+ * on its cursor. The listener and workers update it; {@link LagMonitor} reads it.
+ *
+ * <p>Workers run in parallel, so the completed cluster time is the newest one completed, not a contiguous
+ * watermark. Checkpoints follow the contiguous watermark instead: the newest event up to which every dispatch has
+ * settled, so work still queued or running behind it is always replayed after a crash. An event that fails
+ * without being dead-lettered never settles: it holds the watermark until the cursor is reopened at
+ * {@link #reopenPosition()}, from where the failed event comes again.
+ */
+public class LagTracker {
+
+    /** Work handed to the workers in one dispatch: one event, or a micro-batch ending at {@code last}. */
+    public static final class Dispatch {
+        private final StreamEvent last;
+        private final boolean checkpoint;
+        private final long epoch;
+        private boolean settled;
+
+        private Dispatch(StreamEvent last, boolean checkpoint, long epoch) {
+            this.last = last;
+            this.checkpoint = checkpoint;
+            this.epoch = epoch;
+        }
+    }
+
+    private final String collectionName;
+    private final AtomicLong lastDispatchedSeconds = new AtomicLong();
+    private final AtomicLong lastCompletedSeconds = new AtomicLong();
+    private final AtomicLong inFlight = new AtomicLong();
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    // Wall time the listener started waiting on its cursor, 0 while it is handling an event
+    private volatile long awaitingSinceMillis;
+    // Newest event handed to workers, written by the listener only
+    private volatile StreamEvent lastDispatchedEvent;
+    // Events up to this cluster time were processed before the cursor was reopened; listener only
+    private BsonTimestamp replayHorizon;
+    // Dispatches not yet passed by the watermark, oldest first; guarded by itself
+    private final ArrayDeque<Dispatch> unsettled = new ArrayDeque<>();
+    // Bumped when the cursor is reopened at a stored position, so older dispatches no longer move the watermark
+    private long epoch;
+    // Whether a settled dispatch passed by the watermark asked for a checkpoint that was not handed out yet
+    private boolean checkpointDue;
+    // Set when a dispatch failed in the current epoch; the watermark stays behind it
+    private volatile boolean held;
+    // Newest event up to which every dispatch of the current epoch settled, null before the first
+    private StreamEvent watermark;
+    // Where the current cursor started: its open position, or its first event when it opened at the present
+    private volatile ListenerControl.Position start;
+
+    public LagTracker(String collectionName) {
+        this.collectionName = collectionName;
+    }
+
+    public String getCollectionName() {
+        return collectionName;
+    }
+
+    /** The listener is about to block on its cursor. */
+    public void awaiting() {
+        awaitingSinceMillis = System.currentTimeMillis();
+    }
+
+    /** The listener got an event, or its cursor ended. */
+    public void received() {
+        awaitingSinceMillis = 0;
+    }
+
+    /**
+     * Events up to {@code last} were handed to workers, in stream order. {@code checkpoint} is false for dispatches
+     * that do not need their position saved once the watermark passes them, e.g. sparse catch-up batches.
+     */
+    public Dispatch dispatched(StreamEvent last, int count, boolean checkpoint) {
+        lastDispatchedEvent = last;
+        dispatched(last.clusterTime(), count);
+        synchronized (unsettled) {
+            Dispatch dispatch = new Dispatch(last, checkpoint, epoch);
+            if (!held) {
+                unsettled.addLast(dispatch);
+            }
+            return dispatch;
+        }
+    }
+
+    /** Events up to {@code clusterTime} were handed to workers. */
+    public void dispatched(BsonTimestamp clusterTime, int count) {
+        lastDispatchedSeconds.accumulateAndGet(seconds(clusterTime), Math::max);
+        inFlight.addAndGet(count);
+    }
+
+    /** Workers finished events up to {@code clusterTime}, successfully or dead-lettered. */
+    public void completed(BsonTimestamp clusterTime, int count) {
+        lastCompletedSeconds.accumulateAndGet(seconds(clusterTime), Math::max);
+        inFlight.addAndGet(-count);
+        completed.addAndGet(count);
+    }
+
+    /**
+     * Workers finished a dispatch. Returns the newest event up to which every dispatch has settled when this call
+     * moved the watermark past a dispatch asking for a checkpoint, null otherwise; the caller saves it as its
+     * checkpoint.
+     */
+    public StreamEvent settled(Dispatch dispatch, int count) {
+        completed(dispatch.last.clusterTime(), count);
+        synchronized (unsettled) {
+            if (dispatch.epoch != epoch || held) {
+                return null;
+            }
+            dispatch.settled = true;
+            StreamEvent passedTo = null;
+            while (!unsettled.isEmpty() && unsettled.peekFirst().settled) {
+                Dispatch passed = unsettled.pollFirst();
+                checkpointDue |= passed.checkpoint;
+                passedTo = passed.last;
+            }
+            if (passedTo == null) {
+                return null;
+            }
+            watermark = passedTo;
+            if (!checkpointDue) {
+                return null;
+            }
+            checkpointDue = false;
+            return watermark;
+        }
+    }
+
+    /**
+     * A dispatch failed and was not dead-lettered. The watermark stops moving until the cursor is reopened, so no
+     * checkpoint passes the failed events; dispatches are no longer tracked meanwhile. Returns true if this failure
+     * held the watermark, i.e. the caller has to reopen the cursor at {@link #reopenPosition()}.
+     */
+    public boolean failed(Dispatch dispatch, int count) {
+        inFlight.addAndGet(-count);
+        failed.addAndGet(count);
+        synchronized (unsettled) {
+            if (dispatch.epoch != epoch || held) {
+                return false;
+            }
+            held = true;
+            unsettled.clear();
+            checkpointDue = false;
+            return true;
+        }
+    }
+
+    /**
+     * Position from which every event not settled in the current epoch comes again: after the watermark, else
+     * where the cursor started. Null if the cursor opened at the present and no event arrived yet.
+     */
+    public ListenerControl.Position reopenPosition() {
+        synchronized (unsettled) {
+            if (watermark != null && watermark.resumeToken() != null) {
+                return new ListenerControl.Position(watermark.resumeToken(), null);
+            }
+            return start;
+        }
+    }
+
+    /** Newest event up to which every dispatch of the current epoch settled, null before the first. */
+    public StreamEvent getWatermark() {
+        synchronized (unsettled) {
+            return watermark;
+        }
+    }
+
+    /** True if an event failed since the cursor was last opened, so checkpoints must stay where they are. */
+    public boolean isHeld() {
+        return held;
+    }
+
+    private static long seconds(BsonTimestamp clusterTime) {
+        return clusterTime == null ? 0 : clusterTime.getTime();
+    }
+
+    public long getLastDispatchedSeconds() {
+        return lastDispatchedSeconds.get();
+    }
+
+    public long getLastCompletedSeconds() {
+        return lastCompletedSeconds.get();
+    }
+
+    /**
+     * The cursor was reopened at {@code start}, null for the present; events up to {@code horizon} will be seen
+     * again. Dispatches from the previous cursor no longer move the watermark, their events come again from the
+     * new one.
+     */
+    public void resumedFrom(BsonTimestamp horizon, ListenerControl.Position start) {
+        replayHorizon = horizon;
+        synchronized (unsettled) {
+            epoch++;
+            unsettled.clear();
+            checkpointDue = false;
+            held = false;
+            watermark = null;
+            this.start = start;
+        }
+    }
+
+    /** The listener took an event from its cursor; the first one marks where a cursor opened at the present began. */
+    public void arrived(StreamEvent event) {
+        if (start == null && event.clusterTime() != null) {
+            start = new ListenerControl.Position(null, event.clusterTime());
+        }
+    }
+
+    /** True if an event received by the listener was processed before; the horizon is dropped once passed. */
+    public boolean isReplay(BsonTimestamp clusterTime) {
+        if (replayHorizon == null || clusterTime == null) {
+            return false;
+        }
+        if (clusterTime.compareTo(replayHorizon) <= 0) {
+            return true;
+        }
+        replayHorizon = null;
+        return false;
+    }
+
+    /** Newest event handed to workers, null before the first. */
+    public StreamEvent getLastDispatchedEvent() {
+        return lastDispatchedEvent;
+    }
+
+    public long getInFlight() {
+        return inFlight.get();
+    }
+
+    public long getCompleted() {
+        return completed.get();
+    }
+
+    public long getFailed() {
+        return failed.get();
+    }
+
+    /** How long the listener has been blocked on its cursor, 0 if it is not. */
+    public long awaitingMillis(long nowMillis) {
+        long since = awaitingSinceMillis;
+        return since == 0 ? 0 : nowMillis - since;
+    }
+}
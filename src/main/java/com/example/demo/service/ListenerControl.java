@@ -0,0 +1,114 @@
+package com.example.demo.service;
+
+import java.util.function.BooleanSupplier;
+
+import org.bson.BsonDocument;
+import org.bson.BsonTimestamp;
+
+/**
+ * ListenerControl carries runtime commands from the admin API to one collection's listener: pause, resume and
+ * seek. The listener polls it between events, so a command takes effect at the next event without restarting
+ * anything.
+ *
+ * <p>A paused listener holds the next event without dispatching it and keeps its cursor open. Pausing for longer
+ * than the server's cursor timeout (10 minutes by default) loses the cursor, and the listener resumes from its
+ * checkpoint once resumed.
+ */
+public class ListenerControl {
+    // How often a paused listener rechecks whether it must stop for a drain or a seek
+    private static final long PAUSE_POLL_MILLIS = 100;
+
+    /**
+     * Position a listener is told to reopen at: after a resume token, or at a cluster time when no token is given.
+     */
+    public record Position(BsonDocument resumeToken, BsonTimestamp operationTime) {
+        public Position {
+            if ((resumeToken == null) == (operationTime == null)) {
+                throw new IllegalArgumentException("Seek needs either a resume token or an operation time");
+            }
+        }
+    }
+
+    private boolean paused;
+    private Position pendingSeek;
+    // Reopen at the stored position, e.g. the fence after a failed commit
+    private boolean reopenPending;
+    // Where a pending reopen starts instead of the stored position, e.g. the watermark after a failed event
+    private Position reopenPosition;
+
+    public synchronized void pause() {
+        paused = true;
+    }
+
+    public synchronized void resume() {
+        paused = false;
+        notifyAll();
+    }
+
+    public synchronized boolean isPaused() {
+        return paused;
+    }
+
+    /**
+     * Asks the listener to close its cursor and reopen at {@code position}; a later seek replaces an earlier one
+     * not yet taken.
+     */
+    public synchronized void seek(Position position) {
+        pendingSeek = position;
+        notifyAll();
+    }
+
+    /**
+     * Asks the listener to close its cursor and reopen at its stored position, as on a restart.
+     */
+    public synchronized void reopen() {
+        reopenPending = true;
+        notifyAll();
+    }
+
+    /**
+     * Asks the listener to close its cursor and reopen at {@code position} without moving its checkpoints, unlike a
+     * seek; a pending seek wins over it.
+     */
+    public synchronized void reopen(Position position) {
+        reopenPending = true;
+        reopenPosition = position;
+        notifyAll();
+    }
+
+    /** True if the listener must reopen its cursor, for a seek or a {@link #reopen()}. */
+    public synchronized boolean isSeekPending() {
+        return pendingSeek != null || reopenPending;
+    }
+
+    /**
+     * Returns and clears the pending seek, null if none or if only a reopen is pending.
+     */
+    public synchronized Position takeSeek() {
+        Position position = pendingSeek;
+        pendingSeek = null;
+        reopenPending = false;
+        return position;
+    }
+
+    /**
+     * Returns and clears the position of a pending {@link #reopen(Position)}, null if none; call before
+     * {@link #takeSeek()}, which clears the reopen.
+     */
+    public synchronized Position takeReopen() {
+        Position position = reopenPending ? reopenPosition : null;
+        reopenPosition = null;
+        return position;
+    }
+
+    /**
+     * Blocks while paused. Returns false if the listener must stop pulling instead, because of a pending seek or
+     * because {@code stopping} turned true.
+     */
+    public synchronized boolean awaitRunnable(BooleanSupplier stopping) throws InterruptedException {
+        while (paused && !isSeekPending() && !stopping.getAsBoolean()) {
+            wait(PAUSE_POLL_MILLIS);
+        }
+        return !isSeekPending() && !stopping.getAsBoolean();
+    }
+}
@@ -0,0 +1,383 @@
+package com.example.demo.service;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.CRC32C;
+
+import org.bson.BsonDocument;
+import org.bson.BsonTimestamp;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.BsonDocumentCodec;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * MappedFileCheckpointStore keeps checkpoints in a local memory-mapped file, so a save is a handful of
+ * memory writes instead of a round trip to the primary.
+ *
+ * <p>File layout: a fixed header followed by {@code slotCount} fixed-size slots, one per (collection, thread).
+ * A slot never moves while its thread has a checkpoint; once the thread retires its slot is invalidated and reused
+ * by the next new thread. When every slot is taken, {@link #trySave} refuses the save and the caller keeps that
+ * checkpoint elsewhere. Each slot holds two copies written alternately, each with a sequence
+ * number and a CRC32C checksum, so a write torn by a crash leaves the previous copy intact. Dirty pages are flushed
+ * with {@link MappedByteBuffer#force()} every {@code forceIntervalMillis}, or on every save when the interval is 0.
+ */
+public class MappedFileCheckpointStore implements CheckpointStore {
+    private static final Logger LOGGER = LoggerFactory.getLogger(MappedFileCheckpointStore.class);
+
+    private static final int MAGIC = 0x43484B50; // "CHKP"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 64;
+    static final int COPY_SIZE = 1024;
+    static final int SLOT_SIZE = COPY_SIZE * 2;
+    private static final int MAX_KEY_BYTES = 192;
+    // sequence + key length + key + cluster time + token length + crc
+    private static final int MAX_TOKEN_BYTES = COPY_SIZE - (8 + 2 + MAX_KEY_BYTES + 8 + 2 + 4);
+    private static final BsonDocumentCodec TOKEN_CODEC = new BsonDocumentCodec();
+
+    private final Path path;
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private final int slotCount;
+    private final Map<String, Slot> slots = new ConcurrentHashMap<>();
+    private final AtomicBoolean dirty = new AtomicBoolean();
+    private final boolean forceOnSave;
+    private final ScheduledExecutorService flusher;
+    // Slots freed by retired threads, reused before the never-used ones; guarded by this
+    private final ArrayDeque<Integer> freedSlots = new ArrayDeque<>();
+    private int nextFreeSlot;
+
+    /** In-memory view of the newest valid copy of a slot. */
+    private static final class Slot {
+        final int index;
+        final String collectionName;
+        long sequence;
+        long clusterTime;
+        BsonDocument resumeToken;
+        // Set once the slot was freed; a save still holding it must look up a new one
+        boolean freed;
+
+        Slot(int index, String collectionName) {
+            this.index = index;
+            this.collectionName = collectionName;
+        }
+    }
+
+    public MappedFileCheckpointStore(Path path, int slotCount, long forceIntervalMillis) throws IOException {
+        this.path = path;
+        boolean exists = Files.exists(path) && Files.size(path) >= HEADER_SIZE;
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        int slotsInFile = exists ? readSlotCount(channel) : slotCount;
+        this.slotCount = slotsInFile;
+        this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + (long) slotsInFile * SLOT_SIZE);
+        if (exists) {
+            recover();
+        } else {
+            buffer.putInt(0, MAGIC);
+            buffer.putInt(4, VERSION);
+            buffer.putInt(8, slotsInFile);
+            buffer.putInt(12, SLOT_SIZE);
+            buffer.force();
+        }
+
+        this.forceOnSave = forceIntervalMillis <= 0;
+        if (forceOnSave) {
+            this.flusher = null;
+        } else {
+            this.flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "CheckpointFile-Flusher");
+                t.setDaemon(true);
+                return t;
+            });
+            flusher.scheduleWithFixedDelay(this::flush, forceIntervalMillis, forceIntervalMillis, TimeUnit.MILLISECONDS);
+        }
+        LOGGER.info("✅ Opened checkpoint file {} with {} of {} slots in use", path, slots.size(), this.slotCount);
+    }
+
+    private static int readSlotCount(FileChannel channel) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(16);
+        channel.read(header, 0);
+        if (header.getInt(0) != MAGIC || header.getInt(4) != VERSION || header.getInt(12) != SLOT_SIZE) {
+            throw new IOException("Not a checkpoint file or unsupported version");
+        }
+        return header.getInt(8);
+    }
+
+    /**
+     * Rebuilds the slot directory from the newest copy of each slot whose checksum verifies.
+     */
+    private void recover() {
+        int used = 0;
+        for (int index = 0; index < slotCount; index++) {
+            int newest = -1;
+            long newestSequence = 0;
+            for (int copy = 0; copy < 2; copy++) {
+                int offset = copyOffset(index, copy);
+                long sequence = buffer.getLong(offset);
+                if (sequence > newestSequence && verify(offset)) {
+                    newest = offset;
+                    newestSequence = sequence;
+                }
+            }
+            if (newest < 0) {
+                continue;
+            }
+            String key = readKey(newest);
+            Slot slot = new Slot(index, key.substring(0, key.indexOf('\u0000')));
+            slot.sequence = newestSequence;
+            readCheckpoint(newest, slot);
+            slots.put(key, slot);
+            // Invalid slots below the highest used one were freed before the restart
+            for (int free = used; free < index; free++) {
+                freedSlots.add(free);
+            }
+            used = index + 1;
+        }
+        nextFreeSlot = used;
+    }
+
+    @Override
+    public void save(String collectionName, String threadName, BsonTimestamp clusterTime, BsonDocument resumeToken) {
+        if (!trySave(collectionName, threadName, clusterTime, resumeToken)) {
+            throw new IllegalStateException("Checkpoint file " + path + " has no free slots left");
+        }
+    }
+
+    /**
+     * Saves the checkpoint like {@link #save}, unless the thread has no slot yet and none is free.
+     *
+     * @return false if the checkpoint was not saved for lack of a free slot
+     */
+    public boolean trySave(String collectionName, String threadName, BsonTimestamp clusterTime,
+                           BsonDocument resumeToken) {
+        byte[] token = encode(resumeToken);
+        byte[] key = keyBytes(collectionName, threadName);
+        Slot slot = slotFor(collectionName, threadName);
+        while (slot != null && !write(slot, key, clusterTime, resumeToken, token)) {
+            slot = slotFor(collectionName, threadName);
+        }
+        if (slot == null) {
+            return false;
+        }
+        if (forceOnSave) {
+            buffer.force();
+        } else {
+            dirty.set(true);
+        }
+        return true;
+    }
+
+    /**
+     * Writes the next copy of the slot; returns false if the slot was freed meanwhile.
+     */
+    private boolean write(Slot slot, byte[] key, BsonTimestamp clusterTime, BsonDocument resumeToken, byte[] token) {
+        synchronized (slot) {
+            if (slot.freed) {
+                return false;
+            }
+            long sequence = slot.sequence + 1;
+            int offset = copyOffset(slot.index, (int) (sequence & 1));
+
+            int position = offset + 8;
+            buffer.putShort(position, (short) key.length);
+            buffer.put(position + 2, key);
+            position += 2 + MAX_KEY_BYTES;
+            buffer.putLong(position, clusterTime.getValue());
+            buffer.putShort(position + 8, (short) token.length);
+            buffer.put(position + 10, token);
+            // Sequence and checksum last: a copy is only valid once both match its contents
+            buffer.putLong(offset, sequence);
+            buffer.putInt(offset + COPY_SIZE - 4, checksum(offset));
+
+            slot.sequence = sequence;
+            slot.clusterTime = clusterTime.getValue();
+            slot.resumeToken = resumeToken;
+            return true;
+        }
+    }
+
+    @Override
+    public BsonDocument load(String collectionName) {
+        Slot earliest = null;
+        for (Slot slot : slots.values()) {
+            if (!slot.collectionName.equals(collectionName)) continue;
+            synchronized (slot) {
+                if (earliest == null || Long.compareUnsigned(slot.clusterTime, earliest.clusterTime) < 0) {
+                    earliest = slot;
+                }
+            }
+        }
+        return earliest == null ? null : earliest.resumeToken;
+    }
+
+    @Override
+    public void saveAll(String collectionName, String threadName, BsonTimestamp clusterTime, BsonDocument resumeToken) {
+        boolean saved = false;
+        for (Map.Entry<String, Slot> entry : slots.entrySet()) {
+            if (entry.getValue().collectionName.equals(collectionName)) {
+                String key = entry.getKey();
+                save(collectionName, key.substring(key.indexOf('\u0000') + 1), clusterTime, resumeToken);
+                saved = true;
+            }
+        }
+        if (!saved) {
+            save(collectionName, threadName, clusterTime, resumeToken);
+        }
+    }
+
+    @Override
+    public synchronized void remove(String collectionName, String threadName) {
+        String key = collectionName + '\u0000' + threadName;
+        Slot slot = slots.get(key);
+        if (slot == null) {
+            return;
+        }
+        boolean onlySlot = slots.values().stream()
+                .noneMatch(other -> other != slot && other.collectionName.equals(collectionName));
+        if (onlySlot) {
+            return;
+        }
+        slots.remove(key);
+        synchronized (slot) {
+            slot.freed = true;
+            // Both copies lose their sequence, so recovery no longer sees the slot
+            buffer.putLong(copyOffset(slot.index, 0), 0);
+            buffer.putLong(copyOffset(slot.index, 1), 0);
+        }
+        freedSlots.add(slot.index);
+        if (forceOnSave) {
+            buffer.force();
+        } else {
+            dirty.set(true);
+        }
+    }
+
+    @Override
+    public BsonTimestamp latestClusterTime(String collectionName) {
+        BsonTimestamp latest = null;
+        for (Slot slot : slots.values()) {
+            if (!slot.collectionName.equals(collectionName)) continue;
+            synchronized (slot) {
+                if (latest == null || Long.compareUnsigned(slot.clusterTime, latest.getValue()) > 0) {
+                    latest = new BsonTimestamp(slot.clusterTime);
+                }
+            }
+        }
+        return latest;
+    }
+
+    @Override
+    public void flush() {
+        if (dirty.getAndSet(false)) {
+            buffer.force();
+        }
+    }
+
+    @Override
+    public void close() {
+        if (flusher != null) {
+            flusher.shutdown();
+        }
+        flush();
+        try {
+            channel.close();
+        } catch (IOException e) {
+            LOGGER.error("❌ Failed to close checkpoint file {}: {}", path, e.getMessage());
+        }
+    }
+
+    /**
+     * The thread's slot, allocating a freed or never-used one for a new thread; null if none is left.
+     */
+    private Slot slotFor(String collectionName, String threadName) {
+        String key = collectionName + '\u0000' + threadName;
+        Slot slot = slots.get(key);
+        if (slot != null) {
+            return slot;
+        }
+        synchronized (this) {
+            slot = slots.get(key);
+            if (slot != null) {
+                return slot;
+            }
+            Integer index = freedSlots.poll();
+            if (index == null) {
+                if (nextFreeSlot >= slotCount) {
+                    return null;
+                }
+                index = nextFreeSlot++;
+            }
+            slot = new Slot(index, collectionName);
+            slots.put(key, slot);
+            return slot;
+        }
+    }
+
+    private int copyOffset(int index, int copy) {
+        return HEADER_SIZE + index * SLOT_SIZE + copy * COPY_SIZE;
+    }
+
+    private byte[] keyBytes(String collectionName, String threadName) {
+        byte[] key = (collectionName + '\u0000' + threadName).getBytes(StandardCharsets.UTF_8);
+        if (key.length > MAX_KEY_BYTES) {
+            throw new IllegalArgumentException("Checkpoint key too long: " + collectionName + "/" + threadName);
+        }
+        return key;
+    }
+
+    private String readKey(int offset) {
+        int length = buffer.getShort(offset + 8);
+        byte[] key = new byte[length];
+        buffer.get(offset + 10, key);
+        return new String(key, StandardCharsets.UTF_8);
+    }
+
+    private void readCheckpoint(int offset, Slot slot) {
+        int position = offset + 10 + MAX_KEY_BYTES;
+        slot.clusterTime = buffer.getLong(position);
+        byte[] token = new byte[buffer.getShort(position + 8)];
+        buffer.get(position + 10, token);
+        slot.resumeToken = new RawBsonDocument(token);
+    }
+
+    private boolean verify(int offset) {
+        int keyLength = buffer.getShort(offset + 8);
+        int tokenLength = buffer.getShort(offset + 10 + MAX_KEY_BYTES + 8);
+        if (keyLength <= 0 || keyLength > MAX_KEY_BYTES || tokenLength <= 0 || tokenLength > MAX_TOKEN_BYTES) {
+            return false;
+        }
+        return buffer.getInt(offset + COPY_SIZE - 4) == checksum(offset);
+    }
+
+    private int checksum(int offset) {
+        CRC32C crc = new CRC32C();
+        crc.update(buffer.slice(offset, COPY_SIZE - 4));
+        return (int) crc.getValue();
+    }
+
+    private byte[] encode(BsonDocument resumeToken) {
+        RawBsonDocument raw = resumeToken instanceof RawBsonDocument
+                ? (RawBsonDocument) resumeToken
+                : new RawBsonDocument(resumeToken, TOKEN_CODEC);
+        ByteBuffer bytes = raw.getByteBuffer().asNIO();
+        byte[] token = new byte[bytes.remaining()];
+        bytes.get(token);
+        if (token.length > MAX_TOKEN_BYTES) {
+            throw new IllegalArgumentException("Resume token of " + token.length + " bytes exceeds checkpoint slot size");
+        }
+        return token;
+    }
+}
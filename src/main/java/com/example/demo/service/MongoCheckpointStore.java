@@ -0,0 +1,352 @@
+package com.example.demo.service;
+
+import java.util.List;
+import java.util.Map;
+
+import org.bson.BsonDocument;
+import org.bson.BsonTimestamp;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.mongodb.MongoClientSettings;
+import com.mongodb.MongoException;
+import com.mongodb.client.ClientSession;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.IndexOptions;
+import com.mongodb.client.model.Indexes;
+import com.mongodb.client.model.UpdateOptions;
+
+import jakarta.annotation.PostConstruct;
+
+/**
+ * MongoCheckpointStore keeps change stream checkpoints in a MongoDB collection.
+ *
+ * Two layouts are supported:
+ * <ul>
+ *   <li>{@code per-thread}: one document per (collectionName, threadName), looked up through a compound index.</li>
+ *   <li>{@code compact}: one document per collection with {@code _id = collectionName}; every thread's checkpoint
+ *   is a sub-field of {@code threads}, updated with a single {@code $set}, and restart is one {@code _id} fetch.</li>
+ * </ul>
+ */
+@Component
+public class MongoCheckpointStore implements CheckpointStore {
+    private static final Logger LOGGER = LoggerFactory.getLogger(MongoCheckpointStore.class);
+    public static final String LAYOUT_PER_THREAD = "per-thread";
+    public static final String LAYOUT_COMPACT = "compact";
+
+    private final Map<String, MongoCollection<Document>> collectionMap;
+    private final String resumeTokenCollectionName;  // ✅ Now passed via constructor
+    private final boolean compactLayout;
+
+    /**
+     * Constructor injection ensures `resumeTokenCollectionName` is set before use.
+     */
+    @Autowired
+    public MongoCheckpointStore(Map<String, MongoCollection<Document>> collectionMap,
+                                @Value("${spring.mongodb.resumetoken.collection}") String resumeTokenCollectionName,
+                                @Value("${spring.mongodb.resumetoken.layout:per-thread}") String layout) {
+        if (layout != null && !LAYOUT_PER_THREAD.equals(layout) && !LAYOUT_COMPACT.equals(layout)) {
+            throw new IllegalArgumentException("Unknown resume token layout: " + layout);
+        }
+        this.collectionMap = collectionMap;
+        this.resumeTokenCollectionName = resumeTokenCollectionName;
+        this.compactLayout = LAYOUT_COMPACT.equals(layout);
+    }
+
+    public MongoCheckpointStore(Map<String, MongoCollection<Document>> collectionMap, String resumeTokenCollectionName) {
+        this(collectionMap, resumeTokenCollectionName, LAYOUT_PER_THREAD);
+    }
+
+    /**
+     * Ensures the indexes backing the save and restart lookups exist. The compact layout only uses `_id`.
+     */
+    @PostConstruct
+    public void ensureIndexes() {
+        if (compactLayout) {
+            return;
+        }
+        MongoCollection<Document> resumeTokenCollection = getResumeTokenCollection();
+        if (resumeTokenCollection == null) {
+            return;
+        }
+        try {
+            resumeTokenCollection.createIndex(Indexes.ascending("collectionName", "threadName"),
+                    new IndexOptions().unique(true).name("collectionName_threadName"));
+            resumeTokenCollection.createIndex(Indexes.ascending("collectionName", "date"),
+                    new IndexOptions().name("collectionName_date"));
+            LOGGER.info("✅ Ensured resume token indexes on {}", resumeTokenCollectionName);
+        } catch (MongoException e) {
+            LOGGER.error("❌ Failed to ensure resume token indexes on {}: {}", resumeTokenCollectionName, e.getMessage());
+        }
+    }
+
+    /**
+     * Saves the resume token for a specific collection and thread.
+     */
+    @Override
+    public void save(String collectionName, String threadName, BsonTimestamp bsonTimestamp, BsonDocument resumeToken) {
+        save(null, collectionName, threadName, bsonTimestamp, resumeToken);
+    }
+
+    /**
+     * Saves the resume token as part of the caller's transaction when a session is given.
+     */
+    public void save(ClientSession session, String collectionName, String threadName,
+                     BsonTimestamp bsonTimestamp, BsonDocument resumeToken) {
+        MongoCollection<Document> resumeTokenCollection = getResumeTokenCollection();
+        if (resumeTokenCollection == null) {
+            LOGGER.error("❌ Resume token collection not found for: {}", collectionName);
+            return;
+        }
+
+        Bson filter;
+        Document update;
+        if (compactLayout) {
+            Document checkpoint = new Document("resumeToken", resumeToken).append("date", bsonTimestamp);
+            filter = Filters.eq("_id", collectionName);
+            update = new Document("$set", new Document("threads." + threadField(threadName), checkpoint)
+                    .append("appName", "demoChangeStream"));
+        } else {
+            Document mongoDocument = new Document()
+                    .append("collectionName", collectionName)  // ✅ Store per collection
+                    .append("threadName", threadName)
+                    .append("resumeToken", resumeToken)
+                    .append("date", bsonTimestamp)
+                    .append("appName", "demoChangeStream");
+            filter = Filters.and(Filters.eq("collectionName", collectionName), Filters.eq("threadName", threadName));
+            update = new Document("$set", mongoDocument);
+        }
+
+        if (session == null) {
+            resumeTokenCollection.updateOne(filter, update, new UpdateOptions().upsert(true));
+        } else {
+            resumeTokenCollection.updateOne(session, filter, update, new UpdateOptions().upsert(true));
+        }
+
+        LOGGER.debug("✅ Saved resume token for collection: {} | thread: {}", collectionName, threadName);
+    }
+
+    /**
+     * Moves the checkpoints of all threads of the collection to one position, with one update in either layout; in
+     * the compact layout a pipeline update rewrites every entry of {@code threads} inside the document.
+     */
+    @Override
+    public void saveAll(String collectionName, String threadName, BsonTimestamp bsonTimestamp, BsonDocument resumeToken) {
+        MongoCollection<Document> resumeTokenCollection = getResumeTokenCollection();
+        if (resumeTokenCollection == null) {
+            LOGGER.error("❌ Resume token collection not found for: {}", collectionName);
+            return;
+        }
+
+        long matched;
+        if (compactLayout) {
+            Document checkpoint = new Document("resumeToken", resumeToken).append("date", bsonTimestamp);
+            Document everyThread = new Document("$map",
+                    new Document("input", new Document("$objectToArray", "$threads"))
+                    .append("as", "thread")
+                    .append("in", new Document("k", "$$thread.k").append("v", new Document("$literal", checkpoint))));
+            matched = resumeTokenCollection.updateOne(
+                    Filters.and(Filters.eq("_id", collectionName), Filters.exists("threads"),
+                            Filters.ne("threads", new Document())),
+                    List.of(new Document("$set", new Document("threads", new Document("$arrayToObject", everyThread)))))
+                    .getMatchedCount();
+        } else {
+            matched = resumeTokenCollection.updateMany(Filters.eq("collectionName", collectionName),
+                    new Document("$set", new Document("resumeToken", resumeToken).append("date", bsonTimestamp)))
+                    .getMatchedCount();
+        }
+        if (matched == 0) {
+            save(collectionName, threadName, bsonTimestamp, resumeToken);
+        }
+        LOGGER.debug("✅ Moved all resume tokens of collection: {}", collectionName);
+    }
+
+    /**
+     * Drops a retired thread's checkpoint unless it is the collection's last one, also when several instances
+     * retire threads at once. In the compact layout that is one conditional update of the collection's document.
+     * Per-thread rows cannot be checked and deleted in one operation, so the row is deleted and put back if no
+     * other row of the collection was left: whichever instance deletes last sees none and restores its row.
+     */
+    @Override
+    public void remove(String collectionName, String threadName) {
+        MongoCollection<Document> resumeTokenCollection = getResumeTokenCollection();
+        if (resumeTokenCollection == null) {
+            return;
+        }
+        if (compactLayout) {
+            String field = "threads." + threadField(threadName);
+            Document threadCount = new Document("$size",
+                    new Document("$ifNull", List.of(new Document("$objectToArray", "$threads"), List.of())));
+            resumeTokenCollection.updateOne(
+                    Filters.and(Filters.eq("_id", collectionName), Filters.exists(field),
+                            Filters.expr(new Document("$gt", List.of(threadCount, 1)))),
+                    new Document("$unset", new Document(field, "")));
+        } else {
+            Bson row = Filters.and(Filters.eq("collectionName", collectionName), Filters.eq("threadName", threadName));
+            Document retired = resumeTokenCollection.findOneAndDelete(row);
+            if (retired != null
+                    && resumeTokenCollection.countDocuments(Filters.eq("collectionName", collectionName)) == 0) {
+                // A save of the same thread in the meantime wins over the restored row
+                Document restored = new Document("resumeToken", retired.get("resumeToken"))
+                        .append("date", retired.get("date"))
+                        .append("appName", retired.get("appName"));
+                resumeTokenCollection.updateOne(row, new Document("$setOnInsert", restored),
+                        new UpdateOptions().upsert(true));
+                return;
+            }
+        }
+        LOGGER.debug("✅ Removed resume token of retired thread {} for collection: {}", threadName, collectionName);
+    }
+
+    /**
+     * Deletes one thread's checkpoint of the collection, even the last one; for rows that are not worker
+     * checkpoints, such as the fence of a collection that no longer runs exactly-once.
+     */
+    public void delete(String collectionName, String threadName) {
+        MongoCollection<Document> resumeTokenCollection = getResumeTokenCollection();
+        if (resumeTokenCollection == null) {
+            return;
+        }
+        if (compactLayout) {
+            resumeTokenCollection.updateOne(Filters.eq("_id", collectionName),
+                    new Document("$unset", new Document("threads." + threadField(threadName), "")));
+        } else {
+            resumeTokenCollection.deleteOne(Filters.and(Filters.eq("collectionName", collectionName),
+                    Filters.eq("threadName", threadName)));
+        }
+        LOGGER.debug("✅ Deleted resume token of {} for collection: {}", threadName, collectionName);
+    }
+
+    @Override
+    public BsonTimestamp latestClusterTime(String collectionName) {
+        MongoCollection<Document> resumeTokenCollection = getResumeTokenCollection();
+        if (resumeTokenCollection == null) {
+            return null;
+        }
+        if (compactLayout) {
+            Document collectionCheckpoints = resumeTokenCollection.find(Filters.eq("_id", collectionName)).first();
+            Document threads = collectionCheckpoints == null ? null : collectionCheckpoints.get("threads", Document.class);
+            if (threads == null) {
+                return null;
+            }
+            BsonTimestamp latest = null;
+            for (Object value : threads.values()) {
+                BsonTimestamp date = value instanceof Document ? ((Document) value).get("date", BsonTimestamp.class) : null;
+                if (date != null && (latest == null || date.compareTo(latest) > 0)) {
+                    latest = date;
+                }
+            }
+            return latest;
+        }
+        Document latestCheckpoint = resumeTokenCollection
+                .find(Filters.eq("collectionName", collectionName))
+                .sort(new Document("date", -1))
+                .first();
+        return latestCheckpoint == null ? null : latestCheckpoint.get("date", BsonTimestamp.class);
+    }
+
+    /**
+     * Returns the checkpoint ({resumeToken, date}) saved by one thread of the collection, or null if none exists.
+     */
+    public Document loadThreadCheckpoint(String collectionName, String threadName) {
+        MongoCollection<Document> resumeTokenCollection = getResumeTokenCollection();
+        if (resumeTokenCollection == null) {
+            return null;
+        }
+        if (compactLayout) {
+            Document collectionCheckpoints = resumeTokenCollection.find(Filters.eq("_id", collectionName)).first();
+            Document threads = collectionCheckpoints == null ? null : collectionCheckpoints.get("threads", Document.class);
+            return threads == null ? null : threads.get(threadField(threadName), Document.class);
+        }
+        return resumeTokenCollection
+                .find(Filters.and(Filters.eq("collectionName", collectionName), Filters.eq("threadName", threadName)))
+                .first();
+    }
+
+    /**
+     * Retrieves the latest resume token for a specific collection.
+     * In multiple thread scenario, we choose the earliest token and resume the new round
+     * That means the last round's event will be replayed. Need idempotent operation to handle this.
+     */
+    @Override
+    public BsonDocument load(String collectionName) {
+        MongoCollection<Document> resumeTokenCollection = getResumeTokenCollection();
+        if (resumeTokenCollection == null) {
+            LOGGER.error("❌ Resume token collection not found in map!");
+            return null;
+        }
+
+        Document earliestCheckpoint = compactLayout
+                ? earliestThreadCheckpoint(resumeTokenCollection.find(Filters.eq("_id", collectionName)).first())
+                : resumeTokenCollection
+                        .find(Filters.eq("collectionName", collectionName))  // ✅ Retrieve only for the collection
+                        .sort(new Document("date", 1))  // Get the earliest recorded token
+                        .first();
+
+        LOGGER.info("🔍 Latest resume token document for {}: {}", collectionName, earliestCheckpoint);
+
+        if (earliestCheckpoint != null) {
+            Document resumeTokenDoc = earliestCheckpoint.get("resumeToken", Document.class);
+            if (resumeTokenDoc != null) {
+                // Tokens are stored as native documents, so no re-parsing of the `_data` string is needed
+                BsonDocument bsonResumeToken = resumeTokenDoc.toBsonDocument(BsonDocument.class,
+                        MongoClientSettings.getDefaultCodecRegistry());
+                LOGGER.info("✅ Found resume token for {}: {}", collectionName, bsonResumeToken);
+                return bsonResumeToken;
+            }
+        }
+
+        LOGGER.warn("⚠️ No valid resume token found for collection: {}", collectionName);
+        return null;
+    }
+
+    /**
+     * Picks the checkpoint with the earliest cluster time from a compact-layout collection document.
+     */
+    private Document earliestThreadCheckpoint(Document collectionCheckpoints) {
+        if (collectionCheckpoints == null) {
+            return null;
+        }
+        Document threads = collectionCheckpoints.get("threads", Document.class);
+        if (threads == null) {
+            return null;
+        }
+        Document earliest = null;
+        for (Object value : threads.values()) {
+            if (!(value instanceof Document)) continue;
+            Document checkpoint = (Document) value;
+            BsonTimestamp date = checkpoint.get("date", BsonTimestamp.class);
+            BsonTimestamp earliestDate = earliest == null ? null : earliest.get("date", BsonTimestamp.class);
+            if (earliest == null || (date != null && (earliestDate == null || date.compareTo(earliestDate) < 0))) {
+                earliest = checkpoint;
+            }
+        }
+        return earliest;
+    }
+
+    /**
+     * Thread names become field names in the compact layout, so path separators are replaced.
+     */
+    private String threadField(String threadName) {
+        return threadName.replace('.', '_').replace('$', '_');
+    }
+
+    /**
+     * Helper method to retrieve the correct resume token collection from `collectionMap`.
+     */
+    private MongoCollection<Document> getResumeTokenCollection() {
+        // Called on every save, so only the failure is logged, and never the whole map
+        MongoCollection<Document> doc = collectionMap.get(resumeTokenCollectionName);
+        if (doc == null) {
+            LOGGER.error("❌ Resume token collection '{}' not found in map {}!", resumeTokenCollectionName,
+                    collectionMap.keySet());
+        }
+        return doc;
+    }
+}
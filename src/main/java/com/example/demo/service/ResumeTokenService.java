@@ -1,112 +1,216 @@
 package com.example.demo.service;
 
+import java.io.IOException;
+import java.nio.file.Path;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.bson.BsonDocument;
 import org.bson.BsonTimestamp;
 import org.bson.Document;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import com.example.demo.metrics.ChangeStreamEvents;
 import com.mongodb.client.MongoCollection;
-import com.mongodb.client.model.Filters;
-import com.mongodb.client.model.UpdateOptions;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 
 /**
  * ResumeTokenService helps to store and fetch the resume token for each change stream.
- * Uses MongoDB as a persistent resume token store.
+ * Checkpoints go to the configured {@link CheckpointStore}: MongoDB by default, or a local memory-mapped file
+ * with MongoDB kept as a durable mirror that is written at a lower rate.
  */
 @Service
 public class ResumeTokenService {
     private static final Logger LOGGER = LoggerFactory.getLogger(ResumeTokenService.class);
-    private final Map<String, MongoCollection<Document>> collectionMap;
-    private final String resumeTokenCollectionName;  // ✅ Now passed via constructor
+    public static final String LAYOUT_PER_THREAD = MongoCheckpointStore.LAYOUT_PER_THREAD;
+    public static final String LAYOUT_COMPACT = MongoCheckpointStore.LAYOUT_COMPACT;
+
+    private final MongoCheckpointStore mongoStore;
+    private CheckpointStore primaryStore;
+
+    // Last time each (collection, thread) checkpoint was mirrored to MongoDB
+    private final Map<String, Long> lastMirroredMillis = new ConcurrentHashMap<>();
+    // (collection, thread) checkpoints kept in MongoDB only because the checkpoint file had no free slot
+    private final Set<String> withoutFileSlot = ConcurrentHashMap.newKeySet();
+
+    @Value("${spring.checkpoint.store:mongo}")
+    private String storeType;
+
+    @Value("${spring.checkpoint.file.path:checkpoints.dat}")
+    private String filePath;
+
+    @Value("${spring.checkpoint.file.slots:1024}")
+    private int fileSlots;
+
+    @Value("${spring.checkpoint.file.force-interval-ms:100}")
+    private long forceIntervalMillis;
+
+    @Value("${spring.checkpoint.mongo-mirror-interval-ms:5000}")
+    private long mirrorIntervalMillis;
+
+    @Autowired
+    public ResumeTokenService(MongoCheckpointStore mongoStore) {
+        this.mongoStore = mongoStore;
+        this.primaryStore = mongoStore;
+    }
+
+    public ResumeTokenService(Map<String, MongoCollection<Document>> collectionMap, String resumeTokenCollectionName) {
+        this(new MongoCheckpointStore(collectionMap, resumeTokenCollectionName));
+    }
+
+    public ResumeTokenService(Map<String, MongoCollection<Document>> collectionMap, String resumeTokenCollectionName,
+                              String layout) {
+        this(new MongoCheckpointStore(collectionMap, resumeTokenCollectionName, layout));
+    }
 
     /**
-     * Constructor injection ensures `resumeTokenCollectionName` is set before use.
+     * Opens the local checkpoint file when `spring.checkpoint.store=file`.
      */
-    public ResumeTokenService(Map<String, MongoCollection<Document>> collectionMap, 
-                              @org.springframework.beans.factory.annotation.Value("${spring.mongodb.resumetoken.collection}") 
-                              String resumeTokenCollectionName) {
-        this.collectionMap = collectionMap;
-        this.resumeTokenCollectionName = resumeTokenCollectionName;
+    @PostConstruct
+    public void init() throws IOException {
+        if ("file".equals(storeType)) {
+            primaryStore = new MappedFileCheckpointStore(Path.of(filePath), fileSlots, forceIntervalMillis);
+            LOGGER.info("✅ Using local checkpoint file {} with MongoDB mirror every {} ms", filePath, mirrorIntervalMillis);
+        } else if (storeType != null && !"mongo".equals(storeType)) {
+            throw new IllegalArgumentException("Unknown checkpoint store: " + storeType);
+        }
     }
 
     /**
      * Saves the resume token for a specific collection and thread.
      */
-    public void saveResumeToken(BsonTimestamp bsonTimestamp, BsonDocument resumeToken, 
+    public void saveResumeToken(BsonTimestamp bsonTimestamp, BsonDocument resumeToken,
                                 String threadName, String collectionName) {
-        MongoCollection<Document> resumeTokenCollection = getResumeTokenCollection();
-        if (resumeTokenCollection == null) {
-            LOGGER.error("❌ Resume token collection not found for: {}", collectionName);
-            return;
+        ChangeStreamEvents.CheckpointFlush flush = new ChangeStreamEvents.CheckpointFlush();
+        flush.begin();
+        boolean mirrored = save(bsonTimestamp, resumeToken, threadName, collectionName);
+        flush.end();
+        if (flush.shouldCommit()) {
+            flush.collection = collectionName;
+            flush.store = primaryStore == mongoStore ? "mongo" : storeType;
+            flush.mirrored = mirrored;
+            flush.commit();
         }
-    
-        Document mongoDocument = new Document()
-                .append("collectionName", collectionName)  // ✅ Store per collection
-                .append("threadName", threadName)
-                .append("resumeToken", resumeToken)
-                .append("date", bsonTimestamp)
-                .append("appName", "demoChangeStream");
-
-        resumeTokenCollection.updateOne(
-                Filters.and(Filters.eq("collectionName", collectionName), Filters.eq("threadName", threadName)),
-                new Document("$set", mongoDocument),
-                new UpdateOptions().upsert(true)
-        );
-
-        LOGGER.info("✅ Saved resume token for collection: {} | thread: {}", collectionName, threadName);
+    }
+
+    /**
+     * Saves to the primary store, and to the MongoDB mirror when it is due.
+     *
+     * @return true if the checkpoint was also mirrored
+     */
+    private boolean save(BsonTimestamp bsonTimestamp, BsonDocument resumeToken, String threadName,
+                         String collectionName) {
+        if (primaryStore == mongoStore) {
+            mongoStore.save(collectionName, threadName, bsonTimestamp, resumeToken);
+            return false;
+        }
+
+        long now = System.currentTimeMillis();
+        String key = collectionName + "/" + threadName;
+        if (primaryStore instanceof MappedFileCheckpointStore fileStore
+                && !fileStore.trySave(collectionName, threadName, bsonTimestamp, resumeToken)) {
+            if (withoutFileSlot.add(key)) {
+                LOGGER.warn("⚠️ Checkpoint file {} has no free slot for {}, saving it to MongoDB only", filePath, key);
+            }
+            mongoStore.save(collectionName, threadName, bsonTimestamp, resumeToken);
+            return true;
+        }
+
+        // Keep MongoDB as a durable mirror, at most once per interval for each worker
+        Long lastMirrored = lastMirroredMillis.get(key);
+        if (lastMirrored == null || now - lastMirrored >= mirrorIntervalMillis) {
+            lastMirroredMillis.put(key, now);
+            mongoStore.save(collectionName, threadName, bsonTimestamp, resumeToken);
+            return true;
+        }
+        return false;
     }
 
     /**
      * Retrieves the latest resume token for a specific collection.
-     * In multiple thread scenario, we choose the earliest token and resume the new round 
+     * In multiple thread scenario, we choose the earliest token and resume the new round
      * That means the last round's event will be replayed. Need idempotent operation to handle this.
+     * A missing local checkpoint (e.g. a replaced node) falls back to the MongoDB mirror.
      */
     public BsonDocument getResumeToken(String collectionName) {
-        LOGGER.info("🔍 in get resume token func");
-        MongoCollection<Document> resumeTokenCollection = getResumeTokenCollection();
-        if (resumeTokenCollection == null) {
-            LOGGER.error("❌ Resume token collection not found in map!");
-            return null;
+        BsonDocument resumeToken = primaryStore.load(collectionName);
+        if (resumeToken == null && primaryStore != mongoStore) {
+            LOGGER.warn("⚠️ No local checkpoint for {}, falling back to MongoDB mirror", collectionName);
+            resumeToken = mongoStore.load(collectionName);
         }
+        return resumeToken;
+    }
 
-        Document latestTokenDoc = resumeTokenCollection
-                .find(Filters.eq("collectionName", collectionName))  // ✅ Retrieve only for the collection
-                .sort(new Document("date", 1))  // Get the earliest recorded token
-                .first();
-
-        LOGGER.info("🔍 Latest resume token document for {}: {}", collectionName, latestTokenDoc);
-
-        if (latestTokenDoc != null) {
-            Document resumeTokenDoc = latestTokenDoc.get("resumeToken", Document.class);
-            if (resumeTokenDoc != null) {
-                String resumeTokenData = resumeTokenDoc.getString("_data");
-                if (resumeTokenData != null) {
-                    BsonDocument bsonResumeToken = BsonDocument.parse("{\"_data\": \"" + resumeTokenData + "\"}");
-                    LOGGER.info("✅ Found resume token for {}: {}", collectionName, bsonResumeToken);
-                    return bsonResumeToken;
-                }
-            }
+    /**
+     * Moves every checkpoint of the collection to the position of its last processed event and makes it durable,
+     * in the MongoDB mirror too, so a restart after a drain replays nothing.
+     */
+    public void saveDrainCheckpoint(BsonTimestamp bsonTimestamp, BsonDocument resumeToken,
+                                    String threadName, String collectionName) {
+        saveAll(bsonTimestamp, resumeToken, threadName, collectionName);
+        LOGGER.info("✅ Drained {} with checkpoint at {}", collectionName, bsonTimestamp);
+    }
+
+    /**
+     * Moves every checkpoint of the collection to a position the admin API seeked to and makes it durable, so a
+     * restart resumes there instead of at the positions saved before the seek.
+     */
+    public void saveSeekCheckpoint(BsonTimestamp bsonTimestamp, BsonDocument resumeToken,
+                                   String threadName, String collectionName) {
+        saveAll(bsonTimestamp, resumeToken, threadName, collectionName);
+        LOGGER.info("✅ Moved checkpoints of {} to seek position {}", collectionName, resumeToken);
+    }
+
+    private void saveAll(BsonTimestamp bsonTimestamp, BsonDocument resumeToken, String threadName,
+                         String collectionName) {
+        primaryStore.saveAll(collectionName, threadName, bsonTimestamp, resumeToken);
+        if (primaryStore != mongoStore) {
+            mongoStore.saveAll(collectionName, threadName, bsonTimestamp, resumeToken);
         }
+        primaryStore.flush();
+    }
 
-        LOGGER.warn("⚠️ No valid resume token found for collection: {}", collectionName);
-        return null;
+    /**
+     * Drops the checkpoint of a worker thread that exited, in every store, unless it is the collection's only one.
+     * Pools that retire threads would otherwise keep their rows forever, and restart from the oldest of them.
+     */
+    public void retireCheckpoint(String collectionName, String threadName) {
+        String key = collectionName + "/" + threadName;
+        lastMirroredMillis.remove(key);
+        withoutFileSlot.remove(key);
+        primaryStore.remove(collectionName, threadName);
+        if (primaryStore != mongoStore) {
+            mongoStore.remove(collectionName, threadName);
+        }
     }
 
     /**
-     * Helper method to retrieve the correct resume token collection from `collectionMap`.
+     * Cluster time of the newest checkpoint of the collection, or null if none exists.
      */
-    private MongoCollection<Document> getResumeTokenCollection() {
-        LOGGER.info("Info collection for resume token: {}, map is {}", resumeTokenCollectionName, collectionMap); 
-        MongoCollection<Document> doc = collectionMap.get(resumeTokenCollectionName);
-        if (doc == null) {
-            LOGGER.error("❌ Resume token collection '{}' not found in map!", resumeTokenCollectionName);
-        } else {
-            LOGGER.info("✅ Found collection for resume token: {}, map is {}", resumeTokenCollectionName, collectionMap);
+    public BsonTimestamp getLatestClusterTime(String collectionName) {
+        BsonTimestamp latest = primaryStore.latestClusterTime(collectionName);
+        if (latest == null && primaryStore != mongoStore) {
+            latest = mongoStore.latestClusterTime(collectionName);
         }
-        return doc;
+        return latest;
+    }
+
+    /**
+     * MongoDB-backed store, used directly when a checkpoint must join a transaction.
+     */
+    public MongoCheckpointStore getMongoCheckpointStore() {
+        return mongoStore;
+    }
+
+    @PreDestroy
+    public void close() {
+        primaryStore.close();
     }
 }
@@ -0,0 +1,156 @@
+package com.example.demo.service;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.bson.BsonDocument;
+import org.bson.BsonTimestamp;
+import org.bson.BsonValue;
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.Codec;
+import org.bson.codecs.DecoderContext;
+
+import com.mongodb.MongoClientSettings;
+import com.mongodb.client.model.changestream.ChangeStreamDocument;
+import com.mongodb.client.model.changestream.OperationType;
+
+/**
+ * StreamEvent is a change event as read by a listener: either already decoded by the driver, or still the raw
+ * BSON bytes of the event when the collection is watched with {@code spring.changestream.raw-events.enabled}.
+ *
+ * <p>The listener only needs the routing fields (operation type, cluster time, resume token, whether the full
+ * document has an {@code _id}); for raw events these are read straight from the bytes. The full
+ * {@link ChangeStreamDocument} is decoded once, by the worker that processes the event.
+ */
+public final class StreamEvent {
+    private static final Codec<ChangeStreamDocument<Document>> CODEC =
+            ChangeStreamDocument.createCodec(Document.class, MongoClientSettings.getDefaultCodecRegistry());
+
+    /** Notified once a replayed event has been processed, skipped or failed. */
+    public interface Completion {
+        void complete(StreamEvent event, boolean success);
+    }
+
+    private final RawBsonDocument raw;
+    private ChangeStreamDocument<Document> decoded;
+    // Set for events fed from a journal: lag is measured from when the replayer emitted the event
+    private final long replayedAtMillis;
+    private final long replayedAtNanos;
+    private final Completion completion;
+
+    private StreamEvent(RawBsonDocument raw, ChangeStreamDocument<Document> decoded, Completion completion) {
+        this.raw = raw;
+        this.decoded = decoded;
+        this.completion = completion;
+        this.replayedAtMillis = completion != null ? System.currentTimeMillis() : 0;
+        this.replayedAtNanos = completion != null ? System.nanoTime() : 0;
+    }
+
+    public static StreamEvent of(ChangeStreamDocument<Document> event) {
+        return new StreamEvent(null, event, null);
+    }
+
+    public static StreamEvent raw(RawBsonDocument event) {
+        return new StreamEvent(event, null, null);
+    }
+
+    /**
+     * A raw event replayed from a journal, emitted now.
+     */
+    public static StreamEvent replayed(RawBsonDocument event, Completion completion) {
+        return new StreamEvent(event, null, completion);
+    }
+
+    /**
+     * The event's raw BSON, or null if it was decoded by the driver.
+     */
+    public RawBsonDocument rawDocument() {
+        return raw;
+    }
+
+    public OperationType operationType() {
+        return decoded != null
+                ? decoded.getOperationType()
+                : OperationType.fromString(raw.getString("operationType").getValue());
+    }
+
+    /**
+     * True if the event carries a full document with an {@code _id}.
+     */
+    public boolean hasDocumentId() {
+        if (decoded != null) {
+            Document fullDocument = decoded.getFullDocument();
+            return fullDocument != null && fullDocument.containsKey("_id");
+        }
+        BsonValue fullDocument = raw.get("fullDocument");
+        return fullDocument != null && fullDocument.isDocument() && fullDocument.asDocument().containsKey("_id");
+    }
+
+    public BsonTimestamp clusterTime() {
+        return decoded != null ? decoded.getClusterTime() : raw.getTimestamp("clusterTime");
+    }
+
+    public BsonDocument resumeToken() {
+        return decoded != null ? decoded.getResumeToken() : raw.getDocument("_id");
+    }
+
+    /**
+     * Key of the changed document, null for events without one.
+     */
+    public BsonDocument documentKey() {
+        if (decoded != null) {
+            return decoded.getDocumentKey();
+        }
+        BsonValue documentKey = raw.get("documentKey");
+        return documentKey != null && documentKey.isDocument() ? documentKey.asDocument() : null;
+    }
+
+    public long lagMillis() {
+        long origin = completion != null ? replayedAtMillis : clusterTime().getTime() * 1000L;
+        return System.currentTimeMillis() - origin;
+    }
+
+    public long replayedAtNanos() {
+        return replayedAtNanos;
+    }
+
+    /**
+     * Reports the outcome of the event to its replayer, if any; returns {@code success}.
+     */
+    public boolean done(boolean success) {
+        if (completion != null) {
+            completion.complete(this, success);
+        }
+        return success;
+    }
+
+    public static void doneAll(List<StreamEvent> events, boolean success) {
+        for (StreamEvent event : events) {
+            event.done(success);
+        }
+    }
+
+    /**
+     * The decoded event. Raw events are decoded on first call; not thread-safe, so call it from one thread.
+     */
+    public ChangeStreamDocument<Document> decode() {
+        if (decoded == null) {
+            decoded = CODEC.decode(raw.asBsonReader(), DecoderContext.builder().build());
+        }
+        return decoded;
+    }
+
+    public static List<ChangeStreamDocument<Document>> decodeAll(List<StreamEvent> events) {
+        List<ChangeStreamDocument<Document>> decodedEvents = new ArrayList<>(events.size());
+        for (StreamEvent event : events) {
+            decodedEvents.add(event.decode());
+        }
+        return decodedEvents;
+    }
+
+    @Override
+    public String toString() {
+        return decoded != null ? decoded.toString() : raw.toJson();
+    }
+}
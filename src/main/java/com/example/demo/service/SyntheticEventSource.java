@@ -0,0 +1,217 @@
+package com.example.demo.service;
+
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+import java.util.SplittableRandom;
+import java.util.concurrent.locks.LockSupport;
+
+import org.bson.BsonDateTime;
+import org.bson.BsonDocument;
+import org.bson.BsonDouble;
+import org.bson.BsonInt32;
+import org.bson.BsonInt64;
+import org.bson.BsonString;
+import org.bson.BsonTimestamp;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.BsonDocumentCodec;
+
+import com.mongodb.ServerAddress;
+import com.mongodb.ServerCursor;
+import com.mongodb.client.MongoCursor;
+
+/**
+ * SyntheticEventSource generates update events in memory, so the framework's dispatch, metrics and checkpoint path
+ * can be load tested with MongoDB out of the picture.
+ *
+ * <p>Full documents take the shape the collection's task reads: award rows for {@code Awards}, point rows for
+ * {@code Points}, player transactions for Task1's {@code changestream}, and a plain keyed document otherwise.
+ * Document keys follow a Zipf distribution over {@code keys} with exponent {@code skew} (0 is uniform). Events are
+ * emitted in bursts of {@code burstSize} back to back, with the gaps between bursts keeping the average at
+ * {@code ratePerSecond}; a rate of 0 is unthrottled.
+ *
+ * <p>Resume tokens carry the event's sequence number, so a listener reopened from a checkpoint continues the sequence.
+ * They are not server tokens: the mediator only runs this source against a database named as scratch, since the
+ * checkpoints and business writes of a synthetic run land in it.
+ */
+public class SyntheticEventSource implements EventSource {
+    private static final BsonDocumentCodec CODEC = new BsonDocumentCodec();
+
+    private final double ratePerSecond;
+    private final int keys;
+    private final int burstSize;
+    private final long maxEvents;
+    private final long seed;
+    // Cumulative Zipf weights of the keys, null for uniform keys
+    private final double[] keyCdf;
+
+    /**
+     * @param maxEvents events per collection before the cursor ends, 0 for unbounded
+     */
+    public SyntheticEventSource(double ratePerSecond, int keys, double skew, int burstSize, long maxEvents, long seed) {
+        if (keys < 1 || burstSize < 1) {
+            throw new IllegalArgumentException("Synthetic source needs at least one key and a burst size of one");
+        }
+        this.ratePerSecond = ratePerSecond;
+        this.keys = keys;
+        this.burstSize = burstSize;
+        this.maxEvents = maxEvents;
+        this.seed = seed;
+        this.keyCdf = skew > 0 ? zipfCdf(keys, skew) : null;
+    }
+
+    private static double[] zipfCdf(int keys, double skew) {
+        double[] cdf = new double[keys];
+        double sum = 0;
+        for (int rank = 0; rank < keys; rank++) {
+            sum += 1.0 / Math.pow(rank + 1, skew);
+            cdf[rank] = sum;
+        }
+        for (int rank = 0; rank < keys; rank++) {
+            cdf[rank] /= sum;
+        }
+        return cdf;
+    }
+
+    @Override
+    public MongoCursor<StreamEvent> open(BusinessTask task, BsonDocument resumeToken, int batchSize) {
+        return new SyntheticCursor(task.getCollectionName(), resumeToken == null ? 0 : resumedSequence(resumeToken));
+    }
+
+    /** Sequence after the one in a synthetic resume token; tokens from other sources restart at 0. */
+    private static long resumedSequence(BsonDocument resumeToken) {
+        try {
+            return Long.parseUnsignedLong(resumeToken.getString("_data").getValue(), 16) + 1;
+        } catch (RuntimeException e) {
+            return 0;
+        }
+    }
+
+    /** Zero-padded hex of the sequence, so tokens sort like the events. */
+    private static String token(long sequence) {
+        String hex = Long.toHexString(sequence);
+        return "0000000000000000".substring(hex.length()) + hex;
+    }
+
+    /**
+     * Builds the full document of one event.
+     */
+    static BsonDocument fullDocument(String collectionName, long sequence, int key, SplittableRandom random) {
+        switch (collectionName) {
+            case "Awards":
+                return new BsonDocument("_id", new BsonInt32(key))
+                        .append("TrainId", new BsonInt32(key))
+                        .append("TranId", new BsonInt32(key))
+                        .append("PlayerID", new BsonInt32(key / 4))
+                        .append("PrizeId", new BsonInt32(key % 500))
+                        .append("TranCodeID", new BsonInt32(1 + random.nextInt(3)))
+                        .append("Doc", new BsonString(random.nextInt(4) == 0 ? "P" : "A"))
+                        .append("Amount", new BsonDouble(random.nextInt(100_000) / 100.0));
+            case "Points":
+                return new BsonDocument("_id", new BsonInt32(key))
+                        .append("TranId", new BsonInt32(key))
+                        .append("TrainId", new BsonInt32(key))
+                        .append("PlayerID", new BsonInt32(key / 4))
+                        .append("Points", new BsonInt32(random.nextInt(10_000)));
+            case "changestream":
+                return new BsonDocument("_id", new BsonInt64(sequence))
+                        .append("playerID", new BsonInt32(key))
+                        .append("transactionID", new BsonInt32((int) sequence))
+                        .append("value", new BsonDouble(random.nextInt(100_000) / 100.0))
+                        .append("name", new BsonString("player-" + key))
+                        .append("date", new BsonDateTime(System.currentTimeMillis()));
+            default:
+                return new BsonDocument("_id", new BsonInt32(key))
+                        .append("key", new BsonInt32(key))
+                        .append("value", new BsonInt64(sequence));
+        }
+    }
+
+    private final class SyntheticCursor implements MongoCursor<StreamEvent> {
+        private final String collectionName;
+        private final BsonDocument namespace;
+        private final SplittableRandom random;
+        private final long startNanos = System.nanoTime();
+        private final long firstSequence;
+        private long sequence;
+
+        SyntheticCursor(String collectionName, long firstSequence) {
+            this.collectionName = collectionName;
+            this.namespace = new BsonDocument("db", new BsonString("synthetic")).append("coll", new BsonString(collectionName));
+            this.random = new SplittableRandom(seed ^ collectionName.hashCode() ^ firstSequence);
+            this.firstSequence = firstSequence;
+            this.sequence = firstSequence;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return maxEvents <= 0 || sequence < maxEvents;
+        }
+
+        @Override
+        public StreamEvent next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            if (ratePerSecond > 0) {
+                long dueNanos = dueNanos();
+                for (long wait = dueNanos - System.nanoTime(); wait > 0; wait = dueNanos - System.nanoTime()) {
+                    LockSupport.parkNanos(wait);
+                }
+            }
+            int key = nextKey();
+            long now = System.currentTimeMillis();
+            BsonDocument fullDocument = fullDocument(collectionName, sequence, key, random);
+            BsonDocument event = new BsonDocument("_id", new BsonDocument("_data", new BsonString(token(sequence))))
+                    .append("operationType", new BsonString("update"))
+                    .append("clusterTime", new BsonTimestamp((int) (now / 1000), (int) sequence))
+                    .append("wallTime", new BsonDateTime(now))
+                    .append("ns", namespace)
+                    .append("documentKey", new BsonDocument("_id", fullDocument.get("_id")))
+                    .append("fullDocument", fullDocument);
+            sequence++;
+            return StreamEvent.raw(new RawBsonDocument(event, CODEC));
+        }
+
+        /** Start of the burst the next event belongs to. */
+        private long dueNanos() {
+            long burst = (sequence - firstSequence) / burstSize;
+            return startNanos + (long) (burst * burstSize * 1e9 / ratePerSecond);
+        }
+
+        private int nextKey() {
+            if (keyCdf == null) {
+                return random.nextInt(keys);
+            }
+            int index = Arrays.binarySearch(keyCdf, random.nextDouble());
+            return Math.min(keys - 1, index >= 0 ? index : -index - 1);
+        }
+
+        @Override
+        public StreamEvent tryNext() {
+            return hasNext() ? next() : null;
+        }
+
+        @Override
+        public int available() {
+            // Events of a burst that has started are available, as if buffered by a driver cursor
+            if (!hasNext()) {
+                return 0;
+            }
+            return ratePerSecond <= 0 || dueNanos() <= System.nanoTime() ? 1 : 0;
+        }
+
+        @Override
+        public ServerCursor getServerCursor() {
+            return null;
+        }
+
+        @Override
+        public ServerAddress getServerAddress() {
+            return null;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,270 @@
+package com.example.demo.service;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.bson.BsonDocument;
+import org.bson.BsonString;
+import org.bson.BsonTimestamp;
+import org.bson.BsonValue;
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.example.demo.metrics.PrometheusMetricsConfig;
+import com.mongodb.MongoClientSettings;
+import com.mongodb.TransactionOptions;
+import com.mongodb.WriteConcern;
+import com.mongodb.client.ClientSession;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.WriteModel;
+import com.mongodb.client.model.changestream.ChangeStreamDocument;
+
+/**
+ * TokenFence gives a collection exactly-once effects on top of an at-least-once change stream.
+ *
+ * <p>Each batch's writes and a "fence" checkpoint (the last event's resume token and cluster time) are committed
+ * in one multi-document transaction, so either both are visible or neither is. After a restart the stream resumes
+ * from the fence and any event at or before it is skipped, because its effects are already committed.
+ * Batches must be committed in stream order, i.e. from a single thread per collection.
+ *
+ * <p>A commit that still fails after {@code commitRetries} retries with exponential backoff halts the fence: it
+ * refuses every later batch, so nothing commits past the failed one, until the listener reopens the stream from
+ * the fence with {@link #load()}. Batches dispatched before that reopen carry an older {@link #generation()} and
+ * are refused as well; their events come again from the reopened stream.
+ */
+public class TokenFence {
+    private static final Logger LOGGER = LoggerFactory.getLogger(TokenFence.class);
+    public static final String FENCE_THREAD = "__fence__";
+    private static final TransactionOptions TXN_OPTIONS = TransactionOptions.builder()
+            .writeConcern(WriteConcern.MAJORITY)
+            .build();
+
+    private final String collectionName;
+    private final MongoClient mongoClient;
+    private final MongoCheckpointStore store;
+    private final PrometheusMetricsConfig metricsConfig;
+    private final int commitRetries;
+    private final long commitRetryBackoffMillis;
+
+    private volatile BsonTimestamp fenceTime;
+    private volatile String fenceData;
+    // Moved on every load; written by the listener thread only
+    private volatile long generation;
+    // Set when a batch failed; cleared when the stream is reopened from the fence
+    private volatile boolean halted;
+
+    /** A batch was refused because the fence is halted behind a failed batch, or it predates the last reopen. */
+    public static class StaleBatchException extends IllegalStateException {
+        public StaleBatchException(String message) {
+            super(message);
+        }
+    }
+
+    public TokenFence(String collectionName, MongoClient mongoClient, MongoCheckpointStore store,
+                      PrometheusMetricsConfig metricsConfig) {
+        this(collectionName, mongoClient, store, metricsConfig, 2, 100);
+    }
+
+    public TokenFence(String collectionName, MongoClient mongoClient, MongoCheckpointStore store,
+                      PrometheusMetricsConfig metricsConfig, int commitRetries, long commitRetryBackoffMillis) {
+        this.collectionName = collectionName;
+        this.mongoClient = mongoClient;
+        this.store = store;
+        this.metricsConfig = metricsConfig;
+        this.commitRetries = commitRetries;
+        this.commitRetryBackoffMillis = commitRetryBackoffMillis;
+    }
+
+    /**
+     * Fence over a task's batch writes. Its sessions come from the client the task's target collection is resolved
+     * on, because the driver rejects a session on any other client; a task that does not name that client is refused.
+     */
+    public static TokenFence forTask(BusinessTask task, PrometheusMetricsConfig metricsConfig, int commitRetries,
+                                     long commitRetryBackoffMillis) {
+        MongoClient targetClient = task.getTargetClient();
+        if (targetClient == null) {
+            throw new IllegalStateException("Task for " + task.getCollectionName()
+                    + " does not name the client of its target collection, so a fenced session cannot write it");
+        }
+        return new TokenFence(task.getCollectionName(), targetClient,
+                task.resumeTokenService.getMongoCheckpointStore(), metricsConfig, commitRetries,
+                commitRetryBackoffMillis);
+    }
+
+    /**
+     * Retires the fence of a collection that no longer runs exactly-once. The fence row sits among the per-thread
+     * checkpoints, where it would pin the earliest checkpoint for good, and would be stale if the mode came back.
+     * Its position is saved as {@code threadName}'s checkpoint first, so the stream resumes where the fence was.
+     */
+    public static void retire(BusinessTask task, String threadName) {
+        MongoCheckpointStore store = task.resumeTokenService == null ? null
+                : task.resumeTokenService.getMongoCheckpointStore();
+        if (store == null) {
+            return;
+        }
+        String collectionName = task.getCollectionName();
+        try {
+            Document checkpoint = store.loadThreadCheckpoint(collectionName, FENCE_THREAD);
+            Document resumeTokenDoc = checkpoint == null ? null : checkpoint.get("resumeToken", Document.class);
+            if (resumeTokenDoc == null) {
+                return;
+            }
+            task.resumeTokenService.saveResumeToken(checkpoint.get("date", BsonTimestamp.class),
+                    resumeTokenDoc.toBsonDocument(BsonDocument.class, MongoClientSettings.getDefaultCodecRegistry()),
+                    threadName, collectionName);
+            store.delete(collectionName, FENCE_THREAD);
+            LOGGER.info("🔄 Retired the fence of {}, which runs at-least-once now", collectionName);
+        } catch (RuntimeException e) {
+            LOGGER.error("❌ Failed to retire the fence of {}: {}", collectionName, e.getMessage());
+        }
+    }
+
+    /**
+     * Reads the committed fence and returns its resume token, or null if nothing was committed under the fence yet.
+     */
+    public BsonDocument load() {
+        generation++;
+        halted = false;
+        Document checkpoint = store.loadThreadCheckpoint(collectionName, FENCE_THREAD);
+        Document resumeTokenDoc = checkpoint == null ? null : checkpoint.get("resumeToken", Document.class);
+        if (resumeTokenDoc == null) {
+            LOGGER.warn("⚠️ No fence checkpoint for {}, replayed events will not be skipped", collectionName);
+            return null;
+        }
+        BsonDocument resumeToken = resumeTokenDoc.toBsonDocument(BsonDocument.class,
+                MongoClientSettings.getDefaultCodecRegistry());
+        advance(checkpoint.get("date", BsonTimestamp.class), resumeToken);
+        LOGGER.info("✅ Loaded fence for {} at {}", collectionName, fenceTime);
+        return resumeToken;
+    }
+
+    /**
+     * True if the event's effects were already committed under the fence.
+     * Events are ordered by cluster time; events of one transaction share a cluster time and are ordered by the
+     * resume token's `_data`, a hex string whose lexical order matches stream order.
+     */
+    public boolean isApplied(ChangeStreamDocument<Document> event) {
+        BsonTimestamp committedTime = fenceTime;
+        if (committedTime == null || event.getClusterTime() == null) {
+            return false;
+        }
+        int cmp = event.getClusterTime().compareTo(committedTime);
+        if (cmp != 0) {
+            return cmp < 0;
+        }
+        String data = tokenData(event.getResumeToken());
+        return data != null && fenceData != null && data.compareTo(fenceData) <= 0;
+    }
+
+    /**
+     * Drops the events already committed under the fence, counting them as skipped replays.
+     */
+    public List<ChangeStreamDocument<Document>> unapplied(List<ChangeStreamDocument<Document>> events) {
+        List<ChangeStreamDocument<Document>> fresh = new ArrayList<>(events.size());
+        for (ChangeStreamDocument<Document> event : events) {
+            if (!isApplied(event)) {
+                fresh.add(event);
+            }
+        }
+        int skipped = events.size() - fresh.size();
+        if (skipped > 0) {
+            metricsConfig.getReplaySkipped().inc(skipped);
+            LOGGER.info("Skipped {} replayed events for {} behind fence {}", skipped, collectionName, fenceTime);
+        }
+        return fresh;
+    }
+
+    /**
+     * Generation of the stream the fence was last loaded for; batches capture it when they are dispatched.
+     */
+    public long generation() {
+        return generation;
+    }
+
+    /** True once a batch committed under the fence, or a committed fence was loaded. */
+    public boolean hasCommitted() {
+        return fenceTime != null;
+    }
+
+    /**
+     * Refuses every later batch until the stream is reopened from the fence; called when a batch failed before
+     * it could commit.
+     */
+    public void halt() {
+        halted = true;
+    }
+
+    /**
+     * Commits a batch of the current generation; see {@link #commit(MongoCollection, List, ChangeStreamDocument, long)}.
+     */
+    public void commit(MongoCollection<Document> target, List<WriteModel<Document>> writes,
+                       ChangeStreamDocument<Document> lastEvent) {
+        commit(target, writes, lastEvent, generation);
+    }
+
+    /**
+     * Commits the writes and moves the fence to the last event in a single transaction.
+     * Transient transaction errors and unknown commit results are retried by the driver; any other failure is
+     * retried here with backoff, and halts the fence once the retries are used up.
+     *
+     * @throws StaleBatchException if the fence is halted or the batch was dispatched for an older generation
+     */
+    public void commit(MongoCollection<Document> target, List<WriteModel<Document>> writes,
+                       ChangeStreamDocument<Document> lastEvent, long batchGeneration) {
+        for (int attempt = 0; ; attempt++) {
+            if (halted || batchGeneration != generation) {
+                throw new StaleBatchException("Fence of " + collectionName
+                        + " is behind a failed batch; the batch comes again once the stream reopens");
+            }
+            try {
+                commitOnce(target, writes, lastEvent);
+                return;
+            } catch (RuntimeException e) {
+                if (attempt >= commitRetries || !backOff(attempt)) {
+                    halted = true;
+                    LOGGER.error("❌ Fenced commit for {} failed, halting the fence: {}", collectionName, e.getMessage());
+                    throw e;
+                }
+                LOGGER.warn("⚠️ Fenced commit for {} failed, retry {} of {}: {}", collectionName, attempt + 1,
+                        commitRetries, e.getMessage());
+            }
+        }
+    }
+
+    private boolean backOff(int attempt) {
+        try {
+            Thread.sleep(commitRetryBackoffMillis << attempt);
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private void commitOnce(MongoCollection<Document> target, List<WriteModel<Document>> writes,
+                            ChangeStreamDocument<Document> lastEvent) {
+        try (ClientSession session = mongoClient.startSession()) {
+            session.withTransaction(() -> {
+                if (!writes.isEmpty()) {
+                    target.bulkWrite(session, writes);
+                }
+                store.save(session, collectionName, FENCE_THREAD, lastEvent.getClusterTime(), lastEvent.getResumeToken());
+                return null;
+            }, TXN_OPTIONS);
+        }
+        advance(lastEvent.getClusterTime(), lastEvent.getResumeToken());
+        metricsConfig.getFencedCommits().inc();
+    }
+
+    private void advance(BsonTimestamp clusterTime, BsonDocument resumeToken) {
+        fenceData = tokenData(resumeToken);
+        fenceTime = clusterTime;
+    }
+
+    private static String tokenData(BsonDocument resumeToken) {
+        BsonValue data = resumeToken == null ? null : resumeToken.get("_data");
+        return data instanceof BsonString ? data.asString().getValue() : null;
+    }
+}
@@ -0,0 +1,259 @@
+package com.example.demo.service;
+
+import java.util.AbstractQueue;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * TwoLaneQueue is an unbounded work queue for a collection's executor with a fresh lane and a backlog lane.
+ *
+ * <p>Tasks wrapped in {@link LaneTask} go to the lane they name; anything else is treated as fresh. When both
+ * lanes hold work, takers follow a fixed cycle of {@link #CYCLE} slots of which {@code freshSlots} serve the fresh
+ * lane, so new events overtake a replayed backlog while the backlog keeps at least one slot per cycle. Within a
+ * lane tasks stay in FIFO order. A fresh task for a document key that still has backlog work queued joins the
+ * backlog lane behind it, so updates of one document are never taken out of stream order.
+ */
+public class TwoLaneQueue extends AbstractQueue<Runnable> implements BlockingQueue<Runnable> {
+    static final int CYCLE = 10;
+
+    /** A task tagged with its lane and the keys of the documents it changes. */
+    public record LaneTask(Runnable task, boolean fresh, Set<?> keys) implements Runnable {
+        public LaneTask(Runnable task, boolean fresh) {
+            this(task, fresh, Set.of());
+        }
+
+        @Override
+        public void run() {
+            task.run();
+        }
+    }
+
+    private final ArrayDeque<Runnable> freshLane = new ArrayDeque<>();
+    private final ArrayDeque<Runnable> backlogLane = new ArrayDeque<>();
+    // Backlog tasks queued per document key
+    private final Map<Object, Integer> backlogKeys = new HashMap<>();
+    private final int freshSlots;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private int slot;
+
+    /**
+     * @param freshShare share of takes given to the fresh lane while both lanes are non-empty; the backlog
+     *                   always keeps at least one slot in {@value #CYCLE}
+     */
+    public TwoLaneQueue(double freshShare) {
+        this.freshSlots = (int) Math.max(1, Math.min(CYCLE - 1, Math.round(freshShare * CYCLE)));
+    }
+
+    @Override
+    public boolean offer(Runnable task) {
+        lock.lock();
+        try {
+            if (isFresh(task)) {
+                freshLane.addLast(task);
+            } else {
+                backlogLane.addLast(task);
+                countBacklogKeys(task, 1);
+            }
+            notEmpty.signal();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Fresh unless tagged as backlog, or a key of the task has backlog work queued; the lock must be held. */
+    private boolean isFresh(Runnable task) {
+        if (!(task instanceof LaneTask laneTask)) {
+            return true;
+        }
+        if (!laneTask.fresh()) {
+            return false;
+        }
+        if (!backlogKeys.isEmpty()) {
+            for (Object key : laneTask.keys()) {
+                if (backlogKeys.containsKey(key)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private void countBacklogKeys(Runnable task, int delta) {
+        if (task instanceof LaneTask laneTask) {
+            for (Object key : laneTask.keys()) {
+                backlogKeys.merge(key, delta, (count, change) -> count + change == 0 ? null : count + change);
+            }
+        }
+    }
+
+    @Override
+    public void put(Runnable task) {
+        offer(task);
+    }
+
+    @Override
+    public boolean offer(Runnable task, long timeout, TimeUnit unit) {
+        return offer(task);
+    }
+
+    /** Next task by the lane cycle; the lock must be held and at least one lane non-empty. */
+    private Runnable dequeue() {
+        boolean freshTurn = slot < freshSlots;
+        slot = (slot + 1) % CYCLE;
+        if (backlogLane.isEmpty() || (freshTurn && !freshLane.isEmpty())) {
+            return freshLane.pollFirst();
+        }
+        Runnable task = backlogLane.pollFirst();
+        countBacklogKeys(task, -1);
+        return task;
+    }
+
+    @Override
+    public Runnable poll() {
+        lock.lock();
+        try {
+            return isEmptyLocked() ? null : dequeue();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Runnable take() throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            while (isEmptyLocked()) {
+                notEmpty.await();
+            }
+            return dequeue();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Runnable poll(long timeout, TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        lock.lockInterruptibly();
+        try {
+            while (isEmptyLocked()) {
+                if (nanos <= 0) {
+                    return null;
+                }
+                nanos = notEmpty.awaitNanos(nanos);
+            }
+            return dequeue();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Runnable peek() {
+        lock.lock();
+        try {
+            return freshLane.isEmpty() ? backlogLane.peekFirst() : freshLane.peekFirst();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private boolean isEmptyLocked() {
+        return freshLane.isEmpty() && backlogLane.isEmpty();
+    }
+
+    @Override
+    public int size() {
+        lock.lock();
+        try {
+            return freshLane.size() + backlogLane.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int freshSize() {
+        lock.lock();
+        try {
+            return freshLane.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int backlogSize() {
+        lock.lock();
+        try {
+            return backlogLane.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean remove(Object task) {
+        lock.lock();
+        try {
+            if (freshLane.remove(task)) {
+                return true;
+            }
+            if (backlogLane.remove(task)) {
+                countBacklogKeys((Runnable) task, -1);
+                return true;
+            }
+            return false;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int remainingCapacity() {
+        return Integer.MAX_VALUE;
+    }
+
+    @Override
+    public int drainTo(Collection<? super Runnable> target) {
+        return drainTo(target, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public int drainTo(Collection<? super Runnable> target, int maxElements) {
+        lock.lock();
+        try {
+            int drained = 0;
+            while (drained < maxElements && !isEmptyLocked()) {
+                target.add(dequeue());
+                drained++;
+            }
+            return drained;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Iterates over a snapshot, fresh lane first. */
+    @Override
+    public Iterator<Runnable> iterator() {
+        lock.lock();
+        try {
+            List<Runnable> snapshot = new ArrayList<>(freshLane);
+            snapshot.addAll(backlogLane);
+            return snapshot.iterator();
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package com.example.demo.service;
+
+import java.util.List;
+
+import org.bson.Document;
+
+import com.example.demo.metrics.PrometheusMetricsConfig;
+import com.example.demo.metrics.TpsCalculator;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.WriteModel;
+import com.mongodb.client.model.changestream.ChangeStreamDocument;
+
+/**
+ * ViewTask keeps one view of the {@link IncrementalViewEngine} up to date with the changes of one source
+ * collection. Live events and batches are recomputed by the engine, and every write is reported back to it,
+ * applied or not, so the view's caches follow what actually reached the target.
+ */
+public abstract class ViewTask extends BusinessTask {
+    protected final IncrementalViewEngine viewEngine;
+    protected final String viewName;
+
+    protected ViewTask(ResumeTokenService resumeTokenService, TpsCalculator tpsCalculator,
+                       PrometheusMetricsConfig metricsConfig, String collectionName, MongoClient mongoClient,
+                       IncrementalViewEngine viewEngine, String viewName) {
+        super(resumeTokenService, tpsCalculator, metricsConfig, collectionName, mongoClient);
+        this.viewEngine = viewEngine;
+        this.viewName = viewName;
+    }
+
+    @Override
+    public int processChange(ChangeStreamDocument<Document> event) {
+        viewEngine.apply(viewName, collectionName, List.of(event));
+        return 0;
+    }
+
+    @Override
+    protected List<WriteModel<Document>> buildBatchWrites(List<ChangeStreamDocument<Document>> events) {
+        return viewEngine.buildWrites(viewName, collectionName, events);
+    }
+
+    @Override
+    protected void discardBatchWrites(List<WriteModel<Document>> writes) {
+        viewEngine.discard(viewName, writes);
+    }
+
+    @Override
+    protected void confirmBatchWrites(List<WriteModel<Document>> writes) {
+        viewEngine.applied(viewName, writes);
+    }
+
+    @Override
+    protected MongoCollection<Document> getTargetCollection() {
+        return viewEngine.getTargetCollection(viewName);
+    }
+
+    @Override
+    protected MongoClient getTargetClient() {
+        return viewEngine.getWriteClient();
+    }
+}
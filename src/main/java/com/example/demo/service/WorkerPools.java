@@ -0,0 +1,315 @@
+package com.example.demo.service;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.BooleanSupplier;
+import java.util.function.Supplier;
+
+import org.bson.BsonDocument;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.example.demo.config.ChangeStreamProperties;
+import com.example.demo.config.ThreadPoolProperties;
+import com.example.demo.metrics.ChangeStreamEvents;
+import com.example.demo.metrics.PrometheusMetricsConfig;
+
+/**
+ * WorkerPools owns the executors the mediator dispatches work to: a pool per collection or one pool shared by
+ * all collections, a single worker for fenced collections, the adaptive concurrency limiters and the fresh/backlog
+ * lanes. Work enters through {@link #dispatch}.
+ */
+class WorkerPools {
+    private static final String SHARED_POOL = "shared";
+    private static final Logger LOGGER = LoggerFactory.getLogger(WorkerPools.class);
+
+    private final ThreadPoolProperties threadPool;
+    private final ChangeStreamProperties.AdaptiveConcurrency adaptiveConcurrency;
+    private final ChangeStreamProperties.PriorityLanes priorityLanes;
+    // True while the pipeline drains; workers exiting then keep their checkpoints for the drain
+    private final BooleanSupplier draining;
+    // Drops the checkpoints a worker that exited held for the given collections
+    private final BiConsumer<List<String>, String> retireCheckpoints;
+
+    // Executor each collection's work runs on
+    private final Map<String, ExecutorService> executors = new HashMap<>();
+
+    // Adaptive concurrency limits, for collections not in exactly-once mode when enabled
+    private final Map<String, AdaptiveConcurrencyLimiter> limiters = new HashMap<>();
+
+    // Fresh/backlog work queues, for collections not in exactly-once mode when priority lanes are enabled; collections
+    // on the shared pool all map to its queue
+    private final Map<String, TwoLaneQueue> laneQueues = new HashMap<>();
+
+    // Workers shared by all collections that are not fenced, null when every collection has its own pool
+    private ExecutorService sharedPool;
+
+    WorkerPools(ThreadPoolProperties threadPool, ChangeStreamProperties.AdaptiveConcurrency adaptiveConcurrency,
+                ChangeStreamProperties.PriorityLanes priorityLanes, BooleanSupplier draining,
+                BiConsumer<List<String>, String> retireCheckpoints) {
+        this.threadPool = threadPool;
+        this.adaptiveConcurrency = adaptiveConcurrency;
+        this.priorityLanes = priorityLanes;
+        this.draining = draining;
+        this.retireCheckpoints = retireCheckpoints;
+    }
+
+    /**
+     * Creates the shared pool when it is enabled; collections added afterwards run on it unless fenced.
+     */
+    void startSharedPool() {
+        if (!threadPool.shared().enabled()) {
+            return;
+        }
+        int size = threadPool.shared().size() > 0 ? threadPool.shared().size() : threadPool.nums();
+        sharedPool = newPool(size, threadFactory(SHARED_POOL,
+                () -> executors.keySet().stream().filter(name -> executors.get(name) == sharedPool).toList()));
+        LOGGER.info("Created a shared pool of size {} for all collections", size);
+    }
+
+    /**
+     * Creates the executor of a collection. Fenced batches must commit in stream order, so fenced collections get
+     * a single worker of their own.
+     */
+    void add(String collectionName, boolean fenced, PrometheusMetricsConfig metricsConfig) {
+        ThreadFactory threadFactory = threadFactory(collectionName, () -> List.of(collectionName));
+        if (fenced) {
+            executors.put(collectionName, Executors.newSingleThreadExecutor(threadFactory));
+        } else if (adaptiveConcurrency.enabled()) {
+            // The pool is sized for the upper bound; the limiter decides how much of it is used
+            AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(collectionName,
+                    adaptiveConcurrency.min(), adaptiveConcurrency.max(), threadPool.nums(),
+                    adaptiveConcurrency.window(), adaptiveConcurrency.latencyTolerance(),
+                    adaptiveConcurrency.backoff(), adaptiveConcurrency.lagTargetMs(), metricsConfig);
+            limiters.put(collectionName, limiter);
+            executors.put(collectionName, sharedPool != null ? sharedPool
+                    : newPool(limiter.getMaxLimit(), threadFactory));
+            LOGGER.info("Created an adaptive {} for collection {}, limit {} within [{}, {}]",
+                    sharedPool != null ? "share of the shared pool" : "pool", collectionName, limiter.getLimit(),
+                    adaptiveConcurrency.min(), adaptiveConcurrency.max());
+        } else if (sharedPool != null) {
+            executors.put(collectionName, sharedPool);
+            LOGGER.info("Collection {} runs on the shared pool", collectionName);
+        } else {
+            executors.put(collectionName, newPool(threadPool.nums(), threadFactory));
+            LOGGER.info("Created a fixed-thread pool of size {} for collection {}", threadPool.nums(),
+                    collectionName);
+        }
+
+        TwoLaneQueue lanes = lanesOf(executors.get(collectionName));
+        if (lanes != null) {
+            laneQueues.put(collectionName, lanes);
+        }
+        metricsConfig.getWorkers().set(workers(collectionName));
+    }
+
+    /**
+     * Wraps a pool's thread factory so a worker that exits while the pipeline runs, e.g. after the pool shrank,
+     * drops its checkpoints for the collections it served. Threads exiting on shutdown keep theirs for the drain.
+     */
+    private ThreadFactory threadFactory(String poolName, Supplier<List<String>> collectionNames) {
+        AtomicInteger threadCounter = new AtomicInteger(0);
+        return r -> {
+            Thread t = new Thread(() -> {
+                try {
+                    r.run();
+                } finally {
+                    if (!draining.getAsBoolean()) {
+                        retireCheckpoints.accept(collectionNames.get(), Thread.currentThread().getName());
+                    }
+                }
+            });
+            t.setDaemon(true);
+            t.setName("ChangeStream-" + poolName + "-T" + threadCounter.getAndIncrement());
+            return t;
+        };
+    }
+
+    /**
+     * Fixed-size pool for a collection, on a {@link TwoLaneQueue} when priority lanes are enabled.
+     */
+    private ExecutorService newPool(int size, ThreadFactory threadFactory) {
+        if (!priorityLanes.enabled()) {
+            return Executors.newFixedThreadPool(size, threadFactory);
+        }
+        return new ThreadPoolExecutor(size, size, 0L, TimeUnit.MILLISECONDS,
+                new TwoLaneQueue(priorityLanes.freshShare()), threadFactory);
+    }
+
+    /**
+     * The pool's fresh/backlog queue, or null if it was not created on one.
+     */
+    private static TwoLaneQueue lanesOf(ExecutorService pool) {
+        return pool instanceof ThreadPoolExecutor executor && executor.getQueue() instanceof TwoLaneQueue lanes
+                ? lanes : null;
+    }
+
+    AdaptiveConcurrencyLimiter limiter(String collectionName) {
+        return limiters.get(collectionName);
+    }
+
+    /**
+     * Threads of the pool the collection's work runs on.
+     */
+    int workers(String collectionName) {
+        return executors.get(collectionName) instanceof ThreadPoolExecutor pool ? pool.getMaximumPoolSize() : 1;
+    }
+
+    boolean isShared(String collectionName) {
+        return sharedPool != null && executors.get(collectionName) == sharedPool;
+    }
+
+    /**
+     * Resizes the collection's worker pool, and the adaptive limiter's upper bound with it. Running work finishes
+     * on the old threads; a shrunk pool retires its surplus threads as they go idle, and their checkpoints with
+     * them. On the shared pool only the collection's limiter moves, which caps its share without touching the
+     * other collections.
+     */
+    void resize(String collectionName, int workers) {
+        if (workers < 1) {
+            throw new IllegalArgumentException("Worker count must be at least 1, got " + workers);
+        }
+        AdaptiveConcurrencyLimiter limiter = limiters.get(collectionName);
+        boolean shared = isShared(collectionName);
+        if (shared && workers > workers(collectionName)) {
+            throw new IllegalArgumentException("Collection " + collectionName + " runs on the shared pool of "
+                    + workers(collectionName) + " workers and cannot use " + workers);
+        }
+        if (shared && limiter == null) {
+            throw new IllegalStateException("Collection " + collectionName
+                    + " runs on the shared pool; enable adaptive concurrency to cap its share");
+        }
+        if (!shared) {
+            ThreadPoolExecutor pool = (ThreadPoolExecutor) executors.get(collectionName);
+            if (workers > pool.getMaximumPoolSize()) {
+                pool.setMaximumPoolSize(workers);
+                pool.setCorePoolSize(workers);
+            } else {
+                pool.setCorePoolSize(workers);
+                pool.setMaximumPoolSize(workers);
+            }
+        }
+        if (limiter != null) {
+            limiter.setMaxLimit(workers);
+        }
+        PrometheusMetricsConfig.getInstance(collectionName).getWorkers().set(workers(collectionName));
+    }
+
+    /**
+     * Submits work on {@code events} to the collection's executor, in the fresh or backlog lane of its last event
+     * when priority lanes are enabled. With a limiter, waits for a permit first, so a saturated collection holds
+     * back its listener instead of queueing without bound, and reports the work's latency. Dispatch and processing
+     * are recorded as JFR events when a recording enables them.
+     */
+    void dispatch(String collectionName, String operationType, List<StreamEvent> events, BooleanSupplier work) {
+        boolean fresh = events.get(events.size() - 1).lagMillis() <= priorityLanes.freshLagMs();
+        ChangeStreamEvents.Dispatched dispatched = new ChangeStreamEvents.Dispatched();
+        dispatched.begin();
+        enqueue(collectionName, fresh, keys(collectionName, events),
+                ChangeStreamEvents.processed(collectionName, operationType, events.size(), work));
+        dispatched.end();
+        if (dispatched.shouldCommit()) {
+            dispatched.collection = collectionName;
+            dispatched.operationType = operationType;
+            dispatched.events = events.size();
+            dispatched.fresh = fresh;
+            dispatched.commit();
+        }
+    }
+
+    /**
+     * Document keys of the events, which keep their stream order across the priority lanes; empty without lanes.
+     * Keys carry their collection, as collections on the shared pool share one queue and may reuse _id values.
+     */
+    private Set<LaneKey> keys(String collectionName, List<StreamEvent> events) {
+        if (!laneQueues.containsKey(collectionName)) {
+            return Set.of();
+        }
+        Set<LaneKey> keys = new HashSet<>();
+        for (StreamEvent event : events) {
+            BsonDocument key = event.documentKey();
+            if (key != null) {
+                keys.add(new LaneKey(collectionName, key));
+            }
+        }
+        return keys;
+    }
+
+    private record LaneKey(String collectionName, BsonDocument documentKey) { }
+
+    private void enqueue(String collectionName, boolean fresh, Set<LaneKey> keys, BooleanSupplier work) {
+        ExecutorService executorService = executors.get(collectionName);
+        AdaptiveConcurrencyLimiter limiter = limiters.get(collectionName);
+        TwoLaneQueue lanes = laneQueues.get(collectionName);
+        if (lanes != null) {
+            PrometheusMetricsConfig metricsConfig = PrometheusMetricsConfig.getInstance(collectionName);
+            metricsConfig.getLaneDepth("fresh").set(lanes.freshSize());
+            metricsConfig.getLaneDepth("backlog").set(lanes.backlogSize());
+        }
+        if (limiter == null) {
+            executorService.execute(new TwoLaneQueue.LaneTask(work::getAsBoolean, fresh, keys));
+            return;
+        }
+        try {
+            limiter.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted waiting for a processing permit", e);
+        }
+        try {
+            executorService.execute(new TwoLaneQueue.LaneTask(() -> {
+                long started = System.nanoTime();
+                boolean success = false;
+                try {
+                    success = work.getAsBoolean();
+                } finally {
+                    limiter.release(System.nanoTime() - started, success);
+                }
+            }, fresh, keys));
+        } catch (RuntimeException e) {
+            limiter.release(0, false);
+            throw e;
+        }
+    }
+
+    /**
+     * Stops taking work and waits until {@code deadlineNanos} for dispatched work to finish. Work still queued at
+     * the deadline is handed back, to be replayed after restart.
+     *
+     * @return per collection, whether all of its dispatched work finished
+     */
+    Map<String, Boolean> shutdown(long deadlineNanos) throws InterruptedException {
+        for (ExecutorService executor : executors.values()) {
+            executor.shutdown();
+        }
+        Map<String, Boolean> drained = new HashMap<>();
+        for (Map.Entry<String, ExecutorService> entry : executors.entrySet()) {
+            ExecutorService executor = entry.getValue();
+            boolean terminated = executor.awaitTermination(
+                    TimeUnit.NANOSECONDS.toMillis(deadlineNanos - System.nanoTime()), TimeUnit.MILLISECONDS);
+            if (!terminated) {
+                List<Runnable> handedBack = executor.shutdownNow();
+                LOGGER.warn("⚠️ Forced shutdown of executor for {} after timeout, {} queued tasks handed back for replay",
+                        entry.getKey(), handedBack.size());
+            }
+            drained.put(entry.getKey(), terminated);
+        }
+        return drained;
+    }
+
+    void shutdownNow() {
+        for (ExecutorService executor : executors.values()) {
+            executor.shutdownNow();
+        }
+    }
+}
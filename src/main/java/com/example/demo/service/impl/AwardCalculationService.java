@@ -1,16 +1,34 @@
 package com.example.demo.service.impl;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
+import java.util.function.Predicate;
 import java.util.stream.Collectors;
 
 import org.bson.Document;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import com.example.demo.metrics.ChangeStreamEvents;
+import com.example.demo.metrics.PrometheusMetricsConfig;
 import com.mongodb.client.MongoClient;
 import com.mongodb.client.MongoCollection;
 import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.UpdateOptions;
+import com.mongodb.client.model.WriteModel;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 
 @Service
 public class AwardCalculationService {
@@ -19,9 +37,57 @@ public class AwardCalculationService {
     private final String databaseName;
     private static final Set<String> EXCLUDED_FIELDS = Set.of("_id", "CreatedDtm", "CreatedBy", "ModifiedDtm", "DataRowVersion");
 
-    public AwardCalculationService(MongoClient mongoClient, @Value("${spring.mongodb.database}") String databaseName) {
+    // In-memory RID -> PIDs index, null when the prize type cache is disabled
+    private final PrizeTypeIndex prizeTypeIndex;
+    // In-memory member_profile projection, null when the member profile cache is disabled
+    private final MemberProfileStore memberProfileStore;
+    // Last written member_awards images, null when delta writes are disabled
+    private final MemberAwardDeltaCache deltaCache;
+
+    @Autowired
+    public AwardCalculationService(@Qualifier("lookupMongoClient") MongoClient mongoClient,
+                                   @Value("${spring.mongodb.database}") String databaseName,
+                                   @Value("${spring.awards.prize-type-cache.enabled:false}") boolean prizeTypeCacheEnabled,
+                                   @Value("${spring.awards.member-profile-cache.enabled:false}") boolean memberProfileCacheEnabled,
+                                   @Value("${spring.awards.member-profile-cache.bootstrap-threads:4}") int bootstrapThreads,
+                                   @Value("${spring.awards.delta-writes.enabled:false}") boolean deltaWritesEnabled,
+                                   @Value("${spring.awards.delta-writes.max-entries:100000}") int deltaMaxEntries) {
         this.mongoClient = mongoClient;
         this.databaseName = databaseName;
+        this.prizeTypeIndex = prizeTypeCacheEnabled
+                ? new PrizeTypeIndex(mongoClient.getDatabase(databaseName).getCollection("PromotionRuleOutCome"))
+                : null;
+        this.memberProfileStore = memberProfileCacheEnabled
+                ? new MemberProfileStore(mongoClient.getDatabase(databaseName), bootstrapThreads,
+                        PrometheusMetricsConfig.getInstance("member_profile"))
+                : null;
+        this.deltaCache = deltaWritesEnabled
+                ? new MemberAwardDeltaCache(deltaMaxEntries, PrometheusMetricsConfig.getInstance("member_awards"))
+                : null;
+    }
+
+    public AwardCalculationService(MongoClient mongoClient, String databaseName) {
+        this(mongoClient, databaseName, false, false, 0, false, 0);
+    }
+
+    @PostConstruct
+    public void init() {
+        if (prizeTypeIndex != null) {
+            prizeTypeIndex.start();
+        }
+        if (memberProfileStore != null) {
+            memberProfileStore.start();
+        }
+    }
+
+    @PreDestroy
+    public void close() {
+        if (prizeTypeIndex != null) {
+            prizeTypeIndex.close();
+        }
+        if (memberProfileStore != null) {
+            memberProfileStore.close();
+        }
     }
 
     /**
@@ -30,6 +96,21 @@ public class AwardCalculationService {
      */
     public Document calculateAward(Document Awards) {
         if (Awards == null) return null;
+        ChangeStreamEvents.EnrichmentLookup lookup = new ChangeStreamEvents.EnrichmentLookup();
+        lookup.begin();
+        try {
+            return lookupAward(Awards);
+        } finally {
+            lookup.end();
+            if (lookup.shouldCommit()) {
+                lookup.collection = "award";
+                lookup.keys = 1;
+                lookup.commit();
+            }
+        }
+    }
+
+    private Document lookupAward(Document Awards) {
         MongoDatabase database = mongoClient.getDatabase(databaseName);
 
         MongoCollection<Document> Stub = database.getCollection("Stub");
@@ -40,47 +121,162 @@ public class AwardCalculationService {
         MongoCollection<Document> memberProfileCollection = database.getCollection("member_profile");
         MongoCollection<Document> PromotionRuleOutCome = database.getCollection("PromotionRuleOutCome");
 
+        List<Document> playerPoints = tPlayerPoints.find(new Document("TranId", Awards.get("TranId"))).into(new java.util.ArrayList<>());
+
+        return buildMemberAward(Awards,
+                Stub.find(new Document("TrainId", Awards.get("TrainId"))).first(),
+                tPlayerPromo.find(new Document("TrainId", Awards.get("TrainId"))).first(),
+                playerPoints,
+                tPrize.find(new Document("PrizeId", Awards.get("PrizeId"))).first(),
+                PrizeLocnMapping.find(new Document("PrizeId", Awards.get("PrizeId"))).first(),
+                memberProfileStore != null
+                        ? memberProfileStore.find(Awards.get("PlayerID"),
+                                playerId -> memberProfileCollection.find(new Document("player_id", playerId)).first())
+                        : memberProfileCollection.find(new Document("player_id", Awards.get("PlayerID"))).first(),
+                calculatePrizeType(Awards, PromotionRuleOutCome));
+    }
+
+    /**
+     * Set-oriented variant of {@link #calculateAward}: every related collection is read once for the whole set
+     * with an `$in` query, and the awards are assembled in memory. Results are in input order, skipping nulls.
+     * A player with dozens of awards costs a fixed handful of queries instead of several per award.
+     */
+    public List<Document> calculateAwards(Collection<Document> awardsList) {
+        List<Document> awards = awardsList.stream().filter(Objects::nonNull).collect(Collectors.toList());
+        if (awards.isEmpty()) return List.of();
+        MongoDatabase database = mongoClient.getDatabase(databaseName);
+
+        Map<Object, Document> stubs = firstByKey(database.getCollection("Stub"), "TrainId", keysOf(awards, "TrainId"));
+        Map<Object, Document> promos = firstByKey(database.getCollection("Promo"), "TrainId", keysOf(awards, "TrainId"));
+        Map<Object, List<Document>> points = allByKey(database.getCollection("Points"), "TranId", keysOf(awards, "TranId"));
+        Set<Object> prizeIds = keysOf(awards, "PrizeId");
+        Map<Object, Document> prizes = firstByKey(database.getCollection("Prize"), "PrizeId", prizeIds);
+        Map<Object, Document> locnMappings = firstByKey(database.getCollection("PrizeLocnMapping"), "PrizeId", prizeIds);
+        Set<Object> playerIds = keysOf(awards, "PlayerID");
+        MongoCollection<Document> memberProfileCollection = database.getCollection("member_profile");
+        Map<Object, Document> memberProfiles = memberProfileStore != null
+                ? memberProfileStore.findAll(playerIds, missing -> firstByKey(memberProfileCollection, "player_id", missing))
+                : firstByKey(memberProfileCollection, "player_id", playerIds);
+
+        // PrizeType lookups: the player's rule outcome, then every PID sharing its RID
+        MongoCollection<Document> PromotionRuleOutCome = database.getCollection("PromotionRuleOutCome");
+        Map<Object, Document> hubs = firstByKey(PromotionRuleOutCome, "PlayerID", playerIds);
+        Map<Object, List<Document>> outcomesByRid = Map.of();
+        if (prizeTypeIndex == null) {
+            Set<Object> rids = new LinkedHashSet<>();
+            for (Document hub : hubs.values()) {
+                rids.add(hub.get("RID"));
+            }
+            outcomesByRid = allByKey(PromotionRuleOutCome, "RID", rids);
+        }
+
+        List<Document> memberAwards = new ArrayList<>(awards.size());
+        for (Document Awards : awards) {
+            Document hub = hubs.get(normalizeKey(Awards.get("PlayerID")));
+            Predicate<Object> isPidOfRid;
+            if (hub == null) {
+                isPidOfRid = pid -> false;
+            } else if (prizeTypeIndex != null) {
+                isPidOfRid = pid -> prizeTypeIndex.containsPid(hub.get("RID"), pid);
+            } else {
+                isPidOfRid = outcomesByRid.getOrDefault(normalizeKey(hub.get("RID")), List.of()).stream()
+                        .map(doc -> doc.get("PID"))
+                        .collect(Collectors.toList())::contains;
+            }
+            memberAwards.add(buildMemberAward(Awards,
+                    stubs.get(normalizeKey(Awards.get("TrainId"))),
+                    promos.get(normalizeKey(Awards.get("TrainId"))),
+                    points.getOrDefault(normalizeKey(Awards.get("TranId")), List.of()),
+                    prizes.get(normalizeKey(Awards.get("PrizeId"))),
+                    locnMappings.get(normalizeKey(Awards.get("PrizeId"))),
+                    memberProfiles.get(normalizeKey(Awards.get("PlayerID"))),
+                    prizeType(Awards, hub, isPidOfRid)));
+        }
+        return memberAwards;
+    }
+
+    /**
+     * Assembles one member_award from an Awards document and its already loaded related documents.
+     */
+    private Document buildMemberAward(Document Awards, Document stub, Document promo, List<Document> playerPoints,
+                                      Document prize, Document locnMapping, Document memberProfile, int prizeType) {
         // Convert Awards fields to snake_case while filtering out unwanted fields
         Document memberAward = convertToSnakeCase(filterFields(Awards, Set.of("_id")));
 
         // Populate related collections
-        memberAward.put("player_stub", getFilteredAndConvertedDocument(Stub, "TrainId", Awards.get("TrainId")));
-        memberAward.put("player_promo1", getFilteredAndConvertedDocument(tPlayerPromo, "TrainId", Awards.get("TrainId")));
+        memberAward.put("player_stub", convertToSnakeCase(filterFields(stub, EXCLUDED_FIELDS)));
+        memberAward.put("player_promo1", convertToSnakeCase(filterFields(promo, EXCLUDED_FIELDS)));
 
         // Populate tPlayerPoints
-        List<Document> playerPoints = tPlayerPoints.find(new Document("TranId", Awards.get("TranId"))).into(new java.util.ArrayList<>());
         List<Document> filteredPlayerPoints = playerPoints.stream()
                 .map(doc -> convertToSnakeCase(filterFields(doc, EXCLUDED_FIELDS)))
                 .collect(Collectors.toList());
         memberAward.put("player_points", filteredPlayerPoints);
 
         // Populate tPrize
-        Document prize = getFilteredAndConvertedDocument(tPrize, "PrizeId", Awards.get("PrizeId"), Set.of("PrizeId", "PrizeCode", "PrizeName", "AwardCode"));
-        memberAward.put("prize", prize);
+        memberAward.put("prize", convertToSnakeCase(filterFields(extractFields(prize,
+                Set.of("PrizeId", "PrizeCode", "PrizeName", "AwardCode")), Set.of("_id"))));
 
         // Populate PrizeLocnMapping
-        memberAward.put("prize_locn_mapping", getFilteredAndConvertedDocument(PrizeLocnMapping, "PrizeId", Awards.get("PrizeId"), Set.of("CasinoId", "LocnId", "LocnCode")));
-
+        memberAward.put("prize_locn_mapping", convertToSnakeCase(filterFields(extractFields(locnMapping,
+                Set.of("CasinoId", "LocnId", "LocnCode")), Set.of("_id"))));
 
         // PrizeType Calculation
-        int prizeType = calculatePrizeType(Awards, PromotionRuleOutCome);
         memberAward.put("award_prize_type", prizeType); 
 
         // Store values in member_awards
         boolean isDocPmprize = "P".equals(Awards.getString("Doc"));
         memberAward.put("is_doc_pmprize", isDocPmprize);
         // Retrieve member_profile
-        memberAward.putAll(getMemberProfile(memberProfileCollection, Awards.get("PlayerID")));
+        memberAward.putAll(getMemberProfile(memberProfile));
 
         return memberAward;
     }
 
+    /**
+     * Calculates member_award data for a set of Awards documents and returns the member_awards upserts,
+     * keyed by TrainId, ready for a single bulk write. With delta writes enabled, unchanged awards are left out
+     * and changed ones only set the fields that differ from the last written image.
+     */
+    public List<WriteModel<Document>> buildMemberAwardUpserts(Collection<Document> awardsList) {
+        if (deltaCache != null) {
+            return deltaCache.toWrites(calculateAwards(awardsList));
+        }
+        List<WriteModel<Document>> writes = new ArrayList<>(awardsList.size());
+        for (Document memberAward : calculateAwards(awardsList)) {
+            writes.add(new UpdateOneModel<>(
+                    new Document("TrainId", memberAward.get("train_id")),
+                    new Document("$set", memberAward),
+                    new UpdateOptions().upsert(true)));
+        }
+        return writes;
+    }
+
+    /**
+     * Must be called with upserts from {@link #buildMemberAwardUpserts} that were not applied, so they are
+     * written in full next time.
+     */
+    public void discardMemberAwardUpserts(Collection<? extends WriteModel<Document>> writes) {
+        if (deltaCache != null) {
+            deltaCache.invalidate(writes);
+        }
+    }
+
+    /**
+     * Must be called with upserts from {@link #buildMemberAwardUpserts} once they are applied, so later upserts
+     * only set what changed since.
+     */
+    public void confirmMemberAwardUpserts(Collection<? extends WriteModel<Document>> writes) {
+        if (deltaCache != null) {
+            deltaCache.applied(writes);
+        }
+    }
+
      /**
-     * Get member profile from member_profile collection, and filter out unwanted fields. 
+     * Get member profile fields from a member_profile document, and filter out unwanted fields. 
      */
-    private Document getMemberProfile(MongoCollection<Document> memberProfileCollection, Object playerId) {
+    private Document getMemberProfile(Document memberProfile) {
         Document memberAward = new Document();
-        Document memberProfile = memberProfileCollection.find(new Document("player_id", playerId)).first();
         if (memberProfile != null) {
             memberAward.put("member_no", memberProfile.getString("member_no"));
             memberAward.put("member_profile", convertToSnakeCase(filterFields(extractFields(memberProfile, Set.of(
@@ -95,29 +291,42 @@ public class AwardCalculationService {
      * Determines the prize type based on Awards and PromotionRuleOutCome.
      */
     private int calculatePrizeType(Document Awards, MongoCollection<Document> PromotionRuleOutCome) {
+        // Retrieve targetRID from PromotionRuleOutCome where PlayerID = Awards.PlayerID
+        Document hub = PromotionRuleOutCome.find(new Document("PlayerID", Awards.get("PlayerID"))).first();
+        if (hub == null) {
+            return -1;
+        }
+        Object targetRID = hub.get("RID");
+        if (prizeTypeIndex != null) {
+            return prizeType(Awards, hub, pid -> prizeTypeIndex.containsPid(targetRID, pid));
+        }
+
+        // Find all PIDs where RID = targetRID
+        List<Document> pidArray = PromotionRuleOutCome.find(new Document("RID", targetRID))
+                .into(new java.util.ArrayList<>());
+        List<Object> pidValues = pidArray.stream()
+                .map(doc -> doc.get("PID"))  // Extracting only PIDs
+                .collect(Collectors.toList());
+        return prizeType(Awards, hub, pidValues::contains);
+    }
+
+    /**
+     * Applies the PrizeType rules given the player's PromotionRuleOutCome and a membership test for the PIDs
+     * sharing its RID. The test is only evaluated when the TranCodeID rules do not already decide.
+     */
+    private int prizeType(Document Awards, Document hub, Predicate<Object> isPidOfRid) {
         int prizeType = -1; // Default value
 
         // Get TranCodeID directly from Awards
         int tranCodeID = Awards.getInteger("TranCodeID", -1);
 
-        // Retrieve targetRID from PromotionRuleOutCome where PlayerID = Awards.PlayerID
-        Document hub = PromotionRuleOutCome.find(new Document("PlayerID", Awards.get("PlayerID"))).first();
         if (hub != null) {
-            Object targetRID = hub.get("RID");
-
-            // Find all PIDs where RID = targetRID
-            List<Document> pidArray = PromotionRuleOutCome.find(new Document("RID", targetRID))
-                    .into(new java.util.ArrayList<>());
-            List<Object> pidValues = pidArray.stream()
-                    .map(doc -> doc.get("PID"))  // Extracting only PIDs
-                    .collect(Collectors.toList());
-
             // Apply PrizeType conditions
             if (tranCodeID == 10 || tranCodeID == 11 || tranCodeID == 12) {
                 prizeType = 2;
             } else if (tranCodeID == 4) {
                 prizeType = 3;
-            } else if (Awards.containsKey("RID") && pidValues.contains(Awards.get("RID"))) {
+            } else if (Awards.containsKey("RID") && isPidOfRid.test(Awards.get("RID"))) {
                 prizeType = 4;
             }
         }
@@ -125,21 +334,73 @@ public class AwardCalculationService {
    }
 
     /**
-     * Retrieves a document by a specific field, filters out unwanted fields,
-     * and converts keys to snake_case.
+     * Distinct, normalized values of a field across the documents, for an `$in` lookup.
      */
-    private Document getFilteredAndConvertedDocument(MongoCollection<Document> collection, String field, Object value) {
-        Document document = collection.find(new Document(field, value)).first();
-        return convertToSnakeCase(filterFields(document, EXCLUDED_FIELDS));
+    private Set<Object> keysOf(Collection<Document> documents, String field) {
+        Set<Object> keys = new LinkedHashSet<>();
+        for (Document document : documents) {
+            Object value = document.get(field);
+            if (value != null) keys.add(normalizeKey(value));
+        }
+        return keys;
+    }
+
+    /**
+     * Loads the documents matching any of the keys and keeps the first one per key, as `find(..).first()` would.
+     */
+    private Map<Object, Document> firstByKey(MongoCollection<Document> collection, String field, Set<Object> keys) {
+        Map<Object, Document> byKey = new HashMap<>();
+        if (keys.isEmpty()) return byKey;
+        ChangeStreamEvents.EnrichmentLookup lookup = new ChangeStreamEvents.EnrichmentLookup();
+        lookup.begin();
+        int documents = 0;
+        for (Document document : collection.find(Filters.in(field, keys))) {
+            byKey.putIfAbsent(normalizeKey(document.get(field)), document);
+            documents++;
+        }
+        commit(lookup, collection, keys.size(), documents);
+        return byKey;
     }
 
     /**
-     * Retrieves a document with specific fields, filters only wanted fields,
-     * and converts keys to snake_case.
+     * Loads the documents matching any of the keys, grouped by key.
      */
-    private Document getFilteredAndConvertedDocument(MongoCollection<Document> collection, String field, Object value, Set<String> includeFields) {
-        Document document = collection.find(new Document(field, value)).first();
-        return convertToSnakeCase(filterFields(extractFields(document, includeFields), Set.of("_id")));
+    private Map<Object, List<Document>> allByKey(MongoCollection<Document> collection, String field, Set<Object> keys) {
+        Map<Object, List<Document>> byKey = new HashMap<>();
+        if (keys.isEmpty()) return byKey;
+        ChangeStreamEvents.EnrichmentLookup lookup = new ChangeStreamEvents.EnrichmentLookup();
+        lookup.begin();
+        int documents = 0;
+        for (Document document : collection.find(Filters.in(field, keys))) {
+            byKey.computeIfAbsent(normalizeKey(document.get(field)), k -> new ArrayList<>()).add(document);
+            documents++;
+        }
+        commit(lookup, collection, keys.size(), documents);
+        return byKey;
+    }
+
+    private static void commit(ChangeStreamEvents.EnrichmentLookup lookup, MongoCollection<Document> collection,
+                               int keys, int documents) {
+        lookup.end();
+        if (lookup.shouldCommit()) {
+            lookup.collection = collection.getNamespace().getCollectionName();
+            lookup.keys = keys;
+            lookup.documents = documents;
+            lookup.commit();
+        }
+    }
+
+    /**
+     * MongoDB matches 5, 5L and 5.0 as equal; map keys must as well.
+     */
+    static Object normalizeKey(Object value) {
+        if (value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte) {
+            return ((Number) value).longValue();
+        }
+        if (value instanceof Double && (Double) value == Math.rint((Double) value)) {
+            return ((Double) value).longValue();
+        }
+        return value;
     }
 
     /**
@@ -1,53 +1,29 @@
 package com.example.demo.service.impl;
 
-import org.bson.Document;
-import org.springframework.beans.factory.annotation.Value;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.stereotype.Service;
 
+import com.example.demo.config.ViewConfig;
 import com.example.demo.metrics.PrometheusMetricsConfig;
 import com.example.demo.metrics.TpsCalculator;
-import com.example.demo.service.BusinessTask;
+import com.example.demo.service.IncrementalViewEngine;
 import com.example.demo.service.ResumeTokenService;
+import com.example.demo.service.ViewTask;
 import com.mongodb.client.MongoClient;
-import com.mongodb.client.MongoCollection;
-import com.mongodb.client.MongoDatabase;
-import com.mongodb.client.model.changestream.ChangeStreamDocument;
 
+/**
+ * Awards changes carry tAwards rows; each changed row is recomputed into member_awards.
+ */
 @Service
-public class Awards extends BusinessTask {
-    
+public class Awards extends ViewTask {
+
     private static final String TASK_COLLECTION_NAME = "Awards";
-    private final MongoClient mongoClient;
-    private final String databaseName;
-    private final AwardCalculationService awardCalculationService;
 
-    public Awards(ResumeTokenService resumeTokenService, TpsCalculator tpsCalculator, MongoClient mongoClient,
-                   AwardCalculationService awardCalculationService, @Value("${spring.mongodb.database}") String databaseName) {
+    public Awards(ResumeTokenService resumeTokenService, TpsCalculator tpsCalculator,
+            @Qualifier("writeMongoClient") MongoClient mongoClient,
+            IncrementalViewEngine viewEngine) {
         super(resumeTokenService, tpsCalculator,
-                PrometheusMetricsConfig.getInstance(TASK_COLLECTION_NAME),
-                TASK_COLLECTION_NAME, mongoClient);
-        this.mongoClient = mongoClient;
-        this.awardCalculationService = awardCalculationService;
-        this.databaseName = databaseName;
-    }
-    @Override
-    public int processChange(ChangeStreamDocument<Document> event) {
-        MongoDatabase database = mongoClient.getDatabase(databaseName);
-        MongoCollection<Document> memberAwards = database.getCollection("member_awards");
-
-        Document Awards = event.getFullDocument();
-        if (Awards == null) return 0;
-
-        // Calculate the award data
-        Document memberAward = awardCalculationService.calculateAward(Awards);
-        if (memberAward == null) return 0;
-
-        // Upsert into member_awards collection
-        memberAwards.updateOne(
-            new Document("TrainId", Awards.get("TrainId")),  // Identify existing record
-            new Document("$set", memberAward),  // Update document fields
-            new com.mongodb.client.model.UpdateOptions().upsert(true) // Enable upsert
-        );
-        return 0; 
+                PrometheusMetricsConfig.getInstance(TASK_COLLECTION_NAME, Awards.class.getSimpleName()),
+                TASK_COLLECTION_NAME, mongoClient, viewEngine, ViewConfig.MEMBER_AWARDS);
     }
 }
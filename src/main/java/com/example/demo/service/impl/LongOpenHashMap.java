@@ -0,0 +1,150 @@
+package com.example.demo.service.impl;
+
+import java.util.function.Consumer;
+
+/**
+ * Open-addressing hash map with primitive {@code long} keys and linear probing, so entries cost one slot in a
+ * {@code long[]} and one in an {@code Object[]} instead of a boxed key plus a node per entry.
+ * Not thread-safe; callers guard it with their own lock.
+ */
+public class LongOpenHashMap<V> {
+    private static final long EMPTY = 0L;
+    private static final float MAX_LOAD = 0.6f;
+
+    private long[] keys;
+    private Object[] values;
+    private int mask;
+    private int size;
+    // Key 0 marks empty slots, so its entry is held outside the table
+    private boolean hasZeroKey;
+    private V zeroValue;
+
+    public LongOpenHashMap(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(4, (int) (expectedSize / MAX_LOAD)) * 2 - 1);
+        allocate(capacity);
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        values = new Object[capacity];
+        mask = capacity - 1;
+    }
+
+    private int slot(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32)) & mask;
+    }
+
+    @SuppressWarnings("unchecked")
+    public V get(long key) {
+        if (key == EMPTY) {
+            return hasZeroKey ? zeroValue : null;
+        }
+        for (int i = slot(key); ; i = (i + 1) & mask) {
+            long k = keys[i];
+            if (k == key) return (V) values[i];
+            if (k == EMPTY) return null;
+        }
+    }
+
+    /**
+     * Associates the value with the key and returns the previous value, or null.
+     */
+    @SuppressWarnings("unchecked")
+    public V put(long key, V value) {
+        if (key == EMPTY) {
+            V previous = zeroValue;
+            if (!hasZeroKey) size++;
+            hasZeroKey = true;
+            zeroValue = value;
+            return previous;
+        }
+        int i = slot(key);
+        for (; keys[i] != EMPTY; i = (i + 1) & mask) {
+            if (keys[i] == key) {
+                V previous = (V) values[i];
+                values[i] = value;
+                return previous;
+            }
+        }
+        keys[i] = key;
+        values[i] = value;
+        if (++size > keys.length * MAX_LOAD) {
+            rehash(keys.length * 2);
+        }
+        return null;
+    }
+
+    /**
+     * Removes the key and returns its value, or null. Later entries of the probe run are shifted back so
+     * lookups never need tombstones.
+     */
+    @SuppressWarnings("unchecked")
+    public V remove(long key) {
+        if (key == EMPTY) {
+            if (!hasZeroKey) return null;
+            V previous = zeroValue;
+            hasZeroKey = false;
+            zeroValue = null;
+            size--;
+            return previous;
+        }
+        int i = slot(key);
+        while (keys[i] != key) {
+            if (keys[i] == EMPTY) return null;
+            i = (i + 1) & mask;
+        }
+        V previous = (V) values[i];
+        size--;
+
+        int gap = i;
+        for (int j = (i + 1) & mask; keys[j] != EMPTY; j = (j + 1) & mask) {
+            int home = slot(keys[j]);
+            // Move the entry into the gap unless its home slot lies cyclically in (gap, j]
+            boolean homeBetween = gap <= j ? (gap < home && home <= j) : (gap < home || home <= j);
+            if (!homeBetween) {
+                keys[gap] = keys[j];
+                values[gap] = values[j];
+                gap = j;
+            }
+        }
+        keys[gap] = EMPTY;
+        values[gap] = null;
+        return previous;
+    }
+
+    private void rehash(int capacity) {
+        long[] oldKeys = keys;
+        Object[] oldValues = values;
+        allocate(capacity);
+        for (int i = 0; i < oldKeys.length; i++) {
+            long key = oldKeys[i];
+            if (key == EMPTY) continue;
+            int j = slot(key);
+            while (keys[j] != EMPTY) {
+                j = (j + 1) & mask;
+            }
+            keys[j] = key;
+            values[j] = oldValues[i];
+        }
+    }
+
+    /**
+     * Visits every value, in no particular order.
+     */
+    @SuppressWarnings("unchecked")
+    public void forEachValue(Consumer<? super V> action) {
+        if (hasZeroKey) action.accept(zeroValue);
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != EMPTY) action.accept((V) values[i]);
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int capacity() {
+        return keys.length;
+    }
+}
@@ -0,0 +1,192 @@
+package com.example.demo.service.impl;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.DocumentCodec;
+
+import com.example.demo.metrics.PrometheusMetricsConfig;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.UpdateOptions;
+import com.mongodb.client.model.WriteModel;
+
+/**
+ * MemberAwardDeltaCache remembers a 64-bit hash of every top-level field of the last member_awards image written
+ * per TrainId, in a bounded LRU map. A recalculated image that matches is not written at all; one that differs
+ * is written as a {@code $set} of the changed fields only. Unknown TrainIds get the full image.
+ *
+ * <p>The cache assumes it sees every write to member_awards. Every write it hands out must be reported back: to
+ * {@link #applied} once the bulk write succeeded, which records its image, or to {@link #invalidate} if it failed,
+ * so the next recalculation writes the full image again. While a write for a TrainId is in flight, further writes
+ * for it carry the full image, and its image is only recorded again once no write for it overlapped another.
+ */
+public class MemberAwardDeltaCache {
+    private static final DocumentCodec CODEC = new DocumentCodec();
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    /** Field names and value hashes of one written image, in field order. */
+    private record Image(String[] fields, long[] hashes) {
+        long hashOf(String field) {
+            for (int i = 0; i < fields.length; i++) {
+                if (fields[i].equals(field)) return hashes[i];
+            }
+            return 0;
+        }
+
+        boolean has(String field) {
+            for (String f : fields) {
+                if (f.equals(field)) return true;
+            }
+            return false;
+        }
+    }
+
+    /** A write handed out by {@link #toWrites} and not yet reported back. */
+    private record Pending(Object key, Image image) {}
+
+    // Images known to be in member_awards, least recently used first
+    private final Map<Object, Image> images;
+    private final Map<WriteModel<Document>, Pending> pending = new IdentityHashMap<>();
+    private final Map<Object, Integer> inFlight = new HashMap<>();
+    // Keys that had overlapping writes: the order they landed in is unknown, so their image is dropped
+    private final Set<Object> contended = new HashSet<>();
+    private final PrometheusMetricsConfig metricsConfig;
+
+    public MemberAwardDeltaCache(int maxEntries, PrometheusMetricsConfig metricsConfig) {
+        this.metricsConfig = metricsConfig;
+        this.images = new LinkedHashMap<>(Math.min(maxEntries, 1 << 16), 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Object, Image> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    /**
+     * Upserts for the given member_award images, keyed by train_id, leaving out unchanged images and fields.
+     */
+    public synchronized List<WriteModel<Document>> toWrites(Collection<Document> memberAwards) {
+        List<WriteModel<Document>> writes = new ArrayList<>(memberAwards.size());
+        for (Document memberAward : memberAwards) {
+            Object trainId = memberAward.get("train_id");
+            Object key = AwardCalculationService.normalizeKey(trainId);
+            Image current = imageOf(memberAward);
+            Image previous = null;
+            if (inFlight.containsKey(key)) {
+                contended.add(key);
+            } else {
+                previous = images.get(key);
+            }
+
+            Document changed = previous == null ? memberAward : changedFields(memberAward, current, previous);
+            if (changed.isEmpty()) {
+                metricsConfig.getUnchangedWritesSkipped().inc();
+                continue;
+            }
+            metricsConfig.getFieldsSkipped().inc(memberAward.size() - changed.size());
+            WriteModel<Document> write = new UpdateOneModel<>(
+                    new Document("TrainId", trainId),
+                    new Document("$set", changed),
+                    new UpdateOptions().upsert(true));
+            pending.put(write, new Pending(key, current));
+            inFlight.merge(key, 1, Integer::sum);
+            writes.add(write);
+        }
+        return writes;
+    }
+
+    /**
+     * Records the images written by writes that were applied.
+     */
+    public synchronized void applied(Collection<? extends WriteModel<Document>> writes) {
+        for (WriteModel<Document> write : writes) {
+            Pending written = pending.remove(write);
+            if (written == null) {
+                continue;
+            }
+            if (settle(written.key())) {
+                images.put(written.key(), written.image());
+            } else {
+                images.remove(written.key());
+            }
+        }
+    }
+
+    /**
+     * Forgets the images targeted by writes that were not applied.
+     */
+    public synchronized void invalidate(Collection<? extends WriteModel<Document>> writes) {
+        for (WriteModel<Document> write : writes) {
+            Pending failed = pending.remove(write);
+            if (failed != null) {
+                settle(failed.key());
+                images.remove(failed.key());
+            } else if (write instanceof UpdateOneModel<Document> update
+                    && update.getFilter() instanceof Document document) {
+                images.remove(AwardCalculationService.normalizeKey(document.get("TrainId")));
+            }
+        }
+    }
+
+    /**
+     * Ends one in-flight write for the key; true unless it overlapped another write for the same key.
+     */
+    private boolean settle(Object key) {
+        boolean alone = !contended.contains(key);
+        if (inFlight.compute(key, (k, writing) -> writing == null || writing <= 1 ? null : writing - 1) == null) {
+            contended.remove(key);
+        }
+        return alone;
+    }
+
+    public synchronized int size() {
+        return images.size();
+    }
+
+    private static Document changedFields(Document memberAward, Image current, Image previous) {
+        Document changed = new Document();
+        int i = 0;
+        for (Map.Entry<String, Object> field : memberAward.entrySet()) {
+            long hash = current.hashes[i++];
+            if (!previous.has(field.getKey()) || previous.hashOf(field.getKey()) != hash) {
+                changed.put(field.getKey(), field.getValue());
+            }
+        }
+        return changed;
+    }
+
+    private static Image imageOf(Document memberAward) {
+        String[] fields = new String[memberAward.size()];
+        long[] hashes = new long[fields.length];
+        int i = 0;
+        for (Map.Entry<String, Object> field : memberAward.entrySet()) {
+            fields[i] = field.getKey();
+            hashes[i++] = hash(field.getValue());
+        }
+        return new Image(fields, hashes);
+    }
+
+    /**
+     * FNV-1a over the BSON encoding of the value, so type changes (int vs long) count as changes.
+     */
+    static long hash(Object value) {
+        ByteBuffer bytes = new RawBsonDocument(new Document("v", value), CODEC).getByteBuffer().asNIO();
+        long hash = FNV_OFFSET;
+        while (bytes.hasRemaining()) {
+            hash ^= bytes.get() & 0xff;
+            hash *= FNV_PRIME;
+        }
+        return hash;
+    }
+}
@@ -0,0 +1,423 @@
+package com.example.demo.service.impl;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Function;
+
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.example.demo.metrics.PrometheusMetricsConfig;
+import com.example.demo.service.CollectionWatcher;
+import com.mongodb.ReadConcern;
+import com.mongodb.ReadPreference;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.Sorts;
+import com.mongodb.client.model.changestream.ChangeStreamDocument;
+
+/**
+ * MemberProfileStore keeps the member_profile fields used by award calculation on the heap, keyed by player_id.
+ * Its entry count and estimated size are reported by the changestream_projection_entries and _bytes gauges.
+ *
+ * <p>Entries are a fixed-order {@code Object[]} of {@link #FIELDS} in a {@link LongOpenHashMap}; low-cardinality
+ * strings (club states, host ids) are interned so each distinct value is held once. The store is bootstrapped with
+ * a parallel range scan over player_id and then maintained by a {@link CollectionWatcher}; changes seen during the
+ * bootstrap are replayed after it. Until it is ready, and for non-integral player_ids, lookups fall back to MongoDB.
+ *
+ * <p>The bootstrap reads the primary at majority read concern, so it sees at least every change committed before
+ * the watcher opened. Deletes and player_id changes can only be applied with pre-images: the store is not enabled
+ * when member_profile has {@code changeStreamPreAndPostImages} off, and it turns itself off for good (lookups go
+ * to MongoDB) if an update or delete still arrives without one.
+ */
+public class MemberProfileStore implements AutoCloseable {
+    private static final Logger LOGGER = LoggerFactory.getLogger(MemberProfileStore.class);
+
+    static final List<String> FIELDS = List.of("member_no", "is_active_program", "club_state", "club_state_name",
+            "primary_host_id", "secondary_host_id", "primary_host_num", "secondary_host_num", "is_banned", "is_inactive");
+    private static final int MEMBER_NO = 0;
+    private static final Object ABSENT = new Object();
+    // Object header + length + one compressed reference per field
+    private static final long ENTRY_BYTES = 16 + 4L * FIELDS.size();
+
+    private static final String COLLECTION = "member_profile";
+
+    private final MongoDatabase database;
+    private final MongoCollection<Document> profiles;
+    private final int bootstrapThreads;
+    private final PrometheusMetricsConfig metricsConfig;
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Map<String, String> interned = new ConcurrentHashMap<>();
+
+    private LongOpenHashMap<Object[]> table = new LongOpenHashMap<>(1024);
+    private long valueBytes;
+    private final AtomicLong internedBytes = new AtomicLong();
+    private volatile boolean ready;
+    // Set once a change cannot be applied for lack of a pre-image; lookups use MongoDB from then on
+    private volatile boolean disabled;
+    // Changes that arrive while a bootstrap is scanning, replayed on top of its result
+    private List<ChangeStreamDocument<Document>> pending;
+    private CollectionWatcher watcher;
+
+    public MemberProfileStore(MongoDatabase database, int bootstrapThreads, PrometheusMetricsConfig metricsConfig) {
+        this.database = database;
+        this.profiles = database.getCollection(COLLECTION).withReadPreference(ReadPreference.primary())
+                .withReadConcern(ReadConcern.MAJORITY);
+        this.bootstrapThreads = Math.max(1, bootstrapThreads);
+        this.metricsConfig = metricsConfig;
+    }
+
+    /**
+     * Starts watching member_profile, and bootstraps in the background once the watcher's stream is open. Does
+     * nothing, leaving every lookup to MongoDB, when the collection has no pre-images.
+     */
+    public void start() {
+        if (!preImagesEnabled()) {
+            disabled = true;
+            LOGGER.error("❌ {} has changeStreamPreAndPostImages disabled, member profile cache stays off and "
+                    + "lookups use MongoDB", COLLECTION);
+            return;
+        }
+        AtomicBoolean opened = new AtomicBoolean();
+        watcher = new CollectionWatcher(COLLECTION, profiles, this::onChange, this::rebootstrap, true, () -> {
+            if (!opened.getAndSet(true)) {
+                Thread bootstrap = new Thread(this::bootstrap, "MemberProfile-Bootstrap");
+                bootstrap.setDaemon(true);
+                bootstrap.start();
+            }
+        });
+        synchronized (this) {
+            pending = new ArrayList<>();
+        }
+        watcher.start();
+    }
+
+    private boolean preImagesEnabled() {
+        Document info = database.listCollections().filter(Filters.eq("name", COLLECTION)).first();
+        Document options = info == null ? null : info.get("options", Document.class);
+        Document preImages = options == null ? null : options.get("changeStreamPreAndPostImages", Document.class);
+        return preImages != null && Boolean.TRUE.equals(preImages.getBoolean("enabled"));
+    }
+
+    public boolean isReady() {
+        return ready;
+    }
+
+    /**
+     * Returns the projected profile fields of each player, keyed by normalized player_id. Players the store cannot
+     * answer for are resolved through {@code fallback}; players the store knows to be absent are left out.
+     */
+    public Map<Object, Document> findAll(Set<Object> playerIds, Function<Set<Object>, Map<Object, Document>> fallback) {
+        Map<Object, Document> found = new HashMap<>();
+        Set<Object> unresolved = new HashSet<>();
+        lock.readLock().lock();
+        try {
+            for (Object playerId : playerIds) {
+                Long key = ready ? keyOf(playerId) : null;
+                if (key == null) {
+                    unresolved.add(playerId);
+                    continue;
+                }
+                Object[] values = table.get(key);
+                if (values != null) {
+                    found.put(playerId, toDocument(key, values));
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        if (!unresolved.isEmpty()) {
+            found.putAll(fallback.apply(unresolved));
+        }
+        return found;
+    }
+
+    /**
+     * Single-player variant of {@link #findAll}.
+     */
+    public Document find(Object playerId, Function<Object, Document> fallback) {
+        Long key = ready ? keyOf(playerId) : null;
+        if (key == null) {
+            return fallback.apply(playerId);
+        }
+        lock.readLock().lock();
+        try {
+            Object[] values = table.get(key);
+            return values == null ? null : toDocument(key, values);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void bootstrap() {
+        long started = System.currentTimeMillis();
+        try {
+            LongOpenHashMap<Object[]> loaded = scan();
+            // Swap under the write lock, so a change arriving right after buffering stops waits for the new table
+            lock.writeLock().lock();
+            try {
+                List<ChangeStreamDocument<Document>> replay;
+                synchronized (this) {
+                    replay = pending;
+                    pending = null;
+                }
+                table = loaded;
+                valueBytes = 0;
+                loaded.forEachValue(values -> valueBytes += entryBytes(values));
+                for (ChangeStreamDocument<Document> event : replay) {
+                    apply(event);
+                }
+            } finally {
+                lock.writeLock().unlock();
+            }
+            ready = !disabled;
+            updateGauges();
+            LOGGER.info("✅ Loaded {} member profiles in {} ms", loaded.size(), System.currentTimeMillis() - started);
+        } catch (Exception e) {
+            LOGGER.error("❌ Member profile bootstrap failed, lookups keep using MongoDB: {}", e.getMessage(), e);
+            synchronized (this) {
+                pending = null;
+            }
+        }
+    }
+
+    /**
+     * Splits [min, max] of the numeric player_ids into one range per thread and scans the ranges in parallel,
+     * reading only the projected fields.
+     */
+    private LongOpenHashMap<Object[]> scan() throws Exception {
+        Document first = profiles.find(Filters.type("player_id", "number"))
+                .sort(Sorts.ascending("player_id")).projection(Projections.include("player_id")).first();
+        Document last = profiles.find(Filters.type("player_id", "number"))
+                .sort(Sorts.descending("player_id")).projection(Projections.include("player_id")).first();
+        LongOpenHashMap<Object[]> loaded = new LongOpenHashMap<>(1024);
+        if (first == null || last == null) {
+            return loaded;
+        }
+        long min = ((Number) first.get("player_id")).longValue();
+        long max = ((Number) last.get("player_id")).longValue();
+        long span = Math.max(1, (max - min) / bootstrapThreads + 1);
+
+        List<String> projected = new ArrayList<>(FIELDS);
+        projected.add("player_id");
+        ExecutorService executor = Executors.newFixedThreadPool(bootstrapThreads, r -> {
+            Thread t = new Thread(r, "MemberProfile-Scan");
+            t.setDaemon(true);
+            return t;
+        });
+        try {
+            List<Future<?>> scans = new ArrayList<>();
+            for (long lo = min; lo <= max; lo += span) {
+                long from = lo;
+                long to = Math.min(max, lo + span - 1);
+                scans.add(executor.submit(() -> {
+                    for (Document profile : profiles.find(Filters.and(Filters.gte("player_id", from),
+                            Filters.lte("player_id", to))).projection(Projections.include(projected))) {
+                        Long key = keyOf(profile.get("player_id"));
+                        if (key == null) continue;
+                        Object[] values = toValues(profile);
+                        synchronized (loaded) {
+                            loaded.put(key, values);
+                        }
+                    }
+                }));
+                if (to == max) break;
+            }
+            for (Future<?> scan : scans) {
+                scan.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        return loaded;
+    }
+
+    private void onChange(ChangeStreamDocument<Document> event) {
+        if (disabled) {
+            return;
+        }
+        synchronized (this) {
+            if (pending != null) {
+                pending.add(event);
+                return;
+            }
+        }
+        lock.writeLock().lock();
+        try {
+            apply(event);
+        } finally {
+            lock.writeLock().unlock();
+        }
+        updateGauges();
+    }
+
+    /** Applies one change; the write lock must be held. */
+    private void apply(ChangeStreamDocument<Document> event) {
+        Document before = event.getFullDocumentBeforeChange();
+        Document after = event.getFullDocument();
+        Long beforeKey = before == null ? null : keyOf(before.get("player_id"));
+        Long afterKey = after == null ? null : keyOf(after.get("player_id"));
+
+        switch (event.getOperationType()) {
+            case UPDATE, REPLACE, DELETE -> {
+                if (before == null) {
+                    disable(event);
+                    return;
+                }
+            }
+            default -> { }
+        }
+        switch (event.getOperationType()) {
+            case INSERT, UPDATE, REPLACE -> {
+                if (beforeKey != null && !beforeKey.equals(afterKey)) {
+                    remove(beforeKey);
+                }
+                if (afterKey != null) {
+                    put(afterKey, toValues(after));
+                }
+            }
+            case DELETE -> {
+                if (beforeKey != null) {
+                    remove(beforeKey);
+                }
+            }
+            case DROP, DROP_DATABASE, RENAME, INVALIDATE -> {
+                table = new LongOpenHashMap<>(1024);
+                valueBytes = 0;
+            }
+            default -> { }
+        }
+    }
+
+    /**
+     * Without the pre-image the entry a change removes or re-keys cannot be found, so nothing in the table can be
+     * trusted any more. The write lock must be held.
+     */
+    private void disable(ChangeStreamDocument<Document> event) {
+        disabled = true;
+        ready = false;
+        table = new LongOpenHashMap<>(1024);
+        valueBytes = 0;
+        LOGGER.error("❌ {} {} of {} arrived without a pre-image, member profile cache is off and lookups use MongoDB",
+                COLLECTION, event.getOperationType(), event.getDocumentKey());
+    }
+
+    /**
+     * The watcher reopened its stream and may have missed changes: fall back to MongoDB and load again.
+     */
+    private void rebootstrap() {
+        ready = false;
+        if (disabled) {
+            return;
+        }
+        synchronized (this) {
+            if (pending != null) {
+                return; // a bootstrap is already running
+            }
+            pending = new ArrayList<>();
+        }
+        Thread bootstrap = new Thread(this::bootstrap, "MemberProfile-Bootstrap");
+        bootstrap.setDaemon(true);
+        bootstrap.start();
+    }
+
+    private void put(long key, Object[] values) {
+        Object[] previous = table.put(key, values);
+        valueBytes += entryBytes(values) - (previous == null ? 0 : entryBytes(previous));
+    }
+
+    private void remove(long key) {
+        Object[] previous = table.remove(key);
+        if (previous != null) {
+            valueBytes -= entryBytes(previous);
+        }
+    }
+
+    private Object[] toValues(Document profile) {
+        Object[] values = new Object[FIELDS.size()];
+        for (int i = 0; i < values.length; i++) {
+            String field = FIELDS.get(i);
+            if (!profile.containsKey(field)) {
+                values[i] = ABSENT;
+                continue;
+            }
+            Object value = profile.get(field);
+            // member_no is unique per player, interning it would only pin it in the interner
+            values[i] = value instanceof String && i != MEMBER_NO ? intern((String) value) : value;
+        }
+        return values;
+    }
+
+    private String intern(String value) {
+        String existing = interned.putIfAbsent(value, value);
+        if (existing != null) {
+            return existing;
+        }
+        internedBytes.addAndGet(40 + value.length());
+        return value;
+    }
+
+    private Document toDocument(long playerId, Object[] values) {
+        Document profile = new Document("player_id", playerId);
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] != ABSENT) {
+                profile.put(FIELDS.get(i), values[i]);
+            }
+        }
+        return profile;
+    }
+
+    private long entryBytes(Object[] values) {
+        long bytes = ENTRY_BYTES;
+        for (int i = 0; i < values.length; i++) {
+            Object value = values[i];
+            if (value instanceof String && i == MEMBER_NO) {
+                bytes += 40 + ((String) value).length();
+            } else if (value instanceof Number) {
+                bytes += 16;
+            }
+        }
+        return bytes;
+    }
+
+    private void updateGauges() {
+        lock.readLock().lock();
+        try {
+            // keys + value references, entries, interned strings
+            long tableBytes = 32 + 12L * table.capacity();
+            metricsConfig.getProjectionEntries().set(table.size());
+            metricsConfig.getProjectionBytes().set(tableBytes + valueBytes + internedBytes.get());
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * player_id as a primitive key, or null if it is not an integral number.
+     */
+    static Long keyOf(Object playerId) {
+        Object normalized = AwardCalculationService.normalizeKey(playerId);
+        return normalized instanceof Long ? (Long) normalized : null;
+    }
+
+    @Override
+    public void close() {
+        if (watcher != null) {
+            watcher.close();
+        }
+    }
+}
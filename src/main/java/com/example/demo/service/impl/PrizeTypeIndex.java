@@ -0,0 +1,140 @@
+package com.example.demo.service.impl;
+
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.bson.BsonDocument;
+import org.bson.BsonDocumentReader;
+import org.bson.Document;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.DocumentCodec;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.example.demo.service.CollectionWatcher;
+import com.mongodb.ReadConcern;
+import com.mongodb.ReadPreference;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.changestream.ChangeStreamDocument;
+
+/**
+ * PrizeTypeIndex answers "is this PID one of the RID's PIDs" from in-memory hash sets instead of materialising
+ * every PromotionRuleOutCome document of the RID per award.
+ *
+ * <p>Sets are loaded lazily, one RID at a time, reading only `PID` and `_id`. A {@link CollectionWatcher} on
+ * PromotionRuleOutCome evicts any RID touched by a change, so the next probe reloads it. Loads that race with a
+ * change, or run while the watcher's stream is not open yet or being reopened, are returned but not cached.
+ * Sets are read from the primary at majority read concern, never from the lookup client's secondaries: a reload
+ * right after an eviction must see the change that caused it, since its result stays cached until the next one.
+ */
+public class PrizeTypeIndex implements AutoCloseable {
+    private static final Logger LOGGER = LoggerFactory.getLogger(PrizeTypeIndex.class);
+    private static final DocumentCodec DOCUMENT_CODEC = new DocumentCodec();
+
+    private final MongoCollection<Document> ruleOutcomes;
+    private final Map<Object, Set<Object>> pidsByRid = new ConcurrentHashMap<>();
+    // Which RID each loaded document belongs to, to find the set to evict when it is deleted
+    private final Map<Object, Object> ridById = new ConcurrentHashMap<>();
+    private final AtomicLong generation = new AtomicLong();
+    // Off while a started watcher has no open stream, since changes in that window would not evict anything
+    private volatile boolean cacheable = true;
+    private CollectionWatcher watcher;
+
+    public PrizeTypeIndex(MongoCollection<Document> ruleOutcomes) {
+        this.ruleOutcomes = ruleOutcomes.withReadPreference(ReadPreference.primary())
+                .withReadConcern(ReadConcern.MAJORITY);
+    }
+
+    public void start() {
+        cacheable = false;
+        watcher = new CollectionWatcher("PromotionRuleOutCome", ruleOutcomes, this::onChange, this::reset, false,
+                () -> cacheable = true);
+        watcher.start();
+    }
+
+    /**
+     * True if any PromotionRuleOutCome document with the given RID has the given PID.
+     */
+    public boolean containsPid(Object rid, Object pid) {
+        Object ridKey = AwardCalculationService.normalizeKey(rid);
+        Set<Object> pids = pidsByRid.get(ridKey);
+        if (pids == null) {
+            pids = load(rid, ridKey);
+        }
+        return pids.contains(AwardCalculationService.normalizeKey(pid));
+    }
+
+    private Set<Object> load(Object rid, Object ridKey) {
+        boolean cache = cacheable;
+        long loadGeneration = generation.get();
+        Set<Object> pids = new HashSet<>();
+        for (Document outcome : ruleOutcomes.find(Filters.eq("RID", rid)).projection(Projections.include("PID"))) {
+            pids.add(AwardCalculationService.normalizeKey(outcome.get("PID")));
+            ridById.put(outcome.get("_id"), ridKey);
+        }
+        if (cache && generation.get() == loadGeneration) {
+            pidsByRid.putIfAbsent(ridKey, pids);
+            // A change may have run between the check and the put, and found nothing to evict yet
+            if (generation.get() != loadGeneration) {
+                pidsByRid.remove(ridKey, pids);
+            }
+        }
+        return pids;
+    }
+
+    /**
+     * Evicts the RIDs a PromotionRuleOutCome change may affect: the document's previous RID and its new one.
+     */
+    public void onChange(ChangeStreamDocument<Document> event) {
+        generation.incrementAndGet();
+        Object id = documentId(event.getDocumentKey());
+        Object previousRid = id == null ? null : ridById.remove(id);
+        if (previousRid != null) {
+            pidsByRid.remove(previousRid);
+        }
+        Document outcome = event.getFullDocument();
+        if (outcome != null) {
+            pidsByRid.remove(AwardCalculationService.normalizeKey(outcome.get("RID")));
+        } else if (previousRid == null && event.getOperationType() != null) {
+            switch (event.getOperationType()) {
+                case DROP, DROP_DATABASE, RENAME, INVALIDATE -> clear();
+                default -> { }
+            }
+        }
+    }
+
+    /** The watcher lost its stream: nothing is cached until it is open again. */
+    private void reset() {
+        cacheable = false;
+        clear();
+    }
+
+    /**
+     * Drops every cached RID, e.g. after the watcher may have missed events.
+     */
+    public void clear() {
+        generation.incrementAndGet();
+        pidsByRid.clear();
+        ridById.clear();
+        LOGGER.info("Cleared prize type index");
+    }
+
+    private static Object documentId(BsonDocument documentKey) {
+        if (documentKey == null) {
+            return null;
+        }
+        return DOCUMENT_CODEC.decode(new BsonDocumentReader(documentKey), DecoderContext.builder().build()).get("_id");
+    }
+
+    @Override
+    public void close() {
+        if (watcher != null) {
+            watcher.close();
+        }
+    }
+}
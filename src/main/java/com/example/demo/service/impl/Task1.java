@@ -1,21 +1,31 @@
 package com.example.demo.service.impl;
 
+import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Date;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.TimeZone;
 
 import org.bson.Document;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.stereotype.Service;
 
 import com.example.demo.metrics.PrometheusMetricsConfig;
 import com.example.demo.metrics.TpsCalculator;
 import com.example.demo.service.BusinessTask;
+import com.example.demo.service.EventLogSampler;
 import com.example.demo.service.ResumeTokenService;
+import com.mongodb.MongoNamespace;
 import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.UpdateOneModel;
 import com.mongodb.client.model.UpdateOptions;
+import com.mongodb.client.model.WriteModel;
 import com.mongodb.client.model.changestream.ChangeStreamDocument;
 
 @Service
@@ -25,74 +35,168 @@ public class Task1 extends BusinessTask {
     // the watching target collection name in MongoDB
     private static final String TASK_COLLECTION_NAME = "changestream";
 
-    public Task1(ResumeTokenService resumeTokenService, TpsCalculator tpsCalculator, MongoClient mongoClient) {
+    /**
+     * Merges the transactions bound to `$$incoming` into the document's `txns`: existing entries with a matching
+     * transactionID are replaced in place, the rest are appended in arrival order. Built once and shared by every
+     * update; the driver only reads it while encoding.
+     */
+    private static final Document MERGE_TXNS = new Document("$concatArrays", List.of(
+        new Document("$map", new Document("input", new Document("$ifNull", List.of("$txns", List.of())))
+            .append("as", "txn")
+            .append("in", new Document("$let", new Document("vars",
+                new Document("match", new Document("$first", new Document("$filter",
+                    new Document("input", "$$incoming").append("as", "inc")
+                        .append("cond", new Document("$eq", List.of("$$inc.transactionID", "$$txn.transactionID")))))))
+                .append("in", new Document("$ifNull", List.of("$$match", "$$txn")))))),
+        new Document("$filter", new Document("input", "$$incoming").append("as", "inc")
+            .append("cond", new Document("$not", List.of(new Document("$in", List.of("$$inc.transactionID",
+                new Document("$ifNull", List.of("$txns.transactionID", List.of())))))))))
+    );
+
+    private static final UpdateOptions UPSERT = new UpdateOptions().upsert(true);
+
+    /** Target document of a transaction: one per player and gaming day. */
+    private record DailyKey(int playerID, Date gamingDate) {}
+
+    /** Transactions merged into one daily document. */
+    private static final class DailyMerge {
+        final String name;
+        final Map<Integer, Document> txns = new LinkedHashMap<>();
+
+        DailyMerge(String name) {
+            this.name = name;
+        }
+
+        void add(Document txn) {
+            // A repeated transactionID keeps its first position and takes the latest value, as sequential updates would
+            txns.put(txn.getInteger("transactionID"), txn);
+        }
+    }
+
+    // The watched collection resolved on the write client, which fenced commits also take their sessions from
+    private volatile MongoCollection<Document> targetCollection;
+
+    @Autowired
+    public Task1(ResumeTokenService resumeTokenService, TpsCalculator tpsCalculator,
+                 @Qualifier("writeMongoClient") MongoClient mongoClient) {
         // ✅ Manually retrieve PrometheusMetricsConfig
         super(resumeTokenService, tpsCalculator, 
-              PrometheusMetricsConfig.getInstance(TASK_COLLECTION_NAME), // ✅ No @Autowired
+              PrometheusMetricsConfig.getInstance(TASK_COLLECTION_NAME, Task1.class.getSimpleName()), // ✅ No @Autowired
               TASK_COLLECTION_NAME, mongoClient);
     }
 
+    @Override
+    public void setCollection(MongoCollection<Document> collection) {
+        super.setCollection(collection);
+        MongoNamespace namespace = collection.getNamespace();
+        targetCollection = mongoClient.getDatabase(namespace.getDatabaseName())
+                .getCollection(namespace.getCollectionName());
+    }
+
+    @Override
+    protected MongoCollection<Document> getTargetCollection() {
+        return targetCollection;
+    }
+
+    @Override
+    protected MongoClient getTargetClient() {
+        return mongoClient;
+    }
 
     @Override
     protected int processChange(ChangeStreamDocument<Document> event) {
         Document fullDocument = event.getFullDocument();
-        if (fullDocument == null || !fullDocument.containsKey("playerID") || 
-            !fullDocument.containsKey("transactionID") || !fullDocument.containsKey("value") ||
-            !fullDocument.containsKey("name") || !fullDocument.containsKey("date")) {
-            LOGGER.error("Invalid document: Missing required fields, doc {}", fullDocument);
+        if (!isValid(fullDocument)) {
             return -1;
         }
+        DailyMerge merge = new DailyMerge(fullDocument.getString("name"));
+        merge.add(toTxn(fullDocument));
+        UpdateOneModel<Document> update = buildMergedUpdate(dailyKey(fullDocument), merge);
+        getTargetCollection().updateOne(update.getFilter(), update.getUpdatePipeline(), update.getOptions());
+
+        if (LOGGER.isInfoEnabled() && EventLogSampler.sample()) {
+            LOGGER.info("Processed update for playerID: {} and transactionID: {}",
+                fullDocument.getInteger("playerID"), fullDocument.getInteger("transactionID"));
+        }
+        return 0;
+    }
 
-        int playerID = fullDocument.getInteger("playerID");
-        int transactionID = fullDocument.getInteger("transactionID");
-        double value = fullDocument.getDouble("value");
-        Date date = fullDocument.getDate("date");
-        String name = fullDocument.getString("name");
+    /**
+     * One merged update per (playerID, gamingDate) in the batch, so a burst for one player rewrites its daily
+     * document once.
+     */
+    @Override
+    protected List<WriteModel<Document>> buildBatchWrites(List<ChangeStreamDocument<Document>> events) {
+        Map<DailyKey, DailyMerge> merges = new LinkedHashMap<>();
+        for (ChangeStreamDocument<Document> event : events) {
+            Document fullDocument = event.getFullDocument();
+            if (!isValid(fullDocument)) {
+                continue;
+            }
+            merges.computeIfAbsent(dailyKey(fullDocument), k -> new DailyMerge(fullDocument.getString("name")))
+                    .add(toTxn(fullDocument));
+        }
+        List<WriteModel<Document>> writes = new ArrayList<>(merges.size());
+        merges.forEach((key, merge) -> writes.add(buildMergedUpdate(key, merge)));
+        return writes;
+    }
+
+    @Override
+    protected boolean isBatchWritable(ChangeStreamDocument<Document> event) {
+        return hasRequiredFields(event.getFullDocument());
+    }
+
+    private boolean isValid(Document fullDocument) {
+        if (!hasRequiredFields(fullDocument)) {
+            LOGGER.error("Invalid document: Missing required fields, doc {}", fullDocument);
+            return false;
+        }
+        return true;
+    }
 
+    private static boolean hasRequiredFields(Document fullDocument) {
+        return fullDocument != null && fullDocument.containsKey("playerID") &&
+            fullDocument.containsKey("transactionID") && fullDocument.containsKey("value") &&
+            fullDocument.containsKey("name") && fullDocument.containsKey("date");
+    }
+
+    private DailyKey dailyKey(Document fullDocument) {
         // Convert the date to midnight UTC
         Calendar calendar = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
-        calendar.setTime(date);
+        calendar.setTime(fullDocument.getDate("date"));
         calendar.set(Calendar.HOUR_OF_DAY, 0);
         calendar.set(Calendar.MINUTE, 0);
         calendar.set(Calendar.SECOND, 0);
         calendar.set(Calendar.MILLISECOND, 0);
-        Date gamingDate = calendar.getTime();
-
-        LOGGER.info("Processing event for playerID: {}, gamingDate: {}", playerID, gamingDate);
-
-        Document filter = new Document("playerID", playerID).append("gamingDate", gamingDate);
-        Document newTransaction = new Document("transactionID", transactionID)
-                .append("value", value)
-                .append("date", date);
-
-        Document updateTxns = new Document("$let", new Document("vars", 
-            new Document("existingTxn", new Document("$first", new Document("$filter", 
-                new Document("input", "$txns").append("cond", 
-                new Document("$eq", List.of("$$this.transactionID", transactionID)))))))
-            .append("in", new Document("$cond", new Document("if", 
-                new Document("$not", List.of("$$existingTxn")))
-                .append("then", new Document("$concatArrays", List.of(
-                    new Document("$ifNull", List.of("$txns", List.of())), List.of(newTransaction))))
-                .append("else", new Document("$map", new Document("input", "$txns")
-                    .append("as", "txn")
-                    .append("in", new Document("$cond", new Document("if", 
-                        new Document("$eq", List.of("$$txn.transactionID", transactionID)))
-                        .append("then", newTransaction)
-                        .append("else", "$$txn"))))))));
+        return new DailyKey(fullDocument.getInteger("playerID"), calendar.getTime());
+    }
+
+    private Document toTxn(Document fullDocument) {
+        return new Document("transactionID", fullDocument.getInteger("transactionID"))
+                .append("value", fullDocument.getDouble("value"))
+                .append("date", fullDocument.getDate("date"));
+    }
+
+    /**
+     * Builds the upsert merging a set of transactions into one daily document. Only the `$literal` list of
+     * incoming transactions varies per update; the merge expression is the shared {@link #MERGE_TXNS}.
+     */
+    private UpdateOneModel<Document> buildMergedUpdate(DailyKey key, DailyMerge merge) {
+        LOGGER.debug("Merging {} transactions for playerID: {}, gamingDate: {}",
+            merge.txns.size(), key.playerID(), key.gamingDate());
+
+        Document filter = new Document("playerID", key.playerID()).append("gamingDate", key.gamingDate());
+        Document updateTxns = new Document("$let", new Document("vars",
+                new Document("incoming", new Document("$literal", new ArrayList<>(merge.txns.values()))))
+            .append("in", MERGE_TXNS));
 
         Document setOperation = new Document("$set", new Document()
-            .append("playerID", playerID)
-            .append("gamingDate", gamingDate)
-            .append("name", new Document("$ifNull", List.of("$name", name)))
+            .append("playerID", key.playerID())
+            .append("gamingDate", key.gamingDate())
+            .append("name", new Document("$ifNull", List.of("$name", merge.name)))
             .append("txns", updateTxns)
             .append("lastModified", new Date()));
 
-        List<Document> updatePipeline = List.of(setOperation);
-        UpdateOptions options = new UpdateOptions().upsert(true);
-        
-        collection.updateOne(filter, updatePipeline, options);
-
-        LOGGER.info("Processed update for playerID: {} and transactionID: {}", playerID, transactionID);
-        return 0;
+        return new UpdateOneModel<>(filter, List.of(setOperation), UPSERT);
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,117 @@
+package com.example.demo;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mock;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import org.mockito.MockitoAnnotations;
+
+import com.example.demo.metrics.PrometheusMetricsConfig;
+import com.example.demo.service.AdaptiveConcurrencyLimiter;
+
+import io.prometheus.client.Gauge;
+
+class AdaptiveConcurrencyLimiterTest {
+
+    private static final long MILLIS = 1_000_000L;
+
+    @Mock
+    private PrometheusMetricsConfig metricsConfig;
+
+    private AdaptiveConcurrencyLimiter limiter;
+
+    @BeforeEach
+    void setUp() {
+        MockitoAnnotations.openMocks(this);
+        when(metricsConfig.getConcurrencyLimit()).thenReturn(mock(Gauge.Child.class));
+        limiter = new AdaptiveConcurrencyLimiter("testCollection", 1, 4, 2, 1, 2.0, 0.5, 1000, metricsConfig);
+    }
+
+    /** Completes one task; with {@code saturate}, another acquire is left waiting for a permit first. */
+    private void complete(long latencyNanos, boolean saturate) throws InterruptedException {
+        int held = saturate ? limiter.getLimit() : 1;
+        for (int i = 0; i < held; i++) {
+            limiter.acquire();
+        }
+        Thread waiter = null;
+        if (saturate) {
+            waiter = new Thread(() -> {
+                try {
+                    limiter.acquire();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            waiter.start();
+            while (waiter.getState() != Thread.State.WAITING) {
+                Thread.sleep(1);
+            }
+        }
+        // With a window of one, this release adjusts the limit
+        limiter.release(latencyNanos, true);
+        if (waiter != null) {
+            waiter.join();
+            held++;
+        }
+        drain(held - 1);
+    }
+
+    private void drain(int permits) {
+        // Returning leftover permits must not move the limit, so they report the baseline latency
+        for (int i = 0; i < permits; i++) {
+            limiter.release(10 * MILLIS, true);
+        }
+    }
+
+    @Test
+    void testGrowsOnlyWhenSaturatedAndLagging() throws InterruptedException {
+        limiter.observeLag(10);
+        complete(10 * MILLIS, true);
+        assertEquals(2, limiter.getLimit());
+
+        limiter.observeLag(60_000);
+        complete(10 * MILLIS, false);
+        assertEquals(2, limiter.getLimit());
+
+        complete(10 * MILLIS, true);
+        assertEquals(3, limiter.getLimit());
+    }
+
+    @Test
+    void testBacksOffOnLatencyAndFailuresWithinBounds() throws InterruptedException {
+        complete(10 * MILLIS, false);
+        complete(100 * MILLIS, false);
+        assertEquals(1, limiter.getLimit());
+
+        limiter.acquire();
+        limiter.release(10 * MILLIS, false);
+        assertEquals(1, limiter.getLimit());
+    }
+
+    @Test
+    void testAcquireBlocksAtLimit() throws InterruptedException {
+        limiter.acquire();
+        limiter.acquire();
+        CountDownLatch acquired = new CountDownLatch(1);
+        Thread waiter = new Thread(() -> {
+            try {
+                limiter.acquire();
+                acquired.countDown();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        waiter.start();
+
+        assertFalse(acquired.await(100, TimeUnit.MILLISECONDS));
+        limiter.release(MILLIS, true);
+        assertTrue(acquired.await(1, TimeUnit.SECONDS));
+    }
+}
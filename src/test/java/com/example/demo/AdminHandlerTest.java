@@ -0,0 +1,113 @@
+package com.example.demo;
+
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.Set;
+
+import org.bson.BsonDocument;
+import org.bson.BsonString;
+import org.bson.Document;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.example.demo.service.EventProcessingMediator;
+import com.example.demo.service.ListenerControl;
+import com.sun.net.httpserver.HttpServer;
+
+class AdminHandlerTest {
+
+    private final EventProcessingMediator mediator = mock(EventProcessingMediator.class);
+    private final HttpClient client = HttpClient.newHttpClient();
+    private HttpServer server;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        when(mediator.getCollectionNames()).thenReturn(Set.of("Points"));
+        when(mediator.getControlStatus("Points")).thenReturn(new Document("collection", "Points").append("workers", 4));
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/admin", new AdminHandler(mediator));
+        server.start();
+    }
+
+    @AfterEach
+    void tearDown() {
+        server.stop(0);
+    }
+
+    private HttpResponse<String> send(String method, String path) throws Exception {
+        URI uri = URI.create("http://localhost:" + server.getAddress().getPort() + path);
+        HttpRequest request = HttpRequest.newBuilder(uri).method(method, HttpRequest.BodyPublishers.noBody()).build();
+        return client.send(request, HttpResponse.BodyHandlers.ofString());
+    }
+
+    @Test
+    void testOperationsReachTheMediator() throws Exception {
+        HttpResponse<String> resized = send("POST", "/admin/Points/resize?workers=2");
+        assertEquals(200, resized.statusCode());
+        assertTrue(resized.body().contains("\"workers\": 4"));
+        verify(mediator).resize("Points", 2);
+
+        assertEquals(200, send("POST", "/admin/Points/pause").statusCode());
+        verify(mediator).pause("Points");
+        assertEquals(200, send("POST", "/admin/Points/resume").statusCode());
+        verify(mediator).resume("Points");
+
+        assertEquals(200, send("POST", "/admin/Points/seek?token=%7B%22_data%22%3A%220A%22%7D").statusCode());
+        verify(mediator).seek("Points", new ListenerControl.Position(new BsonDocument("_data", new BsonString("0A")), null));
+
+        HttpResponse<String> all = send("GET", "/admin");
+        assertEquals(200, all.statusCode());
+        assertTrue(all.body().contains("\"collection\": \"Points\""));
+    }
+
+    @Test
+    void testBadRequestsAreRejected() throws Exception {
+        assertEquals(404, send("POST", "/admin/missing/pause").statusCode());
+        assertEquals(404, send("POST", "/admin/Points/restart").statusCode());
+        assertEquals(405, send("GET", "/admin/Points/pause").statusCode());
+        assertEquals(400, send("POST", "/admin/Points/resize?workers=many").statusCode());
+        assertEquals(400, send("POST", "/admin/Points/seek").statusCode());
+        verify(mediator, never()).resize(eq("Points"), anyInt());
+
+        doThrow(new IllegalStateException("fenced")).when(mediator).resize("Points", 3);
+        HttpResponse<String> conflict = send("POST", "/admin/Points/resize?workers=3");
+        assertEquals(409, conflict.statusCode());
+        assertTrue(conflict.body().contains("fenced"));
+    }
+
+    @Test
+    void testTokenIsRequiredWhenConfigured() throws Exception {
+        HttpServer secured = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        secured.createContext("/admin", new AdminHandler(mediator, "s3cret"));
+        secured.start();
+        try {
+            URI uri = URI.create("http://localhost:" + secured.getAddress().getPort() + "/admin/Points/pause");
+            HttpRequest anonymous = HttpRequest.newBuilder(uri).POST(HttpRequest.BodyPublishers.noBody()).build();
+            HttpRequest wrong = HttpRequest.newBuilder(uri).header("Authorization", "Bearer guess")
+                    .POST(HttpRequest.BodyPublishers.noBody()).build();
+            assertEquals(401, client.send(anonymous, HttpResponse.BodyHandlers.ofString()).statusCode());
+            assertEquals(401, client.send(wrong, HttpResponse.BodyHandlers.ofString()).statusCode());
+            verify(mediator, never()).pause("Points");
+
+            HttpRequest authorized = HttpRequest.newBuilder(uri).header("Authorization", "Bearer s3cret")
+                    .POST(HttpRequest.BodyPublishers.noBody()).build();
+            assertEquals(200, client.send(authorized, HttpResponse.BodyHandlers.ofString()).statusCode());
+            verify(mediator).pause("Points");
+        } finally {
+            secured.stop(0);
+        }
+    }
+}
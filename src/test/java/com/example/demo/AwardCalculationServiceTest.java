@@ -8,6 +8,7 @@ import org.bson.Document;
 import org.bson.conversions.Bson;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -16,6 +17,8 @@ import static org.mockito.ArgumentMatchers.anyString;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import org.mockito.MockitoAnnotations;
 
@@ -271,6 +274,59 @@ class AwardCalculationServiceTest {
         assertEquals(4, result.getInteger("award_prize_type"));
     }
 
+    @Test
+    void testCalculateAwardsLoadsEachLookupOnceForTheSet() {
+        // Two awards for the same player; numeric keys stored with a different width than the award fields
+        Document award1 = new Document("TrainId", "TR1").append("TranId", "T1").append("PrizeId", 100)
+                .append("PlayerID", 777777777).append("TranCodeID", 4).append("Doc", "P");
+        Document award2 = new Document("TrainId", "TR2").append("TranId", "T2").append("PrizeId", 100)
+                .append("PlayerID", 777777777).append("TranCodeID", 1).append("RID", "PID2");
+
+        mockIterable(tPlayerStubCollection, new Document("TrainId", "TR1"), new Document("TrainId", "TR2"));
+        mockIterable(tPlayerPromoCollection, new Document("TrainId", "TR2"));
+        mockIterable(tPlayerPointsCollection, new Document("TranId", "T1").append("Pts", 5),
+                new Document("TranId", "T1").append("Pts", 7));
+        mockIterable(tPrizeCollection, new Document("PrizeId", 100L).append("PrizeCode", "ABC"));
+        mockIterable(tPrizeLocnMappingCollection, new Document("PrizeId", 100L).append("CasinoId", 1));
+        mockIterable(memberProfileCollection, new Document("player_id", 777777777L).append("member_no", "888"));
+        FindIterable<Document> hubIterable = iterableOf(new Document("PlayerID", 777777777).append("RID", "R1"));
+        FindIterable<Document> ridIterable = iterableOf(new Document("RID", "R1").append("PID", "PID1"),
+                new Document("RID", "R1").append("PID", "PID2"));
+        when(tHUBPromotionRuleOutComeCollection.find(any(Bson.class))).thenReturn(hubIterable, ridIterable);
+
+        List<Document> results = awardCalculationService.calculateAwards(List.of(award1, award2));
+
+        assertEquals(2, results.size());
+        assertEquals(2, results.get(0).getList("player_points", Document.class).size());
+        assertEquals(3, results.get(0).getInteger("award_prize_type"));
+        assertEquals(4, results.get(1).getInteger("award_prize_type"));
+        assertEquals("ABC", results.get(1).get("prize", Document.class).getString("prize_code"));
+        assertEquals("888", results.get(1).getString("member_no"));
+        assertTrue(results.get(1).get("player_promo1", Document.class).containsKey("train_id"));
+        assertNull(results.get(0).get("player_promo1"));
+        verify(memberProfileCollection, times(1)).find(any(Bson.class));
+        verify(tHUBPromotionRuleOutComeCollection, times(2)).find(any(Bson.class));
+    }
+
+    private void mockIterable(MongoCollection<Document> collection, Document... docs) {
+        FindIterable<Document> iterable = iterableOf(docs);
+        when(collection.find(any(Bson.class))).thenReturn(iterable);
+    }
+
+    private FindIterable<Document> iterableOf(Document... docs) {
+        FindIterable<Document> iterable = mock(FindIterable.class);
+        MongoCursor<Document> cursor = mock(MongoCursor.class);
+        when(iterable.iterator()).thenReturn(cursor);
+        Boolean[] more = new Boolean[docs.length];
+        Arrays.fill(more, true);
+        more[docs.length - 1] = false;
+        when(cursor.hasNext()).thenReturn(docs.length > 0, more);
+        if (docs.length > 0) {
+            when(cursor.next()).thenReturn(docs[0], Arrays.copyOfRange(docs, 1, docs.length));
+        }
+        return iterable;
+    }
+
     private void mockCollection(MongoCollection<Document> collection, String field, Object value, boolean isList) {
         if (isList) {
             List<Document> docs = Arrays.asList(new Document(field, value));
@@ -69,17 +69,11 @@ class BusinessTaskTest {
         businessTask.setCollection(collection);
 
         // Mock Prometheus Metrics
-        Gauge mockGauge = mock(Gauge.class);
-        when(metricsConfig.getEventLagPerThread()).thenReturn(mockGauge);
-        when(mockGauge.labels(anyString())).thenReturn(mock(Gauge.Child.class));
+        when(metricsConfig.getWorkerEventLag()).thenReturn(mock(Gauge.Child.class));
+        when(metricsConfig.getWorkerTps()).thenReturn(mock(Gauge.Child.class));
 
-        Gauge tpsGauge = mock(Gauge.class);
-        when(metricsConfig.getTpsPerThread()).thenReturn(tpsGauge);
-        when(tpsGauge.labels(anyString())).thenReturn(mock(Gauge.Child.class));
-
-        Histogram mockHistogram = mock(Histogram.class);
-        when(metricsConfig.getEventProcessDuration()).thenReturn(mockHistogram);
-        when(metricsConfig.getP99ProcessingTime()).thenReturn(mockHistogram); // Fix: Ensure this is not null
+        Histogram.Child mockHistogram = mock(Histogram.Child.class);
+        when(metricsConfig.getStageDuration(anyString())).thenReturn(mockHistogram);
 
         doNothing().when(mockHistogram).observe(anyDouble());
     }
@@ -0,0 +1,68 @@
+package com.example.demo;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import static org.mockito.ArgumentMatchers.anyString;
+import org.mockito.Mock;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import org.mockito.MockitoAnnotations;
+
+import com.example.demo.metrics.PrometheusMetricsConfig;
+import com.example.demo.service.CatchUpController;
+
+import io.prometheus.client.Counter;
+import io.prometheus.client.Gauge;
+
+class CatchUpControllerTest {
+
+    @Mock
+    private PrometheusMetricsConfig metricsConfig;
+
+    private CatchUpController controller;
+
+    @BeforeEach
+    void setUp() {
+        MockitoAnnotations.openMocks(this);
+        when(metricsConfig.getCatchUpMode()).thenReturn(mock(Gauge.Child.class));
+        when(metricsConfig.getCatchUpRate()).thenReturn(mock(Gauge.Child.class));
+        when(metricsConfig.getCatchUpEvents()).thenReturn(mock(Counter.Child.class));
+        when(metricsConfig.getModeTransitions(anyString())).thenReturn(mock(Counter.Child.class));
+
+        controller = new CatchUpController("testCollection", true, 60_000, 5_000, 2000, 100, 3, metricsConfig);
+    }
+
+    @Test
+    void testSwitchesWithHysteresis() {
+        assertFalse(controller.observeLag(30_000));
+        assertEquals(0, controller.cursorBatchSize());
+
+        assertTrue(controller.observeLag(120_000));
+        assertTrue(controller.isCatchingUp());
+        assertEquals(2000, controller.cursorBatchSize());
+
+        // Between the thresholds nothing changes
+        assertFalse(controller.observeLag(30_000));
+        assertTrue(controller.isCatchingUp());
+
+        assertTrue(controller.observeLag(1_000));
+        assertFalse(controller.isCatchingUp());
+    }
+
+    @Test
+    void testDisabledNeverSwitches() {
+        CatchUpController disabled = new CatchUpController("testCollection", false, 60_000, 5_000, 2000, 100, 3, metricsConfig);
+        assertFalse(disabled.observeLag(Long.MAX_VALUE));
+        assertFalse(disabled.isCatchingUp());
+    }
+
+    @Test
+    void testSparseCheckpoints() {
+        assertFalse(controller.shouldCheckpointBatch());
+        assertFalse(controller.shouldCheckpointBatch());
+        assertTrue(controller.shouldCheckpointBatch());
+    }
+}
@@ -0,0 +1,58 @@
+package com.example.demo;
+
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.Test;
+
+import com.example.demo.metrics.ChangeStreamEvents;
+
+import jdk.jfr.Configuration;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+class ChangeStreamEventsTest {
+
+    @Test
+    void testWorkIsUnwrappedWithoutARecording() {
+        BooleanSupplier work = () -> true;
+
+        assertSame(work, ChangeStreamEvents.processed("jfrTest", "update", 1, work));
+    }
+
+    @Test
+    void testProfileRecordsProcessedEvents() throws Exception {
+        Configuration profile;
+        try (Reader reader = new InputStreamReader(
+                getClass().getClassLoader().getResourceAsStream("changestream.jfc"), StandardCharsets.UTF_8)) {
+            profile = Configuration.create(reader);
+        }
+        Path dump = Files.createTempFile("changestream", ".jfr");
+        try (Recording recording = new Recording(profile)) {
+            recording.start();
+            assertTrue(ChangeStreamEvents.processed("jfrTest", "update", 1, () -> true).getAsBoolean());
+            recording.stop();
+            recording.dump(dump);
+
+            List<RecordedEvent> processed = RecordingFile.readAllEvents(dump).stream()
+                    .filter(event -> event.getEventType().getName().equals("changestream.Processed"))
+                    // Recordings are JVM-wide, so pipelines left by other tests may show up too
+                    .filter(event -> "jfrTest".equals(event.getString("collection")))
+                    .toList();
+            assertEquals(1, processed.size());
+            assertEquals("update", processed.get(0).getString("operationType"));
+            assertTrue(processed.get(0).getBoolean("succeeded"));
+        } finally {
+            Files.deleteIfExists(dump);
+        }
+    }
+}
@@ -0,0 +1,259 @@
+package com.example.demo;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.bson.BsonDocument;
+import org.bson.BsonDocumentReader;
+import org.bson.BsonInt32;
+import org.bson.BsonString;
+import org.bson.BsonTimestamp;
+import org.bson.Document;
+import org.bson.codecs.DecoderContext;
+import org.bson.conversions.Bson;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import org.mockito.Mock;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import org.mockito.MockitoAnnotations;
+
+import com.example.demo.metrics.PrometheusMetricsConfig;
+import com.example.demo.metrics.TpsCalculator;
+import com.example.demo.service.BusinessTask;
+import com.example.demo.service.DeadLetterService;
+import com.example.demo.service.ResumeTokenService;
+import com.mongodb.MongoClientSettings;
+import com.mongodb.client.DistinctIterable;
+import com.mongodb.client.FindIterable;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.changestream.ChangeStreamDocument;
+import com.mongodb.client.result.UpdateResult;
+
+class DeadLetterServiceTest {
+
+    @Mock private MongoDatabase mongoDatabase;
+    @Mock private MongoCollection<Document> deadLetters;
+    @Mock private ResumeTokenService resumeTokenService;
+
+    private final AtomicInteger processed = new AtomicInteger();
+    // Cluster time increments of the events processed, in order
+    private final List<Integer> processedTimes = Collections.synchronizedList(new ArrayList<>());
+    private volatile boolean failing = true;
+    private BusinessTask task;
+    private DeadLetterService service;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        MockitoAnnotations.openMocks(this);
+        when(mongoDatabase.getCollection("dead_letters")).thenReturn(deadLetters);
+        DistinctIterable<BsonDocument> pendingKeys = mock(DistinctIterable.class);
+        when(deadLetters.distinct(anyString(), any(Bson.class), eq(BsonDocument.class))).thenReturn(pendingKeys);
+        when(pendingKeys.into(any())).thenAnswer(invocation -> invocation.getArgument(0));
+        when(deadLetters.updateMany(any(Bson.class), any(Bson.class))).thenReturn(UpdateResult.acknowledged(1, 1L, null));
+        task = new BusinessTask(resumeTokenService, mock(TpsCalculator.class),
+                PrometheusMetricsConfig.getInstance("dlqTest"), "dlqTest", mock(MongoClient.class)) {
+            @Override
+            protected int processChange(ChangeStreamDocument<Document> event) {
+                processed.incrementAndGet();
+                processedTimes.add(event.getClusterTime().getInc());
+                if (failing) throw new IllegalStateException("poison");
+                return 0;
+            }
+        };
+        service = new DeadLetterService(mongoDatabase, "dead_letters", 100, 2, 60_000, 3, 0);
+        service.start(Map.of("dlqTest", task));
+    }
+
+    @AfterEach
+    void tearDown() {
+        service.close();
+    }
+
+    private static ChangeStreamDocument<Document> event(int id) {
+        return event(id, id);
+    }
+
+    /** Event of document {@code id} at cluster time increment {@code time}. */
+    private static ChangeStreamDocument<Document> event(int id, int time) {
+        BsonDocument raw = new BsonDocument("_id", new BsonDocument("_data", new BsonString("8200000001" + time)))
+                .append("operationType", new BsonString("insert"))
+                .append("clusterTime", new BsonTimestamp(1, time))
+                .append("documentKey", new BsonDocument("_id", new BsonInt32(id)))
+                .append("fullDocument", new BsonDocument("_id", new BsonInt32(id)));
+        return ChangeStreamDocument.createCodec(Document.class, MongoClientSettings.getDefaultCodecRegistry())
+                .decode(new BsonDocumentReader(raw), DecoderContext.builder().build());
+    }
+
+    private boolean process(ChangeStreamDocument<Document> event) {
+        return service.process(task, "T0", event, () -> task.startProcessing("T0", event));
+    }
+
+    @Test
+    void testFailuresAreDeadLetteredAndTripTheBreaker() {
+        ChangeStreamDocument<Document> event = event(7);
+
+        assertFalse(process(event));
+        assertFalse(process(event));
+        assertEquals(2, processed.get());
+
+        // Breaker is open: the third event for the key is dead-lettered without running
+        assertFalse(process(event));
+        assertEquals(2, processed.get());
+
+        ArgumentCaptor<Document> entries = ArgumentCaptor.forClass(Document.class);
+        verify(deadLetters, times(3)).insertOne(entries.capture());
+        assertEquals("error", entries.getAllValues().get(0).getString("reason"));
+        assertEquals("circuit-open", entries.getAllValues().get(2).getString("reason"));
+        // Checkpoints are left to the caller, which moves past dead-lettered events
+        verify(resumeTokenService, never()).saveResumeToken(any(), any(), anyString(), anyString());
+
+        // Other keys are unaffected
+        failing = false;
+        assertTrue(process(event(8)));
+    }
+
+    @Test
+    void testBreakerOfKeyThatStoppedFailingExpires() throws InterruptedException {
+        DeadLetterService expiring = new DeadLetterService(mongoDatabase, "dead_letters", 100, 2, 20, 3, 0);
+        expiring.start(Map.of("dlqTest", task));
+        ChangeStreamDocument<Document> event = event(10);
+        try {
+            assertFalse(expiring.process(task, "T0", event, () -> task.startProcessing("T0", event)));
+            Thread.sleep(200);
+
+            // The first failure expired with its breaker, so this one does not open the circuit
+            assertFalse(expiring.process(task, "T0", event, () -> task.startProcessing("T0", event)));
+            assertFalse(expiring.process(task, "T0", event, () -> task.startProcessing("T0", event)));
+            assertEquals(3, processed.get());
+        } finally {
+            expiring.close();
+        }
+    }
+
+    @Test
+    void testEventOverBudgetIsInterrupted() {
+        ChangeStreamDocument<Document> event = event(9);
+        boolean done = service.process(task, "T0", event, () -> {
+            try {
+                Thread.sleep(5_000);
+            } catch (InterruptedException e) {
+                throw new IllegalStateException("interrupted", e);
+            }
+        });
+
+        assertFalse(done);
+        assertFalse(Thread.currentThread().isInterrupted());
+        ArgumentCaptor<Document> entry = ArgumentCaptor.forClass(Document.class);
+        verify(deadLetters).insertOne(entry.capture());
+        assertEquals("timeout", entry.getValue().getString("reason"));
+    }
+
+    @Test
+    void testWorkThatIgnoresTheInterruptAndFinishesIsNotDeadLettered() {
+        ChangeStreamDocument<Document> event = event(14);
+        boolean done = service.process(task, "T0", event, () -> {
+            long until = System.nanoTime() + 300_000_000L;
+            while (System.nanoTime() < until) {
+                Thread.onSpinWait();
+            }
+        });
+
+        assertTrue(done);
+        assertFalse(Thread.currentThread().isInterrupted());
+        verify(deadLetters, never()).insertOne(any(Document.class));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void testDueRetryReplaysStoredEvent() {
+        process(event(11));
+        ArgumentCaptor<Document> entry = ArgumentCaptor.forClass(Document.class);
+        verify(deadLetters).insertOne(entry.capture());
+        // The stored event is read back as a plain document
+        Document stored = Document.parse(entry.getValue().toJson());
+
+        FindIterable<Document> due = mock(FindIterable.class);
+        when(deadLetters.find(any(Bson.class))).thenReturn(due);
+        when(due.sort(any())).thenReturn(due);
+        when(due.limit(100)).thenReturn(due);
+        when(due.into(any())).thenReturn(new ArrayList<>(List.of(stored)));
+        // Still pending when its retry comes
+        when(due.first()).thenReturn(stored);
+        failing = false;
+
+        service.retryDue();
+
+        assertEquals(2, processed.get());
+        verify(deadLetters).deleteOne(any(Bson.class));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void testProcessedNewerEventSupersedesOlderDeadLetter() {
+        process(event(12, 1));
+        ArgumentCaptor<Document> entry = ArgumentCaptor.forClass(Document.class);
+        verify(deadLetters).insertOne(entry.capture());
+        Document stored = Document.parse(entry.getValue().toJson());
+
+        failing = false;
+        assertTrue(process(event(12, 2)));
+        ArgumentCaptor<Bson> update = ArgumentCaptor.forClass(Bson.class);
+        verify(deadLetters).updateMany(any(Bson.class), update.capture());
+        assertTrue(update.getValue().toBsonDocument().toJson().contains(DeadLetterService.STATUS_SUPERSEDED));
+
+        // The retry pass finds the entry no longer pending and leaves the newer result alone
+        FindIterable<Document> due = mock(FindIterable.class);
+        when(deadLetters.find(any(Bson.class))).thenReturn(due);
+        when(due.sort(any())).thenReturn(due);
+        when(due.limit(100)).thenReturn(due);
+        when(due.into(any())).thenReturn(new ArrayList<>(List.of(stored)));
+        service.retryDue();
+
+        assertEquals(List.of(1, 2), processedTimes);
+        verify(deadLetters, never()).deleteOne(any(Bson.class));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void testRetriesOfOneKeyRunInStreamOrder() {
+        process(event(13, 5));
+        process(event(13, 4));
+        ArgumentCaptor<Document> entries = ArgumentCaptor.forClass(Document.class);
+        verify(deadLetters, times(2)).insertOne(entries.capture());
+        List<Document> stored = new ArrayList<>();
+        entries.getAllValues().forEach(entry -> stored.add(Document.parse(entry.toJson())));
+        processedTimes.clear();
+
+        // Due in retry-time order, which is not stream order
+        FindIterable<Document> due = mock(FindIterable.class);
+        when(deadLetters.find(any(Bson.class))).thenReturn(due);
+        when(due.sort(any())).thenReturn(due);
+        when(due.limit(100)).thenReturn(due);
+        when(due.into(any())).thenReturn(new ArrayList<>(stored));
+        when(due.first()).thenReturn(stored.get(0));
+        failing = false;
+
+        service.retryDue();
+
+        assertEquals(List.of(4, 5), processedTimes);
+        verify(deadLetters, times(2)).deleteOne(any(Bson.class));
+    }
+}
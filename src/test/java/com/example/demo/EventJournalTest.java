@@ -0,0 +1,138 @@
+package com.example.demo;
+
+import java.io.RandomAccessFile;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.bson.BsonDocument;
+import org.bson.BsonInt32;
+import org.bson.BsonString;
+import org.bson.BsonTimestamp;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.BsonDocumentCodec;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.example.demo.service.EventJournal;
+
+class EventJournalTest {
+
+    @TempDir
+    Path tempDir;
+
+    private static RawBsonDocument event(int seconds, int increment) {
+        return event(seconds, increment, seconds + ":" + increment);
+    }
+
+    private static RawBsonDocument event(int seconds, int increment, String tokenData) {
+        BsonDocument event = new BsonDocument("_id", new BsonDocument("_data", new BsonString(tokenData)))
+                .append("operationType", new BsonString("insert"))
+                .append("clusterTime", new BsonTimestamp(seconds, increment))
+                .append("fullDocument", new BsonDocument("_id", new BsonInt32(increment)));
+        return new RawBsonDocument(event, new BsonDocumentCodec());
+    }
+
+    private static List<Long> readClusterTimes(Path directory, long from) throws Exception {
+        List<Long> clusterTimes = new ArrayList<>();
+        try (EventJournal.Reader reader = EventJournal.read(directory, from)) {
+            while (reader.hasNext()) {
+                EventJournal.Entry entry = reader.next();
+                assertEquals(entry.clusterTime(), entry.event().getTimestamp("clusterTime").getValue());
+                clusterTimes.add(entry.clusterTime());
+            }
+        }
+        return clusterTimes;
+    }
+
+    @Test
+    void testEventsRollOverSegmentsAndReadBackInOrder() throws Exception {
+        Path directory = tempDir.resolve("tAwards");
+        // Small segments hold two events each
+        EventJournal journal = new EventJournal(directory, 300);
+        List<Long> written = new ArrayList<>();
+        for (int i = 1; i <= 7; i++) {
+            RawBsonDocument event = event(1000 + i / 3, i);
+            assertTrue(journal.append(event));
+            written.add(event.getTimestamp("clusterTime").getValue());
+        }
+        journal.close();
+
+        assertTrue(EventJournal.segments(directory).size() > 1);
+        assertEquals(written, readClusterTimes(directory, 0));
+        // Reading from a cluster time starts at the first event at or after it
+        assertEquals(written.subList(4, 7), readClusterTimes(directory, written.get(4)));
+    }
+
+    @Test
+    void testReopenedJournalSkipsAlreadyRecordedEvents() throws Exception {
+        Path directory = tempDir.resolve("tAwards");
+        EventJournal journal = new EventJournal(directory, 4096);
+        journal.append(event(100, 1));
+        journal.append(event(100, 2));
+        journal.close();
+
+        // A listener resuming from an older checkpoint sees the tail again
+        EventJournal reopened = new EventJournal(directory, 4096);
+        assertEquals(new BsonTimestamp(100, 2).getValue(), reopened.getLastClusterTime());
+        assertFalse(reopened.append(event(100, 2)));
+        assertTrue(reopened.append(event(101, 1)));
+        reopened.close();
+
+        assertEquals(List.of(new BsonTimestamp(100, 1).getValue(), new BsonTimestamp(100, 2).getValue(),
+                new BsonTimestamp(101, 1).getValue()), readClusterTimes(directory, 0));
+    }
+
+    @Test
+    void testTornRecordEndsTheSegment() throws Exception {
+        Path directory = tempDir.resolve("tAwards");
+        EventJournal journal = new EventJournal(directory, 4096);
+        journal.append(event(100, 1));
+        journal.append(event(100, 2));
+        journal.close();
+
+        // Flip a byte in the second record's event
+        Path segment = EventJournal.segments(directory).get(0);
+        try (RandomAccessFile file = new RandomAccessFile(segment.toFile(), "rw")) {
+            long offset = file.length() - 5;
+            file.seek(offset);
+            int value = file.read();
+            file.seek(offset);
+            file.write(value ^ 0xFF);
+        }
+
+        assertEquals(List.of(new BsonTimestamp(100, 1).getValue()), readClusterTimes(directory, 0));
+    }
+
+    @Test
+    void testEventsOfOneTransactionShareAClusterTime() throws Exception {
+        Path directory = tempDir.resolve("tAwards");
+        long clusterTime = new BsonTimestamp(100, 1).getValue();
+        // Small segments: the transaction spans several, all starting at the same cluster time
+        EventJournal journal = new EventJournal(directory, 300);
+        for (int i = 0; i < 3; i++) {
+            assertTrue(journal.append(event(100, 1, "8200000064000000012B04" + i)));
+        }
+        journal.close();
+        assertTrue(EventJournal.segments(directory).size() > 1);
+
+        // Resuming inside the transaction records only the events after the journal's tail
+        EventJournal reopened = new EventJournal(directory, 300);
+        assertFalse(reopened.append(event(100, 1, "8200000064000000012B041")));
+        assertFalse(reopened.append(event(100, 1, "8200000064000000012B042")));
+        assertTrue(reopened.append(event(100, 1, "8200000064000000012B043")));
+        reopened.close();
+
+        assertEquals(List.of(clusterTime, clusterTime, clusterTime, clusterTime), readClusterTimes(directory, 0));
+        assertEquals(4, readClusterTimes(directory, clusterTime).size());
+        List<String> tokens = new ArrayList<>();
+        try (EventJournal.Reader reader = EventJournal.read(directory, 0)) {
+            reader.forEachRemaining(entry -> tokens.add(entry.event().getDocument("_id").getString("_data").getValue()));
+        }
+        assertEquals(List.of("8200000064000000012B040", "8200000064000000012B041", "8200000064000000012B042",
+                "8200000064000000012B043"), tokens);
+    }
+}
@@ -0,0 +1,368 @@
+package com.example.demo;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.bson.BsonDocument;
+import org.bson.BsonString;
+import org.bson.BsonTimestamp;
+import org.bson.Document;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.boot.context.properties.source.MapConfigurationPropertySource;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.example.demo.config.ChangeStreamProperties;
+import com.example.demo.config.ThreadPoolProperties;
+import com.example.demo.metrics.PrometheusMetricsConfig;
+import com.example.demo.metrics.TpsCalculator;
+import com.example.demo.service.BusinessTask;
+import com.example.demo.service.EventProcessingMediator;
+import com.example.demo.service.LagTracker;
+import com.example.demo.service.ListenerControl;
+import com.example.demo.service.MongoCheckpointStore;
+import com.example.demo.service.ResumeTokenService;
+import com.example.demo.service.StreamEvent;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.changestream.ChangeStreamDocument;
+
+class EventProcessingMediatorTest {
+    private static final String COLLECTION = "drainTest";
+
+    @TempDir
+    Path tempDir;
+
+    private final AtomicLong processed = new AtomicLong();
+    // Lowest synthetic sequence processed, workers finish out of order
+    private final AtomicLong firstSequence = new AtomicLong();
+    // Synthetic sequence whose processing throws, -1 for none
+    private volatile long failingSequence = -1;
+    // How many more times the failing sequence throws
+    private final AtomicLong failuresLeft = new AtomicLong();
+    // Times the failing sequence was processed
+    private final AtomicLong failingAttempts = new AtomicLong();
+
+    private static long sequence(BsonDocument resumeToken) {
+        return Long.parseLong(resumeToken.getString("_data").getValue(), 16);
+    }
+
+    private ResumeTokenService fileCheckpoints(MongoCheckpointStore mirror) throws Exception {
+        ResumeTokenService checkpoints = new ResumeTokenService(mirror);
+        ReflectionTestUtils.setField(checkpoints, "storeType", "file");
+        ReflectionTestUtils.setField(checkpoints, "filePath", tempDir.resolve("cp.dat").toString());
+        ReflectionTestUtils.setField(checkpoints, "fileSlots", 16);
+        ReflectionTestUtils.setField(checkpoints, "forceIntervalMillis", 0L);
+        ReflectionTestUtils.setField(checkpoints, "mirrorIntervalMillis", 5000L);
+        checkpoints.init();
+        return checkpoints;
+    }
+
+    private EventProcessingMediator start(ResumeTokenService checkpoints) {
+        processed.set(0);
+        firstSequence.set(Long.MAX_VALUE);
+        BusinessTask task = new BusinessTask(checkpoints, new TpsCalculator(),
+                PrometheusMetricsConfig.getInstance(COLLECTION), COLLECTION, mock(MongoClient.class)) {
+            @Override
+            protected int processChange(ChangeStreamDocument<Document> event) {
+                long sequence = sequence(event.getResumeToken());
+                firstSequence.accumulateAndGet(sequence, Math::min);
+                processed.incrementAndGet();
+                if (sequence == failingSequence) {
+                    failingAttempts.incrementAndGet();
+                    if (failuresLeft.getAndDecrement() > 0) {
+                        throw new IllegalStateException("poison");
+                    }
+                }
+                return 0;
+            }
+        };
+        @SuppressWarnings("unchecked")
+        MongoCollection<Document> collection = mock(MongoCollection.class);
+        EventProcessingMediator mediator = new EventProcessingMediator(Map.of(COLLECTION, collection), List.of(task),
+                changeStream(synthetic()), new ThreadPoolProperties(4, new ThreadPoolProperties.Shared(false, 0)));
+        ReflectionTestUtils.setField(mediator, "shutdownTimeoutString", "5s");
+        ReflectionTestUtils.setField(mediator, "databaseName", "loadtest");
+        mediator.init();
+        mediator.startChangeStreamListeners();
+        return mediator;
+    }
+
+    /**
+     * Synthetic events at a rate the tests can follow, from a source confirmed to run against loadtest.
+     */
+    private static Map<String, Object> synthetic() {
+        Map<String, Object> settings = new HashMap<>();
+        settings.put("log-sample-rate", 1000);
+        settings.put("source", "synthetic");
+        settings.put("synthetic.database", "loadtest");
+        settings.put("synthetic.rate", 2000.0);
+        settings.put("synthetic.keys", 100);
+        settings.put("synthetic.burst-size", 1);
+        return settings;
+    }
+
+    /**
+     * Binds spring.changestream settings as the application does, defaults included.
+     */
+    private static ChangeStreamProperties changeStream(Map<String, Object> settings) {
+        Map<String, Object> prefixed = new HashMap<>();
+        settings.forEach((key, value) -> prefixed.put("spring.changestream." + key, value));
+        return new Binder(new MapConfigurationPropertySource(prefixed))
+                .bindOrCreate("spring.changestream", ChangeStreamProperties.class);
+    }
+
+    private void awaitProcessed(long events) throws InterruptedException {
+        long start = System.nanoTime();
+        while (processed.get() < events && System.nanoTime() - start < TimeUnit.SECONDS.toNanos(10)) {
+            Thread.sleep(5);
+        }
+    }
+
+    private void awaitFailingAttempts(long attempts) throws InterruptedException {
+        long start = System.nanoTime();
+        while (failingAttempts.get() < attempts && System.nanoTime() - start < TimeUnit.SECONDS.toNanos(10)) {
+            Thread.sleep(5);
+        }
+    }
+
+    private EventProcessingMediator run(ResumeTokenService checkpoints, long events) throws Exception {
+        EventProcessingMediator mediator = start(checkpoints);
+        awaitProcessed(events);
+        mediator.shutdown();
+        return mediator;
+    }
+
+    @Test
+    void testDrainCheckpointsLastEventAndRestartReplaysNothing() throws Exception {
+        MongoCheckpointStore mirror = mock(MongoCheckpointStore.class);
+        ResumeTokenService checkpoints = fileCheckpoints(mirror);
+
+        EventProcessingMediator first = run(checkpoints, 200);
+
+        LagTracker tracker = first.getLagTrackers().get(COLLECTION);
+        StreamEvent last = tracker.getLastDispatchedEvent();
+        assertNotNull(last);
+        assertEquals(0, tracker.getInFlight());
+        assertEquals(tracker.getCompleted(), processed.get());
+        assertEquals(last.resumeToken(), checkpoints.getResumeToken(COLLECTION));
+        verify(mirror).saveAll(eq(COLLECTION), anyString(), any(), eq(last.resumeToken()));
+
+        double replayedBefore = PrometheusMetricsConfig.getInstance(COLLECTION).getReplayedEvents().get();
+        run(checkpoints, 50);
+        checkpoints.close();
+
+        assertTrue(processed.get() >= 50);
+        assertEquals(sequence(last.resumeToken()) + 1, firstSequence.get());
+        assertEquals(replayedBefore, PrometheusMetricsConfig.getInstance(COLLECTION).getReplayedEvents().get());
+    }
+
+    @Test
+    void testFailedEventIsReprocessedAfterReopenAndCheckpointsMoveOn() throws Exception {
+        MongoCheckpointStore mirror = mock(MongoCheckpointStore.class);
+        ResumeTokenService checkpoints = fileCheckpoints(mirror);
+        failingSequence = 10;
+        failuresLeft.set(1);
+
+        // The reopen waits a second before the failed event comes again
+        EventProcessingMediator mediator = start(checkpoints);
+        awaitFailingAttempts(2);
+        awaitProcessed(processed.get() + 50);
+        mediator.shutdown();
+
+        LagTracker tracker = mediator.getLagTrackers().get(COLLECTION);
+        assertEquals(2, failingAttempts.get());
+        assertEquals(1, tracker.getFailed());
+        assertFalse(tracker.isHeld());
+        StreamEvent last = tracker.getLastDispatchedEvent();
+        assertEquals(last.resumeToken(), checkpoints.getResumeToken(COLLECTION));
+        verify(mirror).saveAll(eq(COLLECTION), anyString(), any(), eq(last.resumeToken()));
+        checkpoints.close();
+    }
+
+    @Test
+    void testEventThatKeepsFailingHoldsCheckpointsInFrontOfIt() throws Exception {
+        MongoCheckpointStore mirror = mock(MongoCheckpointStore.class);
+        ResumeTokenService checkpoints = fileCheckpoints(mirror);
+        failingSequence = 10;
+        failuresLeft.set(Long.MAX_VALUE);
+
+        EventProcessingMediator mediator = start(checkpoints);
+        awaitFailingAttempts(2);
+        mediator.shutdown();
+
+        LagTracker tracker = mediator.getLagTrackers().get(COLLECTION);
+        assertTrue(tracker.isHeld());
+        assertEquals(0, tracker.getInFlight());
+        // Reopened in front of the failed event and drained to the watermark there, never past it
+        assertTrue(failingAttempts.get() >= 2);
+        BsonDocument resumeToken = checkpoints.getResumeToken(COLLECTION);
+        assertTrue(resumeToken == null || sequence(resumeToken) < 10);
+        checkpoints.close();
+    }
+
+    @Test
+    void testPauseHoldsListenerAndSeekReopensAfterToken() throws Exception {
+        MongoCheckpointStore mirror = mock(MongoCheckpointStore.class);
+        ResumeTokenService checkpoints = fileCheckpoints(mirror);
+        EventProcessingMediator mediator = start(checkpoints);
+        PrometheusMetricsConfig metricsConfig = PrometheusMetricsConfig.getInstance(COLLECTION);
+        awaitProcessed(20);
+
+        mediator.pause(COLLECTION);
+        Thread.sleep(50);
+        long held = processed.get();
+        Thread.sleep(200);
+        assertEquals(held, processed.get());
+        assertTrue(mediator.getControlStatus(COLLECTION).getBoolean("paused"));
+        assertEquals(1.0, metricsConfig.getListenerPaused().get());
+
+        firstSequence.set(Long.MAX_VALUE);
+        BsonDocument seekToken = new BsonDocument("_data", new BsonString("0000000000000005"));
+        mediator.seek(COLLECTION, new ListenerControl.Position(seekToken, null));
+        // The seek is durable before any event after it is processed
+        long start = System.nanoTime();
+        while (!seekToken.equals(checkpoints.getResumeToken(COLLECTION))
+                && System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5)) {
+            Thread.sleep(5);
+        }
+        assertEquals(seekToken, checkpoints.getResumeToken(COLLECTION));
+        verify(mirror, timeout(5000)).saveAll(eq(COLLECTION), anyString(), any(), eq(seekToken));
+        mediator.resume(COLLECTION);
+        awaitProcessed(held + 20);
+        assertEquals(6, firstSequence.get());
+        assertEquals(0.0, metricsConfig.getListenerPaused().get());
+
+        assertThrows(IllegalStateException.class, () -> mediator.seek(COLLECTION,
+                new ListenerControl.Position(null, new BsonTimestamp(100, 0))));
+
+        mediator.resize(COLLECTION, 2);
+        assertEquals(2, mediator.getControlStatus(COLLECTION).getInteger("workers"));
+        assertEquals(2.0, metricsConfig.getWorkers().get());
+        // Retired threads drop their checkpoints, so a restart does not resume from their old positions
+        verify(mirror, timeout(5000).times(2)).remove(eq(COLLECTION), anyString());
+        assertThrows(IllegalArgumentException.class, () -> mediator.resize(COLLECTION, 0));
+
+        mediator.shutdown();
+        checkpoints.close();
+    }
+
+    @Test
+    void testCollectionsShareOnePool() throws Exception {
+        runOnSharedPool(false);
+    }
+
+    @Test
+    void testCollectionsShareOnePoolAndItsLanes() throws Exception {
+        // Both synthetic sources emit the same _ids, which must not order one collection behind the other
+        runOnSharedPool(true);
+    }
+
+    private void runOnSharedPool(boolean priorityLanes) throws Exception {
+        Map<String, AtomicLong> processedBy = Map.of("sharedA", new AtomicLong(), "sharedB", new AtomicLong());
+        Set<String> threads = ConcurrentHashMap.newKeySet();
+        ResumeTokenService checkpoints = mock(ResumeTokenService.class);
+        List<BusinessTask> tasks = new ArrayList<>();
+        Map<String, MongoCollection<Document>> collections = new HashMap<>();
+        for (String name : processedBy.keySet()) {
+            tasks.add(new BusinessTask(checkpoints, new TpsCalculator(), PrometheusMetricsConfig.getInstance(name), name,
+                    mock(MongoClient.class)) {
+                @Override
+                protected int processChange(ChangeStreamDocument<Document> event) {
+                    threads.add(Thread.currentThread().getName());
+                    processedBy.get(name).incrementAndGet();
+                    return 0;
+                }
+            });
+            @SuppressWarnings("unchecked")
+            MongoCollection<Document> collection = mock(MongoCollection.class);
+            collections.put(name, collection);
+        }
+        Map<String, Object> settings = synthetic();
+        settings.put("priority-lanes.enabled", priorityLanes);
+        EventProcessingMediator mediator = new EventProcessingMediator(collections, tasks, changeStream(settings),
+                new ThreadPoolProperties(4, new ThreadPoolProperties.Shared(true, 2)));
+        ReflectionTestUtils.setField(mediator, "shutdownTimeoutString", "5s");
+        ReflectionTestUtils.setField(mediator, "databaseName", "loadtest");
+        mediator.init();
+        mediator.startChangeStreamListeners();
+
+        long start = System.nanoTime();
+        while ((processedBy.get("sharedA").get() < 50 || processedBy.get("sharedB").get() < 50)
+                && System.nanoTime() - start < TimeUnit.SECONDS.toNanos(10)) {
+            Thread.sleep(5);
+        }
+        assertTrue(mediator.getControlStatus("sharedA").getBoolean("sharedPool"));
+        assertEquals(2, mediator.getControlStatus("sharedB").getInteger("workers"));
+        assertThrows(IllegalStateException.class, () -> mediator.resize("sharedA", 1));
+        assertThrows(IllegalArgumentException.class, () -> mediator.resize("sharedA", 3));
+        mediator.shutdown();
+
+        assertTrue(processedBy.get("sharedA").get() >= 50);
+        assertTrue(processedBy.get("sharedB").get() >= 50);
+        assertTrue(threads.stream().allMatch(name -> name.startsWith("ChangeStream-shared-T")));
+        assertTrue(threads.size() <= 2);
+    }
+
+    @Test
+    void testUnsetSettingsBindToTheirDefaults() {
+        ChangeStreamProperties properties = changeStream(Map.of("catchup.enabled", true,
+                "adaptive-concurrency.lag-target-ms", 250));
+
+        assertEquals("change-stream", properties.source());
+        assertTrue(properties.catchup().enabled());
+        assertEquals(60000, properties.catchup().enterLagMs());
+        assertEquals(250, properties.adaptiveConcurrency().lagTargetMs());
+        assertEquals(32, properties.adaptiveConcurrency().max());
+        assertEquals(0.8, properties.priorityLanes().freshShare());
+        assertFalse(properties.journal().isRecording());
+        assertEquals("", properties.synthetic().database());
+    }
+
+    @Test
+    void testSyntheticSourceIsRefusedOnAnUnconfirmedDatabase() {
+        BusinessTask task = new BusinessTask(null, new TpsCalculator(), PrometheusMetricsConfig.getInstance(COLLECTION),
+                COLLECTION, mock(MongoClient.class)) {
+            @Override
+            protected int processChange(ChangeStreamDocument<Document> event) {
+                return 0;
+            }
+        };
+        @SuppressWarnings("unchecked")
+        MongoCollection<Document> collection = mock(MongoCollection.class);
+        ThreadPoolProperties threadPool = new ThreadPoolProperties(4, new ThreadPoolProperties.Shared(false, 0));
+        Map<String, Object> unconfirmed = synthetic();
+        unconfirmed.remove("synthetic.database");
+        EventProcessingMediator mediator = new EventProcessingMediator(Map.of(COLLECTION, collection), List.of(task),
+                changeStream(unconfirmed), threadPool);
+        ReflectionTestUtils.setField(mediator, "shutdownTimeoutString", "5s");
+        ReflectionTestUtils.setField(mediator, "databaseName", "SJM");
+
+        // Nothing names the database as scratch, so fake checkpoints must not reach it
+        assertThrows(IllegalStateException.class, mediator::init);
+        EventProcessingMediator elsewhere = new EventProcessingMediator(Map.of(COLLECTION, collection), List.of(task),
+                changeStream(synthetic()), threadPool);
+        ReflectionTestUtils.setField(elsewhere, "shutdownTimeoutString", "5s");
+        ReflectionTestUtils.setField(elsewhere, "databaseName", "SJM");
+        assertThrows(IllegalStateException.class, elsewhere::init);
+    }
+}
@@ -0,0 +1,142 @@
+package com.example.demo;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+import org.bson.BsonDocument;
+import org.bson.BsonDocumentReader;
+import org.bson.BsonString;
+import org.bson.BsonTimestamp;
+import org.bson.Document;
+import org.bson.codecs.DecoderContext;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfEnvironmentVariable;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+
+import com.example.demo.metrics.PrometheusMetricsConfig;
+import com.example.demo.metrics.TpsCalculator;
+import com.example.demo.service.ResumeTokenService;
+import com.example.demo.service.TokenFence;
+import com.example.demo.service.impl.Task1;
+import com.mongodb.MongoClientSettings;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.changestream.ChangeStreamDocument;
+
+/**
+ * Compares the at-least-once paths with exactly-once transactional batches for Task1.
+ * Needs a replica set: run with {@code -Dbenchmark=true} and {@code MONGODB_URI} set.
+ */
+@EnabledIfSystemProperty(named = "benchmark", matches = "true")
+@EnabledIfEnvironmentVariable(named = "MONGODB_URI", matches = ".+")
+class ExactlyOnceBenchmarkTest {
+    private static final int EVENTS = Integer.getInteger("benchmark.events", 5000);
+    private static final int BATCH_SIZE = Integer.getInteger("benchmark.batch-size", 100);
+    private static final String DATABASE = "changestream_benchmark";
+
+    private static MongoClient mongoClient;
+    private static MongoDatabase database;
+
+    @BeforeAll
+    static void connect() {
+        mongoClient = MongoClients.create(System.getenv("MONGODB_URI"));
+        database = mongoClient.getDatabase(DATABASE);
+        database.drop();
+    }
+
+    @AfterAll
+    static void cleanUp() {
+        database.drop();
+        mongoClient.close();
+    }
+
+    @Test
+    void compareAtLeastOnceWithExactlyOnce() {
+        MongoCollection<Document> target = database.getCollection("changestream");
+        MongoCollection<Document> tokens = database.getCollection("resumeTokens");
+        ResumeTokenService resumeTokenService = new ResumeTokenService(
+                Map.of("changestream", target, "resumeTokens", tokens), "resumeTokens");
+        Task1 task = new Task1(resumeTokenService, new TpsCalculator(), mongoClient);
+        task.setCollection(target);
+        List<ChangeStreamDocument<Document>> events = syntheticEvents();
+
+        long perEvent = time(() -> events.forEach(event -> task.startProcessing("bench-T0", event)));
+        target.drop();
+
+        long batched = time(() -> {
+            for (List<ChangeStreamDocument<Document>> batch : batches(events)) {
+                task.startBatchProcessing("bench-T0", batch, true);
+            }
+        });
+        target.drop();
+
+        TokenFence fence = new TokenFence("changestream", mongoClient,
+                resumeTokenService.getMongoCheckpointStore(), PrometheusMetricsConfig.getInstance("changestream"));
+        target.insertOne(new Document("warmup", true)); // collections must exist before writing in a transaction
+        long fenced = time(() -> {
+            for (List<ChangeStreamDocument<Document>> batch : batches(events)) {
+                task.startFencedBatchProcessing("bench-T0", batch, fence);
+            }
+        });
+
+        // Replaying the whole stream against the fence must not write anything
+        long replay = time(() -> {
+            for (List<ChangeStreamDocument<Document>> batch : batches(events)) {
+                task.startFencedBatchProcessing("bench-T0", batch, fence);
+            }
+        });
+
+        System.out.printf("%d events, batch %d%n", EVENTS, BATCH_SIZE);
+        System.out.printf("at-least-once per event : %8.0f events/s%n", rate(perEvent));
+        System.out.printf("at-least-once batched   : %8.0f events/s%n", rate(batched));
+        System.out.printf("exactly-once fenced     : %8.0f events/s%n", rate(fenced));
+        System.out.printf("exactly-once replay skip: %8.0f events/s%n", rate(replay));
+    }
+
+    private static long time(Runnable run) {
+        long start = System.nanoTime();
+        run.run();
+        return System.nanoTime() - start;
+    }
+
+    private static double rate(long nanos) {
+        return EVENTS * 1_000_000_000.0 / nanos;
+    }
+
+    private static List<List<ChangeStreamDocument<Document>>> batches(List<ChangeStreamDocument<Document>> events) {
+        List<List<ChangeStreamDocument<Document>>> batches = new ArrayList<>();
+        for (int i = 0; i < events.size(); i += BATCH_SIZE) {
+            batches.add(events.subList(i, Math.min(events.size(), i + BATCH_SIZE)));
+        }
+        return batches;
+    }
+
+    private static List<ChangeStreamDocument<Document>> syntheticEvents() {
+        var codec = ChangeStreamDocument.createCodec(Document.class, MongoClientSettings.getDefaultCodecRegistry());
+        int seconds = (int) (System.currentTimeMillis() / 1000);
+        List<ChangeStreamDocument<Document>> events = new ArrayList<>(EVENTS);
+        for (int i = 0; i < EVENTS; i++) {
+            Document fullDocument = new Document("_id", i)
+                    .append("playerID", i % 500)
+                    .append("transactionID", i)
+                    .append("value", i * 1.5)
+                    .append("name", "player" + (i % 500))
+                    .append("date", new Date());
+            BsonDocument raw = new BsonDocument("_id", new BsonDocument("_data",
+                    new BsonString(String.format("82%08X%08X", seconds, i + 1))))
+                    .append("operationType", new BsonString("insert"))
+                    .append("clusterTime", new BsonTimestamp(seconds, i + 1))
+                    .append("ns", new BsonDocument("db", new BsonString(DATABASE))
+                            .append("coll", new BsonString("source")))
+                    .append("fullDocument", fullDocument.toBsonDocument());
+            events.add(codec.decode(new BsonDocumentReader(raw), DecoderContext.builder().build()));
+        }
+        return events;
+    }
+}
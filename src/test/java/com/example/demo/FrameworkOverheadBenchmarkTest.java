@@ -0,0 +1,115 @@
+package com.example.demo;
+
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.bson.BsonDocument;
+import org.bson.BsonTimestamp;
+import org.bson.Document;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import static org.mockito.Mockito.mock;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.boot.context.properties.source.MapConfigurationPropertySource;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.example.demo.config.ChangeStreamProperties;
+import com.example.demo.config.ThreadPoolProperties;
+import com.example.demo.metrics.PrometheusMetricsConfig;
+import com.example.demo.metrics.TpsCalculator;
+import com.example.demo.service.BusinessTask;
+import com.example.demo.service.EventProcessingMediator;
+import com.example.demo.service.MongoCheckpointStore;
+import com.example.demo.service.ResumeTokenService;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.changestream.ChangeStreamDocument;
+
+/**
+ * Measures framework overhead: unthrottled synthetic events through the mediator's listener, dispatch, metrics and
+ * checkpoint calls into a task that does no work, with MongoDB out of the picture.
+ * Run with {@code -Dbenchmark=true}.
+ */
+@EnabledIfSystemProperty(named = "benchmark", matches = "true")
+class FrameworkOverheadBenchmarkTest {
+    private static final long EVENTS = Long.getLong("benchmark.events", 500_000);
+    private static final int THREADS = Integer.getInteger("benchmark.threads", 4);
+
+    @Test
+    void measureEventsPerCore() throws Exception {
+        AtomicLong processed = new AtomicLong();
+        // Keeps the last checkpoint in memory; a mock would capture a stack trace on every save
+        ResumeTokenService checkpoints = new ResumeTokenService((MongoCheckpointStore) null) {
+            private volatile BsonDocument last;
+
+            @Override
+            public void saveResumeToken(BsonTimestamp clusterTime, BsonDocument resumeToken, String threadName,
+                                        String collectionName) {
+                last = resumeToken;
+            }
+
+            @Override
+            public BsonDocument getResumeToken(String collectionName) {
+                return last;
+            }
+
+            @Override
+            public BsonTimestamp getLatestClusterTime(String collectionName) {
+                return null;
+            }
+
+            @Override
+            public void saveDrainCheckpoint(BsonTimestamp clusterTime, BsonDocument resumeToken, String threadName,
+                                            String collectionName) {
+                last = resumeToken;
+            }
+        };
+        BusinessTask task = new BusinessTask(checkpoints, new TpsCalculator(),
+                PrometheusMetricsConfig.getInstance("Points"), "Points", mock(MongoClient.class)) {
+            @Override
+            protected int processChange(ChangeStreamDocument<Document> event) {
+                processed.incrementAndGet();
+                return 0;
+            }
+        };
+        @SuppressWarnings("unchecked")
+        MongoCollection<Document> collection = mock(MongoCollection.class);
+        ChangeStreamProperties properties = new Binder(new MapConfigurationPropertySource(Map.of(
+                "spring.changestream.log-sample-rate", 1000,
+                "spring.changestream.source", "synthetic",
+                "spring.changestream.synthetic.database", "loadtest",
+                "spring.changestream.synthetic.rate", 0.0,
+                "spring.changestream.synthetic.keys", 100_000,
+                "spring.changestream.synthetic.skew", 1.0,
+                "spring.changestream.synthetic.burst-size", 1,
+                "spring.changestream.synthetic.max-events", EVENTS)))
+                .bindOrCreate("spring.changestream", ChangeStreamProperties.class);
+        EventProcessingMediator mediator = new EventProcessingMediator(Map.of("Points", collection), List.of(task),
+                properties, new ThreadPoolProperties(THREADS, new ThreadPoolProperties.Shared(false, 0)));
+        ReflectionTestUtils.setField(mediator, "shutdownTimeoutString", "30s");
+        ReflectionTestUtils.setField(mediator, "databaseName", "loadtest");
+        mediator.init();
+
+        com.sun.management.OperatingSystemMXBean os =
+                (com.sun.management.OperatingSystemMXBean) ManagementFactory.getOperatingSystemMXBean();
+        long cpuStart = os.getProcessCpuTime();
+        long start = System.nanoTime();
+        mediator.startChangeStreamListeners();
+        while (processed.get() < EVENTS && System.nanoTime() - start < TimeUnit.MINUTES.toNanos(5)) {
+            Thread.sleep(5);
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        double cpuSeconds = (os.getProcessCpuTime() - cpuStart) / 1e9;
+        mediator.shutdown();
+
+        // The listener reopens an ended stream from a checkpoint that may lag the last event, replaying a few
+        assertTrue(processed.get() >= EVENTS);
+        System.out.printf("%d synthetic events on %d workers%n", EVENTS, THREADS);
+        System.out.printf("throughput : %10.0f events/s%n", EVENTS / seconds);
+        System.out.printf("per core   : %10.0f events/cpu-s (%.1f cores busy)%n", EVENTS / cpuSeconds, cpuSeconds / seconds);
+    }
+}
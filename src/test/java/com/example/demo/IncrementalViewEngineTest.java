@@ -0,0 +1,120 @@
+package com.example.demo;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import org.mockito.Mock;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import org.mockito.MockitoAnnotations;
+
+import com.example.demo.service.IncrementalViewEngine;
+import com.example.demo.service.IncrementalViewEngine.View;
+import com.mongodb.client.FindIterable;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoCursor;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.WriteModel;
+import com.mongodb.client.model.changestream.ChangeStreamDocument;
+
+class IncrementalViewEngineTest {
+
+    @Mock private MongoClient mongoClient;
+    @Mock private MongoDatabase mongoDatabase;
+    @Mock private MongoCollection<Document> rootCollection;
+
+    private final List<Collection<Document>> recomputed = new ArrayList<>();
+    private IncrementalViewEngine engine;
+
+    @BeforeEach
+    void setUp() {
+        MockitoAnnotations.openMocks(this);
+        when(mongoClient.getDatabase(anyString())).thenReturn(mongoDatabase);
+        when(mongoDatabase.getCollection("tAwards")).thenReturn(rootCollection);
+        engine = new IncrementalViewEngine(mongoClient, "testDatabase");
+        engine.register(new View("member_awards", "tAwards", "TrainId", rows -> {
+            recomputed.add(new ArrayList<>(rows));
+            return List.<WriteModel<Document>>of();
+        }).rootSource("Awards").join("Points", "TrainId").join("tPromotionRedeemtion", "PlayerID", "PrizeID"));
+    }
+
+    @Test
+    void testSingleKeyJoinLoadsAffectedRowsOnce() {
+        FindIterable<Document> rows = iterableOf(new Document("TrainId", "TR1"), new Document("TrainId", "TR2"));
+        when(rootCollection.find(any(Bson.class))).thenReturn(rows);
+
+        engine.buildWrites("member_awards", "Points", List.of(
+                event(new Document("TrainId", "TR1")), event(new Document("TrainId", "TR1")),
+                event(new Document("TrainId", "TR2")), event(null)));
+
+        ArgumentCaptor<Bson> filter = ArgumentCaptor.forClass(Bson.class);
+        verify(rootCollection).find(filter.capture());
+        assertEquals(Filters.in("TrainId", List.of("TR1", "TR2")).toBsonDocument(), filter.getValue().toBsonDocument());
+        assertEquals(1, recomputed.size());
+        assertEquals(2, recomputed.get(0).size());
+    }
+
+    @Test
+    void testCompositeJoinQueriesDistinctKeyTuples() {
+        FindIterable<Document> rows = iterableOf(new Document("TrainId", "TR1").append("PlayerID", 1).append("PrizeID", 9));
+        when(rootCollection.find(any(Bson.class))).thenReturn(rows);
+
+        engine.buildWrites("member_awards", "tPromotionRedeemtion", List.of(
+                event(new Document("PlayerID", 1).append("PrizeID", 9)),
+                event(new Document("PlayerID", 1).append("PrizeID", 9)),
+                event(new Document("PlayerID", 2))));
+
+        ArgumentCaptor<Bson> filter = ArgumentCaptor.forClass(Bson.class);
+        verify(rootCollection).find(filter.capture());
+        assertEquals(Filters.or(List.of(new Document("PlayerID", 1).append("PrizeID", 9))).toBsonDocument(),
+                filter.getValue().toBsonDocument());
+        assertEquals(1, recomputed.get(0).size());
+    }
+
+    @Test
+    void testRootSourceUsesLatestImageWithoutQuery() {
+        Document latest = new Document("TrainId", "TR1").append("Version", 2);
+        engine.buildWrites("member_awards", "Awards", List.of(
+                event(new Document("TrainId", "TR1").append("Version", 1)), event(latest)));
+
+        verify(rootCollection, never()).find(any(Bson.class));
+        assertEquals(List.of(latest), recomputed.get(0));
+        assertThrows(IllegalArgumentException.class,
+                () -> engine.buildWrites("member_awards", "Unknown", List.of(event(latest))));
+    }
+
+    @SuppressWarnings("unchecked")
+    private ChangeStreamDocument<Document> event(Document fullDocument) {
+        ChangeStreamDocument<Document> event = mock(ChangeStreamDocument.class);
+        when(event.getFullDocument()).thenReturn(fullDocument);
+        return event;
+    }
+
+    @SuppressWarnings("unchecked")
+    private FindIterable<Document> iterableOf(Document... docs) {
+        FindIterable<Document> iterable = mock(FindIterable.class);
+        MongoCursor<Document> cursor = mock(MongoCursor.class);
+        when(iterable.iterator()).thenReturn(cursor);
+        Boolean[] more = new Boolean[docs.length];
+        Arrays.fill(more, true);
+        more[docs.length - 1] = false;
+        when(cursor.hasNext()).thenReturn(true, more);
+        when(cursor.next()).thenReturn(docs[0], Arrays.copyOfRange(docs, 1, docs.length));
+        return iterable;
+    }
+}
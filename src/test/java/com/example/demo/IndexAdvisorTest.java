@@ -0,0 +1,85 @@
+package com.example.demo;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import org.mockito.Mock;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import org.mockito.MockitoAnnotations;
+
+import com.example.demo.service.IndexAdvisor;
+import com.example.demo.service.IndexAdvisor.LookupPattern;
+import com.example.demo.service.IndexAdvisor.Status;
+import com.mongodb.client.ListIndexesIterable;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.IndexOptions;
+
+class IndexAdvisorTest {
+
+    @Mock
+    private MongoDatabase mongoDatabase;
+
+    @Mock
+    private MongoCollection<Document> collection;
+
+    @BeforeEach
+    void setUp() {
+        MockitoAnnotations.openMocks(this);
+        when(mongoDatabase.getCollection(anyString())).thenReturn(collection);
+    }
+
+    @SuppressWarnings("unchecked")
+    private void givenIndexes(Document... keys) {
+        List<Document> indexes = new ArrayList<>();
+        indexes.add(new Document("name", "_id_").append("key", new Document("_id", 1)));
+        for (Document key : keys) {
+            indexes.add(new Document("name", "idx").append("key", key));
+        }
+        ListIndexesIterable<Document> iterable = mock(ListIndexesIterable.class);
+        when(iterable.into(any())).thenReturn(indexes);
+        when(collection.listIndexes()).thenReturn(iterable);
+    }
+
+    @Test
+    void testMissingIndexIsCreatedWithCoveredFields() {
+        givenIndexes();
+        IndexAdvisor advisor = new IndexAdvisor(mongoDatabase, true, false, 50);
+
+        Status status = advisor.advise(new LookupPattern("PromotionRuleOutCome", List.of("RID"), List.of("PID"), "test"));
+
+        assertEquals(Status.CREATED, status);
+        verify(collection).createIndex(eq(new Document("RID", 1).append("PID", 1)), any(IndexOptions.class));
+    }
+
+    @Test
+    void testCompoundIndexPrefixServesLookup() {
+        givenIndexes(new Document("PrizeID", 1).append("PlayerID", 1).append("TrainId", 1));
+        IndexAdvisor advisor = new IndexAdvisor(mongoDatabase, true, false, 50);
+
+        Status status = advisor.advise(new LookupPattern("tAwards", List.of("PlayerID", "PrizeID"), List.of(), "test"));
+
+        assertEquals(Status.OK, status);
+        verify(collection, never()).createIndex(any(Bson.class), any(IndexOptions.class));
+    }
+
+    @Test
+    void testIndexWithoutCoveredFieldIsReported() {
+        givenIndexes(new Document("RID", 1));
+        IndexAdvisor advisor = new IndexAdvisor(mongoDatabase, false, false, 50);
+
+        assertEquals(Status.NOT_COVERING,
+                advisor.advise(new LookupPattern("PromotionRuleOutCome", List.of("RID"), List.of("PID"), "test")));
+    }
+}
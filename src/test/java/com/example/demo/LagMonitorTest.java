@@ -0,0 +1,122 @@
+package com.example.demo;
+
+import java.util.Map;
+
+import org.bson.BsonTimestamp;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.example.demo.config.MongoSources;
+import com.example.demo.service.EventProcessingMediator;
+import com.example.demo.service.LagMonitor;
+import com.example.demo.service.LagTracker;
+import com.mongodb.MongoTimeoutException;
+import com.mongodb.ReadPreference;
+import com.mongodb.client.MongoDatabase;
+
+class LagMonitorTest {
+
+    private final MongoDatabase mongoDatabase = mock(MongoDatabase.class);
+    private final LagTracker tracker = new LagTracker("lagMonitorTest");
+    private LagMonitor monitor;
+
+    @BeforeEach
+    void setUp() {
+        EventProcessingMediator mediator = mock(EventProcessingMediator.class);
+        when(mediator.getLagTrackers()).thenReturn(Map.of("lagMonitorTest", tracker));
+        monitor = new LagMonitor(mediator, mongoDatabase, 0);
+    }
+
+    private void clusterTimeIs(int seconds) {
+        Document hello = new Document("isWritablePrimary", true)
+                .append("lastWrite", new Document("opTime", new Document("ts", new BsonTimestamp(seconds, 1))));
+        when(mongoDatabase.runCommand(any(Bson.class), any(ReadPreference.class))).thenReturn(hello);
+    }
+
+    @Test
+    void testBacklogFollowsOldestInFlightPosition() {
+        tracker.dispatched(new BsonTimestamp(900, 1), 1);
+        tracker.dispatched(new BsonTimestamp(950, 1), 4);
+        tracker.completed(new BsonTimestamp(900, 1), 1);
+        clusterTimeIs(1000);
+
+        monitor.poll();
+
+        LagMonitor.Lag lag = monitor.getLags().get("lagMonitorTest");
+        assertEquals(100, lag.backlogSeconds());
+        assertEquals(4, lag.queueDepth());
+        assertEquals(-1, lag.catchUpEtaSeconds());
+    }
+
+    @Test
+    void testShrinkingBacklogGivesCatchUpEstimate() throws InterruptedException {
+        tracker.dispatched(new BsonTimestamp(900, 1), 1);
+        tracker.completed(new BsonTimestamp(900, 1), 1);
+        clusterTimeIs(1000);
+        monitor.poll();
+
+        Thread.sleep(20);
+        tracker.dispatched(new BsonTimestamp(950, 1), 1);
+        tracker.completed(new BsonTimestamp(950, 1), 1);
+        monitor.poll();
+
+        LagMonitor.Lag lag = monitor.getLags().get("lagMonitorTest");
+        assertEquals(50, lag.backlogSeconds());
+        assertTrue(lag.drainRate() > 0);
+        assertTrue(lag.catchUpEtaSeconds() > 0);
+        assertTrue(monitor.toJson().contains("\"backlogSeconds\": 50"));
+    }
+
+    @Test
+    void testIdleListenerIsCaughtUp() throws InterruptedException {
+        tracker.dispatched(new BsonTimestamp(900, 1), 1);
+        tracker.completed(new BsonTimestamp(900, 1), 1);
+        tracker.awaiting();
+        Thread.sleep(5);
+        clusterTimeIs(1000);
+
+        monitor.poll();
+
+        LagMonitor.Lag lag = monitor.getLags().get("lagMonitorTest");
+        assertEquals(0, lag.backlogSeconds());
+        assertEquals(0, lag.catchUpEtaSeconds());
+    }
+
+    @Test
+    void testFailingSourceOnlyMarksItsOwnLagUnknown() {
+        MongoDatabase other = mock(MongoDatabase.class);
+        when(other.runCommand(any(Bson.class), any(ReadPreference.class)))
+                .thenThrow(new MongoTimeoutException("unreachable"));
+        MongoSources sources = mock(MongoSources.class);
+        when(sources.getDatabase(eq("lagMonitorTest"), any())).thenReturn(mongoDatabase);
+        when(sources.getDatabase(eq("otherSource"), any())).thenReturn(other);
+        LagTracker otherTracker = new LagTracker("otherSource");
+        EventProcessingMediator mediator = mock(EventProcessingMediator.class);
+        when(mediator.getLagTrackers()).thenReturn(Map.of("lagMonitorTest", tracker, "otherSource", otherTracker));
+        LagMonitor twoSources = new LagMonitor(mediator, mongoDatabase, sources);
+        // Set by Spring outside tests; without it every hello would time out at once
+        ReflectionTestUtils.setField(twoSources, "helloTimeoutMillis", 1000L);
+        tracker.dispatched(new BsonTimestamp(900, 1), 1);
+        tracker.completed(new BsonTimestamp(900, 1), 1);
+        otherTracker.dispatched(new BsonTimestamp(900, 1), 2);
+        clusterTimeIs(1000);
+
+        twoSources.poll();
+
+        assertEquals(100, twoSources.getLags().get("lagMonitorTest").backlogSeconds());
+        LagMonitor.Lag unknown = twoSources.getLags().get("otherSource");
+        assertEquals(-1, unknown.backlogSeconds());
+        assertEquals(-1, unknown.catchUpEtaSeconds());
+        assertEquals(2, unknown.queueDepth());
+        twoSources.close();
+    }
+}
@@ -0,0 +1,144 @@
+package com.example.demo;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.slf4j.LoggerFactory;
+
+import com.example.demo.service.EventLogSampler;
+
+import ch.qos.logback.classic.AsyncAppender;
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.encoder.PatternLayoutEncoder;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.FileAppender;
+
+/**
+ * Measures what per-event logging costs worker threads: no logging, synchronous file appender (the default
+ * profile), the prod profile's non-blocking async appender, and 1-in-N sampling.
+ * Every mode runs once to warm up, then {@code benchmark.rounds} times in alternating order; the best round counts.
+ * Run with {@code -Dbenchmark=true}.
+ */
+@EnabledIfSystemProperty(named = "benchmark", matches = "true")
+class LoggingBenchmarkTest {
+    private static final org.slf4j.Logger LOGGER = LoggerFactory.getLogger(LoggingBenchmarkTest.class);
+    private static final int EVENTS = Integer.getInteger("benchmark.events", 200_000);
+    private static final int THREADS = Integer.getInteger("benchmark.threads", 8);
+    private static final int ROUNDS = Integer.getInteger("benchmark.rounds", 4);
+    private static final int SAMPLE_RATE = 1000;
+
+    private enum Mode { OFF, SYNC, ASYNC, SAMPLED }
+
+    private final LoggerContext context = (LoggerContext) LoggerFactory.getILoggerFactory();
+
+    @Test
+    void compareLoggingModes() throws Exception {
+        File logFile = File.createTempFile("logging-benchmark", ".log");
+        logFile.deleteOnExit();
+
+        Logger logger = context.getLogger("benchmark.events");
+        logger.setAdditive(false);
+        FileAppender<ILoggingEvent> file = fileAppender(logFile);
+        FileAppender<ILoggingEvent> asyncFile = fileAppender(logFile);
+        AsyncAppender async = new AsyncAppender();
+        async.setContext(context);
+        async.setQueueSize(8192);
+        async.setDiscardingThreshold(8192 / 5);
+        async.setNeverBlock(true);
+        async.addAppender(asyncFile);
+        async.start();
+
+        Map<Mode, Double> best = new EnumMap<>(Mode.class);
+        try {
+            for (Mode mode : Mode.values()) {
+                measure(logger, mode, file, async);
+            }
+            for (int round = 0; round < ROUNDS; round++) {
+                List<Mode> order = new ArrayList<>(List.of(Mode.values()));
+                if (round % 2 == 1) {
+                    Collections.reverse(order);
+                }
+                for (Mode mode : order) {
+                    best.merge(mode, measure(logger, mode, file, async), Math::max);
+                }
+            }
+        } finally {
+            logger.detachAndStopAllAppenders();
+            EventLogSampler.setRate(1);
+            file.stop();
+            async.stop();
+            asyncFile.stop();
+        }
+
+        LOGGER.info("{} events on {} threads, best of {} rounds", EVENTS, THREADS, ROUNDS);
+        LOGGER.info("logging off         : {} events/s", Math.round(best.get(Mode.OFF)));
+        LOGGER.info("sync file appender  : {} events/s", Math.round(best.get(Mode.SYNC)));
+        LOGGER.info("async, never block  : {} events/s", Math.round(best.get(Mode.ASYNC)));
+        LOGGER.info("async, sampled      : {} events/s (1 in {})", Math.round(best.get(Mode.SAMPLED)), SAMPLE_RATE);
+        // Writing every event to a file cannot beat not logging or logging one event in a thousand
+        assertTrue(best.get(Mode.OFF) > best.get(Mode.SYNC));
+        assertTrue(best.get(Mode.SAMPLED) > best.get(Mode.SYNC));
+    }
+
+    private double measure(Logger logger, Mode mode, FileAppender<ILoggingEvent> file, AsyncAppender async)
+            throws Exception {
+        logger.detachAppender(file);
+        logger.detachAppender(async);
+        logger.setLevel(mode == Mode.OFF ? Level.WARN : Level.INFO);
+        if (mode == Mode.SYNC) {
+            logger.addAppender(file);
+        } else if (mode != Mode.OFF) {
+            logger.addAppender(async);
+        }
+        EventLogSampler.setRate(mode == Mode.SAMPLED ? SAMPLE_RATE : 1);
+        return run(logger);
+    }
+
+    private double run(Logger logger) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        long start = System.nanoTime();
+        List<Future<?>> workers = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            workers.add(executor.submit(() -> {
+                String thread = Thread.currentThread().getName();
+                for (int i = 0; i < EVENTS / THREADS; i++) {
+                    if (logger.isInfoEnabled() && EventLogSampler.sample()) {
+                        logger.info("🔄 Processing event on thread: {} for collection: {}", thread, "tAwards");
+                    }
+                }
+            }));
+        }
+        for (Future<?> worker : workers) {
+            worker.get();
+        }
+        long nanos = System.nanoTime() - start;
+        executor.shutdown();
+        return EVENTS * 1_000_000_000.0 / nanos;
+    }
+
+    private FileAppender<ILoggingEvent> fileAppender(File logFile) throws IOException {
+        PatternLayoutEncoder encoder = new PatternLayoutEncoder();
+        encoder.setContext(context);
+        encoder.setPattern("%d{yyyy-MM-dd HH:mm:ss} %-5level [%thread] %logger{36} - %msg%n");
+        encoder.start();
+        FileAppender<ILoggingEvent> appender = new FileAppender<>();
+        appender.setContext(context);
+        appender.setFile(logFile.getAbsolutePath());
+        appender.setEncoder(encoder);
+        appender.start();
+        return appender;
+    }
+}
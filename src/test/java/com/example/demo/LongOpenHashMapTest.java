@@ -0,0 +1,52 @@
+package com.example.demo;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import org.junit.jupiter.api.Test;
+
+import com.example.demo.service.impl.LongOpenHashMap;
+
+class LongOpenHashMapTest {
+
+    @Test
+    void testZeroKeyIsHeldSeparately() {
+        LongOpenHashMap<String> map = new LongOpenHashMap<>(4);
+
+        assertNull(map.put(0L, "zero"));
+        assertEquals("zero", map.put(0L, "again"));
+        assertEquals("again", map.get(0L));
+        assertEquals(1, map.size());
+        assertEquals("again", map.remove(0L));
+        assertNull(map.get(0L));
+        assertEquals(0, map.size());
+    }
+
+    @Test
+    void testMatchesHashMapUnderRandomPutsAndRemoves() {
+        LongOpenHashMap<Long> map = new LongOpenHashMap<>(4);
+        Map<Long, Long> expected = new HashMap<>();
+        Random random = new Random(42);
+
+        // A narrow key range forces long probe runs, growth and backward shifts on removal
+        for (int i = 0; i < 20_000; i++) {
+            long key = random.nextInt(512) - 256;
+            if (random.nextBoolean()) {
+                assertEquals(expected.put(key, (long) i), map.put(key, (long) i));
+            } else {
+                assertEquals(expected.remove(key), map.remove(key));
+            }
+        }
+
+        assertEquals(expected.size(), map.size());
+        for (long key = -256; key < 256; key++) {
+            assertEquals(expected.get(key), map.get(key));
+        }
+        long[] sum = new long[1];
+        map.forEachValue(value -> sum[0] += value);
+        assertEquals(expected.values().stream().mapToLong(Long::longValue).sum(), sum[0]);
+    }
+}
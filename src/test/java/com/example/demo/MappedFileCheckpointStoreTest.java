@@ -0,0 +1,116 @@
+package com.example.demo;
+
+import java.io.RandomAccessFile;
+import java.nio.file.Path;
+
+import org.bson.BsonDocument;
+import org.bson.BsonString;
+import org.bson.BsonTimestamp;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.example.demo.service.MappedFileCheckpointStore;
+
+class MappedFileCheckpointStoreTest {
+
+    @TempDir
+    Path tempDir;
+
+    private static BsonDocument token(String data) {
+        return new BsonDocument("_data", new BsonString(data));
+    }
+
+    @Test
+    void testLoadReturnsEarliestThreadCheckpoint() throws Exception {
+        MappedFileCheckpointStore store = new MappedFileCheckpointStore(tempDir.resolve("cp.dat"), 16, 0);
+        store.save("tAwards", "T0", new BsonTimestamp(200, 1), token("later"));
+        store.save("tAwards", "T1", new BsonTimestamp(100, 1), token("earliest"));
+        store.save("Points", "T0", new BsonTimestamp(50, 1), token("other"));
+
+        assertEquals(token("earliest"), store.load("tAwards"));
+        assertNull(store.load("missing"));
+        store.close();
+    }
+
+    @Test
+    void testCheckpointsSurviveReopen() throws Exception {
+        Path path = tempDir.resolve("cp.dat");
+        MappedFileCheckpointStore store = new MappedFileCheckpointStore(path, 16, 10);
+        store.save("tAwards", "T0", new BsonTimestamp(100, 1), token("first"));
+        store.save("tAwards", "T0", new BsonTimestamp(101, 1), token("second"));
+        store.close();
+
+        MappedFileCheckpointStore reopened = new MappedFileCheckpointStore(path, 16, 10);
+        assertEquals(token("second"), reopened.load("tAwards"));
+        reopened.close();
+    }
+
+    @Test
+    void testTornWriteFallsBackToPreviousCopy() throws Exception {
+        Path path = tempDir.resolve("cp.dat");
+        MappedFileCheckpointStore store = new MappedFileCheckpointStore(path, 16, 0);
+        store.save("tAwards", "T0", new BsonTimestamp(100, 1), token("first"));   // copy 1
+        store.save("tAwards", "T0", new BsonTimestamp(101, 1), token("second"));  // copy 0
+        store.close();
+
+        // Corrupt the newest copy (first copy of slot 0, right after the 64-byte header)
+        try (RandomAccessFile file = new RandomAccessFile(path.toFile(), "rw")) {
+            file.seek(64 + 300);
+            file.write(0x7F);
+        }
+
+        MappedFileCheckpointStore reopened = new MappedFileCheckpointStore(path, 16, 0);
+        assertEquals(token("first"), reopened.load("tAwards"));
+        reopened.close();
+    }
+
+    @Test
+    void testSaveAllMovesEveryThreadCheckpointOfTheCollection() throws Exception {
+        Path path = tempDir.resolve("cp.dat");
+        MappedFileCheckpointStore store = new MappedFileCheckpointStore(path, 16, 0);
+        store.save("tAwards", "T0", new BsonTimestamp(100, 1), token("slow"));
+        store.save("tAwards", "T1", new BsonTimestamp(200, 1), token("fast"));
+        store.save("Points", "T0", new BsonTimestamp(50, 1), token("other"));
+        assertEquals(new BsonTimestamp(200, 1), store.latestClusterTime("tAwards"));
+
+        store.saveAll("tAwards", "T0", new BsonTimestamp(300, 1), token("drained"));
+        store.saveAll("Fresh", "T0", new BsonTimestamp(10, 1), token("first"));
+        store.close();
+
+        MappedFileCheckpointStore reopened = new MappedFileCheckpointStore(path, 16, 0);
+        assertEquals(token("drained"), reopened.load("tAwards"));
+        assertEquals(new BsonTimestamp(300, 1), reopened.latestClusterTime("tAwards"));
+        assertEquals(token("other"), reopened.load("Points"));
+        assertEquals(token("first"), reopened.load("Fresh"));
+        assertNull(reopened.latestClusterTime("missing"));
+        reopened.close();
+    }
+
+    @Test
+    void testRetiredThreadsFreeTheirSlots() throws Exception {
+        Path path = tempDir.resolve("cp.dat");
+        MappedFileCheckpointStore store = new MappedFileCheckpointStore(path, 2, 0);
+        store.save("tAwards", "T0", new BsonTimestamp(100, 1), token("retired"));
+        store.save("tAwards", "T1", new BsonTimestamp(200, 1), token("live"));
+        assertFalse(store.trySave("tAwards", "T2", new BsonTimestamp(300, 1), token("new")));
+
+        store.remove("tAwards", "T0");
+        assertEquals(token("live"), store.load("tAwards"));
+        assertTrue(store.trySave("tAwards", "T2", new BsonTimestamp(300, 1), token("new")));
+
+        // The collection's last checkpoint is kept
+        store.remove("tAwards", "T1");
+        store.remove("tAwards", "T2");
+        store.close();
+
+        MappedFileCheckpointStore reopened = new MappedFileCheckpointStore(path, 2, 0);
+        assertEquals(token("new"), reopened.load("tAwards"));
+        assertTrue(reopened.trySave("Points", "T0", new BsonTimestamp(50, 1), token("other")));
+        assertEquals(token("other"), reopened.load("Points"));
+        reopened.close();
+    }
+}
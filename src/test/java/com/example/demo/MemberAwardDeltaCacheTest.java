@@ -0,0 +1,76 @@
+package com.example.demo;
+
+import java.util.List;
+
+import org.bson.Document;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.Test;
+
+import com.example.demo.metrics.PrometheusMetricsConfig;
+import com.example.demo.service.impl.MemberAwardDeltaCache;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.WriteModel;
+
+class MemberAwardDeltaCacheTest {
+
+    private final MemberAwardDeltaCache cache =
+            new MemberAwardDeltaCache(2, PrometheusMetricsConfig.getInstance("member_awards"));
+
+    private static Document award(String trainId, int points) {
+        return new Document("train_id", trainId).append("points", points)
+                .append("member_profile", new Document("club_state", "GOLD"));
+    }
+
+    private static Document setOf(WriteModel<Document> write) {
+        return ((Document) ((UpdateOneModel<Document>) write).getUpdate()).get("$set", Document.class);
+    }
+
+    private List<WriteModel<Document>> written(Document... memberAwards) {
+        List<WriteModel<Document>> writes = cache.toWrites(List.of(memberAwards));
+        cache.applied(writes);
+        return writes;
+    }
+
+    @Test
+    void testUnchangedImageIsSkippedAndChangedFieldsAreSetAlone() {
+        assertEquals(award("TR1", 5), setOf(written(award("TR1", 5)).get(0)));
+
+        assertTrue(written(award("TR1", 5)).isEmpty());
+
+        List<WriteModel<Document>> writes = written(award("TR1", 6));
+        assertEquals(new Document("points", 6), setOf(writes.get(0)));
+
+        // A type change is a change
+        Document widened = award("TR1", 6).append("points", 6L);
+        assertEquals(new Document("points", 6L), setOf(written(widened).get(0)));
+    }
+
+    @Test
+    void testDiscardedAndEvictedImagesAreWrittenInFull() {
+        List<WriteModel<Document>> writes = cache.toWrites(List.of(award("TR1", 5)));
+        cache.invalidate(writes);
+        assertEquals(award("TR1", 5), setOf(written(award("TR1", 5)).get(0)));
+
+        written(award("TR2", 1), award("TR3", 1));
+        assertEquals(2, cache.size());
+        assertEquals(award("TR1", 5), setOf(written(award("TR1", 5)).get(0)));
+    }
+
+    @Test
+    void testImageIsOnlyRecordedOnceItsWriteIsApplied() {
+        List<WriteModel<Document>> pending = cache.toWrites(List.of(award("TR1", 5)));
+        assertEquals(0, cache.size());
+
+        // A write for the same key while the first is in flight carries the full image
+        List<WriteModel<Document>> overlapping = cache.toWrites(List.of(award("TR1", 5)));
+        assertEquals(award("TR1", 5), setOf(overlapping.get(0)));
+
+        // The overlapping writes may have landed in either order, so neither image is kept
+        cache.applied(overlapping);
+        cache.applied(pending);
+        assertEquals(0, cache.size());
+        assertEquals(award("TR1", 5), setOf(written(award("TR1", 5)).get(0)));
+        assertTrue(written(award("TR1", 5)).isEmpty());
+    }
+}
@@ -0,0 +1,67 @@
+package com.example.demo;
+
+import java.util.Map;
+import java.util.Set;
+
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import static org.mockito.ArgumentMatchers.any;
+import org.mockito.Mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import org.mockito.MockitoAnnotations;
+
+import com.example.demo.metrics.PrometheusMetricsConfig;
+import com.example.demo.service.impl.MemberProfileStore;
+import com.mongodb.ReadConcern;
+import com.mongodb.ReadPreference;
+import com.mongodb.client.ListCollectionsIterable;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+
+class MemberProfileStoreTest {
+
+    @Mock
+    private MongoDatabase database;
+    @Mock
+    private MongoCollection<Document> profiles;
+    @Mock
+    private ListCollectionsIterable<Document> collections;
+
+    private MemberProfileStore store;
+
+    @BeforeEach
+    void setUp() {
+        MockitoAnnotations.openMocks(this);
+        when(database.getCollection("member_profile")).thenReturn(profiles);
+        when(profiles.withReadPreference(any())).thenReturn(profiles);
+        when(profiles.withReadConcern(any())).thenReturn(profiles);
+        when(database.listCollections()).thenReturn(collections);
+        when(collections.filter(any(Bson.class))).thenReturn(collections);
+        store = new MemberProfileStore(database, 1, PrometheusMetricsConfig.getInstance("member_profile_test"));
+    }
+
+    @Test
+    void testBootstrapReadsThePrimaryAtMajority() {
+        verify(profiles).withReadPreference(ReadPreference.primary());
+        verify(profiles).withReadConcern(ReadConcern.MAJORITY);
+    }
+
+    @Test
+    void testCacheStaysOffWithoutPreImages() {
+        when(collections.first()).thenReturn(new Document("name", "member_profile").append("options", new Document()));
+
+        store.start();
+
+        verify(profiles, never()).watch();
+        assertFalse(store.isReady());
+        Document fromMongo = new Document("player_id", 7L);
+        Map<Object, Document> found = store.findAll(Set.of(7L), ids -> Map.of(7L, fromMongo));
+        assertEquals(fromMongo, found.get(7L));
+    }
+}
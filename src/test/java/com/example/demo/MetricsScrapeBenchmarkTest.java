@@ -0,0 +1,74 @@
+package com.example.demo;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.lang.management.ManagementFactory;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+
+import com.example.demo.metrics.PrometheusMetricsConfig;
+
+import io.prometheus.client.CollectorRegistry;
+import io.prometheus.client.exporter.common.TextFormat;
+
+/**
+ * Measures what a Prometheus scrape costs with many collections: time and heap allocated to render the default
+ * registry, the way the metrics endpoint does, after every collection has recorded from several workers.
+ * Run with {@code -Dbenchmark=true}.
+ */
+@EnabledIfSystemProperty(named = "benchmark", matches = "true")
+class MetricsScrapeBenchmarkTest {
+    private static final int COLLECTIONS = Integer.getInteger("benchmark.collections", 24);
+    private static final int WORKERS = Integer.getInteger("benchmark.threads", 8);
+    private static final int SCRAPES = Integer.getInteger("benchmark.scrapes", 2_000);
+
+    @Test
+    void measureScrapeCost() throws Exception {
+        for (int c = 0; c < COLLECTIONS; c++) {
+            PrometheusMetricsConfig metricsConfig = PrometheusMetricsConfig.getInstance("scrape" + c, "ScrapeTask");
+            Thread[] workers = new Thread[WORKERS];
+            for (int w = 0; w < WORKERS; w++) {
+                workers[w] = new Thread(() -> {
+                    for (int i = 0; i < 1000; i++) {
+                        metricsConfig.incrementTotalEventsHandled();
+                        metricsConfig.incrementTotalEventsHandledSuccessfully();
+                        metricsConfig.getWorkerEventLag().set(i);
+                        metricsConfig.getWorkerTps().set(i);
+                        metricsConfig.getStageDuration(PrometheusMetricsConfig.STAGE_PROCESS).observe(i / 1e6);
+                    }
+                });
+                workers[w].start();
+            }
+            for (Thread worker : workers) {
+                worker.join();
+            }
+            metricsConfig.getLaneDepth("fresh").set(1);
+            metricsConfig.getLaneDepth("backlog").set(1);
+            metricsConfig.getQueueDepth().set(1);
+        }
+
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        int length = 0;
+        for (int i = 0; i < SCRAPES / 10; i++) {
+            length = scrape();
+        }
+        long allocatedStart = threads.getCurrentThreadAllocatedBytes();
+        long start = System.nanoTime();
+        for (int i = 0; i < SCRAPES; i++) {
+            scrape();
+        }
+        double micros = (System.nanoTime() - start) / 1e3 / SCRAPES;
+        double kilobytes = (threads.getCurrentThreadAllocatedBytes() - allocatedStart) / 1024.0 / SCRAPES;
+
+        System.out.printf("%d collections x %d workers, %d bytes of exposition%n", COLLECTIONS, WORKERS, length);
+        System.out.printf("scrape     : %10.1f us%n", micros);
+        System.out.printf("allocated  : %10.1f KiB per scrape%n", kilobytes);
+    }
+
+    private static int scrape() throws IOException {
+        StringWriter writer = new StringWriter(1 << 16);
+        TextFormat.write004(writer, CollectorRegistry.defaultRegistry.metricFamilySamples());
+        return writer.getBuffer().length();
+    }
+}
@@ -0,0 +1,110 @@
+package com.example.demo;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.env.MockEnvironment;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.example.demo.config.MongoConfig;
+import com.example.demo.config.MongoSources;
+import com.mongodb.ReadPreference;
+import com.mongodb.client.MongoClient;
+
+class MongoConfigTest {
+
+    private final MongoConfig config = new MongoConfig();
+    private MongoClient[] clients = new MongoClient[0];
+
+    private void configure(boolean poolsEnabled, boolean exactlyOnce) {
+        // Clients connect lazily, so no server is needed
+        ReflectionTestUtils.setField(config, "mongoUri", "mongodb://localhost:27017");
+        ReflectionTestUtils.setField(config, "poolsEnabled", poolsEnabled);
+        ReflectionTestUtils.setField(config, "exactlyOnceEnabled", exactlyOnce);
+        ReflectionTestUtils.setField(config, "lookupMinSize", 0);
+        ReflectionTestUtils.setField(config, "lookupMaxSize", 4);
+        ReflectionTestUtils.setField(config, "lookupMaxStalenessSeconds", 120L);
+        ReflectionTestUtils.setField(config, "writeMinSize", 0);
+        ReflectionTestUtils.setField(config, "writeMaxSize", 4);
+        ReflectionTestUtils.setField(config, "checkpointMinSize", 0);
+        ReflectionTestUtils.setField(config, "checkpointMaxSize", 2);
+    }
+
+    private MongoClient[] createClients() {
+        MongoClient shared = config.mongoClient();
+        MongoClient write = config.writeMongoClient(shared);
+        clients = new MongoClient[] {shared, config.lookupMongoClient(shared), write,
+                config.checkpointMongoClient(shared, write)};
+        return clients;
+    }
+
+    @AfterEach
+    void closeClients() {
+        for (MongoClient client : clients) {
+            client.close();
+        }
+    }
+
+    @Test
+    void testWorkloadsShareOneClientByDefault() {
+        configure(false, false);
+        MongoClient[] created = createClients();
+
+        assertSame(created[0], created[1]);
+        assertSame(created[0], created[2]);
+        assertSame(created[0], created[3]);
+        assertEquals(ReadPreference.nearest(), created[0].getDatabase("SJM").getReadPreference());
+    }
+
+    @Test
+    void testWorkloadPoolsHaveTheirOwnClients() {
+        configure(true, false);
+        MongoClient[] created = createClients();
+        MongoClient lookup = created[1];
+        MongoClient write = created[2];
+        MongoClient checkpoint = created[3];
+
+        assertNotSame(created[0], lookup);
+        assertNotSame(write, checkpoint);
+        assertEquals(ReadPreference.secondaryPreferred(120, TimeUnit.SECONDS),
+                lookup.getDatabase("SJM").getReadPreference());
+        assertEquals(ReadPreference.primary(), write.getDatabase("SJM").getReadPreference());
+        assertEquals(ReadPreference.primary(), checkpoint.getDatabase("SJM").getReadPreference());
+    }
+
+    @Test
+    void testExactlyOnceCheckpointsShareTheWriteClient() {
+        configure(true, true);
+        MongoClient[] created = createClients();
+
+        assertSame(created[2], created[3]);
+    }
+
+    @Test
+    void testSourcesResolveToTheirOwnDatabaseAndCluster() {
+        configure(false, false);
+        ReflectionTestUtils.setField(config, "databaseName", "SJM");
+        ReflectionTestUtils.setField(config, "sourceNames", new String[] {"Points", "Awards", "Stub"});
+        MockEnvironment environment = new MockEnvironment()
+                .withProperty("spring.mongodb.source.Points.database", "SJM_ARCHIVE")
+                .withProperty("spring.mongodb.source.Points.collection", "tPlayerPoints")
+                .withProperty("spring.mongodb.source.Awards.uri", "mongodb://other:27017")
+                .withProperty("spring.mongodb.source.Stub.uri", "mongodb://other:27017");
+        MongoClient main = config.mongoClient();
+        clients = new MongoClient[] {main};
+
+        try (MongoSources sources = config.mongoSources(main, environment)) {
+            assertEquals(3, sources.getSources().size());
+            assertEquals("SJM_ARCHIVE", sources.getCollection("Points").getNamespace().getDatabaseName());
+            assertEquals("tPlayerPoints", sources.getCollection("Points").getNamespace().getCollectionName());
+            assertEquals("SJM.Awards", sources.getCollection("Awards").getNamespace().getFullName());
+            assertEquals("SJM_ARCHIVE", sources.getDatabase("Points", null).getName());
+            assertNull(sources.getDatabase("tAwards", null));
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package com.example.demo;
+
+import java.util.Arrays;
+
+import org.bson.BsonDocument;
+import org.bson.BsonInt32;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import static org.mockito.ArgumentMatchers.any;
+import org.mockito.Mock;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import org.mockito.MockitoAnnotations;
+
+import com.example.demo.service.impl.PrizeTypeIndex;
+import com.mongodb.ReadConcern;
+import com.mongodb.ReadPreference;
+import com.mongodb.client.FindIterable;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoCursor;
+import com.mongodb.client.model.changestream.ChangeStreamDocument;
+import com.mongodb.client.model.changestream.OperationType;
+
+class PrizeTypeIndexTest {
+
+    @Mock
+    private MongoCollection<Document> ruleOutcomes;
+
+    private PrizeTypeIndex index;
+
+    @BeforeEach
+    void setUp() {
+        MockitoAnnotations.openMocks(this);
+        when(ruleOutcomes.withReadPreference(any())).thenReturn(ruleOutcomes);
+        when(ruleOutcomes.withReadConcern(any())).thenReturn(ruleOutcomes);
+        index = new PrizeTypeIndex(ruleOutcomes);
+    }
+
+    @SuppressWarnings("unchecked")
+    private FindIterable<Document> iterableOf(Document... docs) {
+        FindIterable<Document> iterable = mock(FindIterable.class);
+        MongoCursor<Document> cursor = mock(MongoCursor.class);
+        when(iterable.projection(any(Bson.class))).thenReturn(iterable);
+        when(iterable.iterator()).thenReturn(cursor);
+        Boolean[] more = new Boolean[docs.length];
+        Arrays.fill(more, true);
+        more[docs.length - 1] = false;
+        when(cursor.hasNext()).thenReturn(true, more);
+        when(cursor.next()).thenReturn(docs[0], Arrays.copyOfRange(docs, 1, docs.length));
+        return iterable;
+    }
+
+    @Test
+    void testRidIsLoadedOnceAndProbedFromMemory() {
+        FindIterable<Document> outcomes = iterableOf(new Document("_id", 1).append("PID", 10),
+                new Document("_id", 2).append("PID", 20L));
+        when(ruleOutcomes.find(any(Bson.class))).thenReturn(outcomes);
+
+        assertTrue(index.containsPid("R1", 10L));
+        assertTrue(index.containsPid("R1", 20));
+        assertFalse(index.containsPid("R1", 30));
+        verify(ruleOutcomes, times(1)).find(any(Bson.class));
+    }
+
+    @Test
+    void testSetsAreReadFromThePrimaryAtMajority() {
+        verify(ruleOutcomes).withReadPreference(ReadPreference.primary());
+        verify(ruleOutcomes).withReadConcern(ReadConcern.MAJORITY);
+    }
+
+    @Test
+    void testRidIsNotCachedBeforeTheWatcherIsOpen() {
+        // The stream never opens, so no change could evict a cached RID
+        when(ruleOutcomes.watch()).thenThrow(new IllegalStateException("no replica set"));
+        when(ruleOutcomes.find(any(Bson.class))).thenAnswer(invocation -> iterableOf(new Document("_id", 1).append("PID", 10)));
+        index.start();
+        try {
+            assertTrue(index.containsPid("R1", 10));
+            assertTrue(index.containsPid("R1", 10));
+            verify(ruleOutcomes, times(2)).find(any(Bson.class));
+        } finally {
+            index.close();
+        }
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void testDeletedOutcomeEvictsItsRid() {
+        FindIterable<Document> before = iterableOf(new Document("_id", 1).append("PID", 10));
+        FindIterable<Document> after = iterableOf(new Document("_id", 3).append("PID", 30));
+        when(ruleOutcomes.find(any(Bson.class))).thenReturn(before, after);
+        assertTrue(index.containsPid("R1", 10));
+
+        ChangeStreamDocument<Document> delete = mock(ChangeStreamDocument.class);
+        when(delete.getOperationType()).thenReturn(OperationType.DELETE);
+        when(delete.getDocumentKey()).thenReturn(new BsonDocument("_id", new BsonInt32(1)));
+        index.onChange(delete);
+
+        assertFalse(index.containsPid("R1", 10));
+        assertTrue(index.containsPid("R1", 30));
+        verify(ruleOutcomes, times(2)).find(any(Bson.class));
+    }
+}
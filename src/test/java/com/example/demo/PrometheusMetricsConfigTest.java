@@ -0,0 +1,56 @@
+package com.example.demo;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import org.junit.jupiter.api.Test;
+
+import com.example.demo.metrics.PrometheusMetricsConfig;
+
+import io.prometheus.client.CollectorRegistry;
+
+class PrometheusMetricsConfigTest {
+    private static final String[] COLLECTION_LABELS = {"collection", "task"};
+    private static final String[] WORKER_LABELS = {"collection", "task", "worker"};
+
+    private static Double sample(String name, String[] labels, String... values) {
+        return CollectorRegistry.defaultRegistry.getSampleValue(name, labels, values);
+    }
+
+    @Test
+    void testCollectionsShareOneLabelledFamily() {
+        PrometheusMetricsConfig first = PrometheusMetricsConfig.getInstance("metricsFirst", "FirstTask");
+        PrometheusMetricsConfig second = PrometheusMetricsConfig.getInstance("metricsSecond", "SecondTask");
+
+        first.incrementTotalEventsHandled(3);
+        second.incrementTotalEventsHandled();
+        second.getLaneDepth("fresh").set(7);
+
+        assertEquals(3.0, sample("changestream_events_handled_total", COLLECTION_LABELS, "metricsFirst", "FirstTask"));
+        assertEquals(1.0, sample("changestream_events_handled_total", COLLECTION_LABELS, "metricsSecond", "SecondTask"));
+        assertEquals(7.0, sample("changestream_lane_depth", new String[] {"collection", "task", "lane"},
+                "metricsSecond", "SecondTask", "fresh"));
+    }
+
+    @Test
+    void testFirstTaskNamesTheCollection() {
+        PrometheusMetricsConfig owner = PrometheusMetricsConfig.getInstance("metricsOwned", "OwnerTask");
+
+        assertSame(owner, PrometheusMetricsConfig.getInstance("metricsOwned"));
+        assertEquals("OwnerTask", PrometheusMetricsConfig.getInstance("metricsOwned").getTaskName());
+    }
+
+    @Test
+    void testReplacedWorkersReuseTheirSlot() throws InterruptedException {
+        PrometheusMetricsConfig metricsConfig = PrometheusMetricsConfig.getInstance("metricsWorkers", "WorkerTask");
+        for (int i = 1; i <= 3; i++) {
+            double lag = i;
+            Thread worker = new Thread(() -> metricsConfig.getWorkerEventLag().set(lag));
+            worker.start();
+            worker.join();
+        }
+
+        assertEquals(3.0, sample("changestream_event_lag_millis", WORKER_LABELS, "metricsWorkers", "WorkerTask", "0"));
+        assertNull(sample("changestream_event_lag_millis", WORKER_LABELS, "metricsWorkers", "WorkerTask", "1"));
+    }
+}
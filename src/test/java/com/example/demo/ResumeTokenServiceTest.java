@@ -1,5 +1,6 @@
 package com.example.demo;
 
+import java.util.List;
 import java.util.Map;
 
 import org.bson.BsonDocument;
@@ -8,19 +9,25 @@ import org.bson.Document;
 import org.bson.conversions.Bson;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.eq;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import org.mockito.MockitoAnnotations;
 
+import com.example.demo.service.MongoCheckpointStore;
 import com.example.demo.service.ResumeTokenService;
 import com.mongodb.client.FindIterable;
 import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.IndexOptions;
 import com.mongodb.client.model.UpdateOptions;
+import com.mongodb.client.result.UpdateResult;
 
 public class ResumeTokenServiceTest {
 
@@ -84,4 +91,56 @@ public class ResumeTokenServiceTest {
         verify(collectionMap, times(1)).get(eq(RESUME_TOKEN_COLLECTION_NAME));
         verify(resumeTokenCollection, times(1)).find(any(Bson.class));
     }
+
+    @Test
+    public void testGetResumeTokenCompactLayout() {
+        ResumeTokenService compactService = new ResumeTokenService(collectionMap, RESUME_TOKEN_COLLECTION_NAME,
+                ResumeTokenService.LAYOUT_COMPACT);
+        Document collectionDoc = new Document("_id", "testCollection").append("threads", new Document()
+                .append("T0", new Document("resumeToken", new Document("_data", "later")).append("date", new BsonTimestamp(200, 1)))
+                .append("T1", new Document("resumeToken", new Document("_data", "earliest")).append("date", new BsonTimestamp(100, 1))));
+        when(findIterable.first()).thenReturn(collectionDoc);
+
+        BsonDocument token = compactService.getResumeToken("testCollection");
+
+        // Single `_id` fetch, no sort
+        assertNotNull(token);
+        assertEquals("earliest", token.getString("_data").getValue());
+        verify(findIterable, never()).sort(any(Bson.class));
+    }
+
+    @Test
+    public void testEnsureIndexesPerThreadLayout() {
+        new MongoCheckpointStore(collectionMap, RESUME_TOKEN_COLLECTION_NAME).ensureIndexes();
+        verify(resumeTokenCollection, times(2)).createIndex(any(Bson.class), any(IndexOptions.class));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testSaveAllCompactLayoutIsOneUpdate() {
+        MongoCheckpointStore store = new MongoCheckpointStore(collectionMap, RESUME_TOKEN_COLLECTION_NAME,
+                MongoCheckpointStore.LAYOUT_COMPACT);
+        when(resumeTokenCollection.updateOne(any(Bson.class), any(List.class)))
+                .thenReturn(UpdateResult.acknowledged(1, 1L, null));
+
+        store.saveAll("testCollection", "T0", new BsonTimestamp(300, 1), new BsonDocument());
+
+        // Every thread entry is rewritten inside the document, nothing is read first
+        verify(resumeTokenCollection).updateOne(any(Bson.class), any(List.class));
+        verify(resumeTokenCollection, never()).find(any(Bson.class));
+    }
+
+    @Test
+    public void testRemoveRestoresTheLastPerThreadCheckpoint() {
+        MongoCheckpointStore store = new MongoCheckpointStore(collectionMap, RESUME_TOKEN_COLLECTION_NAME);
+        Document row = new Document("collectionName", "testCollection").append("threadName", "T1")
+                .append("resumeToken", new Document("_data", "last")).append("date", new BsonTimestamp(100, 1));
+        when(resumeTokenCollection.findOneAndDelete(any(Bson.class))).thenReturn(row);
+        // Another instance retired the other threads meanwhile
+        when(resumeTokenCollection.countDocuments(any(Bson.class))).thenReturn(0L);
+
+        store.remove("testCollection", "T1");
+
+        verify(resumeTokenCollection).updateOne(any(Bson.class), any(Document.class), any(UpdateOptions.class));
+    }
 }
@@ -0,0 +1,72 @@
+package com.example.demo;
+
+import org.bson.BsonDocument;
+import org.bson.BsonDocumentReader;
+import org.bson.BsonInt32;
+import org.bson.BsonString;
+import org.bson.BsonTimestamp;
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.DecoderContext;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.Test;
+
+import com.example.demo.service.StreamEvent;
+import com.mongodb.MongoClientSettings;
+import com.mongodb.client.model.changestream.ChangeStreamDocument;
+import com.mongodb.client.model.changestream.OperationType;
+
+class StreamEventTest {
+
+    private static BsonDocument changeEvent(boolean withFullDocument) {
+        BsonDocument event = new BsonDocument("_id", new BsonDocument("_data", new BsonString("8265A1")))
+                .append("operationType", new BsonString("update"))
+                .append("clusterTime", new BsonTimestamp(1_700_000_000, 3))
+                .append("ns", new BsonDocument("db", new BsonString("test")).append("coll", new BsonString("Awards")))
+                .append("documentKey", new BsonDocument("_id", new BsonInt32(7)));
+        if (withFullDocument) {
+            event.append("fullDocument", new BsonDocument("_id", new BsonInt32(7)).append("TrainId", new BsonInt32(42)));
+        }
+        return event;
+    }
+
+    private static ChangeStreamDocument<Document> decoded(BsonDocument event) {
+        return ChangeStreamDocument.createCodec(Document.class, MongoClientSettings.getDefaultCodecRegistry())
+                .decode(new BsonDocumentReader(event), DecoderContext.builder().build());
+    }
+
+    @Test
+    void rawAccessorsMatchDecodedEvent() {
+        BsonDocument event = changeEvent(true);
+        StreamEvent raw = StreamEvent.raw(RawBsonDocument.parse(event.toJson()));
+        StreamEvent decoded = StreamEvent.of(decoded(event));
+
+        assertEquals(OperationType.UPDATE, raw.operationType());
+        assertEquals(decoded.operationType(), raw.operationType());
+        assertEquals(decoded.clusterTime(), raw.clusterTime());
+        assertEquals(decoded.resumeToken(), raw.resumeToken());
+        assertTrue(raw.hasDocumentId());
+        assertTrue(decoded.hasDocumentId());
+    }
+
+    @Test
+    void rawEventWithoutFullDocumentHasNoDocumentId() {
+        BsonDocument event = changeEvent(false);
+
+        assertFalse(StreamEvent.raw(RawBsonDocument.parse(event.toJson())).hasDocumentId());
+        assertFalse(StreamEvent.of(decoded(event)).hasDocumentId());
+    }
+
+    @Test
+    void decodeReturnsTheDriverEventOnce() {
+        BsonDocument event = changeEvent(true);
+        StreamEvent raw = StreamEvent.raw(RawBsonDocument.parse(event.toJson()));
+
+        ChangeStreamDocument<Document> first = raw.decode();
+        assertEquals(decoded(event), first);
+        assertEquals(42, first.getFullDocument().getInteger("TrainId"));
+        assertTrue(first == raw.decode());
+    }
+}
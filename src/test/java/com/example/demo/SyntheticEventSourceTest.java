@@ -0,0 +1,93 @@
+package com.example.demo;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.bson.BsonDocument;
+import org.bson.BsonString;
+import org.bson.Document;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.Test;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.example.demo.service.BusinessTask;
+import com.example.demo.service.StreamEvent;
+import com.example.demo.service.SyntheticEventSource;
+import com.mongodb.client.MongoCursor;
+import com.mongodb.client.model.changestream.ChangeStreamDocument;
+import com.mongodb.client.model.changestream.OperationType;
+
+class SyntheticEventSourceTest {
+
+    private static BusinessTask task(String collectionName) {
+        BusinessTask task = mock(BusinessTask.class);
+        when(task.getCollectionName()).thenReturn(collectionName);
+        return task;
+    }
+
+    @Test
+    void testEventsTakeTheCollectionShape() {
+        SyntheticEventSource source = new SyntheticEventSource(0, 100, 0, 1, 3, 1);
+        try (MongoCursor<StreamEvent> cursor = source.open(task("changestream"), null, 0)) {
+            StreamEvent event = cursor.next();
+            assertEquals(OperationType.UPDATE, event.operationType());
+            assertTrue(event.hasDocumentId());
+
+            ChangeStreamDocument<Document> decoded = event.decode();
+            Document txn = decoded.getFullDocument();
+            for (String field : new String[] {"playerID", "transactionID", "value", "name", "date"}) {
+                assertTrue(txn.containsKey(field), field);
+            }
+            assertEquals("changestream", decoded.getNamespace().getCollectionName());
+
+            cursor.next();
+            cursor.next();
+            assertFalse(cursor.hasNext());
+        }
+
+        try (MongoCursor<StreamEvent> cursor = source.open(task("Awards"), null, 0)) {
+            Document award = cursor.next().decode().getFullDocument();
+            assertNotNull(award.get("TrainId"));
+            assertNotNull(award.get("PrizeId"));
+        }
+    }
+
+    @Test
+    void testSkewConcentratesKeys() {
+        int events = 20_000;
+        SyntheticEventSource source = new SyntheticEventSource(0, 1000, 1.2, 1, events, 7);
+        Map<Object, Integer> counts = new HashMap<>();
+        try (MongoCursor<StreamEvent> cursor = source.open(task("Points"), null, 0)) {
+            while (cursor.hasNext()) {
+                counts.merge(cursor.next().decode().getFullDocument().get("TrainId"), 1, Integer::sum);
+            }
+        }
+        // Under Zipf(1.2) over 1000 keys the hottest key draws about a quarter of the events
+        assertTrue(counts.get(0) > events / 8, "hottest key count " + counts.get(0));
+        assertTrue(counts.get(0) > 10 * counts.getOrDefault(100, 1));
+    }
+
+    @Test
+    void testResumeContinuesTheSequence() {
+        SyntheticEventSource source = new SyntheticEventSource(0, 10, 0, 1, 5, 1);
+        BsonDocument token;
+        try (MongoCursor<StreamEvent> cursor = source.open(task("Points"), null, 0)) {
+            cursor.next();
+            token = cursor.next().resumeToken();
+        }
+        assertEquals(new BsonDocument("_data", new BsonString(String.format("%016x", 1))), token);
+
+        int remaining = 0;
+        try (MongoCursor<StreamEvent> cursor = source.open(task("Points"), token, 0)) {
+            while (cursor.hasNext()) {
+                cursor.next();
+                remaining++;
+            }
+        }
+        assertEquals(3, remaining);
+    }
+}
@@ -0,0 +1,155 @@
+package com.example.demo;
+
+import java.util.Date;
+import java.util.List;
+
+import org.bson.BsonTimestamp;
+import org.bson.Document;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.eq;
+import org.mockito.Mock;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import org.mockito.MockitoAnnotations;
+
+import io.prometheus.client.Counter;
+
+import com.example.demo.metrics.PrometheusMetricsConfig;
+import com.example.demo.metrics.TpsCalculator;
+import com.example.demo.service.MongoCheckpointStore;
+import com.example.demo.service.ResumeTokenService;
+import com.example.demo.service.TokenFence;
+import com.example.demo.service.impl.Task1;
+import com.mongodb.MongoNamespace;
+import com.mongodb.TransactionOptions;
+import com.mongodb.client.ClientSession;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.TransactionBody;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.UpdateOptions;
+import com.mongodb.client.model.WriteModel;
+import com.mongodb.client.model.changestream.ChangeStreamDocument;
+
+class Task1Test {
+
+    @Mock
+    private ResumeTokenService resumeTokenService;
+
+    @Mock
+    private TpsCalculator tpsCalculator;
+
+    @Mock
+    private MongoClient mongoClient;
+
+    @Mock
+    private MongoCollection<Document> collection;
+
+    @Mock
+    private MongoDatabase database;
+
+    @BeforeEach
+    void setUp() {
+        MockitoAnnotations.openMocks(this);
+        when(collection.getNamespace()).thenReturn(new MongoNamespace("SJM", "changestream"));
+        when(mongoClient.getDatabase("SJM")).thenReturn(database);
+        when(database.getCollection("changestream")).thenReturn(collection);
+    }
+
+    @SuppressWarnings("unchecked")
+    private ChangeStreamDocument<Document> event(int playerID, int transactionID, Date date) {
+        ChangeStreamDocument<Document> event = mock(ChangeStreamDocument.class);
+        when(event.getClusterTime()).thenReturn(new BsonTimestamp((int) (System.currentTimeMillis() / 1000), 1));
+        when(event.getFullDocument()).thenReturn(new Document("playerID", playerID)
+                .append("transactionID", transactionID)
+                .append("value", 10.0)
+                .append("name", "player" + playerID)
+                .append("date", date));
+        return event;
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void testBatchMergesTransactionsPerPlayerAndDay() {
+        Task1 task = new Task1(resumeTokenService, tpsCalculator, mongoClient);
+        task.setCollection(collection);
+        Date morning = new Date(1_700_000_000_000L);
+        Date evening = new Date(1_700_000_000_000L + 3_600_000L);
+
+        task.startBatchProcessing("T0", List.of(event(1, 100, morning), event(2, 200, morning),
+                event(1, 101, evening), event(1, 100, evening)), false);
+
+        ArgumentCaptor<List<WriteModel<Document>>> writes = ArgumentCaptor.forClass(List.class);
+        verify(collection).bulkWrite(writes.capture());
+        assertEquals(2, writes.getValue().size());
+
+        UpdateOneModel<Document> player1 = (UpdateOneModel<Document>) writes.getValue().get(0);
+        Document set = ((List<Document>) player1.getUpdatePipeline()).get(0).get("$set", Document.class);
+        List<Document> incoming = set.get("txns", Document.class).get("$let", Document.class)
+                .get("vars", Document.class).get("incoming", Document.class).getList("$literal", Document.class);
+        // Repeated transaction 100 keeps its position and takes the latest value
+        assertEquals(List.of(100, 101), incoming.stream().map(txn -> txn.getInteger("transactionID")).toList());
+        assertEquals(evening, incoming.get(0).getDate("date"));
+    }
+
+    @Test
+    void testBatchCountsOnlyEventsItWrote() {
+        Task1 task = new Task1(resumeTokenService, tpsCalculator, mongoClient);
+        task.setCollection(collection);
+        Date date = new Date(1_700_000_000_000L);
+        ChangeStreamDocument<Document> invalid = event(3, 300, date);
+        invalid.getFullDocument().remove("value");
+
+        assertEquals(2, task.startBatchProcessing("T0", List.of(event(1, 100, date), invalid, event(2, 200, date)), false));
+    }
+
+    @Test
+    void testLiveEventsWriteTheirOwnUpdateWithoutWaiting() {
+        Task1 task = new Task1(resumeTokenService, tpsCalculator, mongoClient);
+        task.setCollection(collection);
+        Date date = new Date();
+
+        task.startProcessing("T0", event(1, 100, date));
+        task.startProcessing("T0", event(1, 101, date));
+
+        verify(collection, times(2)).updateOne(any(Document.class), anyList(), any(UpdateOptions.class));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void testFencedCommitWritesThroughTheWriteClientSession() {
+        // Separate pools: the watched collection comes from the stream client, writes go through the write client
+        MongoClient streamClient = mock(MongoClient.class);
+        MongoCollection<Document> watched = mock(MongoCollection.class);
+        when(watched.getNamespace()).thenReturn(new MongoNamespace("SJM", "changestream"));
+        ClientSession session = mock(ClientSession.class);
+        when(mongoClient.startSession()).thenReturn(session);
+        when(session.withTransaction(any(TransactionBody.class), any(TransactionOptions.class)))
+                .thenAnswer(invocation -> ((TransactionBody<?>) invocation.getArgument(0)).execute());
+        MongoCheckpointStore store = mock(MongoCheckpointStore.class);
+        when(resumeTokenService.getMongoCheckpointStore()).thenReturn(store);
+        PrometheusMetricsConfig metricsConfig = mock(PrometheusMetricsConfig.class);
+        when(metricsConfig.getFencedCommits()).thenReturn(mock(Counter.Child.class));
+
+        Task1 task = new Task1(resumeTokenService, tpsCalculator, mongoClient);
+        task.setCollection(watched);
+        TokenFence fence = TokenFence.forTask(task, metricsConfig, 0, 1);
+        Date date = new Date(1_700_000_000_000L);
+
+        assertEquals(1, task.startFencedBatchProcessing("T0", List.of(event(1, 100, date)), fence));
+
+        verify(collection).bulkWrite(eq(session), anyList());
+        verify(store).save(eq(session), eq("changestream"), eq(TokenFence.FENCE_THREAD), any(), any());
+        verify(streamClient, never()).startSession();
+        verify(watched, never()).bulkWrite(any(ClientSession.class), anyList());
+    }
+}
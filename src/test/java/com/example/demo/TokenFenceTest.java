@@ -0,0 +1,197 @@
+package com.example.demo;
+
+import java.util.List;
+
+import org.bson.BsonDocument;
+import org.bson.BsonString;
+import org.bson.BsonTimestamp;
+import org.bson.Document;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import org.mockito.Mock;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import org.mockito.MockitoAnnotations;
+
+import com.example.demo.metrics.PrometheusMetricsConfig;
+import com.example.demo.metrics.TpsCalculator;
+import com.example.demo.service.BusinessTask;
+import com.example.demo.service.MongoCheckpointStore;
+import com.example.demo.service.ResumeTokenService;
+import com.example.demo.service.TokenFence;
+import com.mongodb.MongoException;
+import com.mongodb.TransactionOptions;
+import com.mongodb.client.ClientSession;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.TransactionBody;
+import com.mongodb.client.model.InsertOneModel;
+import com.mongodb.client.model.WriteModel;
+import com.mongodb.client.model.changestream.ChangeStreamDocument;
+
+import io.prometheus.client.Counter;
+
+class TokenFenceTest {
+
+    @Mock
+    private MongoClient mongoClient;
+
+    @Mock
+    private MongoCheckpointStore store;
+
+    @Mock
+    private PrometheusMetricsConfig metricsConfig;
+
+    @Mock
+    private Counter.Child replaySkipped;
+
+    private TokenFence fence;
+
+    @BeforeEach
+    void setUp() {
+        MockitoAnnotations.openMocks(this);
+        when(metricsConfig.getReplaySkipped()).thenReturn(replaySkipped);
+        when(metricsConfig.getFencedCommits()).thenReturn(mock(Counter.Child.class));
+        fence = new TokenFence("testCollection", mongoClient, store, metricsConfig);
+    }
+
+    @SuppressWarnings("unchecked")
+    private ChangeStreamDocument<Document> event(int seconds, int increment, String data) {
+        ChangeStreamDocument<Document> event = mock(ChangeStreamDocument.class);
+        when(event.getClusterTime()).thenReturn(new BsonTimestamp(seconds, increment));
+        when(event.getResumeToken()).thenReturn(new BsonDocument("_data", new BsonString(data)));
+        return event;
+    }
+
+    @Test
+    void testLoadWithoutFenceSkipsNothing() {
+        assertNull(fence.load());
+        assertFalse(fence.isApplied(event(100, 1, "8200000064")));
+    }
+
+    @Test
+    void testReplayedEventsAtOrBehindFenceAreSkipped() {
+        when(store.loadThreadCheckpoint("testCollection", TokenFence.FENCE_THREAD)).thenReturn(
+                new Document("resumeToken", new Document("_data", "8200000064000000022B"))
+                        .append("date", new BsonTimestamp(100, 2)));
+
+        BsonDocument token = fence.load();
+        assertEquals("8200000064000000022B", token.getString("_data").getValue());
+
+        ChangeStreamDocument<Document> earlier = event(99, 7, "8200000063000000072B");
+        ChangeStreamDocument<Document> sameTxnBefore = event(100, 2, "8200000064000000022A");
+        ChangeStreamDocument<Document> fenceEvent = event(100, 2, "8200000064000000022B");
+        ChangeStreamDocument<Document> sameTxnAfter = event(100, 2, "8200000064000000022C");
+        ChangeStreamDocument<Document> later = event(100, 3, "8200000064000000032B");
+
+        List<ChangeStreamDocument<Document>> fresh = fence.unapplied(
+                List.of(earlier, sameTxnBefore, fenceEvent, sameTxnAfter, later));
+
+        assertEquals(List.of(sameTxnAfter, later), fresh);
+        verify(replaySkipped).inc(3);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void testCommitWritesAndFenceInOneTransaction() {
+        ClientSession session = mock(ClientSession.class);
+        when(mongoClient.startSession()).thenReturn(session);
+        when(session.withTransaction(any(TransactionBody.class), any(TransactionOptions.class)))
+                .thenAnswer(invocation -> ((TransactionBody<?>) invocation.getArgument(0)).execute());
+        MongoCollection<Document> target = mock(MongoCollection.class);
+        List<WriteModel<Document>> writes = List.of(new InsertOneModel<>(new Document("TrainId", 1)));
+        ChangeStreamDocument<Document> last = event(200, 1, "82000000C8000000012B");
+        BsonDocument lastToken = last.getResumeToken();
+
+        fence.commit(target, writes, last);
+
+        verify(target).bulkWrite(session, writes);
+        verify(store).save(eq(session), eq("testCollection"), eq(TokenFence.FENCE_THREAD),
+                eq(new BsonTimestamp(200, 1)), eq(lastToken));
+        verify(session).close();
+        assertTrue(fence.isApplied(last));
+        assertFalse(fence.isApplied(event(200, 2, "82000000C8000000022B")));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void testFailedCommitHaltsFenceUntilReload() {
+        TokenFence retrying = new TokenFence("testCollection", mongoClient, store, metricsConfig, 2, 1);
+        ClientSession session = mock(ClientSession.class);
+        when(mongoClient.startSession()).thenReturn(session);
+        when(session.withTransaction(any(TransactionBody.class), any(TransactionOptions.class)))
+                .thenThrow(new MongoException("write conflict"));
+        MongoCollection<Document> target = mock(MongoCollection.class);
+        List<WriteModel<Document>> writes = List.of(new InsertOneModel<>(new Document("TrainId", 1)));
+        long generation = retrying.generation();
+
+        assertThrows(MongoException.class, () -> retrying.commit(target, writes, event(200, 1, "82000000C8000000012B")));
+        verify(session, times(3)).withTransaction(any(TransactionBody.class), any(TransactionOptions.class));
+
+        // A later batch must not move the fence past the failed one
+        ChangeStreamDocument<Document> later = event(201, 1, "82000000C9000000012B");
+        assertThrows(TokenFence.StaleBatchException.class, () -> retrying.commit(target, writes, later, generation));
+        verify(session, times(3)).withTransaction(any(TransactionBody.class), any(TransactionOptions.class));
+        assertFalse(retrying.isApplied(later));
+
+        // Reopening from the fence clears the halt; batches of the old stream stay refused
+        retrying.load();
+        assertThrows(TokenFence.StaleBatchException.class, () -> retrying.commit(target, writes, later, generation));
+        when(session.withTransaction(any(TransactionBody.class), any(TransactionOptions.class)))
+                .thenAnswer(invocation -> ((TransactionBody<?>) invocation.getArgument(0)).execute());
+        retrying.commit(target, writes, later, retrying.generation());
+        assertTrue(retrying.isApplied(later));
+    }
+
+    @Test
+    void testTaskWhoseTargetClientIsUnknownIsNotFenced() {
+        // The default target is the watched collection, resolved on the change stream client
+        BusinessTask task = new BusinessTask(mock(ResumeTokenService.class), mock(TpsCalculator.class), metricsConfig,
+                "testCollection", mongoClient) {
+            @Override
+            protected int processChange(ChangeStreamDocument<Document> event) {
+                return 0;
+            }
+
+            @Override
+            protected List<WriteModel<Document>> buildBatchWrites(List<ChangeStreamDocument<Document>> events) {
+                return List.of();
+            }
+        };
+
+        assertThrows(IllegalStateException.class, () -> TokenFence.forTask(task, metricsConfig, 0, 1));
+    }
+
+    @Test
+    void testRetiredFenceBecomesAWorkerCheckpoint() {
+        ResumeTokenService checkpoints = mock(ResumeTokenService.class);
+        when(checkpoints.getMongoCheckpointStore()).thenReturn(store);
+        when(store.loadThreadCheckpoint("testCollection", TokenFence.FENCE_THREAD)).thenReturn(
+                new Document("resumeToken", new Document("_data", "8200000064000000022B"))
+                        .append("date", new BsonTimestamp(100, 2)));
+        BusinessTask task = new BusinessTask(checkpoints, mock(TpsCalculator.class), metricsConfig,
+                "testCollection", mongoClient) {
+            @Override
+            protected int processChange(ChangeStreamDocument<Document> event) {
+                return 0;
+            }
+        };
+
+        TokenFence.retire(task, "ChangeStream-testCollection-T0");
+
+        // The stream resumes where the fence was, and the fence no longer counts as a thread's checkpoint
+        verify(checkpoints).saveResumeToken(new BsonTimestamp(100, 2),
+                new BsonDocument("_data", new BsonString("8200000064000000022B")), "ChangeStream-testCollection-T0",
+                "testCollection");
+        verify(store).delete("testCollection", TokenFence.FENCE_THREAD);
+    }
+}
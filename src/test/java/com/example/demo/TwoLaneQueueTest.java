@@ -0,0 +1,123 @@
+package com.example.demo;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import org.bson.BsonDocument;
+import org.bson.BsonInt32;
+import org.bson.BsonString;
+import org.bson.BsonTimestamp;
+import org.bson.Document;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.Test;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.example.demo.service.LagTracker;
+import com.example.demo.service.StreamEvent;
+import com.example.demo.service.TwoLaneQueue;
+import com.example.demo.service.TwoLaneQueue.LaneTask;
+import com.mongodb.client.model.changestream.ChangeStreamDocument;
+
+class TwoLaneQueueTest {
+
+    @Test
+    void testFreshLaneGetsItsShareAndBacklogKeepsDraining() throws InterruptedException {
+        TwoLaneQueue queue = new TwoLaneQueue(0.8);
+        for (int i = 0; i < 20; i++) {
+            queue.offer(new LaneTask(() -> { }, false));
+        }
+        for (int i = 0; i < 20; i++) {
+            queue.offer(new LaneTask(() -> { }, true));
+        }
+
+        int fresh = 0;
+        for (int i = 0; i < 10; i++) {
+            if (((LaneTask) queue.take()).fresh()) fresh++;
+        }
+        assertEquals(8, fresh);
+        assertEquals(12, queue.freshSize());
+        assertEquals(18, queue.backlogSize());
+
+        // Once the fresh lane is empty the backlog gets every take
+        List<Runnable> rest = new ArrayList<>();
+        queue.drainTo(rest);
+        assertEquals(30, rest.size());
+        assertTrue(rest.subList(18, 30).stream().noneMatch(task -> ((LaneTask) task).fresh()));
+        assertNull(queue.poll());
+    }
+
+    @Test
+    void testLanesStayFifoAndUntaggedTasksAreFresh() {
+        TwoLaneQueue queue = new TwoLaneQueue(1.0);
+        Runnable first = () -> { };
+        Runnable second = () -> { };
+        queue.offer(first);
+        queue.offer(second);
+
+        assertEquals(2, queue.freshSize());
+        assertSame(first, queue.poll());
+        assertSame(second, queue.poll());
+    }
+
+    @SuppressWarnings("unchecked")
+    private static StreamEvent event(int seconds) {
+        ChangeStreamDocument<Document> event = mock(ChangeStreamDocument.class);
+        when(event.getClusterTime()).thenReturn(new BsonTimestamp(seconds, 1));
+        when(event.getResumeToken()).thenReturn(new BsonDocument("_data", new BsonString("token-" + seconds)));
+        return StreamEvent.of(event);
+    }
+
+    @Test
+    void testCheckpointStaysBehindQueuedBacklogAfterCrash() {
+        TwoLaneQueue queue = new TwoLaneQueue(0.9);
+        LagTracker tracker = new LagTracker("lanes");
+        List<StreamEvent> checkpoints = new ArrayList<>();
+        for (int i = 1; i <= 4; i++) {
+            StreamEvent event = event(i);
+            LagTracker.Dispatch dispatch = tracker.dispatched(event, 1, true);
+            queue.offer(new LaneTask(() -> {
+                StreamEvent watermark = tracker.settled(dispatch, 1);
+                if (watermark != null) checkpoints.add(watermark);
+            }, i > 2));
+        }
+
+        // Only the fresh events run before the crash; the backlog is still queued
+        queue.poll().run();
+        queue.poll().run();
+        assertEquals(2, queue.backlogSize());
+        assertTrue(checkpoints.isEmpty());
+
+        // Once the backlog drains the watermark covers everything
+        queue.poll().run();
+        assertEquals(new BsonTimestamp(1, 1), checkpoints.get(0).clusterTime());
+        queue.poll().run();
+        assertEquals(new BsonTimestamp(4, 1), checkpoints.get(1).clusterTime());
+    }
+
+    @Test
+    void testFreshTaskWaitsBehindBacklogOfSameKey() {
+        TwoLaneQueue queue = new TwoLaneQueue(0.9);
+        BsonDocument key = new BsonDocument("_id", new BsonInt32(1));
+        LaneTask backlog = new LaneTask(() -> { }, false, Set.of(key));
+        LaneTask sameKey = new LaneTask(() -> { }, true, Set.of(key));
+        LaneTask otherKey = new LaneTask(() -> { }, true, Set.of(new BsonDocument("_id", new BsonInt32(2))));
+        queue.offer(backlog);
+        queue.offer(sameKey);
+        queue.offer(otherKey);
+
+        assertEquals(1, queue.freshSize());
+        assertSame(otherKey, queue.poll());
+        assertSame(backlog, queue.poll());
+        assertSame(sameKey, queue.poll());
+
+        // With the backlog drained, the key is fresh again
+        LaneTask later = new LaneTask(() -> { }, true, Set.of(key));
+        queue.offer(later);
+        assertEquals(1, queue.freshSize());
+    }
+}